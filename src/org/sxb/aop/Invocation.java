@@ -21,6 +21,8 @@ import java.lang.reflect.Method;
 
 import org.sxb.core.Action;
 import org.sxb.core.Controller;
+import org.sxb.plugin.metrics.ActionMetrics;
+import org.sxb.plugin.metrics.Metrics;
 
 import net.sf.cglib.proxy.MethodProxy;
 
@@ -42,6 +44,7 @@ public class Invocation {
 	private MethodProxy methodProxy;
 	private Interceptor[] inters;
 	private Object returnValue = null;
+	private ActionMetrics metrics;	// 未开启统计时为 null
 	
 	private int index = 0;
 	
@@ -54,6 +57,18 @@ public class Invocation {
 		this.inters = action.getInterceptors();
 		this.action = action;
 		this.args = NULL_ARGS;
+		if (Metrics.isEnabled())
+			this.metrics = action.getMetrics();
+	}
+	
+	/**
+	 * 从第 interceptorIndex 个拦截器开始调用，之前的拦截器被跳过，用于在后台重新执行 action
+	 */
+	public Invocation(Action action, Controller controller, int interceptorIndex) {
+		this(action, controller);
+		if (interceptorIndex < 0 || interceptorIndex > inters.length)
+			throw new IllegalArgumentException("interceptorIndex out of range: " + interceptorIndex);
+		this.index = interceptorIndex;
 	}
 	
 	public Invocation(Object target, Method method, Object[] args, MethodProxy methodProxy, Interceptor[] inters) {
@@ -66,14 +81,34 @@ public class Invocation {
 	
 	public void invoke() {
 		if (index < inters.length) {
-			inters[index++].intercept(this);
+			if (metrics == null) {
+				inters[index++].intercept(this);
+			}
+			else {
+				int i = index++;
+				long start = System.nanoTime();
+				try {
+					inters[i].intercept(this);
+				} finally {
+					metrics.recordInterceptor(i, System.nanoTime() - start);
+				}
+			}
 		}
 		else if (index++ == inters.length) {	// index++ ensure invoke action only one time
 			try {
 				// Invoke the action
 				if (action != null) {
-					
-					returnValue = action.getMethod().invoke(target, args);
+					if (metrics == null) {
+						returnValue = action.getInvoker().invoke(target, args);
+					}
+					else {
+						long start = System.nanoTime();
+						try {
+							returnValue = action.getInvoker().invoke(target, args);
+						} finally {
+							metrics.recordAction(System.nanoTime() - start);
+						}
+					}
 				}
 				// Invoke the method
 				else {
@@ -170,6 +205,15 @@ public class Invocation {
 		return (Controller)target;
 	}
 	
+	/**
+	 * Return the action of this invocation.
+	 */
+	public Action getAction() {
+		if (action == null)
+			throw new RuntimeException("This method can only be used for action interception");
+		return action;
+	}
+	
 	/**
 	 * Return the action key.
 	 * actionKey = controllerKey + methodName
@@ -19,6 +19,8 @@ package org.sxb.core;
 import java.lang.reflect.Method;
 
 import org.sxb.aop.Interceptor;
+import org.sxb.plugin.metrics.ActionMetrics;
+import org.sxb.plugin.metrics.Metrics;
 
 /**
  *［action］＝行为，也即是用户的一个操作
@@ -35,6 +37,11 @@ public class Action {
 	private final String methodName;
 	private final Interceptor[] interceptors;
 	private final String viewPath;
+	private final ActionInvoker invoker;
+	/** viewPath + methodName，预先拼接避免每次请求创建字符串 */
+	private final String defaultView;
+	/** 开启统计后第一次访问时创建 */
+	private volatile ActionMetrics metrics;
 	
 	public Action(String controllerKey, String actionKey, Class<? extends Controller> controllerClass, Method method, String methodName, Interceptor[] interceptors, String viewPath) {
 		this.controllerKey = controllerKey;
@@ -44,6 +51,8 @@ public class Action {
 		this.methodName = methodName;
 		this.interceptors = interceptors;
 		this.viewPath = viewPath;
+		this.invoker = ActionInvoker.create(controllerClass, method);
+		this.defaultView = viewPath + methodName;
 	}
 	
 	public Class<? extends Controller> getControllerClass() {
@@ -73,6 +82,35 @@ public class Action {
 	public String getMethodName() {
 		return methodName;
 	}
+	
+	/**
+	 * 未指定渲染器时使用的默认视图 (viewPath + methodName)
+	 */
+	public String getDefaultView() {
+		return defaultView;
+	}
+	
+	/**
+	 * 返回创建控制器并调用行为方法的调用器
+	 */
+	public ActionInvoker getInvoker() {
+		return invoker;
+	}
+	
+	/**
+	 * 返回该 action 的统计数据，不存在时创建
+	 */
+	public ActionMetrics getMetrics() {
+		ActionMetrics ret = metrics;
+		if (ret == null) {
+			synchronized (this) {
+				ret = metrics;
+				if (ret == null)
+					metrics = ret = Metrics.register(this);
+			}
+		}
+		return ret;
+	}
 }
 
 
@@ -22,9 +22,10 @@ import javax.servlet.http.HttpServletResponse;
 import org.sxb.aop.Invocation;
 import org.sxb.config.Constants;
 import org.sxb.handler.Handler;
-import org.sxb.http.server.ServletServerHttpRequest;
-import org.sxb.http.server.ServletServerHttpResponse;
 import org.sxb.log.Logger;
+import org.sxb.plugin.metrics.ActionMetrics;
+import org.sxb.plugin.metrics.CountingResponseWrapper;
+import org.sxb.plugin.metrics.Metrics;
 import org.sxb.render.Render;
 import org.sxb.render.RenderException;
 import org.sxb.render.RenderFactory;
@@ -75,6 +76,9 @@ final class ActionHandler extends Handler {
 		
 		isHandled[0] = true;
 		String[] urlPara = {null};
+		// 未开启统计时只多读一次 volatile 变量
+		final boolean metricsEnabled = Metrics.isEnabled();
+		final long start = metricsEnabled ? System.nanoTime() : 0L;
 		Action action = actionMapping.getAction(target, urlPara);
 		
 		// 找不到路由则返回404错误页
@@ -87,16 +91,22 @@ final class ActionHandler extends Handler {
 			return ;
 		}
 		
+		ActionMetrics metrics = null;
+		CountingResponseWrapper countingResponse = null;
+		if (metricsEnabled) {
+			metrics = action.getMetrics();
+			metrics.recordRoute(System.nanoTime() - start);
+			response = countingResponse = new CountingResponseWrapper(response);
+		}
+		boolean failed = true;
 		try {
 			// 找到路由，根据路由取得控制器类，并初始化
-			Controller controller = action.getControllerClass().newInstance();
+			Controller controller = action.getInvoker().newController();
 			// Common fileupload 加载  如果想让Sxb启用common fileupload模式时，打开此处的注释，一旦开启RelliyCos将无法使用请注意
 			//if(WebKits.isMultipart(request))
 				//request = MultiPartUtil.wrapMultiPartRequest(request, response);
-			ServletServerHttpRequest  rs = new ServletServerHttpRequest(request);
-			ServletServerHttpResponse  rp = new ServletServerHttpResponse(response);
-			//controller.init(request, response, urlPara[0]);
-			controller.init(rs, rp, urlPara[0]);
+			// ServletServerHttpRequest/Response 由 Controller 在需要时才创建
+			controller.init(request, response, urlPara[0]);
 			// 开发模式，则输出路由日志
 			// 否则直接调用相应的控制器方法，也就是路由到用户访问的方法
 			if (devMode) {
@@ -113,15 +123,23 @@ final class ActionHandler extends Handler {
 				String actionUrl = ((ActionRender)render).getActionUrl();
 				if (target.equals(actionUrl))
 					throw new RuntimeException("The forward action url is the same as before.");
-				else
-					handle(actionUrl, request, response, isHandled);
+				failed = false;
+				handle(actionUrl, request, response, isHandled);
 				return ;
 			}
 			// 如果渲染器为空， 则调用默认渲染器来处理
 			if (render == null)
-				render = renderFactory.getDefaultRender(action.getViewPath() + action.getMethodName());
+				render = renderFactory.getDefaultRender(action.getDefaultView());
 			// 执行对应视图渲染器，输出内容
-			render.setContext(request, response, action.getViewPath()).render();
+			if (metrics == null) {
+				render.setContext(request, response, action.getViewPath()).render();
+			}
+			else {
+				long renderStart = System.nanoTime();
+				render.setContext(request, response, action.getViewPath()).render();
+				metrics.recordRender(System.nanoTime() - renderStart);
+			}
+			failed = false;
 		}
 		catch(MaxUploadSizeExceededException e){
 			int errorCode = e.getErrorCode();
@@ -170,6 +188,10 @@ final class ActionHandler extends Handler {
 			}
 			renderFactory.getErrorRender(500).setContext(request, response, action.getViewPath()).render();
 		}
+		finally {
+			if (metrics != null)
+				metrics.recordRequest(System.nanoTime() - start, failed, countingResponse.getCount());
+		}
 	}
 }
 
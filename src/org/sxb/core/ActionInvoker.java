@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.core;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.sf.cglib.reflect.FastClass;
+import net.sf.cglib.reflect.FastMethod;
+
+/**
+ * 行为调用器
+ * 每个Action在buildActionMapping()时生成一次，负责创建控制器并调用行为方法。
+ * 默认使用cglib FastClass按索引直接调用，避免每次请求都走反射；
+ * 无法生成FastClass时（例如控制器没有可访问的无参构造器）退回到反射调用。
+ * ActionInvoker
+ */
+public abstract class ActionInvoker {
+
+	/**
+	 * 创建控制器实例
+	 */
+	public abstract Controller newController() throws InstantiationException, IllegalAccessException, InvocationTargetException;
+
+	/**
+	 * 调用行为方法，目标方法抛出的异常包装在InvocationTargetException中，与Method.invoke一致
+	 */
+	public abstract Object invoke(Object target, Object[] args) throws IllegalAccessException, InvocationTargetException;
+
+	/**
+	 * 创建控制器实例并用给定的请求初始化，用于在ActionHandler之外（例如后台线程）执行行为
+	 */
+	public Controller newController(HttpServletRequest request, HttpServletResponse response, String urlPara) throws InstantiationException, IllegalAccessException, InvocationTargetException {
+		Controller controller = newController();
+		controller.init(request, response, urlPara);
+		return controller;
+	}
+
+	public static ActionInvoker create(Class<? extends Controller> controllerClass, Method method) {
+		try {
+			FastClass fastClass = FastClass.create(controllerClass);
+			// 确认无参构造器与行为方法均可按索引调用，否则会在请求时才失败
+			if (fastClass.getIndex(new Class[0]) >= 0 && fastClass.getIndex(method.getName(), method.getParameterTypes()) >= 0)
+				return new FastActionInvoker(fastClass, fastClass.getMethod(method));
+		}
+		catch (RuntimeException e) {
+			// cglib 无法为该类生成代码，退回到反射
+		}
+		catch (LinkageError e) {
+			// 运行环境不允许cglib定义新类，退回到反射
+		}
+		return new ReflectActionInvoker(controllerClass, method);
+	}
+
+	/**
+	 * 基于cglib FastClass生成的字节码进行调用
+	 */
+	static final class FastActionInvoker extends ActionInvoker {
+
+		private final FastClass fastClass;
+		private final FastMethod fastMethod;
+
+		FastActionInvoker(FastClass fastClass, FastMethod fastMethod) {
+			this.fastClass = fastClass;
+			this.fastMethod = fastMethod;
+		}
+
+		public Controller newController() throws InvocationTargetException {
+			return (Controller)fastClass.newInstance();
+		}
+
+		public Object invoke(Object target, Object[] args) throws InvocationTargetException {
+			return fastMethod.invoke(target, args);
+		}
+	}
+
+	/**
+	 * 反射调用，仅在无法生成FastClass时使用
+	 */
+	static final class ReflectActionInvoker extends ActionInvoker {
+
+		private final Class<? extends Controller> controllerClass;
+		private final Method method;
+
+		ReflectActionInvoker(Class<? extends Controller> controllerClass, Method method) {
+			this.controllerClass = controllerClass;
+			this.method = method;
+		}
+
+		public Controller newController() throws InstantiationException, IllegalAccessException {
+			return controllerClass.newInstance();
+		}
+
+		public Object invoke(Object target, Object[] args) throws IllegalAccessException, InvocationTargetException {
+			return method.invoke(target, args);
+		}
+	}
+}
@@ -43,6 +43,7 @@ final class ActionMapping {
 	private Interceptors interceptors;
 	
 	private final Map<String, Action> mapping = new HashMap<String, Action>();
+	private volatile ActionTree actionTree = ActionTree.compile(mapping);
 	
 	ActionMapping(Routes routes, Interceptors interceptors) {
 		this.routes = routes;
@@ -118,6 +119,9 @@ final class ActionMapping {
 		Action action = mapping.get("/");
 		if (action != null)
 			mapping.put("", action);
+		
+		// 编译路由树，getAction()只读此树
+		actionTree = ActionTree.compile(mapping);
 	}
 	
 	/**
@@ -148,22 +152,11 @@ final class ActionMapping {
 	 * Example: http://abc.com/uvw/xyz/method/para
 	 */
 	Action getAction(String url, String[] urlPara) {
-		Action action = mapping.get(url);
-		if (action != null) {
-			return action;
-		}
-		
-		// --------
 		// 最后一个斜线后面的字符串，均当作url参数来处理，
 		// 在controller中可以用{@code getPara(0)}来取得
-		int i = url.lastIndexOf(SLASH);
-		if (i != -1) {
-			action = mapping.get(url.substring(0, i));
-			urlPara[0] = url.substring(i + 1);
-		}
-		
-		return action;
+		return actionTree.getAction(url, urlPara);
 	}
+	
 	/**
 	 * 获取所有操作
 	 * @return
@@ -0,0 +1,202 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * 路由基数树（radix tree）
+ * 在buildActionMapping()时一次性编译，之后只读，可被多线程安全共享。
+ * 查找时对url只做一次遍历，同时完成 controllerKey/method 与 urlPara 的匹配，
+ * 命中前不产生任何中间字符串。
+ * ActionTree
+ */
+final class ActionTree {
+
+	private static final char SLASH = '/';
+	private static final char[] EMPTY_CHARS = new char[0];
+	private static final Node[] EMPTY_NODES = new Node[0];
+
+	private final Node root;
+
+	private ActionTree(Node root) {
+		this.root = root;
+	}
+
+	/**
+	 * 根据 actionKey → Action 的映射编译出路由树
+	 */
+	static ActionTree compile(Map<String, Action> mapping) {
+		MutableNode root = new MutableNode(EMPTY_CHARS);
+		for (Entry<String, Action> e : mapping.entrySet())
+			root.insert(e.getKey().toCharArray(), 0, e.getValue());
+		return new ActionTree(root.freeze());
+	}
+
+	/**
+	 * 与 ActionMapping.getAction(String, String[]) 语义一致：
+	 * 先整体匹配url，匹配不到时以最后一个斜线为界，前半部分为actionKey，后半部分为urlPara
+	 */
+	Action getAction(String url, String[] urlPara) {
+		final int len = url.length();
+		final int lastSlash = url.lastIndexOf(SLASH);
+
+		Action atSlash = (lastSlash == 0) ? root.action : null;
+		Node node = root;
+		int pos = 0;
+		while (pos < len) {
+			Node child = node.child(url.charAt(pos));
+			if (child == null)
+				break ;
+
+			char[] label = child.label;
+			int end = pos + label.length;
+			if (end > len)
+				break ;
+			int i = 1;	// 首字符已经由child(char)匹配
+			while (i < label.length && label[i] == url.charAt(pos + i))
+				i++;
+			if (i != label.length)
+				break ;
+
+			node = child;
+			pos = end;
+			if (pos == lastSlash)
+				atSlash = node.action;
+		}
+
+		if (pos == len && node.action != null)
+			return node.action;
+
+		if (lastSlash != -1) {
+			urlPara[0] = url.substring(lastSlash + 1);
+			return atSlash;
+		}
+		return null;
+	}
+
+	/**
+	 * 编译后的只读节点，子节点按首字符排序以便二分查找
+	 */
+	private static final class Node {
+		final char[] label;
+		final Action action;
+		final char[] firstChars;
+		final Node[] children;
+
+		Node(char[] label, Action action, char[] firstChars, Node[] children) {
+			this.label = label;
+			this.action = action;
+			this.firstChars = firstChars;
+			this.children = children;
+		}
+
+		Node child(char c) {
+			char[] fc = firstChars;
+			int low = 0, high = fc.length - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				char m = fc[mid];
+				if (m < c)
+					low = mid + 1;
+				else if (m > c)
+					high = mid - 1;
+				else
+					return children[mid];
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * 构建期使用的可变节点
+	 */
+	private static final class MutableNode {
+		char[] label;
+		Action action;
+		List<MutableNode> children = new ArrayList<MutableNode>(2);
+
+		MutableNode(char[] label) {
+			this.label = label;
+		}
+
+		void insert(char[] key, int offset, Action value) {
+			if (offset == key.length) {
+				action = value;
+				return ;
+			}
+
+			for (MutableNode child : children) {
+				char[] cl = child.label;
+				if (cl[0] != key[offset])
+					continue ;
+
+				int common = 1;
+				while (common < cl.length && offset + common < key.length && cl[common] == key[offset + common])
+					common++;
+
+				// 公共前缀短于子节点的边，拆分子节点
+				if (common < cl.length) {
+					MutableNode tail = new MutableNode(copy(cl, common, cl.length));
+					tail.action = child.action;
+					tail.children = child.children;
+					child.label = copy(cl, 0, common);
+					child.action = null;
+					child.children = new ArrayList<MutableNode>(2);
+					child.children.add(tail);
+				}
+				child.insert(key, offset + common, value);
+				return ;
+			}
+
+			MutableNode leaf = new MutableNode(copy(key, offset, key.length));
+			leaf.action = value;
+			children.add(leaf);
+		}
+
+		Node freeze() {
+			int size = children.size();
+			if (size == 0)
+				return new Node(label, action, EMPTY_CHARS, EMPTY_NODES);
+
+			MutableNode[] sorted = children.toArray(new MutableNode[size]);
+			Arrays.sort(sorted, new Comparator<MutableNode>() {
+				public int compare(MutableNode a, MutableNode b) {
+					return a.label[0] - b.label[0];
+				}
+			});
+			char[] firstChars = new char[size];
+			Node[] nodes = new Node[size];
+			for (int i = 0; i < size; i++) {
+				firstChars[i] = sorted[i].label[0];
+				nodes[i] = sorted[i].freeze();
+			}
+			return new Node(label, action, firstChars, nodes);
+		}
+
+		private static char[] copy(char[] src, int from, int to) {
+			char[] ret = new char[to - from];
+			System.arraycopy(src, from, ret, 0, ret.length);
+			return ret;
+		}
+	}
+}
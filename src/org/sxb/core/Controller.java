@@ -67,8 +67,8 @@ public abstract class Controller {
 
 	private HttpServletRequest request;
 	private HttpServletResponse response;
+	/** 仅在使用时才创建的 request/response 包装，见 getServerHttpRequest() */
 	private ServletServerHttpRequest ssres;
-	@SuppressWarnings("unused")
 	private ServletServerHttpResponse ssrep;
 
 	private String urlPara;
@@ -194,17 +194,18 @@ public abstract class Controller {
 		JSONObject rst = null;
 		try {
 			//System.out.println(ssres.getHeaders().getContentType().getSubtype());
-			MediaType contentType = ssres.getHeaders().getContentType();
+			ServletServerHttpRequest input = getServerHttpRequest();
+			MediaType contentType = input.getHeaders().getContentType();
 //System.out.println("Jeffson->Head-Accept" + input.getHeaders().getAccept().toString());
 			System.out.println(contentType.toString());
 			if(contentType.includes(MediaType.TEXT_XML)){
 				
-				rst = (JSONObject)new MappingJackson2XmlHttpMessageConverter().read(JSONObject.class, ssres);
+				rst = (JSONObject)new MappingJackson2XmlHttpMessageConverter().read(JSONObject.class, input);
 				return  rst;
 			}
 			else if(contentType.includes(MediaType.APPLICATION_JSON)){
 				
-				return (JSONObject)new MappingJackson2HttpMessageConverter().read(JSONObject.class, ssres);
+				return (JSONObject)new MappingJackson2HttpMessageConverter().read(JSONObject.class, input);
 				// use alibaba fastJson jar
 				//rst = (JSONObject)new FastJsonHttpMessageConverter().read(JSONObject.class, input);
 			}
@@ -554,6 +555,27 @@ public abstract class Controller {
 		return response;
 	}
 
+	/**
+	 * Return ServletServerHttpRequest which provides the http headers and body
+	 * of the request. It is created on first use.
+	 * @return ServletServerHttpRequest
+	 */
+	public ServletServerHttpRequest getServerHttpRequest() {
+		if (ssres == null)
+			ssres = new ServletServerHttpRequest(request);
+		return ssres;
+	}
+
+	/**
+	 * Return ServletServerHttpResponse. It is created on first use.
+	 * @return ServletServerHttpResponse
+	 */
+	public ServletServerHttpResponse getServerHttpResponse() {
+		if (ssrep == null)
+			ssrep = new ServletServerHttpResponse(response);
+		return ssrep;
+	}
+
 	/**
 	 * Return HttpSession.
 	 * @return HttpSession
@@ -1534,6 +1556,17 @@ public abstract class Controller {
 		render = renderFactory.getFileRender(file);
 	}
 
+	/**
+	 * Render with file
+	 * @param file
+	 * 			download file
+	 * @param deleteAfterRender
+	 * 			true to delete the file after render, e.g. the temp file of Lob
+	 */
+	public void renderFile(File file, boolean deleteAfterRender) {
+		render = renderFactory.getFileRender(file, deleteAfterRender);
+	}
+
 	/**
 	 * Redirect to url
 	 * @param url
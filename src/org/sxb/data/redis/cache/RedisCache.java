@@ -19,19 +19,33 @@ package org.sxb.data.redis.cache;
 import static org.sxb.kit.Assert.*;
 import static org.sxb.kit.ObjectKits.*;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
 
 import org.sxb.data.exception.DataAccessException;
 import org.sxb.data.redis.connection.RedisConnection;
 import org.sxb.data.redis.connection.ReturnType;
+import org.sxb.data.redis.core.Cursor;
 import org.sxb.data.redis.core.RedisCallback;
 import org.sxb.data.redis.core.RedisOperations;
+import org.sxb.data.redis.core.ScanOptions;
+import org.sxb.data.redis.core.script.DigestUtils;
 import org.sxb.data.redis.serializer.RedisSerializer;
 import org.sxb.data.redis.serializer.StringRedisSerializer;
 
 /**
  * Cache implementation on top of Redis.
+ * <p>
+ * With a key prefix {@link #clear()} walks the keys with {@code SCAN} and removes them in batches, it never blocks the
+ * server with {@code KEYS}. Reads do not check the cache lock, writes only wait for it when the keys are tracked in the
+ * {@code ~keys} set (no prefix).
+ * <p>
+ * {@link #setUseGenerations(boolean)} additionally puts a generation number stored at {@code <name>~gen} into every
+ * key: get, put and evict resolve the generation inside Redis in the same round trip, and clear increments the
+ * generation so readers see an empty cache at once, the keys of older generations are removed afterwards.
  * 
  * @author Costin Leau
  * @author Christoph Strobl
@@ -40,6 +54,8 @@ import org.sxb.data.redis.serializer.StringRedisSerializer;
 @SuppressWarnings("unchecked")
 public class RedisCache implements Cache {
 
+	private static final StringRedisSerializer STRING_SERIALIZER = new StringRedisSerializer();
+
 	@SuppressWarnings("rawtypes")//
 	private final RedisOperations redisOperations;
 	private final RedisCacheMetadata cacheMetadata;
@@ -103,8 +119,16 @@ public class RedisCache implements Cache {
 		byte[] bytes = (byte[]) redisOperations.execute(new AbstractRedisCacheCallback<byte[]>(new BinaryRedisCacheElement(
 				new RedisCacheElement(cacheKey, null), cacheValueAccessor), cacheMetadata) {
 
+			@Override
+			protected boolean requiresLock() {
+				return false;
+			}
+
 			@Override
 			public byte[] doInRedis(BinaryRedisCacheElement element, RedisConnection connection) throws DataAccessException {
+				if (cacheMetadata.usesGenerations()) {
+					return evalInGeneration(GenerationScript.GET, element, connection);
+				}
 				return connection.get(element.getKeyBytes());
 			}
 		});
@@ -194,8 +218,35 @@ public class RedisCache implements Cache {
 	 * @see org.springframework.cache.Cache#clear()
 	 */
 	public void clear() {
-		redisOperations.execute(cacheMetadata.usesKeyPrefix() ? new RedisCacheCleanByPrefixCallback(cacheMetadata)
-				: new RedisCacheCleanByKeysCallback(cacheMetadata));
+		if (!cacheMetadata.usesKeyPrefix()) {
+			redisOperations.execute(new RedisCacheCleanByKeysCallback(cacheMetadata));
+		} else if (cacheMetadata.usesGenerations()) {
+			redisOperations.execute(new RedisCacheCleanByGenerationCallback(cacheMetadata));
+		} else {
+			redisOperations.execute(new RedisCacheCleanByScanCallback(cacheMetadata));
+		}
+	}
+
+	/**
+	 * Put the generation stored at {@code <name>~gen} into every key so {@link #clear()} only has to increment it. Keys
+	 * written without generation are removed by the next clear. Requires a key prefix.
+	 * 
+	 * @param useGenerations
+	 * @since 1.6
+	 */
+	public void setUseGenerations(boolean useGenerations) {
+		cacheMetadata.setUseGenerations(useGenerations);
+	}
+
+	/**
+	 * Remove keys with {@code UNLINK} instead of {@code DEL} when clearing, the memory is then freed in the background
+	 * of the server. Requires Redis 4.0 or later.
+	 * 
+	 * @param useUnlink
+	 * @since 1.6
+	 */
+	public void setUseUnlink(boolean useUnlink) {
+		cacheMetadata.setUseUnlink(useUnlink);
 	}
 
 	/*
@@ -231,7 +282,10 @@ public class RedisCache implements Cache {
 		private final byte[] keyPrefix;
 		private final byte[] setOfKnownKeys;
 		private final byte[] cacheLockName;
+		private final byte[] cacheGenerationName;
 		private long defaultExpiration = 0;
+		private volatile boolean useGenerations = false;
+		private volatile boolean useUnlink = false;
 
 		/**
 		 * @param cacheName must not be {@literal null} or empty.
@@ -248,6 +302,7 @@ public class RedisCache implements Cache {
 			// name of the set holding the keys
 			this.setOfKnownKeys = usesKeyPrefix() ? new byte[] {} : stringSerializer.serialize(cacheName + "~keys");
 			this.cacheLockName = stringSerializer.serialize(cacheName + "~lock");
+			this.cacheGenerationName = stringSerializer.serialize(cacheName + "~gen");
 		}
 
 		/**
@@ -284,6 +339,42 @@ public class RedisCache implements Cache {
 			return cacheLockName;
 		}
 
+		/**
+		 * Get the binary representation of the key holding the current generation of the cache.
+		 * 
+		 * @return never {@literal null}.
+		 */
+		public byte[] getCacheGenerationKey() {
+			return cacheGenerationName;
+		}
+
+		/**
+		 * @param useGenerations must be {@literal false} if no key prefix is used.
+		 */
+		public void setUseGenerations(boolean useGenerations) {
+
+			isTrue(!useGenerations || usesKeyPrefix(), "Generations require a key prefix!");
+			this.useGenerations = useGenerations;
+		}
+
+		/**
+		 * @return true if the keys contain the generation of the cache.
+		 */
+		public boolean usesGenerations() {
+			return useGenerations;
+		}
+
+		public void setUseUnlink(boolean useUnlink) {
+			this.useUnlink = useUnlink;
+		}
+
+		/**
+		 * @return true if keys are removed with {@code UNLINK} when clearing.
+		 */
+		public boolean usesUnlink() {
+			return useUnlink;
+		}
+
 		/**
 		 * Get the name of the cache.
 		 * 
@@ -405,7 +496,7 @@ public class RedisCache implements Cache {
 
 		private long WAIT_FOR_LOCK_TIMEOUT = 300;
 		private final BinaryRedisCacheElement element;
-		private final RedisCacheMetadata cacheMetadata;
+		protected final RedisCacheMetadata cacheMetadata;
 
 		public AbstractRedisCacheCallback(BinaryRedisCacheElement element, RedisCacheMetadata metadata) {
 			this.element = element;
@@ -418,12 +509,42 @@ public class RedisCache implements Cache {
 		 */
 		@Override
 		public T doInRedis(RedisConnection connection) throws DataAccessException {
-			waitForLock(connection);
+			if (requiresLock()) {
+				waitForLock(connection);
+			}
 			return doInRedis(element, connection);
 		}
 
 		public abstract T doInRedis(BinaryRedisCacheElement element, RedisConnection connection) throws DataAccessException;
 
+		/**
+		 * Only the {@code ~keys} set maintained without prefix has to be protected from a concurrent clear, prefixed keys
+		 * are removed by {@code SCAN} without lock.
+		 * 
+		 * @return true if the operation has to wait for the cache lock.
+		 */
+		protected boolean requiresLock() {
+			return !cacheMetadata.usesKeyPrefix();
+		}
+
+		/**
+		 * Run the script for the element in the current generation, args follow the prefix and the key without prefix.
+		 */
+		protected <R> R evalInGeneration(GenerationScript script, RedisCacheElement element, RedisConnection connection,
+				byte[]... args) {
+
+			byte[] prefix = cacheMetadata.getKeyPrefix();
+			byte[] keyBytes = element.getKeyBytes();
+
+			byte[][] keysAndArgs = new byte[3 + args.length][];
+			keysAndArgs[0] = cacheMetadata.getCacheGenerationKey();
+			keysAndArgs[1] = prefix;
+			keysAndArgs[2] = Arrays.copyOfRange(keyBytes, prefix.length, keyBytes.length);
+			System.arraycopy(args, 0, keysAndArgs, 3, args.length);
+
+			return script.eval(connection, keysAndArgs);
+		}
+
 		protected void processKeyExpiration(RedisCacheElement element, RedisConnection connection) {
 			if (!element.isEternal()) {
 				connection.expire(element.getKeyBytes(), element.getTimeToLive());
@@ -442,6 +563,10 @@ public class RedisCache implements Cache {
 			}
 		}
 
+		protected byte[] expirationBytes(RedisCacheElement element) {
+			return STRING_SERIALIZER.serialize(element.isEternal() ? "0" : Long.toString(element.getTimeToLive()));
+		}
+
 		protected void cleanKnownKeys(RedisCacheElement element, RedisConnection connection) {
 
 			if (!element.hasKeyPrefix()) {
@@ -545,35 +670,212 @@ public class RedisCache implements Cache {
 	}
 
 	/**
-	 * @author Christoph Strobl
-	 * @since 1.5
+	 * Removes the keys matching the prefix in batches while walking them with {@code SCAN}, so the server is never
+	 * blocked for the whole keyspace. Keys written while the walk is running may survive the clear.
+	 * 
+	 * @since 1.6
 	 */
-	static class RedisCacheCleanByPrefixCallback extends LockingRedisCacheCallback<Void> {
+	static class RedisCacheCleanByScanCallback implements RedisCallback<Void> {
 
-		private static final byte[] REMOVE_KEYS_BY_PATTERN_LUA = new StringRedisSerializer()
-				.serialize("local keys = redis.call('KEYS', ARGV[1]); local keysCount = table.getn(keys); if(keysCount > 0) then for _, key in ipairs(keys) do redis.call('del', key); end; end; return keysCount;");
-		private static final byte[] WILD_CARD = new StringRedisSerializer().serialize("*");
-		private final RedisCacheMetadata metadata;
+		private static final int BATCH_SIZE = 1000;
+		protected final RedisCacheMetadata metadata;
 
-		public RedisCacheCleanByPrefixCallback(RedisCacheMetadata metadata) {
-			super(metadata);
+		public RedisCacheCleanByScanCallback(RedisCacheMetadata metadata) {
 			this.metadata = metadata;
 		}
 
 		/*
 		 * (non-Javadoc)
-		 * @see org.springframework.data.redis.cache.RedisCache.LockingRedisCacheCallback#doInLock(org.springframework.data.redis.connection.RedisConnection)
+		 * @see org.springframework.data.redis.core.RedisCallback#doInRedis(org.springframework.data.redis.connection.RedisConnection)
 		 */
 		@Override
-		public Void doInLock(RedisConnection connection) throws DataAccessException {
+		public Void doInRedis(RedisConnection connection) throws DataAccessException {
+
+			removeKeys(connection);
+			return null;
+		}
 
-			byte[] prefixToUse = Arrays.copyOf(metadata.getKeyPrefix(), metadata.getKeyPrefix().length + WILD_CARD.length);
-			System.arraycopy(WILD_CARD, 0, prefixToUse, metadata.getKeyPrefix().length, WILD_CARD.length);
+		/**
+		 * @param key found by the scan.
+		 * @return true if the key has to be removed.
+		 */
+		protected boolean shouldRemove(byte[] key) {
+			return true;
+		}
 
-			connection.eval(REMOVE_KEYS_BY_PATTERN_LUA, ReturnType.INTEGER, 0, prefixToUse);
+		protected void removeKeys(RedisConnection connection) {
+
+			ScanOptions options = ScanOptions.scanOptions().match(escapeGlob(metadata.getKeyPrefix()) + "*")
+					.count(BATCH_SIZE).build();
+			List<byte[]> batch = new ArrayList<byte[]>(BATCH_SIZE);
+
+			Cursor<byte[]> cursor = connection.scan(options);
+			try {
+				while (cursor.hasNext()) {
+					byte[] key = cursor.next();
+					if (shouldRemove(key)) {
+						batch.add(key);
+						if (batch.size() >= BATCH_SIZE) {
+							remove(batch, connection);
+						}
+					}
+				}
+			} finally {
+				try {
+					cursor.close();
+				} catch (IOException e) {
+					// nothing to release
+				}
+			}
+			remove(batch, connection);
+		}
 
+		private void remove(List<byte[]> batch, RedisConnection connection) {
+
+			if (batch.isEmpty()) {
+				return;
+			}
+
+			byte[][] keys = batch.toArray(new byte[batch.size()][]);
+			if (metadata.usesUnlink()) {
+				connection.execute("UNLINK", keys);
+			} else {
+				connection.del(keys);
+			}
+			batch.clear();
+		}
+
+		private static String escapeGlob(byte[] prefix) {
+
+			String str = STRING_SERIALIZER.deserialize(prefix);
+			StringBuilder sb = new StringBuilder(str.length() + 8);
+			for (int i = 0; i < str.length(); i++) {
+				char c = str.charAt(i);
+				if (c == '*' || c == '?' || c == '[' || c == ']' || c == '\\') {
+					sb.append('\\');
+				}
+				sb.append(c);
+			}
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * Starts a new generation, which readers see at once as an empty cache, then removes the keys of older generations
+	 * with {@code SCAN}.
+	 * 
+	 * @since 1.6
+	 */
+	static class RedisCacheCleanByGenerationCallback extends RedisCacheCleanByScanCallback {
+
+		private long generation;
+
+		public RedisCacheCleanByGenerationCallback(RedisCacheMetadata metadata) {
+			super(metadata);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see org.sxb.data.redis.cache.RedisCache.RedisCacheCleanByScanCallback#doInRedis(org.sxb.data.redis.connection.RedisConnection)
+		 */
+		@Override
+		public Void doInRedis(RedisConnection connection) throws DataAccessException {
+
+			generation = connection.incr(metadata.getCacheGenerationKey());
+			removeKeys(connection);
 			return null;
 		}
+
+		/**
+		 * Keeps the keys of the new generation and of generations started by concurrent clears, removes older generations
+		 * and keys written without generation.
+		 */
+		@Override
+		protected boolean shouldRemove(byte[] key) {
+
+			if (Arrays.equals(key, metadata.getCacheGenerationKey())) {
+				return false;
+			}
+
+			int offset = metadata.getKeyPrefix().length;
+			int i = offset;
+			long keyGeneration = 0;
+			while (i < key.length && i - offset < 18 && key[i] >= '0' && key[i] <= '9') {
+				keyGeneration = keyGeneration * 10 + (key[i++] - '0');
+			}
+
+			if (i == offset || i >= key.length || key[i] != ':') {
+				return true;
+			}
+			return keyGeneration < generation;
+		}
+	}
+
+	/**
+	 * Lua script resolving the key of the current generation inside Redis: {@code KEYS[1]} is the generation key,
+	 * {@code ARGV[1]} the key prefix and {@code ARGV[2]} the key without prefix.
+	 * 
+	 * @since 1.6
+	 */
+	static final class GenerationScript {
+
+		private static final String KEY = "local key = ARGV[1] .. (redis.call('GET', KEYS[1]) or '0') .. ':' .. ARGV[2]; ";
+
+		static final GenerationScript GET = new GenerationScript(KEY + "return redis.call('GET', key)", ReturnType.VALUE);
+
+		/**
+		 * {@code ARGV[3]} value, {@code ARGV[4]} time to live in seconds, 0 for eternal
+		 */
+		static final GenerationScript PUT = new GenerationScript(KEY
+				+ "if tonumber(ARGV[4]) > 0 then redis.call('SETEX', key, ARGV[4], ARGV[3]) "
+				+ "else redis.call('SET', key, ARGV[3]) end; return 1", ReturnType.INTEGER);
+
+		/**
+		 * {@code ARGV[3]} value, {@code ARGV[4]} time to live in seconds, 0 for eternal. Returns the existing value or nil.
+		 */
+		static final GenerationScript PUT_IF_ABSENT = new GenerationScript(KEY
+				+ "if redis.call('SETNX', key, ARGV[3]) == 1 then "
+				+ "if tonumber(ARGV[4]) > 0 then redis.call('EXPIRE', key, ARGV[4]) end; return false end; "
+				+ "return redis.call('GET', key)", ReturnType.VALUE);
+
+		static final GenerationScript EVICT = new GenerationScript(KEY + "return redis.call('DEL', key)",
+				ReturnType.INTEGER);
+
+		private final byte[] script;
+		private final String sha1;
+		private final ReturnType returnType;
+
+		private GenerationScript(String script, ReturnType returnType) {
+			this.script = STRING_SERIALIZER.serialize(script);
+			this.sha1 = DigestUtils.sha1DigestAsHex(script);
+			this.returnType = returnType;
+		}
+
+		/**
+		 * {@code EVALSHA}, falls back to {@code EVAL} if the server does not know the script yet.
+		 */
+		<T> T eval(RedisConnection connection, byte[]... keysAndArgs) {
+
+			try {
+				return connection.evalSha(sha1, returnType, 1, keysAndArgs);
+			} catch (DataAccessException e) {
+				if (!isNoScript(e)) {
+					throw e;
+				}
+				return connection.eval(script, returnType, 1, keysAndArgs);
+			}
+		}
+
+		private static boolean isNoScript(Throwable e) {
+
+			for (Throwable current = e; current != null; current = current.getCause()) {
+				String message = current.getMessage();
+				if (message != null && message.contains("NOSCRIPT")) {
+					return true;
+				}
+			}
+			return false;
+		}
 	}
 
 	/**
@@ -593,6 +895,11 @@ public class RedisCache implements Cache {
 		@Override
 		public Void doInRedis(BinaryRedisCacheElement element, RedisConnection connection) throws DataAccessException {
 
+			if (cacheMetadata.usesGenerations()) {
+				evalInGeneration(GenerationScript.EVICT, element, connection);
+				return null;
+			}
+
 			connection.del(element.getKeyBytes());
 			cleanKnownKeys(element, connection);
 			return null;
@@ -617,6 +924,11 @@ public class RedisCache implements Cache {
 		@Override
 		public Void doInRedis(BinaryRedisCacheElement element, RedisConnection connection) throws DataAccessException {
 
+			if (cacheMetadata.usesGenerations()) {
+				evalInGeneration(GenerationScript.PUT, element, connection, element.get(), expirationBytes(element));
+				return null;
+			}
+
 			connection.multi();
 
 			connection.set(element.getKeyBytes(), element.get());
@@ -646,7 +958,11 @@ public class RedisCache implements Cache {
 		@Override
 		public byte[] doInRedis(BinaryRedisCacheElement element, RedisConnection connection) throws DataAccessException {
 
-			waitForLock(connection);
+			if (cacheMetadata.usesGenerations()) {
+				return evalInGeneration(GenerationScript.PUT_IF_ABSENT, element, connection, element.get(),
+						expirationBytes(element));
+			}
+
 			byte[] resultValue = put(element, connection);
 
 			if (nullSafeEquals(element.get(), resultValue)) {
@@ -61,6 +61,8 @@ public class RedisCacheManager extends AbstractTransactionSupportingCacheManager
 	private RedisCachePrefix cachePrefix = new DefaultRedisCachePrefix();
 	private boolean loadRemoteCachesOnStartup = false;
 	private boolean dynamic = true;
+	private boolean useGenerations = false;
+	private boolean useUnlink = false;
 
 	// 0 - never expire
 	private long defaultExpiration = 0;
@@ -130,6 +132,27 @@ public class RedisCacheManager extends AbstractTransactionSupportingCacheManager
 		this.cachePrefix = cachePrefix;
 	}
 
+	/**
+	 * Put a generation number into the keys so clearing a cache is a single {@code INCR} for readers, see
+	 * {@link RedisCache#setUseGenerations(boolean)}. Requires {@link #setUsePrefix(boolean)}.
+	 * 
+	 * @param useGenerations
+	 * @since 1.6
+	 */
+	public void setUseGenerations(boolean useGenerations) {
+		this.useGenerations = useGenerations;
+	}
+
+	/**
+	 * Remove keys with {@code UNLINK} instead of {@code DEL} when clearing a cache. Requires Redis 4.0 or later.
+	 * 
+	 * @param useUnlink
+	 * @since 1.6
+	 */
+	public void setUseUnlink(boolean useUnlink) {
+		this.useUnlink = useUnlink;
+	}
+
 	/**
 	 * Sets the default expire time (in seconds).
 	 * 
@@ -212,7 +235,11 @@ public class RedisCacheManager extends AbstractTransactionSupportingCacheManager
 	@SuppressWarnings("unchecked")
 	protected RedisCache createCache(String cacheName) {
 		long expiration = computeExpiration(cacheName);
-		return new RedisCache(cacheName, (usePrefix ? cachePrefix.prefix(cacheName) : null), redisOperations, expiration);
+		RedisCache cache = new RedisCache(cacheName, (usePrefix ? cachePrefix.prefix(cacheName) : null), redisOperations,
+				expiration);
+		cache.setUseGenerations(useGenerations);
+		cache.setUseUnlink(useUnlink);
+		return cache;
 	}
 
 	protected long computeExpiration(String name) {
@@ -70,6 +70,7 @@ import redis.clients.jedis.Jedis;
 import redis.clients.jedis.Pipeline;
 import redis.clients.jedis.Protocol;
 import redis.clients.jedis.Protocol.Command;
+import redis.clients.jedis.ProtocolCommand;
 import redis.clients.jedis.Queable;
 import redis.clients.jedis.Response;
 import redis.clients.jedis.ScanParams;
@@ -79,6 +80,7 @@ import redis.clients.jedis.Transaction;
 import redis.clients.jedis.ZParams;
 import redis.clients.jedis.exceptions.JedisDataException;
 import redis.clients.util.Pool;
+import redis.clients.util.SafeEncoder;
 
 /**
  * {@code RedisConnection} implementation on top of <a href="http://github.com/xetorthio/jedis">Jedis</a> library.
@@ -223,7 +225,7 @@ public class JedisConnection extends AbstractRedisConnection {
 				Collections.addAll(mArgs, args);
 			}
 
-			ReflectionKits.invokeMethod(SEND_COMMAND, client, Command.valueOf(command.trim().toUpperCase()),
+			ReflectionKits.invokeMethod(SEND_COMMAND, client, toCommand(command),
 					mArgs.toArray(new byte[mArgs.size()][]));
 			if (isQueueing() || isPipelined()) {
 				Object target = (isPipelined() ? pipeline : transaction);
@@ -251,6 +253,23 @@ public class JedisConnection extends AbstractRedisConnection {
 		}
 	}
 
+	/**
+	 * Commands unknown to the Jedis version in use (e.g. {@code UNLINK}) are sent by name.
+	 */
+	private static Object toCommand(String command) {
+
+		final String name = command.trim().toUpperCase();
+		try {
+			return Command.valueOf(name);
+		} catch (IllegalArgumentException e) {
+			return new ProtocolCommand() {
+				public byte[] getRaw() {
+					return SafeEncoder.encode(name);
+				}
+			};
+		}
+	}
+
 	public void close() throws DataAccessException {
 		super.close();
 		// return the connection to the pool
@@ -3219,9 +3238,9 @@ public class JedisConnection extends AbstractRedisConnection {
 				}
 
 				ScanParams params = prepareScanParams(options);
-				redis.clients.jedis.ScanResult<String> result = jedis.scan(Long.toString(cursorId), params);
-				return new ScanIteration<byte[]>(Long.valueOf(result.getStringCursor()), JedisConverters.stringListToByteList()
-						.convert(result.getResult()));
+				// binary scan, keys written by a binary serializer are not valid UTF-8
+				redis.clients.jedis.ScanResult<byte[]> result = jedis.scan(JedisConverters.toBytes(cursorId), params);
+				return new ScanIteration<byte[]>(Long.valueOf(result.getStringCursor()), result.getResult());
 			}
 
 		}.open();
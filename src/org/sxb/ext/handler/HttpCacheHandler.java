@@ -1,51 +1,281 @@
 package org.sxb.ext.handler;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.sxb.core.Sxb;
 import org.sxb.handler.Handler;
-import org.sxb.kit.StrKit;
+import org.sxb.kit.PathKit;
 /**
- * 静态资源压缩缓存控制器
- * 缓存压缩指定时间内的静态资源例如：
- * (css,js,jpeg,gif)等
+ * 静态资源缓存控制器
+ * 对 web 根目录下的静态资源(css,js,jpeg,gif)等输出稳定的 ETag / Last-Modified，
+ * 并根据 If-None-Match / If-Modified-Since 返回 304。
+ * ETag 由文件大小和最后修改时间生成，按路径缓存在内存中，每隔 checkInterval 毫秒重新检查一次文件。
+ * 开启 precompressed 后，如果客户端支持并且存在 .br / .gz 文件，则直接输出压缩文件。
+ * 只处理 setExtensions(...) 中的扩展名，.jsp / .jspx 等交给容器执行，永远不会直接输出。
+ * 带 Range 的请求在 304 判断之后交给容器，由 default servlet 处理断点续传。
+ * <pre>
+ * Example: me.add(new HttpCacheHandler(30 * 24 * 3600L, true));
+ * </pre>
  * @author Sun
- *
- * 未完成  not finished yet
  */
 public class HttpCacheHandler extends Handler{
 
-	// 默认MAX_AGE：一个月
-	private long MAX_AGE = 0L;
+	// 默认MAX_AGE：一个月（秒）
+	private long MAX_AGE = 30 * 24 * 3600L;
+	private final boolean precompressed;
+	private long checkInterval = 1000L;
+	private volatile Set<String> extensions = toSet("css", "js", "map", "png", "jpg", "jpeg", "gif", "ico", "svg", "webp", "bmp",
+		"woff", "woff2", "ttf", "otf", "eot", "txt", "html", "htm", "xml", "json", "pdf", "mp3", "mp4", "webm", "ogg", "wav", "zip");
 	
+	/** 由 servlet 执行的扩展名，即使加入 extensions 也不会直接输出 */
+	private static final Set<String> SERVLET_EXTENSIONS = toSet("jsp", "jspx", "jspf");
+
+	private final ConcurrentHashMap<String, Resource> resources = new ConcurrentHashMap<String, Resource>();
+
+	/**
+	 * @param maxAge Cache-Control max-age in seconds
+	 */
 	public HttpCacheHandler(Long maxAge){
+		this(maxAge, false);
+	}
+
+	/**
+	 * @param maxAge Cache-Control max-age in seconds
+	 * @param precompressed serve .br / .gz siblings if the client accepts them
+	 */
+	public HttpCacheHandler(Long maxAge, boolean precompressed){
 		super();
-		MAX_AGE = maxAge;
+		if (maxAge != null)
+			MAX_AGE = maxAge;
+		this.precompressed = precompressed;
+	}
+
+	/**
+	 * 重新检查文件大小与修改时间的间隔（毫秒），0 表示每次请求都检查
+	 */
+	public HttpCacheHandler setCheckInterval(long checkInterval) {
+		this.checkInterval = checkInterval;
+		return this;
+	}
+
+	/**
+	 * 设置需要处理的静态资源扩展名（不含点，忽略大小写），替换默认列表
+	 */
+	public HttpCacheHandler setExtensions(String... extensions) {
+		if (extensions == null)
+			throw new IllegalArgumentException("extensions can not be null");
+		this.extensions = toSet(extensions);
+		return this;
+	}
+
+	private static Set<String> toSet(String... extensions) {
+		Set<String> set = new HashSet<String>();
+		for (String ext : extensions)
+			set.add(ext.toLowerCase(Locale.ENGLISH));
+		return set;
 	}
 
 	@Override
 	public void handle(String target, HttpServletRequest request,
 	        HttpServletResponse response, boolean[] isHandled) {
-	    // 最后修改时间
-	    long ims = request.getDateHeader("If-Modified-Since");
-	    long now = System.currentTimeMillis();
-	    // 进一步ETag文件MD5比较"If-None-Match" eq "ETag" 
-	    // String token = request.getHeader("If-None-Match");
-	    // 如果header头没有过期
-	    if(ims + MAX_AGE > now){
-	        isHandled[0] = true;
-	        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
-	        return;
-	    }
-	    nextHandler.handle(target, request, response, isHandled);
-	    // 去除对页面的缓存，造成后台进不去
-	    // 验证是否静态文件 静态文件缓存30天
-	    if(target.indexOf(".") > 0 || target.endsWith("/combo")){
-	        // 新生成http cache头信息
-	        response.setHeader("ETag", StrKit.getToken());
-	        response.setHeader("Cache-Control", "max-age=" + MAX_AGE);
-	        response.addDateHeader("Expires", now + MAX_AGE);
-	        response.addDateHeader("Last-Modified", now);
-	    }
+		String method = request.getMethod();
+		Resource resource = ("GET".equals(method) || "HEAD".equals(method)) ? getResource(target) : null;
+		if (resource == null) {
+			nextHandler.handle(target, request, response, isHandled);
+			return;
+		}
+
+		Variant variant = resource.select(precompressed ? request.getHeader("Accept-Encoding") : null);
+		response.setHeader("ETag", variant.etag);
+		response.setDateHeader("Last-Modified", resource.lastModified);
+		response.setHeader("Cache-Control", "max-age=" + MAX_AGE);
+		if (precompressed)
+			response.setHeader("Vary", "Accept-Encoding");
+
+		if (isNotModified(request, variant.etag, resource.lastModified)) {
+			isHandled[0] = true;
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		if (request.getHeader("Range") != null) {	// partial content by the container
+			nextHandler.handle(target, request, response, isHandled);
+			return;
+		}
+
+		isHandled[0] = true;
+
+		ServletContext servletContext = Sxb.me().getServletContext();
+		String contentType = servletContext != null ? servletContext.getMimeType(resource.file.getName()) : null;
+		if (contentType != null)
+			response.setContentType(contentType);
+		if (variant.encoding != null)
+			response.setHeader("Content-Encoding", variant.encoding);
+		response.setHeader("Content-Length", String.valueOf(variant.length));
+		if ("HEAD".equals(method))
+			return;
+
+		writeFile(variant.file, response);
+	}
+
+	/**
+	 * If-None-Match 优先，没有时才比较 If-Modified-Since（秒精度）
+	 */
+	private boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null)
+			return matches(ifNoneMatch, etag);
+
+		long ims;
+		try {
+			ims = request.getDateHeader("If-Modified-Since");
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+		return ims != -1 && lastModified / 1000 <= ims / 1000;
+	}
+
+	/**
+	 * If-None-Match 使用弱比较，支持 * 及逗号分隔的多个 ETag
+	 */
+	private static boolean matches(String ifNoneMatch, String etag) {
+		for (String tag : ifNoneMatch.split(",")) {
+			tag = tag.trim();
+			if (tag.startsWith("W/"))
+				tag = tag.substring(2);
+			if ("*".equals(tag) || etag.equals(tag))
+				return true;
+		}
+		return false;
+	}
+
+	private Resource getResource(String target) {
+		if (!isStaticExtension(target) || target.contains("..") || isProtected(target))
+			return null;
+
+		long now = System.currentTimeMillis();
+		Resource resource = resources.get(target);
+		if (resource != null && now - resource.checkedAt < checkInterval)
+			return resource;
+
+		File file = new File(PathKit.getWebRootPath(), target);
+		if (!file.isFile()) {
+			if (resource != null)
+				resources.remove(target);
+			return null;
+		}
+
+		long length = file.length();
+		long lastModified = file.lastModified();
+		if (resource != null && resource.length == length && resource.lastModified == lastModified) {
+			resource.checkedAt = now;
+			return resource;
+		}
+
+		resource = new Resource(file, length, lastModified, precompressed, now);
+		resources.put(target, resource);
+		return resource;
+	}
+
+	private boolean isStaticExtension(String target) {
+		int dot = target.lastIndexOf('.');
+		if (dot == -1 || dot < target.lastIndexOf('/'))
+			return false;
+		String ext = target.substring(dot + 1).toLowerCase(Locale.ENGLISH);
+		return !SERVLET_EXTENSIONS.contains(ext) && extensions.contains(ext);
+	}
+
+	private static boolean isProtected(String target) {
+		String upper = target.toUpperCase();
+		return upper.startsWith("/WEB-INF") || upper.startsWith("/META-INF");
+	}
+
+	private static void writeFile(File file, HttpServletResponse response) {
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			OutputStream out = response.getOutputStream();
+			byte[] buffer = new byte[8192];
+			for (int len; (len = in.read(buffer)) != -1;)
+				out.write(buffer, 0, len);
+			out.flush();
+		} catch (IOException e) {
+			// client aborted
+		} finally {
+			if (in != null)
+				try {in.close();} catch (IOException e) {}
+		}
+	}
+
+	/**
+	 * 同一资源的一种编码形式
+	 */
+	private static final class Variant {
+		final File file;
+		final long length;
+		final String etag;
+		final String encoding;
+
+		Variant(File file, String etag, String encoding) {
+			this.file = file;
+			this.length = file.length();
+			this.etag = etag;
+			this.encoding = encoding;
+		}
+	}
+
+	/**
+	 * 缓存的静态资源信息
+	 */
+	private static final class Resource {
+		final File file;
+		final long length;
+		final long lastModified;
+		final Variant identity;
+		final Variant gzip;
+		final Variant br;
+		volatile long checkedAt;
+
+		Resource(File file, long length, long lastModified, boolean precompressed, long checkedAt) {
+			this.file = file;
+			this.length = length;
+			this.lastModified = lastModified;
+			this.checkedAt = checkedAt;
+
+			String tag = Long.toHexString(length) + "-" + Long.toHexString(lastModified);
+			this.identity = new Variant(file, "\"" + tag + "\"", null);
+			this.gzip = precompressed ? variant(file, ".gz", tag, "gzip") : null;
+			this.br = precompressed ? variant(file, ".br", tag, "br") : null;
+		}
+
+		/**
+		 * 压缩文件必须不旧于原文件，否则忽略
+		 */
+		private static Variant variant(File file, String suffix, String tag, String encoding) {
+			File f = new File(file.getPath() + suffix);
+			if (!f.isFile() || f.lastModified() < file.lastModified())
+				return null;
+			return new Variant(f, "\"" + tag + "-" + encoding + "\"", encoding);
+		}
+
+		Variant select(String acceptEncoding) {
+			if (acceptEncoding != null) {
+				if (br != null && acceptEncoding.contains("br"))
+					return br;
+				if (gzip != null && acceptEncoding.contains("gzip"))
+					return gzip;
+			}
+			return identity;
+		}
 	}
 }
@@ -16,20 +16,504 @@
 
 package org.sxb.ext.render;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.sxb.kit.HashKit;
+import org.sxb.kit.PathKit;
+import org.sxb.log.Logger;
+import org.sxb.render.FreeMarkerRender;
+import org.sxb.render.JspRender;
 import org.sxb.render.Render;
+import org.sxb.render.RenderException;
+import org.sxb.render.RenderFactory;
+import org.sxb.render.VelocityRender;
 
 /**
  * 生成静态 html<br>
- * Not finished yet
+ * 将被包装的 FreeMarker/Velocity/Jsp 等渲染结果保存到静态文件，
+ * 之后的请求在有效期内直接输出该文件。过期后继续输出旧文件，同时在后台重新生成
+ * （stale-while-revalidate）。
+ * <pre>
+ * Example:
+ * StaticHtmlRender.setBaseDirectory("/var/cache/html");
+ * render(new StaticHtmlRender("index.html", 300));
+ * StaticHtmlRender.invalidate("/blog/12");
+ * </pre>
+ * 后台重新生成使用按 view 新建的 Render，不与当前请求共用被包装的 render。
+ * Jsp 依赖请求转发，无法在请求结束后渲染，因此过期时在当前请求中同步重新生成，
+ * 无法按 view 新建的 Render 也同样处理。
+ * 只有状态为 200 的渲染结果才会保存到文件。
  */
 public class StaticHtmlRender extends Render {
 	
+	private static final Logger log = Logger.getLogger(StaticHtmlRender.class);
+	private static final String FILE_EXTENSION = ".html";
+	
+	private static String baseDirectory = PathKit.getWebRootPath() + File.separator + "WEB-INF" + File.separator + "static_html";
+	private static int defaultTimeToLive = 600;
+	
+	/** 正在后台重新生成的 cacheKey */
+	private static final Map<String, Boolean> regenerating = new ConcurrentHashMap<String, Boolean>();
+	private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 2, 60, TimeUnit.SECONDS,
+		new LinkedBlockingQueue<Runnable>(256), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "StaticHtmlRender");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	
+	private final Render render;
+	private final int timeToLive;
+	private String cacheKey;
+	
+	public StaticHtmlRender(Render render) {
+		this(render, defaultTimeToLive);
+	}
+	
+	/**
+	 * @param render the render whose output will be cached
+	 * @param timeToLive seconds before the cached file becomes stale
+	 */
+	public StaticHtmlRender(Render render, int timeToLive) {
+		if (render == null)
+			throw new IllegalArgumentException("The parameter render can not be null.");
+		this.render = render;
+		this.timeToLive = timeToLive;
+	}
+	
+	public StaticHtmlRender(String view) {
+		this(RenderFactory.me().getRender(view), defaultTimeToLive);
+	}
+	
+	public StaticHtmlRender(String view, int timeToLive) {
+		this(RenderFactory.me().getRender(view), timeToLive);
+	}
+	
+	/**
+	 * 设置缓存的 key，默认为 requestURI + queryString
+	 */
+	public StaticHtmlRender setCacheKey(String cacheKey) {
+		this.cacheKey = cacheKey;
+		return this;
+	}
+	
+	public static void setBaseDirectory(String baseDirectory) {
+		if (baseDirectory == null)
+			throw new IllegalArgumentException("baseDirectory can not be null.");
+		StaticHtmlRender.baseDirectory = baseDirectory;
+	}
+	
+	public static String getBaseDirectory() {
+		return baseDirectory;
+	}
+	
+	/**
+	 * 默认有效期（秒）
+	 */
+	public static void setDefaultTimeToLive(int seconds) {
+		StaticHtmlRender.defaultTimeToLive = seconds;
+	}
+	
+	/**
+	 * 删除缓存文件，下一次请求同步重新生成
+	 */
+	public static void invalidate(String cacheKey) {
+		getFile(cacheKey).delete();
+	}
+	
+	/**
+	 * 删除全部缓存文件
+	 */
+	public static void invalidateAll() {
+		File[] files = new File(baseDirectory).listFiles();
+		if (files != null)
+			for (File file : files)
+				if (file.getName().endsWith(FILE_EXTENSION))
+					file.delete();
+	}
+	
+	/**
+	 * 将缓存文件标记为过期，下一次请求仍输出旧文件并在后台重新生成
+	 */
+	public static void expire(String cacheKey) {
+		File file = getFile(cacheKey);
+		if (file.isFile())
+			file.setLastModified(0);
+	}
+	
+	public Render setContext(HttpServletRequest request, HttpServletResponse response) {
+		render.setContext(request, response);
+		return super.setContext(request, response);
+	}
+	
+	public Render setContext(HttpServletRequest request, HttpServletResponse response, String viewPath) {
+		render.setContext(request, response, viewPath);
+		return super.setContext(request, response, viewPath);
+	}
+	
 	public void render() {
-		throw new RuntimeException("Not finish!!!");
+		String key = cacheKey != null ? cacheKey : buildCacheKey(request);
+		File file = getFile(key);
+		if (!file.isFile()) {
+			renderAndStore(file);
+			return ;
+		}
+		
+		boolean stale = System.currentTimeMillis() - file.lastModified() > timeToLive * 1000L;	// expire(...) sets it to 0
+		if (stale) {
+			Render backgroundRender = newRender();
+			if (backgroundRender == null) {
+				renderAndStore(file);
+				return ;
+			}
+			regenerate(key, file, backgroundRender);
+		}
+		
+		if (!serveFile(file)) {
+			// 文件在检查之后被删除
+			renderAndStore(file);
+		}
+	}
+	
+	/**
+	 * 在当前请求中渲染，状态为 200 时保存到文件
+	 */
+	private void renderAndStore(File file) {
+		CaptureResponseWrapper capture = renderToCapture(render, request, response);
+		byte[] html = capture.toByteArray();
+		if (capture.status == HttpServletResponse.SC_OK)
+			writeFile(file, html);
+		if (!capture.sent)
+			writeResponse(html);
+	}
+	
+	private static String buildCacheKey(HttpServletRequest request) {
+		String qs = request.getQueryString();
+		return qs == null ? request.getRequestURI() : request.getRequestURI() + "?" + qs;
+	}
+	
+	private static File getFile(String cacheKey) {
+		return new File(baseDirectory, HashKit.md5(cacheKey) + FILE_EXTENSION);
+	}
+	
+	/**
+	 * 按 view 新建与被包装的 render 同类的 Render，供后台线程独占使用，无法新建时返回 null
+	 */
+	private Render newRender() {
+		String view = render.getView();	// setContext(..., viewPath) 之后已包含 viewPath
+		if (view == null || render instanceof JspRender)
+			return null;
+		
+		Render ret = RenderFactory.me().getRender(view);
+		if (ret.getClass() == render.getClass())
+			return ret;
+		if (render.getClass() == FreeMarkerRender.class)
+			return new FreeMarkerRender(view);
+		if (render.getClass() == VelocityRender.class)
+			return new VelocityRender(view);
+		return null;
+	}
+	
+	/**
+	 * 在后台线程中用 backgroundRender 重新生成，同一 key 同时只有一个任务
+	 */
+	private void regenerate(final String key, final File file, final Render backgroundRender) {
+		if (regenerating.put(key, Boolean.TRUE) != null)
+			return ;
+		
+		final Map<String, Object> attrs = new HashMap<String, Object>();
+		for (Enumeration<String> names = request.getAttributeNames(); names.hasMoreElements();) {
+			String name = names.nextElement();
+			attrs.put(name, request.getAttribute(name));
+		}
+		final String characterEncoding = request.getCharacterEncoding();
+		
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						HttpServletRequest detachedRequest = detachedRequest(attrs, characterEncoding);
+						HttpServletResponse detachedResponse = detachedResponse();
+						CaptureResponseWrapper capture = renderToCapture(backgroundRender, detachedRequest, detachedResponse);
+						if (capture.status == HttpServletResponse.SC_OK)
+							writeFile(file, capture.toByteArray());
+						else
+							log.warn("Static html is not regenerated, status " + capture.status + ": " + key);
+					}
+					catch (Exception e) {
+						log.error("Can not regenerate static html: " + key, e);
+					}
+					finally {
+						regenerating.remove(key);
+					}
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			regenerating.remove(key);
+		}
+	}
+	
+	private static CaptureResponseWrapper renderToCapture(Render render, HttpServletRequest request, HttpServletResponse response) {
+		CaptureResponseWrapper capture = new CaptureResponseWrapper(response);
+		render.setContext(request, capture);
+		render.render();
+		return capture;
+	}
+	
+	/**
+	 * 先写入临时文件再改名，保证读取方不会读到写了一半的文件
+	 */
+	private static void writeFile(File file, byte[] html) {
+		File dir = file.getParentFile();
+		if (!dir.exists())
+			dir.mkdirs();
+		
+		File temp = new File(dir, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(temp);
+			out.write(html);
+			out.close();
+			out = null;
+			if (!temp.renameTo(file)) {
+				file.delete();
+				if (!temp.renameTo(file))
+					throw new IOException("Can not rename " + temp + " to " + file);
+			}
+		}
+		catch (IOException e) {
+			temp.delete();
+			log.error("Can not write static html: " + file, e);
+		}
+		finally {
+			if (out != null)
+				try {out.close();} catch (IOException e) {}
+		}
+	}
+	
+	private void writeResponse(byte[] html) {
+		response.setContentType("text/html; charset=" + getEncoding());
+		response.setContentLength(html.length);
+		OutputStream out = null;
+		try {
+			out = response.getOutputStream();
+			out.write(html);
+			out.flush();
+		}
+		catch (IOException e) {
+			throw new RenderException(e);
+		}
+		finally {
+			if (out != null)
+				try {out.close();} catch (IOException e) {}
+		}
+	}
+	
+	/**
+	 * @return false if the file has gone
+	 */
+	private boolean serveFile(File file) {
+		InputStream in = null;
+		try {
+			in = new FileInputStream(file);
+		}
+		catch (IOException e) {
+			return false;
+		}
+		
+		OutputStream out = null;
+		try {
+			response.setContentType("text/html; charset=" + getEncoding());
+			response.setContentLength((int)file.length());
+			out = response.getOutputStream();
+			byte[] buffer = new byte[8192];
+			for (int len; (len = in.read(buffer)) != -1;)
+				out.write(buffer, 0, len);
+			out.flush();
+			return true;
+		}
+		catch (IOException e) {
+			throw new RenderException(e);
+		}
+		finally {
+			try {in.close();} catch (IOException e) {}
+			if (out != null)
+				try {out.close();} catch (IOException e) {}
+		}
+	}
+	
+	/**
+	 * 请求结束后用于后台渲染的请求对象，只支持 attribute 相关方法
+	 */
+	private static HttpServletRequest detachedRequest(final Map<String, Object> attrs, final String characterEncoding) {
+		return (HttpServletRequest)Proxy.newProxyInstance(StaticHtmlRender.class.getClassLoader(), new Class<?>[]{HttpServletRequest.class}, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				String name = method.getName();
+				if ("getAttribute".equals(name))
+					return attrs.get(args[0]);
+				if ("getAttributeNames".equals(name))
+					return Collections.enumeration(attrs.keySet());
+				if ("setAttribute".equals(name)) {
+					attrs.put((String)args[0], args[1]);
+					return null;
+				}
+				if ("removeAttribute".equals(name)) {
+					attrs.remove(args[0]);
+					return null;
+				}
+				if ("getCharacterEncoding".equals(name))
+					return characterEncoding;
+				if ("toString".equals(name))
+					return "DetachedRequest";
+				throw new UnsupportedOperationException("HttpServletRequest." + name + "() is not available when regenerating static html");
+			}
+		});
+	}
+	
+	/**
+	 * 后台渲染用的响应对象，头信息等全部忽略，输出由 CaptureResponseWrapper 接管
+	 */
+	private static HttpServletResponse detachedResponse() {
+		return (HttpServletResponse)Proxy.newProxyInstance(StaticHtmlRender.class.getClassLoader(), new Class<?>[]{HttpServletResponse.class}, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				Class<?> type = method.getReturnType();
+				if (type == boolean.class)
+					return Boolean.FALSE;
+				if (type == int.class)
+					return Integer.valueOf(0);
+				if ("getCharacterEncoding".equals(method.getName()))
+					return getEncoding();
+				return null;
+			}
+		});
+	}
+	
+	/**
+	 * 把渲染输出截获到内存中，并记录状态码
+	 */
+	private static class CaptureResponseWrapper extends HttpServletResponseWrapper {
+		
+		private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+		private ServletOutputStream outputStream;
+		private PrintWriter writer;
+		int status = HttpServletResponse.SC_OK;
+		boolean sent = false;	// sendError or sendRedirect has written the response
+		
+		CaptureResponseWrapper(HttpServletResponse response) {
+			super(response);
+		}
+		
+		public void setStatus(int sc) {
+			status = sc;
+			super.setStatus(sc);
+		}
+		
+		@SuppressWarnings("deprecation")
+		public void setStatus(int sc, String sm) {
+			status = sc;
+			super.setStatus(sc, sm);
+		}
+		
+		public void sendError(int sc) throws IOException {
+			status = sc;
+			sent = true;
+			super.sendError(sc);
+		}
+		
+		public void sendError(int sc, String msg) throws IOException {
+			status = sc;
+			sent = true;
+			super.sendError(sc, msg);
+		}
+		
+		public void sendRedirect(String location) throws IOException {
+			status = HttpServletResponse.SC_FOUND;
+			sent = true;
+			super.sendRedirect(location);
+		}
+		
+		public ServletOutputStream getOutputStream() {
+			if (writer != null)
+				throw new IllegalStateException("getWriter() has already been called.");
+			if (outputStream == null) {
+				outputStream = new ServletOutputStream() {
+					public void write(int b) {
+						buffer.write(b);
+					}
+					
+					public void write(byte[] b, int off, int len) {
+						buffer.write(b, off, len);
+					}
+					
+					public boolean isReady() {
+						return true;
+					}
+					
+					public void setWriteListener(WriteListener writeListener) {
+					}
+				};
+			}
+			return outputStream;
+		}
+		
+		public PrintWriter getWriter() throws UnsupportedEncodingException {
+			if (outputStream != null)
+				throw new IllegalStateException("getOutputStream() has already been called.");
+			if (writer == null)
+				writer = new PrintWriter(new OutputStreamWriter(buffer, getEncoding()));
+			return writer;
+		}
+		
+		public void setContentLength(int len) {
+		}
+		
+		public void flushBuffer() {
+			if (writer != null)
+				writer.flush();
+		}
+		
+		public void resetBuffer() {
+			buffer.reset();
+		}
+		
+		public void reset() {
+			buffer.reset();
+		}
+		
+		byte[] toByteArray() {
+			if (writer != null)
+				writer.flush();
+			return buffer.toByteArray();
+		}
 	}
 }
-
-
-
-
-
@@ -16,21 +16,15 @@
 
 package org.sxb.kit;
 
-import java.lang.reflect.Method;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
-
-import org.sxb.plugin.activerecord.Model;
-import org.sxb.plugin.activerecord.Record;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 
 /**
  * Convert object to json string.
  * 转换实体对象到json 字符串
  * 不依赖任何jar包，目前最大转换深度是15
+ * 实际转换由 JsonWriter 完成
  * 
  *  Json     			java
  * string			java.lang.String
@@ -40,7 +34,6 @@ import org.sxb.plugin.activerecord.Record;
  * array			java.util.List
  * object			java.util.Map
  */
-@SuppressWarnings({"rawtypes", "unchecked"})
 public class JsonKit {
 	
 	/** {@code convertDepth} : 转换最大深度**/
@@ -82,141 +75,16 @@ public class JsonKit {
 		JsonKit.datePattern = datePattern;
 	}
 	
-	/**
-	 * 从 Java Map 转换到Json字符串
-	 * @param map
-	 * @param depth
-	 * @return
-	 */
-	private static String mapToJson(Map map, int depth) {
-		if(map == null)
-			return "null";
-		
-        StringBuilder sb = new StringBuilder();
-        boolean first = true;
-		Iterator iter = map.entrySet().iterator();
-		
-        sb.append('{');
-		while(iter.hasNext()){
-            if(first)
-                first = false;
-            else
-                sb.append(',');
-            
-			Map.Entry entry = (Map.Entry)iter.next();
-			toKeyValue(String.valueOf(entry.getKey()),entry.getValue(), sb, depth);
-		}
-        sb.append('}');
-		return sb.toString();
+	public static int getConvertDepth() {
+		return convertDepth;
 	}
 	
-	/**
-	 * 整形成 key:value方式
-	 * @param key
-	 * @param value
-	 * @param sb
-	 * @param depth
-	 * @return
-	 */
-	private static String toKeyValue(String key, Object value, StringBuilder sb, int depth){
-		sb.append('\"');
-        if(key == null)
-            sb.append("null");
-        else
-            escape(key, sb);
-		sb.append('\"').append(':');
-		
-		sb.append(toJson(value, depth));
-		
-		return sb.toString();
+	public static String getTimestampPattern() {
+		return timestampPattern;
 	}
 	
-	/**
-	 * Java List 转换到Json字符串
-	 * @param list
-	 * @param depth
-	 * @return
-	 */
-	private static String listToJson(List list, int depth) {
-		if(list == null)
-			return "null";
-		
-        boolean first = true;
-        StringBuilder sb = new StringBuilder();
-		Iterator iter = list.iterator();
-        
-        sb.append('[');
-		while(iter.hasNext()){
-            if(first)
-                first = false;
-            else
-                sb.append(',');
-            
-			Object value = iter.next();
-			if(value == null){
-				sb.append("null");
-				continue;
-			}
-			sb.append(toJson(value, depth));
-		}
-        sb.append(']');
-		return sb.toString();
-	}
-	
-	/**
-	 * 特别字符转换
-	 * Escape quotes, \, /, \r, \n, \b, \f, \t and other control characters (U+0000 through U+001F).
-	 */
-	private static String escape(String s) {
-		if(s == null)
-			return null;
-        StringBuilder sb = new StringBuilder();
-        escape(s, sb);
-        return sb.toString();
-    }
-	
-	private static void escape(String s, StringBuilder sb) {
-		for(int i=0; i<s.length(); i++){
-			char ch = s.charAt(i);
-			switch(ch){
-			case '"':
-				sb.append("\\\"");
-				break;
-			case '\\':
-				sb.append("\\\\");
-				break;
-			case '\b':
-				sb.append("\\b");
-				break;
-			case '\f':
-				sb.append("\\f");
-				break;
-			case '\n':
-				sb.append("\\n");
-				break;
-			case '\r':
-				sb.append("\\r");
-				break;
-			case '\t':
-				sb.append("\\t");
-				break;
-			case '/':
-				sb.append("\\/");
-				break;
-			default:
-				if((ch >= '\u0000' && ch <= '\u001F') || (ch >= '\u007F' && ch <= '\u009F') || (ch >= '\u2000' && ch <= '\u20FF')) {
-					String str = Integer.toHexString(ch);
-					sb.append("\\u");
-					for(int k=0; k<4-str.length(); k++) {
-						sb.append('0');
-					}
-					sb.append(str.toUpperCase());
-				}
-				else{
-					sb.append(ch);
-				}
-			}
-		}
+	public static String getDatePattern() {
+		return datePattern;
 	}
 	
 	/**
@@ -230,136 +98,27 @@ public class JsonKit {
 	}
 	
 	public static String toJson(Object value, int depth) {
-		if(value == null || (depth--) < 0)
-			return "null";
-		
-		if(value instanceof String)
-			return "\"" + escape((String)value) + "\"";
-		
-		if(value instanceof Double){
-			if(((Double)value).isInfinite() || ((Double)value).isNaN())
-				return "null";
-			else
-				return value.toString();
-		}
-		
-		if(value instanceof Float){
-			if(((Float)value).isInfinite() || ((Float)value).isNaN())
-				return "null";
-			else
-				return value.toString();
-		}
-		
-		if(value instanceof Number)
-			return value.toString();
-		
-		if(value instanceof Boolean)
-			return value.toString();
-		
-		if (value instanceof java.util.Date) {
-			if (value instanceof java.sql.Timestamp)
-				return "\"" + new SimpleDateFormat(timestampPattern).format(value) + "\"";
-			if (value instanceof java.sql.Time)
-				return "\"" + value.toString() + "\"";
-			return "\"" + new SimpleDateFormat(datePattern).format(value) + "\"";
+		StringWriter sw = new StringWriter();
+		try {
+			new JsonWriter(sw).write(value, depth).flush();
+		} catch (IOException e) {
+			throw new RuntimeException(e);	// StringWriter never throws IOException
 		}
-		
-		if(value instanceof Map) {
-			return mapToJson((Map)value, depth);
-		}
-		
-		if(value instanceof List) {
-			return listToJson((List)value, depth);
-		}
-		
-		String result = otherToJson(value, depth);
-		if (result != null)
-			return result;
-		
-		// 类型无法处理时当作字符串处理,否则ajax调用返回时js无法解析
-		// return value.toString();
-		return "\"" + escape(value.toString()) + "\"";
+		return sw.toString();
 	}
 	
 	/**
-	 * 其他特别Java Object 转换到Json
+	 * Java Object 直接以流的方式输出到 Writer，不生成中间字符串
 	 * @param value
-	 * @param depth
-	 * @return
+	 * @param writer
+	 * @throws IOException
 	 */
-	private static String otherToJson(Object value, int depth) {
-		if (value instanceof Character) {
-			return "\"" + escape(value.toString()) + "\"";
-		}
-		// Sxb的ORM Model对象转换到Json
-		if (value instanceof Model) {
-			Map map = org.sxb.plugin.activerecord.CPI.getAttrs((Model)value);
-			return mapToJson(map, depth);
-		}
-		// Sxb的ORM Record 对象转换到Json
-		if (value instanceof Record) {
-			Map map = ((Record)value).getColumns();
-			return mapToJson(map, depth);
-		}
-		// 对象数组转换到Json
-		if (value instanceof Object[]) {
-			Object[] arr = (Object[])value;
-			List list = new ArrayList(arr.length);
-			for (int i=0; i<arr.length; i++)
-				list.add(arr[i]);
-			return listToJson(list, depth);
-		}
-		// 枚举类型到Json
-		if (value instanceof Enum) {
-			return "\"" + ((Enum)value).toString() + "\"";
-		}
-		
-		return beanToJson(value, depth);
+	public static void toJson(Object value, Writer writer) throws IOException {
+		toJson(value, convertDepth, writer);
 	}
 	
-	/**
-	 * Bean 转换到Json
-	 * @param model
-	 * @param depth
-	 * @return
-	 */
-	private static String beanToJson(Object model, int depth) {
-		Map map = new HashMap();
-		Method[] methods = model.getClass().getMethods();
-		for (Method m : methods) {
-			String methodName = m.getName();
-			int indexOfGet = methodName.indexOf("get");
-			if (indexOfGet == 0 && methodName.length() > 3) {	// Only getter
-				String attrName = methodName.substring(3);
-				if (!attrName.equals("Class")) {				// Ignore Object.getClass()
-					Class<?>[] types = m.getParameterTypes();
-					if (types.length == 0) {
-						try {
-							Object value = m.invoke(model);
-							map.put(StrKit.firstCharToLowerCase(attrName), value);
-						} catch (Exception e) {
-							throw new RuntimeException(e.getMessage(), e);
-						}
-					}
-				}
-			}
-			else {
-               int indexOfIs = methodName.indexOf("is");
-               if (indexOfIs == 0 && methodName.length() > 2) {
-                  String attrName = methodName.substring(2);
-                  Class<?>[] types = m.getParameterTypes();
-                  if (types.length == 0) {
-                      try {
-                          Object value = m.invoke(model);
-                          map.put(StrKit.firstCharToLowerCase(attrName), value);
-                      } catch (Exception e) {
-                          throw new RuntimeException(e.getMessage(), e);
-                      }
-                  }
-               }
-            }
-		}
-		return mapToJson(map, depth);
+	public static void toJson(Object value, int depth, Writer writer) throws IOException {
+		new JsonWriter(writer).write(value, depth).flush();
 	}
 }
 
@@ -0,0 +1,363 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.kit;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.sxb.plugin.activerecord.Model;
+import org.sxb.plugin.activerecord.Page;
+import org.sxb.plugin.activerecord.Record;
+
+/**
+ * Streaming json writer.
+ * 流式输出json，转换规则与 JsonKit 相同。
+ * 整个文档只使用一个字符缓冲区，满了即写入目标 Writer，不会生成中间字符串。
+ * <pre>
+ * Example:
+ * JsonWriter jw = new JsonWriter(response.getWriter());
+ * jw.write(recordList);
+ * jw.flush();
+ * </pre>
+ * 非线程安全，每次输出创建一个实例。
+ */
+@SuppressWarnings("rawtypes")
+public class JsonWriter {
+	
+	private static final int DEFAULT_BUFFER_SIZE = 8192;
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+	private static final char[] NULL = "null".toCharArray();
+	
+	private final Writer out;
+	private final char[] buf;
+	private int pos = 0;
+	
+	private SimpleDateFormat timestampFormat;
+	private SimpleDateFormat dateFormat;
+	
+	public JsonWriter(Writer out) {
+		this(out, DEFAULT_BUFFER_SIZE);
+	}
+	
+	public JsonWriter(Writer out, int bufferSize) {
+		if (out == null)
+			throw new IllegalArgumentException("out can not be null.");
+		this.out = out;
+		this.buf = new char[bufferSize < 64 ? 64 : bufferSize];
+	}
+	
+	public JsonWriter(OutputStream out, String encoding) throws UnsupportedEncodingException {
+		this(new OutputStreamWriter(out, encoding));
+	}
+	
+	/**
+	 * 按 JsonKit 的默认转换深度输出
+	 */
+	public JsonWriter write(Object value) throws IOException {
+		writeValue(value, JsonKit.getConvertDepth());
+		return this;
+	}
+	
+	public JsonWriter write(Object value, int depth) throws IOException {
+		writeValue(value, depth);
+		return this;
+	}
+	
+	/**
+	 * 把缓冲区写入目标 Writer 并 flush
+	 */
+	public void flush() throws IOException {
+		flushBuffer();
+		out.flush();
+	}
+	
+	private void flushBuffer() throws IOException {
+		if (pos > 0) {
+			out.write(buf, 0, pos);
+			pos = 0;
+		}
+	}
+	
+	private void append(char c) throws IOException {
+		if (pos == buf.length)
+			flushBuffer();
+		buf[pos++] = c;
+	}
+	
+	private void append(char[] chars) throws IOException {
+		int len = chars.length;
+		if (pos + len > buf.length) {
+			flushBuffer();
+			if (len > buf.length) {
+				out.write(chars, 0, len);
+				return ;
+			}
+		}
+		System.arraycopy(chars, 0, buf, pos, len);
+		pos += len;
+	}
+	
+	private void append(String s) throws IOException {
+		int len = s.length();
+		int off = 0;
+		while (len > 0) {
+			if (pos == buf.length)
+				flushBuffer();
+			int n = Math.min(len, buf.length - pos);
+			s.getChars(off, off + n, buf, pos);
+			pos += n;
+			off += n;
+			len -= n;
+		}
+	}
+	
+	private void appendQuoted(String s) throws IOException {
+		append('"');
+		escape(s);
+		append('"');
+	}
+	
+	/**
+	 * Escape quotes, \, /, \r, \n, \b, \f, \t and other control characters (U+0000 through U+001F).
+	 */
+	private void escape(String s) throws IOException {
+		for (int i=0, len=s.length(); i<len; i++) {
+			char ch = s.charAt(i);
+			switch (ch) {
+			case '"':
+				append('\\'); append('"');
+				break;
+			case '\\':
+				append('\\'); append('\\');
+				break;
+			case '\b':
+				append('\\'); append('b');
+				break;
+			case '\f':
+				append('\\'); append('f');
+				break;
+			case '\n':
+				append('\\'); append('n');
+				break;
+			case '\r':
+				append('\\'); append('r');
+				break;
+			case '\t':
+				append('\\'); append('t');
+				break;
+			case '/':
+				append('\\'); append('/');
+				break;
+			default:
+				if ((ch >= '\u0000' && ch <= '\u001F') || (ch >= '\u007F' && ch <= '\u009F') || (ch >= '\u2000' && ch <= '\u20FF')) {
+					append('\\'); append('u');
+					append(HEX[(ch >> 12) & 0xF]);
+					append(HEX[(ch >> 8) & 0xF]);
+					append(HEX[(ch >> 4) & 0xF]);
+					append(HEX[ch & 0xF]);
+				}
+				else {
+					append(ch);
+				}
+			}
+		}
+	}
+	
+	private void writeValue(Object value, int depth) throws IOException {
+		if (value == null || (depth--) < 0) {
+			append(NULL);
+			return ;
+		}
+		
+		if (value instanceof String) {
+			appendQuoted((String)value);
+		}
+		else if (value instanceof Double) {
+			Double d = (Double)value;
+			append(d.isInfinite() || d.isNaN() ? "null" : d.toString());
+		}
+		else if (value instanceof Float) {
+			Float f = (Float)value;
+			append(f.isInfinite() || f.isNaN() ? "null" : f.toString());
+		}
+		else if (value instanceof Number || value instanceof Boolean) {
+			append(value.toString());
+		}
+		else if (value instanceof java.util.Date) {
+			append('"');
+			if (value instanceof java.sql.Timestamp) {
+				if (timestampFormat == null)
+					timestampFormat = new SimpleDateFormat(JsonKit.getTimestampPattern());
+				append(timestampFormat.format(value));
+			}
+			else if (value instanceof java.sql.Time) {
+				append(value.toString());
+			}
+			else {
+				if (dateFormat == null)
+					dateFormat = new SimpleDateFormat(JsonKit.getDatePattern());
+				append(dateFormat.format(value));
+			}
+			append('"');
+		}
+		else if (value instanceof Map) {
+			writeMap((Map)value, depth);
+		}
+		else if (value instanceof List) {
+			writeList((List)value, depth);
+		}
+		else {
+			writeOther(value, depth);
+		}
+	}
+	
+	private void writeMap(Map map, int depth) throws IOException {
+		boolean first = true;
+		append('{');
+		for (Iterator iter = map.entrySet().iterator(); iter.hasNext();) {
+			if (first)
+				first = false;
+			else
+				append(',');
+			
+			Map.Entry entry = (Map.Entry)iter.next();
+			writeKey(String.valueOf(entry.getKey()));
+			writeValue(entry.getValue(), depth);
+		}
+		append('}');
+	}
+	
+	private void writeKey(String key) throws IOException {
+		appendQuoted(key);
+		append(':');
+	}
+	
+	private void writeList(List list, int depth) throws IOException {
+		boolean first = true;
+		append('[');
+		for (Iterator iter = list.iterator(); iter.hasNext();) {
+			if (first)
+				first = false;
+			else
+				append(',');
+			writeValue(iter.next(), depth);
+		}
+		append(']');
+	}
+	
+	private void writeOther(Object value, int depth) throws IOException {
+		if (value instanceof Character) {
+			appendQuoted(value.toString());
+		}
+		// Sxb的ORM Model对象
+		else if (value instanceof Model) {
+			writeMap(org.sxb.plugin.activerecord.CPI.getAttrs((Model)value), depth);
+		}
+		// Sxb的ORM Record 对象
+		else if (value instanceof Record) {
+			writeMap(((Record)value).getColumns(), depth);
+		}
+		// 分页对象，直接输出避免反射
+		else if (value instanceof Page) {
+			writePage((Page)value, depth);
+		}
+		// 对象数组
+		else if (value instanceof Object[]) {
+			Object[] arr = (Object[])value;
+			append('[');
+			for (int i=0; i<arr.length; i++) {
+				if (i > 0)
+					append(',');
+				writeValue(arr[i], depth);
+			}
+			append(']');
+		}
+		// 枚举类型
+		else if (value instanceof Enum) {
+			append('"');
+			append(((Enum)value).toString());
+			append('"');
+		}
+		else {
+			writeBean(value, depth);
+		}
+	}
+	
+	private void writePage(Page page, int depth) throws IOException {
+		append('{');
+		writeKey("pageNumber");
+		append(String.valueOf(page.getPageNumber()));
+		append(',');
+		writeKey("pageSize");
+		append(String.valueOf(page.getPageSize()));
+		append(',');
+		writeKey("totalPage");
+		append(String.valueOf(page.getTotalPage()));
+		append(',');
+		writeKey("totalRow");
+		append(String.valueOf(page.getTotalRow()));
+		append(',');
+		writeKey("firstPage");
+		append(String.valueOf(page.isFirstPage()));
+		append(',');
+		writeKey("lastPage");
+		append(String.valueOf(page.isLastPage()));
+		append(',');
+		writeKey("list");
+		writeValue(page.getList(), depth);
+		append('}');
+	}
+	
+	/**
+	 * Bean 通过 getter/is 方法转换，同名属性以后出现的为准
+	 */
+	@SuppressWarnings("unchecked")
+	private void writeBean(Object bean, int depth) throws IOException {
+		Map map = new HashMap();
+		Method[] methods = bean.getClass().getMethods();
+		for (Method m : methods) {
+			String methodName = m.getName();
+			String attrName = null;
+			if (methodName.startsWith("get") && methodName.length() > 3) {	// Only getter
+				attrName = methodName.substring(3);
+				if (attrName.equals("Class"))			// Ignore Object.getClass()
+					attrName = null;
+			}
+			else if (methodName.startsWith("is") && methodName.length() > 2) {
+				attrName = methodName.substring(2);
+			}
+			
+			if (attrName != null && m.getParameterTypes().length == 0) {
+				try {
+					map.put(StrKit.firstCharToLowerCase(attrName), m.invoke(bean));
+				} catch (Exception e) {
+					throw new RuntimeException(e.getMessage(), e);
+				}
+			}
+		}
+		writeMap(map, depth);
+	}
+}
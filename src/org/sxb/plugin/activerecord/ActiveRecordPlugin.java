@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import javax.sql.DataSource;
 
@@ -54,6 +55,17 @@ public class ActiveRecordPlugin implements IPlugin {
 	private Boolean devMode = null;
 	private Dialect dialect = null;
 	private IContainerFactory containerFactory = null;
+	private Integer statementCacheSize = null;
+	private Long lazyLobThreshold = null;
+	private Boolean keepLobLocator = null;
+	private SqlStats sqlStats = null;
+	private List<DataSource> replicas = new ArrayList<DataSource>();
+	private List<IDataSourceProvider> replicaProviders = new ArrayList<IDataSourceProvider>();
+	private IReplicaBalancer replicaBalancer = null;
+	private Long readYourWritesMillis = null;
+	private ExecutorService asyncExecutor = null;
+	private Integer asyncPoolSize = null;
+	private Integer asyncQueueSize = null;
 
 	private boolean isStarted = false;
 	private List<Table> tableList = new ArrayList<Table>();
@@ -230,6 +242,102 @@ public class ActiveRecordPlugin implements IPlugin {
 		return this;
 	}
 
+	/**
+	 * @see Config#setStatementCacheSize(int)
+	 */
+	public ActiveRecordPlugin setStatementCacheSize(int statementCacheSize) {
+		if (statementCacheSize < 0)
+			throw new IllegalArgumentException("statementCacheSize can not be less than 0");
+		this.statementCacheSize = statementCacheSize;
+		return this;
+	}
+
+	/**
+	 * @see Config#addReplica(DataSource)
+	 */
+	public ActiveRecordPlugin addReplica(DataSource replica) {
+		if (replica == null)
+			throw new IllegalArgumentException("replica can not be null");
+		replicas.add(replica);
+		return this;
+	}
+
+	/**
+	 * The DataSource of the provider is got when the plugin starts, add the provider plugin before this plugin.
+	 * @see Config#addReplica(DataSource)
+	 */
+	public ActiveRecordPlugin addReplica(IDataSourceProvider replicaProvider) {
+		if (replicaProvider == null)
+			throw new IllegalArgumentException("replicaProvider can not be null");
+		replicaProviders.add(replicaProvider);
+		return this;
+	}
+
+	/**
+	 * @see Config#setReplicaBalancer(IReplicaBalancer)
+	 */
+	public ActiveRecordPlugin setReplicaBalancer(IReplicaBalancer replicaBalancer) {
+		if (replicaBalancer == null)
+			throw new IllegalArgumentException("replicaBalancer can not be null");
+		this.replicaBalancer = replicaBalancer;
+		return this;
+	}
+
+	/**
+	 * @see Config#setReadYourWritesMillis(long)
+	 */
+	public ActiveRecordPlugin setReadYourWritesMillis(long readYourWritesMillis) {
+		if (readYourWritesMillis < 0)
+			throw new IllegalArgumentException("readYourWritesMillis can not be less than 0");
+		this.readYourWritesMillis = readYourWritesMillis;
+		return this;
+	}
+
+	/**
+	 * @see Config#setAsyncExecutor(ExecutorService)
+	 */
+	public ActiveRecordPlugin setAsyncExecutor(ExecutorService asyncExecutor) {
+		if (asyncExecutor == null)
+			throw new IllegalArgumentException("asyncExecutor can not be null");
+		this.asyncExecutor = asyncExecutor;
+		return this;
+	}
+
+	/**
+	 * @see Config#setAsyncPoolSize(int, int)
+	 */
+	public ActiveRecordPlugin setAsyncPoolSize(int asyncPoolSize, int asyncQueueSize) {
+		if (asyncPoolSize < 1 || asyncQueueSize < 1)
+			throw new IllegalArgumentException("asyncPoolSize and asyncQueueSize must be more than 0");
+		this.asyncPoolSize = asyncPoolSize;
+		this.asyncQueueSize = asyncQueueSize;
+		return this;
+	}
+
+	/**
+	 * @see Config#setLazyLobThreshold(long)
+	 */
+	public ActiveRecordPlugin setLazyLobThreshold(long lazyLobThreshold) {
+		this.lazyLobThreshold = lazyLobThreshold;
+		return this;
+	}
+
+	/**
+	 * @see Config#setKeepLobLocator(boolean)
+	 */
+	public ActiveRecordPlugin setKeepLobLocator(boolean keepLobLocator) {
+		this.keepLobLocator = keepLobLocator;
+		return this;
+	}
+
+	/**
+	 * @see Config#setSqlStats(SqlStats)
+	 */
+	public ActiveRecordPlugin setSqlStats(SqlStats sqlStats) {
+		this.sqlStats = sqlStats;
+		return this;
+	}
+
 	public ActiveRecordPlugin setContainerFactory(
 			IContainerFactory containerFactory) {
 		if (containerFactory == null)
@@ -252,6 +360,30 @@ public class ActiveRecordPlugin implements IPlugin {
 		if (config == null)
 			config = new Config(configName, dataSource, dialect, showSql,
 					devMode, transactionLevel, containerFactory, cache);
+		if (statementCacheSize != null)
+			config.setStatementCacheSize(statementCacheSize);
+		if (lazyLobThreshold != null)
+			config.setLazyLobThreshold(lazyLobThreshold);
+		if (keepLobLocator != null)
+			config.setKeepLobLocator(keepLobLocator);
+		if (sqlStats != null)
+			config.setSqlStats(sqlStats);
+		for (DataSource replica : replicas)
+			config.addReplica(replica);
+		for (IDataSourceProvider replicaProvider : replicaProviders) {
+			DataSource replica = replicaProvider.getDataSource();
+			if (replica == null)
+				throw new RuntimeException("ActiveRecord start error: the DataSourceProvider of replica returns null");
+			config.addReplica(replica);
+		}
+		if (replicaBalancer != null)
+			config.setReplicaBalancer(replicaBalancer);
+		if (readYourWritesMillis != null)
+			config.setReadYourWritesMillis(readYourWritesMillis);
+		if (asyncExecutor != null)
+			config.setAsyncExecutor(asyncExecutor);
+		if (asyncPoolSize != null)
+			config.setAsyncPoolSize(asyncPoolSize, asyncQueueSize);
 		DbKit.addConfig(config);
 
 		TableBuilder.build(tableList, config);
@@ -261,6 +393,8 @@ public class ActiveRecordPlugin implements IPlugin {
 	}
 
 	public boolean stop() {
+		if (config != null)
+			config.shutdownAsyncExecutor();
 		isStarted = false;
 		return true;
 	}
@@ -0,0 +1,185 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.plugin.activerecord;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.sxb.kit.concurrent.ListenableFuture;
+import org.sxb.kit.concurrent.ListenableFutureTask;
+import org.sxb.kit.concurrent.SettableListenableFuture;
+
+/**
+ * AsyncDbPro. Run the queries of DbPro on the async executor of Config and return ListenableFuture.
+ * <p>
+ * No Connection is bound to the pool thread, every call of Db and Model in a task borrows its own
+ * Connection as on any other thread, and Db.tx(...) in a task opens a real transaction.
+ * The tasks never join the transaction of the calling thread, they do not see its uncommitted writes.
+ * <pre>
+ * Example:
+ * AsyncDbPro async = Db.async();
+ * ListenableFuture<List<Record>> users = async.find("select * from user where age > ?", 18);
+ * ListenableFuture<Long> count = async.queryFirst("select count(*) from blog");
+ * AsyncDbPro.join(users, count);
+ * List<Record> userList = users.get();
+ * </pre>
+ * @see Config#setAsyncExecutor(java.util.concurrent.ExecutorService)
+ */
+public class AsyncDbPro {
+	
+	private final DbPro dbPro;
+	private final Config config;
+	
+	AsyncDbPro(DbPro dbPro, Config config) {
+		this.dbPro = dbPro;
+		this.config = config;
+	}
+	
+	/**
+	 * Run the task on the async executor. Wrap the writes in Db.tx(...) if they must be atomic.
+	 */
+	public <T> ListenableFuture<T> submit(Callable<T> task) {
+		ListenableFutureTask<T> future = new ListenableFutureTask<T>(task);
+		try {
+			config.getAsyncExecutor().execute(future);
+			return future;
+		} catch (RejectedExecutionException e) {
+			SettableListenableFuture<T> rejected = new SettableListenableFuture<T>();
+			rejected.setException(e);
+			return rejected;
+		}
+	}
+	
+	/**
+	 * @see DbPro#query(String, Object...)
+	 */
+	public <T> ListenableFuture<List<T>> query(final String sql, final Object... paras) {
+		return submit(new Callable<List<T>>() {
+			public List<T> call() {
+				return dbPro.query(sql, paras);
+			}
+		});
+	}
+	
+	/**
+	 * @see DbPro#queryFirst(String, Object...)
+	 */
+	public <T> ListenableFuture<T> queryFirst(final String sql, final Object... paras) {
+		return submit(new Callable<T>() {
+			public T call() {
+				return dbPro.queryFirst(sql, paras);
+			}
+		});
+	}
+	
+	/**
+	 * @see DbPro#find(String, Object...)
+	 */
+	public ListenableFuture<List<Record>> find(final String sql, final Object... paras) {
+		return submit(new Callable<List<Record>>() {
+			public List<Record> call() {
+				return dbPro.find(sql, paras);
+			}
+		});
+	}
+	
+	/**
+	 * @see DbPro#findFirst(String, Object...)
+	 */
+	public ListenableFuture<Record> findFirst(final String sql, final Object... paras) {
+		return submit(new Callable<Record>() {
+			public Record call() {
+				return dbPro.findFirst(sql, paras);
+			}
+		});
+	}
+	
+	/**
+	 * @see DbPro#paginate(int, int, String, String, Object...)
+	 */
+	public ListenableFuture<Page<Record>> paginate(final int pageNumber, final int pageSize, final String select, final String sqlExceptSelect, final Object... paras) {
+		return submit(new Callable<Page<Record>>() {
+			public Page<Record> call() {
+				return dbPro.paginate(pageNumber, pageSize, select, sqlExceptSelect, paras);
+			}
+		});
+	}
+	
+	/**
+	 * @see DbPro#update(String, Object...)
+	 */
+	public ListenableFuture<Integer> update(final String sql, final Object... paras) {
+		return submit(new Callable<Integer>() {
+			public Integer call() {
+				return dbPro.update(sql, paras);
+			}
+		});
+	}
+	
+	/**
+	 * Wait for all the futures and return their results in order. If one of them fails,
+	 * the others are cancelled and its exception is thrown, wrapped in ActiveRecordException
+	 * unless it is a RuntimeException.
+	 */
+	public static List<Object> join(Future<?>... futures) {
+		try {
+			return join(false, 0, futures);
+		} catch (TimeoutException e) {
+			throw new ActiveRecordException(e);	// never happen
+		}
+	}
+	
+	/**
+	 * Wait at most timeout for all the futures, the others are cancelled if one of them fails or times out.
+	 * @see #join(Future...)
+	 */
+	public static List<Object> join(long timeout, TimeUnit unit, Future<?>... futures) throws TimeoutException {
+		return join(true, System.nanoTime() + unit.toNanos(timeout), futures);
+	}
+	
+	private static List<Object> join(boolean timed, long deadline, Future<?>... futures) throws TimeoutException {
+		List<Object> result = new ArrayList<Object>(futures.length);
+		boolean success = false;
+		try {
+			for (Future<?> future : futures)
+				result.add(timed ? future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS) : future.get());
+			success = true;
+			return result;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ActiveRecordException(e);
+		} catch (CancellationException e) {
+			throw new ActiveRecordException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause() != null ? e.getCause() : e;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			throw new ActiveRecordException(cause);
+		} finally {
+			if (!success)
+				for (Future<?> future : futures)
+					future.cancel(true);
+		}
+	}
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.plugin.activerecord;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * ColumnSchema. Immutable column label to slot mapping shared by every ColumnarMap of one query.
+ */
+public final class ColumnSchema implements Serializable {
+	
+	private static final long serialVersionUID = -3526415436364270235L;
+	
+	static final ColumnSchema EMPTY = new ColumnSchema();
+	
+	private final String[] labels;
+	private transient Map<String, Integer> index;
+	
+	/**
+	 * Duplicate labels share one slot, the same as put into a HashMap.
+	 */
+	public ColumnSchema(String... labels) {
+		Map<String, Integer> index = new HashMap<String, Integer>(labels.length * 2);
+		String[] unique = new String[labels.length];
+		int n = 0;
+		for (String label : labels) {
+			if (!index.containsKey(label)) {
+				index.put(label, n);
+				unique[n++] = label;
+			}
+		}
+		if (n != unique.length) {
+			String[] temp = new String[n];
+			System.arraycopy(unique, 0, temp, 0, n);
+			unique = temp;
+		}
+		this.labels = unique;
+		this.index = index;
+	}
+	
+	/**
+	 * Create schema from the 1-based labelNames array used by RecordBuilder and ModelBuilder.
+	 */
+	static ColumnSchema fromLabelNames(String[] labelNames) {
+		String[] labels = new String[labelNames.length - 1];
+		System.arraycopy(labelNames, 1, labels, 0, labels.length);
+		return new ColumnSchema(labels);
+	}
+	
+	public int size() {
+		return labels.length;
+	}
+	
+	public String getLabel(int slot) {
+		return labels[slot];
+	}
+	
+	/**
+	 * @return the slot of the label or -1 if the label is unknown
+	 */
+	public int indexOf(Object label) {
+		Integer ret = index.get(label);
+		return ret != null ? ret : -1;
+	}
+	
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		index = new HashMap<String, Integer>(labels.length * 2);
+		for (int i=0; i<labels.length; i++)
+			index.put(labels[i], i);
+	}
+}
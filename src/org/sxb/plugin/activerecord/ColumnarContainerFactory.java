@@ -0,0 +1,45 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.plugin.activerecord;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * ColumnarContainerFactory. Rows built by RecordBuilder and ModelBuilder share one ColumnSchema
+ * per query and each row only holds an Object[] of values, see ColumnarMap.
+ * <pre>
+ * Example:
+ * arp.setContainerFactory(new ColumnarContainerFactory());
+ * </pre>
+ * Column labels are case sensitive.
+ */
+public class ColumnarContainerFactory implements IContainerFactory {
+	
+	public Map<String, Object> getAttrsMap() {
+		return new ColumnarMap();
+	}
+	
+	public Map<String, Object> getColumnsMap() {
+		return new ColumnarMap();
+	}
+	
+	public Set<String> getModifyFlagSet() {
+		return new HashSet<String>();
+	}
+}
@@ -0,0 +1,275 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.plugin.activerecord;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * ColumnarMap. Map of one row that only holds an Object[] of values,
+ * the labels are kept in a ColumnSchema shared by all the rows of one query.
+ * <p>
+ * Putting a label the schema does not know copies the row into a LinkedHashMap
+ * and the map behaves as that LinkedHashMap from then on, clear() switches back to the schema.
+ * Iteration order is the column order of the query.
+ */
+public class ColumnarMap extends AbstractMap<String, Object> implements Serializable {
+	
+	private static final long serialVersionUID = 3718233455393213870L;
+	
+	private static final Object ABSENT = new Object();
+	private static final Object[] EMPTY_VALUES = new Object[0];
+	
+	private final ColumnSchema schema;
+	private transient Object[] values;
+	private transient int size;
+	private transient int modCount;
+	private Map<String, Object> overflow;
+	
+	public ColumnarMap() {
+		this(ColumnSchema.EMPTY);
+	}
+	
+	public ColumnarMap(ColumnSchema schema) {
+		this.schema = schema;
+		this.values = newValues(schema);
+	}
+	
+	private static Object[] newValues(ColumnSchema schema) {
+		if (schema.size() == 0)
+			return EMPTY_VALUES;
+		Object[] ret = new Object[schema.size()];
+		Arrays.fill(ret, ABSENT);
+		return ret;
+	}
+	
+	public ColumnSchema getSchema() {
+		return schema;
+	}
+	
+	/**
+	 * Return true if the row has been copied into a real map.
+	 */
+	public boolean isInflated() {
+		return overflow != null;
+	}
+	
+	public int size() {
+		return overflow != null ? overflow.size() : size;
+	}
+	
+	public boolean containsKey(Object key) {
+		if (overflow != null)
+			return overflow.containsKey(key);
+		int i = schema.indexOf(key);
+		return i >= 0 && values[i] != ABSENT;
+	}
+	
+	public Object get(Object key) {
+		if (overflow != null)
+			return overflow.get(key);
+		int i = schema.indexOf(key);
+		if (i < 0)
+			return null;
+		Object value = values[i];
+		return value != ABSENT ? value : null;
+	}
+	
+	public Object put(String key, Object value) {
+		if (overflow != null)
+			return overflow.put(key, value);
+		int i = schema.indexOf(key);
+		if (i < 0) {
+			inflate();
+			return overflow.put(key, value);
+		}
+		Object old = values[i];
+		values[i] = value;
+		if (old == ABSENT) {
+			size++;
+			modCount++;
+			return null;
+		}
+		return old;
+	}
+	
+	public Object remove(Object key) {
+		if (overflow != null)
+			return overflow.remove(key);
+		int i = schema.indexOf(key);
+		if (i < 0 || values[i] == ABSENT)
+			return null;
+		Object old = values[i];
+		values[i] = ABSENT;
+		size--;
+		modCount++;
+		return old;
+	}
+	
+	public void clear() {
+		overflow = null;
+		if (values.length == 0 && schema.size() != 0)
+			values = newValues(schema);
+		else
+			Arrays.fill(values, ABSENT);
+		size = 0;
+		modCount++;
+	}
+	
+	public Set<Entry<String, Object>> entrySet() {
+		return overflow != null ? overflow.entrySet() : new EntrySet();
+	}
+	
+	private void inflate() {
+		Map<String, Object> map = new LinkedHashMap<String, Object>(Math.max(16, size * 2));
+		for (int i=0; i<values.length; i++)
+			if (values[i] != ABSENT)
+				map.put(schema.getLabel(i), values[i]);
+		overflow = map;
+		values = EMPTY_VALUES;
+		size = 0;
+		modCount++;
+	}
+	
+	private final class EntrySet extends AbstractSet<Entry<String, Object>> {
+		public int size() {
+			return ColumnarMap.this.size();
+		}
+		
+		public Iterator<Entry<String, Object>> iterator() {
+			return new EntryIterator();
+		}
+	}
+	
+	private final class EntryIterator implements Iterator<Entry<String, Object>> {
+		private final Object[] vals = values;
+		private int expectedModCount = modCount;
+		private int next = advance(0);
+		private int last = -1;
+		
+		private int advance(int from) {
+			while (from < vals.length && vals[from] == ABSENT)
+				from++;
+			return from;
+		}
+		
+		public boolean hasNext() {
+			return next < vals.length;
+		}
+		
+		public Entry<String, Object> next() {
+			if (modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+			if (next >= vals.length)
+				throw new NoSuchElementException();
+			last = next;
+			next = advance(next + 1);
+			return new SlotEntry(last);
+		}
+		
+		public void remove() {
+			if (last < 0)
+				throw new IllegalStateException();
+			if (modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+			ColumnarMap.this.remove(schema.getLabel(last));
+			expectedModCount = modCount;
+			last = -1;
+		}
+	}
+	
+	private final class SlotEntry implements Entry<String, Object> {
+		private final int slot;
+		
+		SlotEntry(int slot) {
+			this.slot = slot;
+		}
+		
+		public String getKey() {
+			return schema.getLabel(slot);
+		}
+		
+		public Object getValue() {
+			if (overflow != null)
+				return overflow.get(getKey());
+			Object value = values[slot];
+			return value != ABSENT ? value : null;	// removed after the entry is taken
+		}
+		
+		public Object setValue(Object value) {
+			return put(getKey(), value);
+		}
+		
+		public boolean equals(Object o) {
+			if (!(o instanceof Entry))
+				return false;
+			Entry<?, ?> e = (Entry<?, ?>)o;
+			Object v = getValue();
+			return getKey().equals(e.getKey()) && (v == null ? e.getValue() == null : v.equals(e.getValue()));
+		}
+		
+		public int hashCode() {
+			Object v = getValue();
+			return getKey().hashCode() ^ (v == null ? 0 : v.hashCode());
+		}
+		
+		public String toString() {
+			return getKey() + "=" + getValue();
+		}
+	}
+	
+	// values are written as (slot, value) pairs, the ABSENT marker is never serialized
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		if (overflow == null) {
+			out.writeInt(size);
+			for (int i=0; i<values.length; i++) {
+				if (values[i] != ABSENT) {
+					out.writeInt(i);
+					out.writeObject(values[i]);
+				}
+			}
+		}
+	}
+	
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		if (overflow == null) {
+			values = newValues(schema);
+			int n = in.readInt();
+			for (int k=0; k<n; k++) {
+				int i = in.readInt();
+				values[i] = in.readObject();
+			}
+			size = n;
+		}
+		else {
+			values = EMPTY_VALUES;
+		}
+	}
+}
@@ -16,18 +16,33 @@
 
 package org.sxb.plugin.activerecord;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.sql.DataSource;
 
 import org.sxb.kit.StrKit;
+import org.sxb.log.Logger;
 import org.sxb.plugin.activerecord.cache.EhCache;
 import org.sxb.plugin.activerecord.cache.ICache;
 import org.sxb.plugin.activerecord.dialect.Dialect;
@@ -35,6 +50,8 @@ import org.sxb.plugin.activerecord.dialect.MysqlDialect;
 
 public class Config {
 	
+	private static final Logger log = Logger.getLogger(Config.class);
+	
 	String name;
 	
 	private final ThreadLocal<Connection> threadLocal = new ThreadLocal<Connection>();
@@ -46,6 +63,36 @@ public class Config {
 	boolean showSql = false;
 	boolean devMode = false;
 	Dialect dialect = new MysqlDialect();
+	int statementCacheSize = 0;
+	long lazyLobThreshold = -1;
+	boolean keepLobLocator = false;
+	SqlStats sqlStats = null;
+	
+	DataSource[] replicas = new DataSource[0];
+	AtomicIntegerArray replicaActive = new AtomicIntegerArray(0);
+	IReplicaBalancer replicaBalancer = new RoundRobinBalancer();
+	long readYourWritesMillis = 0;
+	private ExecutorService asyncExecutor = null;
+	private boolean isDefaultAsyncExecutor = false;
+	int asyncPoolSize = Math.max(4, Runtime.getRuntime().availableProcessors());
+	int asyncQueueSize = 1024;
+	
+	final QueryCache queryCache = new QueryCache();
+	private final ThreadLocal<Set<String>> changedTablesInTransaction = new ThreadLocal<Set<String>>();
+	
+	private final ThreadLocal<long[]> lastWriteTime = new ThreadLocal<long[]>() {
+		protected long[] initialValue() {
+			return new long[1];
+		}
+	};
+	
+	final AtomicLong sqlCacheHits = new AtomicLong();
+	final AtomicLong sqlCacheMisses = new AtomicLong();
+	// sql of the Db save, update, findById and deleteById, see SqlTemplate
+	final ConcurrentHashMap<Object, SqlTemplate> dbSqlCache = new ConcurrentHashMap<Object, SqlTemplate>();
+	final AtomicLong statementCacheHits = new AtomicLong();
+	final AtomicLong statementCacheMisses = new AtomicLong();
+	final Map<Connection, StatementCache> statementCaches = new IdentityHashMap<Connection, StatementCache>();
 	
 	IContainerFactory containerFactory = new IContainerFactory(){
 		public Map<String, Object> getAttrsMap() {return new HashMap<String, Object>();}
@@ -164,6 +211,250 @@ public class Config {
 		return devMode;
 	}
 	
+	/**
+	 * Set the size of the PreparedStatement cache of each connection, 0 to disable it.
+	 * Enable it only if the connection pool does not cache statements itself.
+	 * Statements are cached as long as the connection is held: inside a transaction
+	 * or during one Db/Model operation.
+	 */
+	public Config setStatementCacheSize(int statementCacheSize) {
+		if (statementCacheSize < 0)
+			throw new IllegalArgumentException("statementCacheSize can not be less than 0");
+		this.statementCacheSize = statementCacheSize;
+		return this;
+	}
+	
+	public int getStatementCacheSize() {
+		return statementCacheSize;
+	}
+	
+	/**
+	 * Read BLOB, CLOB and NCLOB longer than lazyLobThreshold bytes / characters as Lob,
+	 * which streams the content on demand instead of loading it into the heap.
+	 * Shorter ones are still read into byte[] and String. Default value -1 disables Lob.
+	 * Lob must not be kept in the in-memory cache of findByCache and paginateByCache, see Lob.
+	 * @see Lob
+	 */
+	public Config setLazyLobThreshold(long lazyLobThreshold) {
+		this.lazyLobThreshold = lazyLobThreshold < 0 ? -1 : lazyLobThreshold;
+		return this;
+	}
+	
+	public long getLazyLobThreshold() {
+		return lazyLobThreshold;
+	}
+	
+	/**
+	 * Keep the locator of the jdbc driver in Lob read in transaction instead of the temp file.
+	 * The Lob is only valid until the transaction ends, so read it inside Db.tx(...),
+	 * not after Tx interceptor, whose action renders after commit. Default value false.
+	 * @see Lob
+	 */
+	public Config setKeepLobLocator(boolean keepLobLocator) {
+		this.keepLobLocator = keepLobLocator;
+		return this;
+	}
+	
+	public boolean getKeepLobLocator() {
+		return keepLobLocator;
+	}
+	
+	/**
+	 * Record the time and rows of the sql executed by Db and Model, null to disable it.
+	 * The statements prepared by ICallback of Db.execute(...) are reported by showSql but not timed.
+	 * @see SqlStats
+	 */
+	public Config setSqlStats(SqlStats sqlStats) {
+		this.sqlStats = sqlStats;
+		return this;
+	}
+	
+	public SqlStats getSqlStats() {
+		return sqlStats;
+	}
+	
+	/**
+	 * Report the sql if showSql is true and start timing it if sqlStats is set.
+	 * @return null if the sql is not timed
+	 */
+	final SqlStats.Sample sample(String sql) {
+		if (showSql)
+			SqlReporter.report(sql);
+		SqlStats sqlStats = this.sqlStats;
+		return sqlStats != null ? sqlStats.begin(sql) : null;
+	}
+	
+	/**
+	 * Add a replica of the dataSource. Reads of Db and Model outside of transaction
+	 * go to the replicas, writes and everything in transaction go to the dataSource.
+	 */
+	public Config addReplica(DataSource replica) {
+		if (replica == null)
+			throw new IllegalArgumentException("replica can not be null");
+		DataSource[] newReplicas = new DataSource[replicas.length + 1];
+		System.arraycopy(replicas, 0, newReplicas, 0, replicas.length);
+		newReplicas[replicas.length] = replica;
+		replicas = newReplicas;
+		replicaActive = new AtomicIntegerArray(newReplicas.length);
+		return this;
+	}
+	
+	/**
+	 * Set the executor of the tasks of AsyncDbPro, it is not shut down by this config.
+	 */
+	public synchronized Config setAsyncExecutor(ExecutorService asyncExecutor) {
+		if (asyncExecutor == null)
+			throw new IllegalArgumentException("asyncExecutor can not be null");
+		this.asyncExecutor = asyncExecutor;
+		this.isDefaultAsyncExecutor = false;
+		return this;
+	}
+	
+	/**
+	 * Set the size of the default async executor, it must not be more than the size of the connection pool
+	 * because every running task holds one Connection. The tasks beyond asyncQueueSize waiting ones are rejected.
+	 */
+	public synchronized Config setAsyncPoolSize(int asyncPoolSize, int asyncQueueSize) {
+		if (asyncPoolSize < 1 || asyncQueueSize < 1)
+			throw new IllegalArgumentException("asyncPoolSize and asyncQueueSize must be more than 0");
+		if (isDefaultAsyncExecutor)
+			throw new IllegalStateException("The async executor of config " + name + " is started already");
+		this.asyncPoolSize = asyncPoolSize;
+		this.asyncQueueSize = asyncQueueSize;
+		return this;
+	}
+	
+	/**
+	 * Return the executor of AsyncDbPro, the default one is created at the first call.
+	 */
+	public synchronized ExecutorService getAsyncExecutor() {
+		if (asyncExecutor == null) {
+			final AtomicInteger counter = new AtomicInteger();
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(asyncPoolSize, asyncPoolSize, 60L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(asyncQueueSize), new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "ActiveRecord-async-" + name + "-" + counter.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+			executor.allowCoreThreadTimeOut(true);
+			asyncExecutor = executor;
+			isDefaultAsyncExecutor = true;
+		}
+		return asyncExecutor;
+	}
+	
+	/**
+	 * Shut down the default async executor, the executor set by setAsyncExecutor(...) is left to its owner.
+	 */
+	public synchronized void shutdownAsyncExecutor() {
+		if (isDefaultAsyncExecutor) {
+			asyncExecutor.shutdown();
+			asyncExecutor = null;
+			isDefaultAsyncExecutor = false;
+		}
+	}
+	
+	/**
+	 * The query cache of findByQueryCache(...) and paginateByQueryCache(...) of Db and Model.
+	 */
+	public QueryCache getQueryCache() {
+		return queryCache;
+	}
+	
+	/**
+	 * Invalidate the query cache of the tables after a write. In transaction the tables
+	 * are invalidated again when the transaction ends, because the write is not visible before.
+	 */
+	void tablesChanged(String... tables) {
+		for (String table : tables)
+			queryCache.invalidate(table);
+		
+		if (isInTransaction() && tables.length > 0) {
+			Set<String> changed = changedTablesInTransaction.get();
+			if (changed == null) {
+				changed = new HashSet<String>();
+				changedTablesInTransaction.set(changed);
+			}
+			for (String table : tables)
+				changed.add(table);
+		}
+	}
+	
+	public DataSource[] getReplicas() {
+		return replicas.clone();
+	}
+	
+	/**
+	 * Set the balancer of the replicas, default value: new RoundRobinBalancer()
+	 */
+	public Config setReplicaBalancer(IReplicaBalancer replicaBalancer) {
+		if (replicaBalancer == null)
+			throw new IllegalArgumentException("replicaBalancer can not be null");
+		this.replicaBalancer = replicaBalancer;
+		return this;
+	}
+	
+	public IReplicaBalancer getReplicaBalancer() {
+		return replicaBalancer;
+	}
+	
+	/**
+	 * Reads of a thread go to the dataSource for readYourWritesMillis after its last write,
+	 * so it reads its own writes in spite of the replication lag. 0 to disable it.
+	 * The window starts when the Connection of the write is closed, i.e. after the commit.
+	 */
+	public Config setReadYourWritesMillis(long readYourWritesMillis) {
+		if (readYourWritesMillis < 0)
+			throw new IllegalArgumentException("readYourWritesMillis can not be less than 0");
+		this.readYourWritesMillis = readYourWritesMillis;
+		return this;
+	}
+	
+	public long getReadYourWritesMillis() {
+		return readYourWritesMillis;
+	}
+	
+	public long getSqlCacheHits() {
+		return sqlCacheHits.get();
+	}
+	
+	public long getSqlCacheMisses() {
+		return sqlCacheMisses.get();
+	}
+	
+	/**
+	 * Hit rate of the sql generated by Model save, update, findById and deleteById.
+	 */
+	public double getSqlCacheHitRate() {
+		return hitRate(sqlCacheHits.get(), sqlCacheMisses.get());
+	}
+	
+	public long getStatementCacheHits() {
+		return statementCacheHits.get();
+	}
+	
+	public long getStatementCacheMisses() {
+		return statementCacheMisses.get();
+	}
+	
+	public double getStatementCacheHitRate() {
+		return hitRate(statementCacheHits.get(), statementCacheMisses.get());
+	}
+	
+	public void resetCacheStatistics() {
+		sqlCacheHits.set(0);
+		sqlCacheMisses.set(0);
+		statementCacheHits.set(0);
+		statementCacheMisses.set(0);
+	}
+	
+	private static double hitRate(long hits, long misses) {
+		long total = hits + misses;
+		return total == 0 ? 0D : (double)hits / total;
+	}
+	
 	// --------
 	
 	/**
@@ -175,6 +466,13 @@ public class Config {
 	
 	public final void removeThreadLocalConnection() {
 		threadLocal.remove();
+		
+		Set<String> changed = changedTablesInTransaction.get();
+		if (changed != null) {
+			changedTablesInTransaction.remove();
+			for (String table : changed)
+				queryCache.invalidate(table);
+		}
 	}
 	
 	/**
@@ -184,7 +482,64 @@ public class Config {
 		Connection conn = threadLocal.get();
 		if (conn != null)
 			return conn;
-		return showSql ? new SqlReporter(dataSource.getConnection()).getConnection() : dataSource.getConnection();
+		if (readYourWritesMillis > 0 && replicas.length > 0)
+			return stampOnClose(wrap(dataSource.getConnection()));
+		return wrap(dataSource.getConnection());
+	}
+	
+	/**
+	 * Record the last write time of the thread when the Connection is closed,
+	 * the replicas can not see the write before its commit.
+	 */
+	private Connection stampOnClose(final Connection conn) {
+		final long[] lastWrite = lastWriteTime.get();
+		return (Connection)Proxy.newProxyInstance(conn.getClass().getClassLoader(), new Class[]{Connection.class}, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				try {
+					return method.invoke(conn, args);
+				} catch (InvocationTargetException e) {
+					throw e.getTargetException();
+				} finally {
+					if (method.getName().equals("close"))
+						lastWrite[0] = System.currentTimeMillis();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Get Connection for read only sql. Return the Connection in ThreadLocal if in transaction,
+	 * otherwise a Connection of the replica selected by the balancer. Fall back to the dataSource
+	 * if there is no replica, the replica is unavailable or in the read-your-writes window.
+	 */
+	public final Connection getReadConnection() throws SQLException {
+		Connection conn = threadLocal.get();
+		if (conn != null)
+			return conn;
+		
+		DataSource[] replicas = this.replicas;
+		if (replicas.length == 0 || isInReadYourWritesWindow())
+			return wrap(dataSource.getConnection());
+		
+		AtomicIntegerArray active = replicaActive;
+		int index = replicaBalancer.select(active);
+		try {
+			conn = replicas[index].getConnection();
+		} catch (SQLException e) {
+			log.warn("Replica " + index + " of config " + name + " is unavailable, read from the primary DataSource.", e);
+			return wrap(dataSource.getConnection());
+		}
+		return wrap(new ReplicaConnection(conn, active, index).getConnection());
+	}
+	
+	private boolean isInReadYourWritesWindow() {
+		return readYourWritesMillis > 0 && System.currentTimeMillis() - lastWriteTime.get()[0] < readYourWritesMillis;
+	}
+	
+	private Connection wrap(Connection conn) {
+		if (statementCacheSize > 0)
+			conn = StatementCache.wrap(conn, this);
+		return conn;
 	}
 	
 	/**
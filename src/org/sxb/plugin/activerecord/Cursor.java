@@ -0,0 +1,258 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.plugin.activerecord;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Cursor. Streaming query result with a fixed memory footprint.
+ * <p>
+ * Rows are read from the driver on demand and one row object is reused for the whole result,
+ * so do not keep a reference to the object returned by next(). The cursor must be closed,
+ * it is closed automatically after the last row.
+ * <pre>
+ * Example:
+ * Cursor&lt;Record&gt; cursor = Db.cursor("select * from user");
+ * try {
+ *     while (cursor.hasNext())
+ *         export(cursor.next());
+ * } finally {
+ *     cursor.close();
+ * }
+ * </pre>
+ * Inside a transaction the thread local connection is used and left open on close.
+ * With MysqlDialect the driver streams the result row by row, no other statement can be
+ * executed on the same connection before the cursor is closed.
+ */
+public abstract class Cursor<T> implements Iterator<T>, Closeable {
+	
+	/**
+	 * Default fetch size, ignored by MysqlDialect which always streams row by row.
+	 */
+	public static final int DEFAULT_FETCH_SIZE = 1000;
+	
+	protected final Config config;
+	private Connection conn;
+	private PreparedStatement pst;
+	private ResultSet rs;
+	private final boolean ownConnection;	// false in transaction
+	private boolean restoreAutoCommit = false;
+	
+	protected final int columnCount;
+	protected final String[] labelNames;
+	protected final int[] types;
+	
+	private boolean fetched = false;
+	private boolean hasNext = false;
+	
+	private SqlStats.Sample sample;
+	private int rows = 0;
+	private boolean failed = false;
+	
+	Cursor(Config config, int fetchSize, String sql, Object... paras) throws SQLException {
+		this.config = config;
+		this.ownConnection = !config.isInTransaction();
+		boolean success = false;
+		try {
+			conn = config.getReadConnection();
+			if (ownConnection && config.dialect.isStreamingNeedsTransaction() && conn.getAutoCommit()) {
+				conn.setAutoCommit(false);
+				restoreAutoCommit = true;
+			}
+			sample = config.sample(sql);
+			pst = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			if (sample != null)
+				sample.prepared();
+			config.dialect.setStreamingFetchSize(pst, fetchSize);
+			config.dialect.fillStatement(pst, paras);
+			rs = pst.executeQuery();
+			if (sample != null)
+				sample.executed();
+			
+			ResultSetMetaData rsmd = rs.getMetaData();
+			columnCount = rsmd.getColumnCount();
+			labelNames = new String[columnCount + 1];
+			types = new int[columnCount + 1];
+			for (int i=1; i<=columnCount; i++) {
+				labelNames[i] = rsmd.getColumnLabel(i);
+				types[i] = rsmd.getColumnType(i);
+			}
+			success = true;
+		} finally {
+			if (!success) {
+				failed = true;
+				close();
+			}
+		}
+	}
+	
+	/**
+	 * Fill the reused row object with the current row of the ResultSet.
+	 */
+	protected abstract T read(ResultSet rs) throws SQLException;
+	
+	public boolean hasNext() {
+		if (!fetched) {
+			if (rs == null)
+				return false;
+			try {
+				hasNext = rs.next();
+			} catch (SQLException e) {
+				failed = true;
+				close();
+				throw new ActiveRecordException(e);
+			}
+			fetched = true;
+			if (!hasNext)
+				close();
+		}
+		return hasNext;
+	}
+	
+	public T next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		fetched = false;
+		rows++;
+		try {
+			return read(rs);
+		} catch (SQLException e) {
+			failed = true;
+			close();
+			throw new ActiveRecordException(e);
+		}
+	}
+	
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+	
+	/**
+	 * Read every row with the callback then close the cursor.
+	 */
+	public void each(IRowCallback<T> callback) {
+		try {
+			while (hasNext())
+				if (!callback.call(next()))
+					break ;
+		} catch (SQLException e) {
+			throw new ActiveRecordException(e);
+		} finally {
+			close();
+		}
+	}
+	
+	/**
+	 * Close ResultSet, Statement and the Connection if it is not the transaction connection.
+	 */
+	public void close() {
+		hasNext = false;
+		fetched = true;
+		if (rs != null) {try {rs.close();} catch (SQLException e) {}}
+		if (pst != null) {try {pst.close();} catch (SQLException e) {}}
+		rs = null;
+		pst = null;
+		
+		if (sample != null) {	// the fetch time is the time until close, including the time of the caller
+			SqlStats.Sample s = sample;
+			sample = null;
+			if (!failed)
+				s.fetched(rows);
+			s.end();
+		}
+		
+		if (conn != null) {
+			Connection c = conn;
+			conn = null;
+			try {
+				if (restoreAutoCommit) {
+					c.commit();		// read only, end the transaction opened for streaming
+					c.setAutoCommit(true);
+				}
+			} catch (SQLException e) {
+				throw new ActiveRecordException(e);
+			} finally {
+				if (ownConnection)
+					try {c.close();} catch (SQLException e) {throw new ActiveRecordException(e);}
+			}
+		}
+	}
+	
+	static Cursor<Record> forRecord(Config config, int fetchSize, String sql, Object... paras) throws SQLException {
+		return new RecordCursor(config, fetchSize, sql, paras);
+	}
+	
+	@SuppressWarnings("rawtypes")
+	static <M extends Model> Cursor<M> forModel(Config config, M model, int fetchSize, String sql, Object... paras) throws SQLException {
+		return new ModelCursor<M>(config, model, fetchSize, sql, paras);
+	}
+	
+	/**
+	 * One Record and one columns map for the whole result.
+	 */
+	private static final class RecordCursor extends Cursor<Record> {
+		private final Record record = new Record();
+		
+		RecordCursor(Config config, int fetchSize, String sql, Object... paras) throws SQLException {
+			super(config, fetchSize, sql, paras);
+			if (config.containerFactory instanceof ColumnarContainerFactory)
+				record.setColumnsMap(new ColumnarMap(ColumnSchema.fromLabelNames(labelNames)));
+			else
+				record.setColumnsMap(config.containerFactory.getColumnsMap());
+		}
+		
+		protected Record read(ResultSet rs) throws SQLException {
+			record.clear();
+			Map<String, Object> columns = record.getColumns();
+			for (int i=1; i<=columnCount; i++)
+				columns.put(labelNames[i], ModelBuilder.getColumnValue(rs, types[i], i, config));
+			return record;
+		}
+	}
+	
+	/**
+	 * One Model instance for the whole result.
+	 */
+	@SuppressWarnings("rawtypes")
+	private static final class ModelCursor<M extends Model> extends Cursor<M> {
+		private final M model;
+		
+		ModelCursor(Config config, M model, int fetchSize, String sql, Object... paras) throws SQLException {
+			super(config, fetchSize, sql, paras);
+			this.model = model;
+			if (model.getAttrs() instanceof ColumnarMap)
+				model.setAttrsMap(new ColumnarMap(ColumnSchema.fromLabelNames(labelNames)));
+		}
+		
+		@SuppressWarnings("unchecked")
+		protected M read(ResultSet rs) throws SQLException {
+			model.clear();
+			Map<String, Object> attrs = model.getAttrs();
+			for (int i=1; i<=columnCount; i++)
+				attrs.put(labelNames[i], ModelBuilder.getColumnValue(rs, types[i], i, config));
+			return model;
+		}
+	}
+}
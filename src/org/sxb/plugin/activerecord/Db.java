@@ -36,6 +36,13 @@ public class Db {
 		return DbPro.use(configName);
 	}
 	
+	/**
+	 * @see DbPro#async()
+	 */
+	public static AsyncDbPro async() {
+		return dbPro.async();
+	}
+	
 	static <T> List<T> query(Config config, Connection conn, String sql, Object... paras) throws SQLException {
 		return dbPro.query(config, conn, sql, paras);
 	}
@@ -233,6 +240,34 @@ public class Db {
 		return dbPro.find(sql);
 	}
 	
+	/**
+	 * @see DbPro#cursor(int, String, Object...)
+	 */
+	public static Cursor<Record> cursor(int fetchSize, String sql, Object... paras) {
+		return dbPro.cursor(fetchSize, sql, paras);
+	}
+	
+	/**
+	 * @see DbPro#cursor(String, Object...)
+	 */
+	public static Cursor<Record> cursor(String sql, Object... paras) {
+		return dbPro.cursor(sql, paras);
+	}
+	
+	/**
+	 * @see DbPro#each(int, IRowCallback, String, Object...)
+	 */
+	public static void each(int fetchSize, IRowCallback<Record> callback, String sql, Object... paras) {
+		dbPro.each(fetchSize, callback, sql, paras);
+	}
+	
+	/**
+	 * @see DbPro#each(IRowCallback, String, Object...)
+	 */
+	public static void each(IRowCallback<Record> callback, String sql, Object... paras) {
+		dbPro.each(callback, sql, paras);
+	}
+	
 	/**
 	 * Find first record. I recommend add "limit 1" in your sql.
 	 * @param sql an SQL statement that may contain one or more '?' IN parameter placeholders
@@ -353,6 +388,34 @@ public class Db {
 		return dbPro.paginate(pageNumber, pageSize, select, sqlExceptSelect);
 	}
 	
+	/**
+	 * @see DbPro#paginateWithCountCache(String, int, int, String, String, Object...)
+	 */
+	public static Page<Record> paginateWithCountCache(String countCacheName, int pageNumber, int pageSize, String select, String sqlExceptSelect, Object... paras) {
+		return dbPro.paginateWithCountCache(countCacheName, pageNumber, pageSize, select, sqlExceptSelect, paras);
+	}
+	
+	/**
+	 * @see DbPro#paginateWithCountCache(String, int, int, String, String)
+	 */
+	public static Page<Record> paginateWithCountCache(String countCacheName, int pageNumber, int pageSize, String select, String sqlExceptSelect) {
+		return dbPro.paginateWithCountCache(countCacheName, pageNumber, pageSize, select, sqlExceptSelect);
+	}
+	
+	/**
+	 * @see DbPro#paginateByKeyset(String, boolean, String, int, String, String, Object...)
+	 */
+	public static KeysetPage<Record> paginateByKeyset(String keyColumn, boolean desc, String cursor, int pageSize, String select, String sqlExceptSelect, Object... paras) {
+		return dbPro.paginateByKeyset(keyColumn, desc, cursor, pageSize, select, sqlExceptSelect, paras);
+	}
+	
+	/**
+	 * @see DbPro#paginateByKeyset(String, String, int, String, String, Object...)
+	 */
+	public static KeysetPage<Record> paginateByKeyset(String keyColumn, String cursor, int pageSize, String select, String sqlExceptSelect, Object... paras) {
+		return dbPro.paginateByKeyset(keyColumn, cursor, pageSize, select, sqlExceptSelect, paras);
+	}
+	
 	static boolean save(Config config, Connection conn, String tableName, String primaryKey, Record record) throws SQLException {
 		return dbPro.save(config, conn, tableName, primaryKey, record);
 	}
@@ -504,6 +567,34 @@ public class Db {
 		return dbPro.paginateByCache(cacheName, key, pageNumber, pageSize, select, sqlExceptSelect);
 	}
 	
+	/**
+	 * @see DbPro#findByQueryCache(String, String, Object...)
+	 */
+	public static List<Record> findByQueryCache(String cacheName, String sql, Object... paras) {
+		return dbPro.findByQueryCache(cacheName, sql, paras);
+	}
+	
+	/**
+	 * @see DbPro#findByQueryCache(String, String)
+	 */
+	public static List<Record> findByQueryCache(String cacheName, String sql) {
+		return dbPro.findByQueryCache(cacheName, sql);
+	}
+	
+	/**
+	 * @see DbPro#paginateByQueryCache(String, int, int, String, String, Object...)
+	 */
+	public static Page<Record> paginateByQueryCache(String cacheName, int pageNumber, int pageSize, String select, String sqlExceptSelect, Object... paras) {
+		return dbPro.paginateByQueryCache(cacheName, pageNumber, pageSize, select, sqlExceptSelect, paras);
+	}
+	
+	/**
+	 * @see DbPro#paginateByQueryCache(String, int, int, String, String)
+	 */
+	public static Page<Record> paginateByQueryCache(String cacheName, int pageNumber, int pageSize, String select, String sqlExceptSelect) {
+		return dbPro.paginateByQueryCache(cacheName, pageNumber, pageSize, select, sqlExceptSelect);
+	}
+	
 	/**
 	 * @see #batch(String, String, Object[][], int)
      */
@@ -524,6 +615,20 @@ public class Db {
     public static int[] batch(List<String> sqlList, int batchSize) {
     	return dbPro.batch(sqlList, batchSize);
     }
+	
+	/**
+	 * @see DbPro#batchSave(String, String, List)
+	 */
+	public static int batchSave(String tableName, String primaryKey, List<Record> recordList) {
+		return dbPro.batchSave(tableName, primaryKey, recordList);
+	}
+	
+	/**
+	 * @see DbPro#batchSave(String, List)
+	 */
+	public static int batchSave(String tableName, List<Record> recordList) {
+		return dbPro.batchSave(tableName, recordList);
+	}
 }
 
 
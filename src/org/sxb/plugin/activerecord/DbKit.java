@@ -19,6 +19,8 @@ package org.sxb.plugin.activerecord;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -89,6 +91,10 @@ public final class DbKit {
 		return modelToConfig.get(modelClass);
 	}
 	
+	public static Collection<Config> getConfigs() {
+		return Collections.unmodifiableCollection(configNameToConfig.values());
+	}
+	
 	static final void closeQuietly(ResultSet rs, Statement st) {
 		if (rs != null) {try {rs.close();} catch (SQLException e) {}}
 		if (st != null) {try {st.close();} catch (SQLException e) {}}
@@ -22,11 +22,16 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 
 import org.sxb.plugin.activerecord.cache.ICache;
+import org.sxb.plugin.activerecord.dialect.Dialect;
 
 import static org.sxb.plugin.activerecord.DbKit.NULL_PARA_ARRAY;
 
@@ -38,6 +43,7 @@ public class DbPro {
 	
 	private final Config config;
 	private static final Map<String, DbPro> map = new HashMap<String, DbPro>();
+	private volatile AsyncDbPro async;
 	
 	public DbPro() {
 		if (DbKit.config == null)
@@ -64,28 +70,51 @@ public class DbPro {
 		return use(DbKit.config.name);
 	}
 	
+	/**
+	 * Return the async facade of this DbPro, the queries run on the async executor of the config.
+	 * @see AsyncDbPro
+	 */
+	public AsyncDbPro async() {
+		AsyncDbPro result = async;
+		if (result == null)
+			async = result = new AsyncDbPro(this, config);
+		return result;
+	}
+	
 	<T> List<T> query(Config config, Connection conn, String sql, Object... paras) throws SQLException {
 		List result = new ArrayList();
-		PreparedStatement pst = conn.prepareStatement(sql);
-		config.dialect.fillStatement(pst, paras);
-		ResultSet rs = pst.executeQuery();
-		int colAmount = rs.getMetaData().getColumnCount();
-		if (colAmount > 1) {
-			while (rs.next()) {
-				Object[] temp = new Object[colAmount];
-				for (int i=0; i<colAmount; i++) {
-					temp[i] = rs.getObject(i + 1);
+		SqlStats.Sample sample = config.sample(sql);
+		try {
+			PreparedStatement pst = conn.prepareStatement(sql);
+			if (sample != null)
+				sample.prepared();
+			config.dialect.fillStatement(pst, paras);
+			ResultSet rs = pst.executeQuery();
+			if (sample != null)
+				sample.executed();
+			int colAmount = rs.getMetaData().getColumnCount();
+			if (colAmount > 1) {
+				while (rs.next()) {
+					Object[] temp = new Object[colAmount];
+					for (int i=0; i<colAmount; i++) {
+						temp[i] = rs.getObject(i + 1);
+					}
+					result.add(temp);
 				}
-				result.add(temp);
 			}
-		}
-		else if(colAmount == 1) {
-			while (rs.next()) {
-				result.add(rs.getObject(1));
+			else if(colAmount == 1) {
+				while (rs.next()) {
+					result.add(rs.getObject(1));
+				}
 			}
+			if (sample != null)
+				sample.fetched(result.size());
+			DbKit.closeQuietly(rs, pst);
+			return result;
+		} finally {
+			if (sample != null)
+				sample.end();
 		}
-		DbKit.closeQuietly(rs, pst);
-		return result;
 	}
 	
 	/**
@@ -94,7 +123,7 @@ public class DbPro {
 	public <T> List<T> query(String sql, Object... paras) {
 		Connection conn = null;
 		try {
-			conn = config.getConnection();
+			conn = config.getReadConnection();
 			return query(config, conn, sql, paras);
 		} catch (Exception e) {
 			throw new ActiveRecordException(e);
@@ -257,11 +286,22 @@ public class DbPro {
 	 * Execute sql update
 	 */
 	int update(Config config, Connection conn, String sql, Object... paras) throws SQLException {
-		PreparedStatement pst = conn.prepareStatement(sql);
-		config.dialect.fillStatement(pst, paras);
-		int result = pst.executeUpdate();
-		DbKit.closeQuietly(pst);
-		return result;
+		SqlStats.Sample sample = config.sample(sql);
+		try {
+			PreparedStatement pst = conn.prepareStatement(sql);
+			if (sample != null)
+				sample.prepared();
+			config.dialect.fillStatement(pst, paras);
+			int result = pst.executeUpdate();
+			if (sample != null)
+				sample.executed(result);
+			DbKit.closeQuietly(pst);
+			config.tablesChanged(config.queryCache.getTables(sql));
+			return result;
+		} finally {
+			if (sample != null)
+				sample.end();
+		}
 	}
 	
 	/**
@@ -293,12 +333,24 @@ public class DbPro {
 	}
 	
 	List<Record> find(Config config, Connection conn, String sql, Object... paras) throws SQLException {
-		PreparedStatement pst = conn.prepareStatement(sql);
-		config.dialect.fillStatement(pst, paras);
-		ResultSet rs = pst.executeQuery();
-		List<Record> result = RecordBuilder.build(config, rs);
-		DbKit.closeQuietly(rs, pst);
-		return result;
+		SqlStats.Sample sample = config.sample(sql);
+		try {
+			PreparedStatement pst = conn.prepareStatement(sql);
+			if (sample != null)
+				sample.prepared();
+			config.dialect.fillStatement(pst, paras);
+			ResultSet rs = pst.executeQuery();
+			if (sample != null)
+				sample.executed();
+			List<Record> result = RecordBuilder.build(config, rs);
+			if (sample != null)
+				sample.fetched(result.size());
+			DbKit.closeQuietly(rs, pst);
+			return result;
+		} finally {
+			if (sample != null)
+				sample.end();
+		}
 	}
 	
 	/**
@@ -307,7 +359,7 @@ public class DbPro {
 	public List<Record> find(String sql, Object... paras) {
 		Connection conn = null;
 		try {
-			conn = config.getConnection();
+			conn = config.getReadConnection();
 			return find(config, conn, sql, paras);
 		} catch (Exception e) {
 			throw new ActiveRecordException(e);
@@ -324,6 +376,59 @@ public class DbPro {
 		return find(sql, NULL_PARA_ARRAY);
 	}
 	
+	/**
+	 * Open a streaming cursor, the Record returned by the cursor is reused for every row.
+	 * The cursor must be closed, it is closed automatically after the last row.
+	 * <pre>
+	 * Example:
+	 * Cursor<Record> cursor = DbPro.use().cursor(500, "select * from log where day = ?", day);
+	 * </pre>
+	 * @param fetchSize the fetch size hint for the driver, MysqlDialect always streams row by row
+	 * @param sql an SQL statement that may contain one or more '?' IN parameter placeholders
+	 * @param paras the parameters of sql
+	 */
+	public Cursor<Record> cursor(int fetchSize, String sql, Object... paras) {
+		try {
+			return Cursor.forRecord(config, fetchSize, sql, paras);
+		} catch (SQLException e) {
+			throw new ActiveRecordException(e);
+		}
+	}
+	
+	/**
+	 * @see #cursor(int, String, Object...)
+	 */
+	public Cursor<Record> cursor(String sql, Object... paras) {
+		return cursor(Cursor.DEFAULT_FETCH_SIZE, sql, paras);
+	}
+	
+	/**
+	 * Stream the query result to the callback row by row, the memory footprint does not grow with the result.
+	 * <pre>
+	 * Example:
+	 * DbPro.use().each(new IRowCallback<Record>() {
+	 *     public boolean call(Record row) {
+	 *         writer.write(row.getStr("name"));
+	 *         return true;
+	 *     }
+	 * }, "select * from user");
+	 * </pre>
+	 * @param fetchSize the fetch size hint for the driver, MysqlDialect always streams row by row
+	 * @param callback the IRowCallback, return false to stop
+	 * @param sql an SQL statement that may contain one or more '?' IN parameter placeholders
+	 * @param paras the parameters of sql
+	 */
+	public void each(int fetchSize, IRowCallback<Record> callback, String sql, Object... paras) {
+		cursor(fetchSize, sql, paras).each(callback);
+	}
+	
+	/**
+	 * @see #each(int, IRowCallback, String, Object...)
+	 */
+	public void each(IRowCallback<Record> callback, String sql, Object... paras) {
+		cursor(Cursor.DEFAULT_FETCH_SIZE, sql, paras).each(callback);
+	}
+	
 	/**
 	 * Find first record. I recommend add "limit 1" in your sql.
 	 * @param sql an SQL statement that may contain one or more '?' IN parameter placeholders
@@ -373,7 +478,7 @@ public class DbPro {
 		if (pKeys.length != idValue.length)
 			throw new IllegalArgumentException("primary key number must equals id value number");
 		
-		String sql = config.dialect.forDbFindById(tableName, pKeys);
+		String sql = SqlTemplate.forDbFindById(config, tableName, trim(pKeys));
 		List<Record> result = find(sql, idValue);
 		return result.size() > 0 ? result.get(0) : null;
 	}
@@ -409,10 +514,16 @@ public class DbPro {
 		if (pKeys.length != idValue.length)
 			throw new IllegalArgumentException("primary key number must equals id value number");
 		
-		String sql = config.dialect.forDbDeleteById(tableName, pKeys);
+		String sql = SqlTemplate.forDbDeleteById(config, tableName, trim(pKeys));
 		return update(sql, idValue) >= 1;
 	}
 	
+	private static String[] trim(String[] pKeys) {
+		for (int i=0; i<pKeys.length; i++)
+			pKeys[i] = pKeys[i].trim();
+		return pKeys;
+	}
+	
 	/**
 	 * Delete record.
 	 * <pre>
@@ -441,24 +552,31 @@ public class DbPro {
 	}
 	
 	Page<Record> paginate(Config config, Connection conn, int pageNumber, int pageSize, String select, String sqlExceptSelect, Object... paras) throws SQLException {
+		return paginate(config, conn, null, pageNumber, pageSize, select, sqlExceptSelect, paras);
+	}
+	
+	Page<Record> paginate(Config config, Connection conn, String countCacheName, int pageNumber, int pageSize, String select, String sqlExceptSelect, Object... paras) throws SQLException {
 		if (pageNumber < 1 || pageSize < 1)
 			throw new ActiveRecordException("pageNumber and pageSize must be more than 0");
 		
-		if (config.dialect.isTakeOverDbPaginate())
-			return config.dialect.takeOverDbPaginate(conn, pageNumber, pageSize, select, sqlExceptSelect, paras);
+		if (config.dialect.isTakeOverDbPaginate()) {
+			SqlStats.Sample sample = config.sample(select + " " + sqlExceptSelect);
+			try {
+				Page<Record> page = config.dialect.takeOverDbPaginate(conn, pageNumber, pageSize, select, sqlExceptSelect, paras);
+				if (sample != null)
+					sample.fetched(page.getList().size());
+				return page;
+			} finally {
+				if (sample != null)
+					sample.end();
+			}
+		}
 		
-		long totalRow = 0;
-		int totalPage = 0;
-		List result = query(config, conn, "select count(*) " + DbKit.replaceFormatSqlOrderBy(sqlExceptSelect), paras);
-		int size = result.size();
-		if (size == 1)
-			totalRow = ((Number)result.get(0)).longValue();
-		else if (size > 1)
-			totalRow = result.size();
-		else
+		long totalRow = queryTotalRow(config, conn, countCacheName, sqlExceptSelect, paras);
+		if (totalRow == 0)
 			return new Page<Record>(new ArrayList<Record>(0), pageNumber, pageSize, 0, 0);
 		
-		totalPage = (int) (totalRow / pageSize);
+		int totalPage = (int) (totalRow / pageSize);
 		if (totalRow % pageSize != 0) {
 			totalPage++;
 		}
@@ -479,7 +597,7 @@ public class DbPro {
 	public Page<Record> paginate(int pageNumber, int pageSize, String select, String sqlExceptSelect, Object... paras) {
 		Connection conn = null;
 		try {
-			conn = config.getConnection();
+			conn = config.getReadConnection();
 			return paginate(config, conn, pageNumber, pageSize, select, sqlExceptSelect, paras);
 		} catch (Exception e) {
 			throw new ActiveRecordException(e);
@@ -495,23 +613,141 @@ public class DbPro {
 		return paginate(pageNumber, pageSize, select, sqlExceptSelect, NULL_PARA_ARRAY);
 	}
 	
+	/**
+	 * Return the total row of "select count(*) " + sqlExceptSelect. If countCacheName is not null
+	 * the total row is put into the cache of that name, keyed by the count sql and the paras,
+	 * so the expiration of the count is the expiration configured for that cache.
+	 */
+	@SuppressWarnings("rawtypes")
+	static long queryTotalRow(Config config, Connection conn, String countCacheName, String sqlExceptSelect, Object... paras) throws SQLException {
+		String sql = "select count(*) " + DbKit.replaceFormatSqlOrderBy(sqlExceptSelect);
+		String key = null;
+		if (countCacheName != null) {
+			key = (paras == null || paras.length == 0) ? sql : sql + " " + Arrays.deepToString(paras);
+			Number totalRow = config.cache.get(countCacheName, key);
+			if (totalRow != null)
+				return totalRow.longValue();
+		}
+		
+		List result = Db.query(config, conn, sql, paras);
+		int size = result.size();
+		long totalRow;
+		if (size == 1)
+			totalRow = ((Number)result.get(0)).longValue();
+		else
+			totalRow = size;	// group by returns one row per group
+		
+		if (countCacheName != null)
+			config.cache.put(countCacheName, key, totalRow);
+		return totalRow;
+	}
+	
+	/**
+	 * Paginate and cache the total row, repeated requests of the same sql and paras skip the count query.
+	 * The page itself is always queried, use paginateByCache(...) to cache the whole page.
+	 * <pre>
+	 * Example:
+	 * Page<Record> page = DbPro.use().paginateWithCountCache("userCount", 1, 10, "select *", "from user where age > ?", 18);
+	 * </pre>
+	 * @param countCacheName the cache name of the total row, its expiration is configured in the cache
+	 * @see #paginate(int, int, String, String, Object...)
+	 */
+	public Page<Record> paginateWithCountCache(String countCacheName, int pageNumber, int pageSize, String select, String sqlExceptSelect, Object... paras) {
+		Connection conn = null;
+		try {
+			conn = config.getReadConnection();
+			return paginate(config, conn, countCacheName, pageNumber, pageSize, select, sqlExceptSelect, paras);
+		} catch (Exception e) {
+			throw new ActiveRecordException(e);
+		} finally {
+			config.close(conn);
+		}
+	}
+	
+	/**
+	 * @see #paginateWithCountCache(String, int, int, String, String, Object...)
+	 */
+	public Page<Record> paginateWithCountCache(String countCacheName, int pageNumber, int pageSize, String select, String sqlExceptSelect) {
+		return paginateWithCountCache(countCacheName, pageNumber, pageSize, select, sqlExceptSelect, NULL_PARA_ARRAY);
+	}
+	
+	/**
+	 * Keyset pagination, seek to the rows after the cursor instead of skipping offset rows.
+	 * The cost of a page does not grow with its depth and no count query is executed.
+	 * <pre>
+	 * Example:
+	 * KeysetPage<Record> page = DbPro.use().paginateByKeyset("id", false, null, 10, "select *", "from user where age > ?", 18);
+	 * KeysetPage<Record> next = DbPro.use().paginateByKeyset("id", false, page.getNextCursor(), 10, "select *", "from user where age > ?", 18);
+	 * </pre>
+	 * @param keyColumn the ordered column, it must be unique and selected, such as the primary key
+	 * @param desc true for descending order
+	 * @param cursor KeysetPage.getNextCursor() of the previous page, null for the first page
+	 * @param pageSize the page size
+	 * @param select the select part of the sql statement
+	 * @param sqlExceptSelect the sql statement excluded select part, without group by, having, order by or limit
+	 * @param paras the parameters of sql
+	 * @return KeysetPage
+	 */
+	public KeysetPage<Record> paginateByKeyset(String keyColumn, boolean desc, String cursor, int pageSize, String select, String sqlExceptSelect, Object... paras) {
+		if (pageSize < 1)
+			throw new ActiveRecordException("pageSize must be more than 0");
+		
+		Object key = KeysetPage.decodeCursor(cursor);
+		StringBuilder sql = new StringBuilder();
+		config.dialect.forKeysetPaginate(sql, pageSize + 1, select, sqlExceptSelect, keyColumn, desc, key != null);
+		List<Record> list = find(sql.toString(), key != null ? KeysetPage.appendPara(paras, key) : paras);
+		
+		Object nextKey = null;
+		if (list.size() > pageSize) {	// one more row was queried to know whether there is a next page
+			list.remove(pageSize);
+			nextKey = KeysetPage.getKeyValue(list.get(pageSize - 1).getColumns(), keyColumn);
+		}
+		return new KeysetPage<Record>(list, pageSize, nextKey);
+	}
+	
+	/**
+	 * @see #paginateByKeyset(String, boolean, String, int, String, String, Object...)
+	 */
+	public KeysetPage<Record> paginateByKeyset(String keyColumn, String cursor, int pageSize, String select, String sqlExceptSelect, Object... paras) {
+		return paginateByKeyset(keyColumn, false, cursor, pageSize, select, sqlExceptSelect, paras);
+	}
+	
 	boolean save(Config config, Connection conn, String tableName, String primaryKey, Record record) throws SQLException {
-		String[] pKeys = primaryKey.split(",");
+		String[] pKeys = trim(primaryKey.split(","));
 		List<Object> paras = new ArrayList<Object>();
-		StringBuilder sql = new StringBuilder();
-		config.dialect.forDbSave(sql, paras, tableName, pKeys, record);
+		String sql;
+		SqlTemplate template = SqlTemplate.forDbSave(config, tableName, pKeys, record);
+		if (template != null) {
+			sql = template.sql;
+			template.fillParas(record.getColumns(), paras);
+		} else {
+			StringBuilder sb = new StringBuilder();
+			config.dialect.forDbSave(sb, paras, tableName, pKeys, record);
+			sql = sb.toString();
+		}
 		
-		PreparedStatement pst;
-		if (config.dialect.isOracle())
-			pst = conn.prepareStatement(sql.toString(), pKeys);
-		else
-			pst = conn.prepareStatement(sql.toString(), Statement.RETURN_GENERATED_KEYS);
+		SqlStats.Sample sample = config.sample(sql);
+		try {
+			PreparedStatement pst;
+			if (config.dialect.isOracle())
+				pst = conn.prepareStatement(sql, pKeys);
+			else
+				pst = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+			if (sample != null)
+				sample.prepared();
 			
-		config.dialect.fillStatement(pst, paras);
-		int result = pst.executeUpdate();
-		getGeneratedKey(pst, record, pKeys);
-		DbKit.closeQuietly(pst);
-		return result >= 1;
+			config.dialect.fillStatement(pst, paras);
+			int result = pst.executeUpdate();
+			if (sample != null)
+				sample.executed(result);
+			getGeneratedKey(pst, record, pKeys);
+			DbKit.closeQuietly(pst);
+			config.tablesChanged(tableName);
+			return result >= 1;
+		} finally {
+			if (sample != null)
+				sample.end();
+		}
 	}
 	
 	/**
@@ -558,24 +794,32 @@ public class DbPro {
 	}
 	
 	boolean update(Config config, Connection conn, String tableName, String primaryKey, Record record) throws SQLException {
-		String[] pKeys = primaryKey.split(",");
+		String[] pKeys = trim(primaryKey.split(","));	// .trim() is important!
 		Object[] ids = new Object[pKeys.length];
 		
 		for (int i=0; i<pKeys.length; i++) {
-			ids[i] = record.get(pKeys[i].trim());	// .trim() is important!
+			ids[i] = record.get(pKeys[i]);
 			if (ids[i] == null)
 				throw new ActiveRecordException("You can't update record without Primary Key, " + pKeys[i] + " can not be null.");
 		}
 		
-		StringBuilder sql = new StringBuilder();
+		String sql;
 		List<Object> paras = new ArrayList<Object>();
-		config.dialect.forDbUpdate(tableName, pKeys, ids, record, sql, paras);
+		SqlTemplate template = SqlTemplate.forDbUpdate(config, tableName, pKeys, record);
+		if (template != null) {
+			sql = template.sql;
+			template.fillParas(record.getColumns(), paras);
+		} else {
+			StringBuilder sb = new StringBuilder();
+			config.dialect.forDbUpdate(tableName, pKeys, ids, record, sb, paras);
+			sql = sb.toString();
+		}
 		
 		if (paras.size() <= 1) {	// Needn't update
 			return false;
 		}
 		
-		return update(config, conn, sql.toString(), paras.toArray()) >= 1;
+		return update(config, conn, sql, paras.toArray()) >= 1;
 	}
 	
 	/**
@@ -629,7 +873,7 @@ public class DbPro {
 		Connection conn = null;
 		try {
 			conn = config.getConnection();
-			return callback.call(conn);
+			return callback.call(config.showSql ? SqlReporter.reportOn(conn) : conn);
 		} catch (Exception e) {
 			throw new ActiveRecordException(e);
 		} finally {
@@ -778,6 +1022,69 @@ public class DbPro {
 		return paginateByCache(cacheName, key, pageNumber, pageSize, select, sqlExceptSelect, NULL_PARA_ARRAY);
 	}
 	
+	/**
+	 * Find by cache, the result is invalidated automatically when any table of the sql is written by Db or Model.
+	 * The key is built from the sql and the paras, the expiration is configured in the cache.
+	 * <pre>
+	 * Example:
+	 * List<Record> list = DbPro.use().findByQueryCache("userList", "select * from user where age > ?", 18);
+	 * </pre>
+	 * @param cacheName the cache name
+	 * @see QueryCache
+	 */
+	public List<Record> findByQueryCache(String cacheName, String sql, Object... paras) {
+		// uncommitted rows must not be cached, and the transaction must see its own writes
+		if (config.isInTransaction())
+			return find(sql, paras);
+		
+		QueryCache queryCache = config.queryCache;
+		String key = QueryCache.buildKey(sql, paras);
+		String[] tables = queryCache.getTables(sql);
+		List<Record> result = queryCache.get(config.cache, cacheName, key, tables);
+		if (result == null) {
+			long[] versions = queryCache.getVersions(tables);
+			result = find(sql, paras);
+			queryCache.put(config.cache, cacheName, key, versions, result);
+		}
+		return result;
+	}
+	
+	/**
+	 * @see #findByQueryCache(String, String, Object...)
+	 */
+	public List<Record> findByQueryCache(String cacheName, String sql) {
+		return findByQueryCache(cacheName, sql, NULL_PARA_ARRAY);
+	}
+	
+	/**
+	 * Paginate by cache, the page is invalidated automatically when any table of the sql is written by Db or Model.
+	 * @see #findByQueryCache(String, String, Object...)
+	 * @see #paginate(int, int, String, String, Object...)
+	 */
+	public Page<Record> paginateByQueryCache(String cacheName, int pageNumber, int pageSize, String select, String sqlExceptSelect, Object... paras) {
+		if (config.isInTransaction())
+			return paginate(pageNumber, pageSize, select, sqlExceptSelect, paras);
+		
+		QueryCache queryCache = config.queryCache;
+		String sql = select + " " + sqlExceptSelect;
+		String key = QueryCache.buildKey(pageNumber + "," + pageSize + " " + sql, paras);
+		String[] tables = queryCache.getTables(sql);
+		Page<Record> result = queryCache.get(config.cache, cacheName, key, tables);
+		if (result == null) {
+			long[] versions = queryCache.getVersions(tables);
+			result = paginate(pageNumber, pageSize, select, sqlExceptSelect, paras);
+			queryCache.put(config.cache, cacheName, key, versions, result);
+		}
+		return result;
+	}
+	
+	/**
+	 * @see #paginateByQueryCache(String, int, int, String, String, Object...)
+	 */
+	public Page<Record> paginateByQueryCache(String cacheName, int pageNumber, int pageSize, String select, String sqlExceptSelect) {
+		return paginateByQueryCache(cacheName, pageNumber, pageSize, select, sqlExceptSelect, NULL_PARA_ARRAY);
+	}
+	
 	private int[] batch(Config config, Connection conn, String sql, Object[][] paras, int batchSize) throws SQLException {
 		if (paras == null || paras.length == 0)
 			throw new IllegalArgumentException("The paras array length must more than 0.");
@@ -788,38 +1095,48 @@ public class DbPro {
 		int counter = 0;
 		int pointer = 0;
 		int[] result = new int[paras.length];
-		PreparedStatement pst = conn.prepareStatement(sql);
-		for (int i=0; i<paras.length; i++) {
-			for (int j=0; j<paras[i].length; j++) {
-				Object value = paras[i][j];
-				if (config.dialect.isOracle()) {
-					if (value instanceof java.sql.Date)
-						pst.setDate(j + 1, (java.sql.Date)value);
-					else if (value instanceof java.sql.Timestamp)
-						pst.setTimestamp(j + 1, (java.sql.Timestamp)value);
+		SqlStats.Sample sample = config.sample(sql);
+		try {
+			PreparedStatement pst = conn.prepareStatement(sql);
+			if (sample != null)
+				sample.prepared();
+			for (int i=0; i<paras.length; i++) {
+				for (int j=0; j<paras[i].length; j++) {
+					Object value = paras[i][j];
+					if (config.dialect.isOracle()) {
+						if (value instanceof java.sql.Date)
+							pst.setDate(j + 1, (java.sql.Date)value);
+						else if (value instanceof java.sql.Timestamp)
+							pst.setTimestamp(j + 1, (java.sql.Timestamp)value);
+						else
+							pst.setObject(j + 1, value);
+					}
 					else
 						pst.setObject(j + 1, value);
 				}
-				else
-					pst.setObject(j + 1, value);
-			}
-			pst.addBatch();
-			if (++counter >= batchSize) {
-				counter = 0;
-				int[] r = pst.executeBatch();
-				if (isInTransaction == false)
-					conn.commit();
-				for (int k=0; k<r.length; k++)
-					result[pointer++] = r[k];
+				pst.addBatch();
+				if (++counter >= batchSize) {
+					counter = 0;
+					int[] r = pst.executeBatch();
+					if (isInTransaction == false)
+						conn.commit();
+					for (int k=0; k<r.length; k++)
+						result[pointer++] = r[k];
+				}
 			}
+			int[] r = pst.executeBatch();
+			if (isInTransaction == false)
+				conn.commit();
+			for (int k=0; k<r.length; k++)
+				result[pointer++] = r[k];
+			if (sample != null)
+				sample.executed(result.length);
+			DbKit.closeQuietly(pst);
+			return result;
+		} finally {
+			if (sample != null)
+				sample.end();
 		}
-		int[] r = pst.executeBatch();
-		if (isInTransaction == false)
-			conn.commit();
-		for (int k=0; k<r.length; k++)
-			result[pointer++] = r[k];
-		DbKit.closeQuietly(pst);
-		return result;
 	}
 	
     /**
@@ -847,6 +1164,7 @@ public class DbPro {
 			if (autoCommit != null)
 				try {conn.setAutoCommit(autoCommit);} catch (Exception e) {e.printStackTrace();}
 			config.close(conn);
+			config.tablesChanged(config.queryCache.getTables(sql));
 		}
 	}
 	
@@ -869,39 +1187,49 @@ public class DbPro {
 		int pointer = 0;
 		int size = list.size();
 		int[] result = new int[size];
-		PreparedStatement pst = conn.prepareStatement(sql);
-		for (int i=0; i<size; i++) {
-			Map map = isModel ? ((Model)list.get(i)).getAttrs() : ((Record)list.get(i)).getColumns();
-			for (int j=0; j<columnArray.length; j++) {
-				Object value = map.get(columnArray[j]);
-				if (config.dialect.isOracle()) {
-					if (value instanceof java.sql.Date)
-						pst.setDate(j + 1, (java.sql.Date)value);
-					else if (value instanceof java.sql.Timestamp)
-						pst.setTimestamp(j + 1, (java.sql.Timestamp)value);
+		SqlStats.Sample sample = config.sample(sql);
+		try {
+			PreparedStatement pst = conn.prepareStatement(sql);
+			if (sample != null)
+				sample.prepared();
+			for (int i=0; i<size; i++) {
+				Map map = isModel ? ((Model)list.get(i)).getAttrs() : ((Record)list.get(i)).getColumns();
+				for (int j=0; j<columnArray.length; j++) {
+					Object value = map.get(columnArray[j]);
+					if (config.dialect.isOracle()) {
+						if (value instanceof java.sql.Date)
+							pst.setDate(j + 1, (java.sql.Date)value);
+						else if (value instanceof java.sql.Timestamp)
+							pst.setTimestamp(j + 1, (java.sql.Timestamp)value);
+						else
+							pst.setObject(j + 1, value);
+					}
 					else
 						pst.setObject(j + 1, value);
 				}
-				else
-					pst.setObject(j + 1, value);
-			}
-			pst.addBatch();
-			if (++counter >= batchSize) {
-				counter = 0;
-				int[] r = pst.executeBatch();
-				if (isInTransaction == false)
-					conn.commit();
-				for (int k=0; k<r.length; k++)
-					result[pointer++] = r[k];
+				pst.addBatch();
+				if (++counter >= batchSize) {
+					counter = 0;
+					int[] r = pst.executeBatch();
+					if (isInTransaction == false)
+						conn.commit();
+					for (int k=0; k<r.length; k++)
+						result[pointer++] = r[k];
+				}
 			}
+			int[] r = pst.executeBatch();
+			if (isInTransaction == false)
+				conn.commit();
+			for (int k=0; k<r.length; k++)
+				result[pointer++] = r[k];
+			if (sample != null)
+				sample.executed(result.length);
+			DbKit.closeQuietly(pst);
+			return result;
+		} finally {
+			if (sample != null)
+				sample.end();
 		}
-		int[] r = pst.executeBatch();
-		if (isInTransaction == false)
-			conn.commit();
-		for (int k=0; k<r.length; k++)
-			result[pointer++] = r[k];
-		DbKit.closeQuietly(pst);
-		return result;
 	}
 	
 	/**
@@ -931,6 +1259,7 @@ public class DbPro {
 			if (autoCommit != null)
 				try {conn.setAutoCommit(autoCommit);} catch (Exception e) {e.printStackTrace();}
 			config.close(conn);
+			config.tablesChanged(config.queryCache.getTables(sql));
 		}
 	}
 	
@@ -990,9 +1319,168 @@ public class DbPro {
 			if (autoCommit != null)
 				try {conn.setAutoCommit(autoCommit);} catch (Exception e) {e.printStackTrace();}
 			config.close(conn);
+			if (sqlList != null)
+				for (String sql : sqlList)
+					config.tablesChanged(config.queryCache.getTables(sql));
 		}
     }
     
+	/**
+	 * Save rows with multi-row insert statements: "insert into t(c1, c2) values(?, ?), (?, ?) ...".
+	 * Rows are grouped by column set, each statement holds at most dialect.getMaxBatchRows() rows
+	 * and dialect.getMaxBatchParameters() parameters.
+	 * @param table the table of the models, only columns of the table are saved. null for records
+	 * @return the number of rows inserted
+	 */
+	static int batchSave(Config config, Connection conn, String tableName, String[] pKeys, Table table, List<? extends Map<String, Object>> rows) throws SQLException {
+		Dialect dialect = config.dialect;
+		Map<List<String>, List<Map<String, Object>>> groups = new LinkedHashMap<List<String>, List<Map<String, Object>>>();
+		for (Map<String, Object> row : rows) {
+			List<String> columns = new ArrayList<String>(row.size());
+			for (String column : row.keySet())
+				if (table == null || table.hasColumnLabel(column))
+					columns.add(column);
+			Collections.sort(columns);
+			List<Map<String, Object>> group = groups.get(columns);
+			if (group == null) {
+				group = new ArrayList<Map<String, Object>>();
+				groups.put(columns, group);
+			}
+			group.add(row);
+		}
+		
+		boolean isInTransaction = config.isInTransaction();
+		boolean returnKeys = pKeys.length == 1 && dialect.isBatchSaveReturnGeneratedKeys();
+		int result = 0;
+		for (Entry<List<String>, List<Map<String, Object>>> e : groups.entrySet()) {
+			String[] columns = e.getKey().toArray(new String[e.getKey().size()]);
+			List<Map<String, Object>> group = e.getValue();
+			int rowsPerStatement = Math.min(dialect.getMaxBatchRows(), Math.max(1, dialect.getMaxBatchParameters() / Math.max(1, columns.length)));
+			
+			PreparedStatement pst = null;
+			String sql = null;
+			int preparedRows = 0;
+			try {
+				for (int from=0, size=group.size(); from<size; from+=rowsPerStatement) {
+					int n = Math.min(rowsPerStatement, size - from);
+					if (n != preparedRows) {	// only the last chunk of a group needs another sql
+						DbKit.closeQuietly(pst);
+						pst = null;
+						StringBuilder sqlBuilder = new StringBuilder();
+						dialect.forBatchSave(tableName, columns, n, sqlBuilder);
+						sql = sqlBuilder.toString();
+					}
+					
+					SqlStats.Sample sample = config.sample(sql);
+					try {
+						if (pst == null) {
+							pst = returnKeys ? conn.prepareStatement(sql, pKeys) : conn.prepareStatement(sql);
+							preparedRows = n;
+						}
+						if (sample != null)
+							sample.prepared();
+						List<Object> paras = new ArrayList<Object>(n * columns.length);
+						boolean needKeys = returnKeys;
+						for (int i=from, to=from+n; i<to; i++) {
+							Map<String, Object> row = group.get(i);
+							for (String column : columns)
+								paras.add(row.get(column));
+							if (needKeys && row.get(pKeys[0]) != null)
+								needKeys = false;
+						}
+						dialect.fillStatement(pst, paras);
+						int count = pst.executeUpdate();
+						if (sample != null)
+							sample.executed(count);
+						result += count;
+						if (needKeys)
+							getGeneratedKeys(pst, group, from, n, pKeys[0], table);
+						if (isInTransaction == false)
+							conn.commit();
+					} finally {
+						if (sample != null)
+							sample.end();
+					}
+				}
+			} finally {
+				DbKit.closeQuietly(pst);
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Get ids after batch save, keys are returned in the order of the rows.
+	 */
+	private static void getGeneratedKeys(PreparedStatement pst, List<Map<String, Object>> group, int from, int n, String pKey, Table table) throws SQLException {
+		ResultSet rs = pst.getGeneratedKeys();
+		try {
+			Class<?> colType = table != null ? table.getColumnType(pKey) : null;
+			for (int i=from, to=from+n; i<to && rs.next(); i++) {
+				Object key;
+				if (colType == Integer.class || colType == int.class)
+					key = rs.getInt(1);
+				else if (colType == Long.class || colType == long.class)
+					key = rs.getLong(1);
+				else
+					key = rs.getObject(1);
+				group.get(i).put(pKey, key);
+			}
+		} finally {
+			rs.close();
+		}
+	}
+	
+	static int batchSave(Config config, String tableName, String[] pKeys, Table table, List<? extends Map<String, Object>> rows) {
+		if (rows == null || rows.size() == 0)
+			return 0;
+		
+		Connection conn = null;
+		Boolean autoCommit = null;
+		try {
+			conn = config.getConnection();
+			autoCommit = conn.getAutoCommit();
+			conn.setAutoCommit(false);
+			return batchSave(config, conn, tableName, pKeys, table, rows);
+		} catch (Exception e) {
+			throw new ActiveRecordException(e);
+		} finally {
+			if (autoCommit != null)
+				try {conn.setAutoCommit(autoCommit);} catch (Exception e) {e.printStackTrace();}
+			config.close(conn);
+			config.tablesChanged(tableName);
+		}
+	}
+	
+	/**
+	 * Save records with multi-row insert statements, far fewer round trips than save(...) in a loop.
+	 * The generated keys are set back to the records if the dialect supports it and the primary key is single.
+	 * <pre>
+	 * Example:
+	 * int count = DbPro.use().batchSave("user", "id", recordList);
+	 * </pre>
+	 * @param tableName the table name of the table
+	 * @param primaryKey the primary key of the table, composite primary key is separated by comma character: ","
+	 * @param recordList the records will be saved
+	 * @return the number of rows inserted
+	 */
+	public int batchSave(String tableName, String primaryKey, List<Record> recordList) {
+		String[] pKeys = primaryKey.split(",");
+		for (int i=0; i<pKeys.length; i++)
+			pKeys[i] = pKeys[i].trim();
+		List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>(recordList.size());
+		for (Record record : recordList)
+			rows.add(record.getColumns());
+		return batchSave(config, tableName, pKeys, null, rows);
+	}
+	
+	/**
+	 * @see #batchSave(String, String, List)
+	 */
+	public int batchSave(String tableName, List<Record> recordList) {
+		return batchSave(tableName, config.dialect.getDefaultPrimaryKey(), recordList);
+	}
+	
     /**
      * for DbKit.removeConfig(configName)
      */
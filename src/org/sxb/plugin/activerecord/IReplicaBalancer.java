@@ -0,0 +1,33 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.plugin.activerecord;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * IReplicaBalancer selects the replica of Config for the reads outside of transaction.
+ * @see RoundRobinBalancer
+ * @see LeastActiveBalancer
+ */
+public interface IReplicaBalancer {
+	
+	/**
+	 * Return the index of the replica for the next read.
+	 * @param active the number of connections in use of each replica, its length is the number of replicas
+	 */
+	int select(AtomicIntegerArray active);
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.plugin.activerecord;
+
+import java.sql.SQLException;
+
+/**
+ * IRowCallback is used by streaming query: DbPro.each(...) and Model.each(...).
+ * <p>
+ * The row object is reused between calls, do not keep a reference to it.
+ * Copy it if you need it after the call, for example: new Record().setColumns(record.getColumns())
+ */
+public interface IRowCallback<T> {
+	
+	/**
+	 * Place codes here that need to process one row.
+	 * @param row the current row
+	 * @return false to stop reading the remaining rows
+	 */
+	boolean call(T row) throws SQLException;
+}
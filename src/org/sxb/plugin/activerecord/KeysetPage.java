@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.plugin.activerecord;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * KeysetPage is the result of Model.paginateByKeyset(......) or Db.paginateByKeyset(......)
+ * <p>
+ * Keyset pagination seeks to the rows after the last seen key instead of skipping offset rows,
+ * so every page costs the same no matter how deep it is. There is no total row and no page number,
+ * pass getNextCursor() as the cursor of the next request, it is null on the last page.
+ * <p>
+ * The cursor is a plain text token such as "l:1024", url encode it before putting it into a url.
+ */
+public class KeysetPage<T> implements Serializable {
+	
+	private static final long serialVersionUID = 4377206812372529531L;
+	
+	private List<T> list;				// list result of this page
+	private int pageSize;				// page size
+	private String nextCursor;			// cursor of the next page, null on the last page
+	
+	/**
+	 * Constructor.
+	 * @param list the list of paginate result
+	 * @param pageSize the page size
+	 * @param nextKey the key value of the last row, null if there is no next page
+	 */
+	public KeysetPage(List<T> list, int pageSize, Object nextKey) {
+		this.list = list;
+		this.pageSize = pageSize;
+		this.nextCursor = encodeCursor(nextKey);
+	}
+	
+	/**
+	 * Return list of this page.
+	 */
+	public List<T> getList() {
+		return list;
+	}
+	
+	/**
+	 * Return page size.
+	 */
+	public int getPageSize() {
+		return pageSize;
+	}
+	
+	/**
+	 * Return the cursor of the next page, null on the last page.
+	 */
+	public String getNextCursor() {
+		return nextCursor;
+	}
+	
+	public boolean isLastPage() {
+		return nextCursor == null;
+	}
+	
+	/**
+	 * Encode the key value to the cursor, the type is kept so the value binds to the same jdbc type.
+	 * Timestamp keeps the nanos under millisecond as "t:millis.nanos", otherwise rows would repeat across pages.
+	 */
+	static String encodeCursor(Object key) {
+		if (key == null)
+			return null;
+		if (key instanceof Integer || key instanceof Short || key instanceof Byte)
+			return "i:" + key;
+		if (key instanceof Long)
+			return "l:" + key;
+		if (key instanceof BigDecimal)
+			return "d:" + ((BigDecimal)key).toPlainString();
+		if (key instanceof BigInteger)
+			return "b:" + key;
+		if (key instanceof Double || key instanceof Float)
+			return "f:" + key;
+		if (key instanceof Timestamp) {
+			Timestamp ts = (Timestamp)key;
+			int subMillisNanos = ts.getNanos() % 1000000;
+			return subMillisNanos == 0 ? "t:" + ts.getTime() : "t:" + ts.getTime() + "." + subMillisNanos;
+		}
+		if (key instanceof java.util.Date)
+			return "t:" + ((java.util.Date)key).getTime();
+		return "s:" + key;
+	}
+	
+	/**
+	 * Decode the cursor to the key value, null or blank cursor means the first page.
+	 */
+	static Object decodeCursor(String cursor) {
+		if (cursor == null || cursor.trim().length() == 0)
+			return null;
+		if (cursor.length() < 2 || cursor.charAt(1) != ':')
+			throw new ActiveRecordException("Invalid cursor: " + cursor);
+		
+		String value = cursor.substring(2);
+		try {
+			switch (cursor.charAt(0)) {
+			case 'i': return Integer.valueOf(value);
+			case 'l': return Long.valueOf(value);
+			case 'd': return new BigDecimal(value);
+			case 'b': return new BigInteger(value);
+			case 'f': return Double.valueOf(value);
+			case 't': return decodeTimestamp(value);
+			case 's': return value;
+			default : throw new ActiveRecordException("Invalid cursor: " + cursor);
+			}
+		} catch (NumberFormatException e) {
+			throw new ActiveRecordException("Invalid cursor: " + cursor, e);
+		}
+	}
+	
+	private static Timestamp decodeTimestamp(String value) {
+		int dot = value.indexOf('.');
+		if (dot == -1)
+			return new Timestamp(Long.parseLong(value));
+		
+		Timestamp ts = new Timestamp(Long.parseLong(value.substring(0, dot)));
+		int subMillisNanos = Integer.parseInt(value.substring(dot + 1));
+		if (subMillisNanos < 0 || subMillisNanos >= 1000000)
+			throw new NumberFormatException("nanos out of range: " + subMillisNanos);
+		ts.setNanos(ts.getNanos() + subMillisNanos);
+		return ts;
+	}
+	
+	/**
+	 * Return the value of the key column in the row, "t.id" is read by the label "id".
+	 */
+	static Object getKeyValue(Map<String, Object> row, String keyColumn) {
+		String label = keyColumn.substring(keyColumn.lastIndexOf('.') + 1).trim();
+		Object value = row.get(label);
+		if (value == null)	// oracle returns upper case labels
+			for (Entry<String, Object> e : row.entrySet())
+				if (e.getKey().equalsIgnoreCase(label))
+					return e.getValue();
+		return value;
+	}
+	
+	/**
+	 * Append the key value to the paras as the parameter of the "keyColumn > ?" condition.
+	 */
+	static Object[] appendPara(Object[] paras, Object key) {
+		int length = paras != null ? paras.length : 0;
+		Object[] result = new Object[length + 1];
+		if (length > 0)
+			System.arraycopy(paras, 0, result, 0, length);
+		result[length] = key;
+		return result;
+	}
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.plugin.activerecord;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * LeastActiveBalancer reads from the replica with the fewest connections in use,
+ * so a slow replica gets less reads. Ties are broken in turn.
+ */
+public class LeastActiveBalancer implements IReplicaBalancer {
+	
+	private final AtomicInteger counter = new AtomicInteger();
+	
+	public int select(AtomicIntegerArray active) {
+		int length = active.length();
+		int start = (counter.getAndIncrement() & Integer.MAX_VALUE) % length;
+		int result = start;
+		int min = active.get(start);
+		for (int i=1; i<length && min > 0; i++) {
+			int index = (start + i) % length;
+			int n = active.get(index);
+			if (n < min) {
+				min = n;
+				result = index;
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,351 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.plugin.activerecord;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.ObjectStreamException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Serializable;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.SQLException;
+
+/**
+ * Lob is the value of a BLOB, CLOB or NCLOB column longer than Config.setLazyLobThreshold(...).
+ * The content is not loaded into the heap, read it by getInputStream() / getReader() or transferTo(...).
+ * <p>
+ * The content is streamed into a temp file when the row is read, the file is deleted by free()
+ * or when the Lob is garbage collected. getFile() hands out a file of its own to each caller.
+ * With Config.setKeepLobLocator(true) Lob read in transaction keeps the locator of the jdbc driver
+ * instead and reads the database on demand, it is valid until the transaction ends.
+ * <p>
+ * Lob is serialized as byte[] or String, the same value as without lazy lob.
+ * Do not put Model / Record holding Lob into an in-memory cache (findByCache, paginateByCache ...):
+ * the cached Lob is shared by all requests and is unreadable once any of them frees it,
+ * a locator Lob is unreadable as soon as its transaction ends.
+ */
+public class Lob implements Serializable {
+	
+	private static final long serialVersionUID = 2216437781634052934L;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final int BUFFER_SIZE = 8192;
+	
+	private final boolean binary;
+	private final long length;
+	private transient Blob blob;
+	private transient Clob clob;
+	private transient File file;
+	
+	private Lob(boolean binary, long length, Blob blob, Clob clob, File file) {
+		this.binary = binary;
+		this.length = length;
+		this.blob = blob;
+		this.clob = clob;
+		this.file = file;
+	}
+	
+	/**
+	 * Return byte[] if the blob is not longer than threshold, otherwise Lob.
+	 * @param keepLocator true to keep the locator of the driver instead of the temp file
+	 */
+	static Object of(Blob blob, long threshold, boolean keepLocator) throws SQLException {
+		if (blob == null)
+			return null;
+		long length = blob.length();
+		if (length <= threshold)
+			return ModelBuilder.handleBlob(blob);
+		if (keepLocator)
+			return new Lob(true, length, blob, null, null);
+		
+		InputStream in = blob.getBinaryStream();
+		File file = null;
+		OutputStream out = null;
+		try {
+			file = createTempFile();
+			out = new FileOutputStream(file);
+			copy(in, out);
+			out.close();
+			out = null;
+			blob.free();
+			return new Lob(true, length, null, null, file);
+		} catch (IOException e) {
+			deleteQuietly(file);
+			throw new ActiveRecordException(e);
+		} finally {
+			closeQuietly(out);
+			closeQuietly(in);
+		}
+	}
+	
+	/**
+	 * Return String if the clob is not longer than threshold, otherwise Lob.
+	 * The temp file of clob is encoded in UTF-8.
+	 */
+	static Object of(Clob clob, long threshold, boolean keepLocator) throws SQLException {
+		if (clob == null)
+			return null;
+		long length = clob.length();
+		if (length <= threshold)
+			return ModelBuilder.handleClob(clob);
+		if (keepLocator)
+			return new Lob(false, length, null, clob, null);
+		
+		Reader in = clob.getCharacterStream();
+		File file = null;
+		Writer out = null;
+		try {
+			file = createTempFile();
+			out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), UTF_8));
+			copy(in, out);
+			out.close();
+			out = null;
+			clob.free();
+			return new Lob(false, length, null, null, file);
+		} catch (IOException e) {
+			deleteQuietly(file);
+			throw new ActiveRecordException(e);
+		} finally {
+			closeQuietly(out);
+			closeQuietly(in);
+		}
+	}
+	
+	/**
+	 * True for BLOB, false for CLOB and NCLOB.
+	 */
+	public boolean isBinary() {
+		return binary;
+	}
+	
+	/**
+	 * The length in bytes of BLOB or in characters of CLOB.
+	 */
+	public long length() {
+		return length;
+	}
+	
+	/**
+	 * Hand out a temp file of the content, null if the Lob keeps the locator of the driver.
+	 * Each call returns a new file, a hard link to the temp file of the Lob or a copy of it
+	 * where hard links are not supported. The caller owns the file and deletes it, e.g. by FileRender after render,
+	 * the Lob stays readable.
+	 * <pre>
+	 * Example:
+	 * renderFile(((Lob)attachment.get("data")).getFile(), true);
+	 * </pre>
+	 * @throws IllegalStateException if the Lob is freed
+	 */
+	public synchronized File getFile() {
+		if (blob != null || clob != null)
+			return null;
+		File source = checkFile();
+		File ret = null;
+		try {
+			ret = createTempFile();
+			ret.delete();	// createLink requires the link not to exist
+			try {
+				Files.createLink(ret.toPath(), source.toPath());
+			} catch (UnsupportedOperationException | IOException e) {
+				Files.copy(source.toPath(), ret.toPath());
+			}
+			return ret;
+		} catch (IOException e) {
+			deleteQuietly(ret);
+			throw new ActiveRecordException(e);
+		}
+	}
+	
+	/**
+	 * Open the content of BLOB, the caller closes the stream.
+	 */
+	public InputStream getInputStream() {
+		if (!binary)
+			throw new IllegalStateException("Use getReader() to read CLOB");
+		try {
+			return file != null ? new FileInputStream(checkFile()) : checkBlob().getBinaryStream();
+		} catch (IOException e) {
+			throw new ActiveRecordException(e);
+		} catch (SQLException e) {
+			throw new ActiveRecordException(e);
+		}
+	}
+	
+	/**
+	 * Open the content of CLOB, the caller closes the reader.
+	 */
+	public Reader getReader() {
+		if (binary)
+			throw new IllegalStateException("Use getInputStream() to read BLOB");
+		try {
+			return file != null ? new InputStreamReader(new FileInputStream(checkFile()), UTF_8) : checkClob().getCharacterStream();
+		} catch (IOException e) {
+			throw new ActiveRecordException(e);
+		} catch (SQLException e) {
+			throw new ActiveRecordException(e);
+		}
+	}
+	
+	/**
+	 * Copy the content of BLOB to out.
+	 * @return the number of bytes copied
+	 */
+	public long transferTo(OutputStream out) throws IOException {
+		InputStream in = getInputStream();
+		try {
+			return copy(in, out);
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Copy the content of CLOB to out.
+	 * @return the number of characters copied
+	 */
+	public long transferTo(Writer out) throws IOException {
+		Reader in = getReader();
+		try {
+			return copy(in, out);
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Load the content of BLOB into the heap.
+	 */
+	public byte[] getBytes() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream((int)Math.min(length, Integer.MAX_VALUE - 8));
+		try {
+			transferTo(out);
+		} catch (IOException e) {
+			throw new ActiveRecordException(e);
+		}
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Load the content of CLOB into the heap.
+	 */
+	public String getString() {
+		StringWriter out = new StringWriter((int)Math.min(length, Integer.MAX_VALUE - 8));
+		try {
+			transferTo(out);
+		} catch (IOException e) {
+			throw new ActiveRecordException(e);
+		}
+		return out.toString();
+	}
+	
+	/**
+	 * Release the locator or delete the temp file, the Lob can not be read any more.
+	 */
+	public synchronized void free() {
+		if (blob != null)
+			try {blob.free();} catch (SQLException e) {}
+		if (clob != null)
+			try {clob.free();} catch (SQLException e) {}
+		deleteQuietly(file);
+		blob = null;
+		clob = null;
+		file = null;
+	}
+	
+	protected void finalize() throws Throwable {
+		try {
+			deleteQuietly(file);
+		} finally {
+			super.finalize();
+		}
+	}
+	
+	private Object writeReplace() throws ObjectStreamException {
+		return binary ? getBytes() : getString();
+	}
+	
+	public String toString() {
+		return (binary ? "Lob(BLOB, " : "Lob(CLOB, ") + length + ")";
+	}
+	
+	private File checkFile() {
+		File f = file;
+		if (f == null)
+			throw new IllegalStateException("The Lob is freed");
+		return f;
+	}
+	
+	private Blob checkBlob() {
+		Blob b = blob;
+		if (b == null)
+			throw new IllegalStateException("The Lob is freed");
+		return b;
+	}
+	
+	private Clob checkClob() {
+		Clob c = clob;
+		if (c == null)
+			throw new IllegalStateException("The Lob is freed");
+		return c;
+	}
+	
+	private static File createTempFile() throws IOException {
+		return File.createTempFile("sxb-lob-", ".tmp");
+	}
+	
+	static long copy(InputStream in, OutputStream out) throws IOException {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		long total = 0;
+		for (int n; (n = in.read(buffer)) != -1;) {
+			out.write(buffer, 0, n);
+			total += n;
+		}
+		return total;
+	}
+	
+	static long copy(Reader in, Writer out) throws IOException {
+		char[] buffer = new char[BUFFER_SIZE];
+		long total = 0;
+		for (int n; (n = in.read(buffer)) != -1;) {
+			out.write(buffer, 0, n);
+			total += n;
+		}
+		return total;
+	}
+	
+	private static void deleteQuietly(File file) {
+		if (file != null)
+			file.delete();
+	}
+	
+	private static void closeQuietly(java.io.Closeable closeable) {
+		if (closeable != null)
+			try {closeable.close();} catch (IOException e) {}
+	}
+}
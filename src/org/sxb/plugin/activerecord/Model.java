@@ -57,6 +57,11 @@ public abstract class Model<M extends Model> implements Serializable {
 		return config.containerFactory.getAttrsMap();
 	}
 	
+	// Only used by ModelBuilder and Cursor
+	void setAttrsMap(Map<String, Object> attrs) {
+		this.attrs = attrs;
+	}
+	
 	/**
 	 * Flag of column has been modified. update need this flag
 	 */
@@ -287,8 +292,8 @@ public abstract class Model<M extends Model> implements Serializable {
 		Config config = getConfig();
 		Connection conn = null;
 		try {
-			conn = config.getConnection();
-			return paginate(config, conn, pageNumber, pageSize, select, sqlExceptSelect, paras);
+			conn = config.getReadConnection();
+			return paginate(config, conn, null, pageNumber, pageSize, select, sqlExceptSelect, paras);
 		} catch (Exception e) {
 			throw new ActiveRecordException(e);
 		} finally {
@@ -296,25 +301,28 @@ public abstract class Model<M extends Model> implements Serializable {
 		}
 	}
 	
-	private Page<M> paginate(Config config, Connection conn, int pageNumber, int pageSize, String select, String sqlExceptSelect, Object... paras) throws Exception {
+	private Page<M> paginate(Config config, Connection conn, String countCacheName, int pageNumber, int pageSize, String select, String sqlExceptSelect, Object... paras) throws Exception {
 		if (pageNumber < 1 || pageSize < 1)
 			throw new ActiveRecordException("pageNumber and pageSize must be more than 0");
 		
-		if (config.dialect.isTakeOverModelPaginate())
-			return config.dialect.takeOverModelPaginate(conn, getUsefulClass(), pageNumber, pageSize, select, sqlExceptSelect, paras);
+		if (config.dialect.isTakeOverModelPaginate()) {
+			SqlStats.Sample sample = config.sample(select + " " + sqlExceptSelect);
+			try {
+				Page<M> page = (Page<M>)config.dialect.takeOverModelPaginate(conn, getUsefulClass(), pageNumber, pageSize, select, sqlExceptSelect, paras);
+				if (sample != null)
+					sample.fetched(page.getList().size());
+				return page;
+			} finally {
+				if (sample != null)
+					sample.end();
+			}
+		}
 		
-		long totalRow = 0;
-		int totalPage = 0;
-		List result = Db.query(config, conn, "select count(*) " + DbKit.replaceFormatSqlOrderBy(sqlExceptSelect), paras);
-		int size = result.size();
-		if (size == 1)
-			totalRow = ((Number)result.get(0)).longValue();		// totalRow = (Long)result.get(0);
-		else if (size > 1)
-			totalRow = result.size();
-		else
-			return new Page<M>(new ArrayList<M>(0), pageNumber, pageSize, 0, 0);	// totalRow = 0;
+		long totalRow = DbPro.queryTotalRow(config, conn, countCacheName, sqlExceptSelect, paras);
+		if (totalRow == 0)
+			return new Page<M>(new ArrayList<M>(0), pageNumber, pageSize, 0, 0);
 		
-		totalPage = (int) (totalRow / pageSize);
+		int totalPage = (int) (totalRow / pageSize);
 		if (totalRow % pageSize != 0) {
 			totalPage++;
 		}
@@ -336,6 +344,75 @@ public abstract class Model<M extends Model> implements Serializable {
 		return paginate(pageNumber, pageSize, select, sqlExceptSelect, NULL_PARA_ARRAY);
 	}
 	
+	/**
+	 * Paginate and cache the total row, repeated requests of the same sql and paras skip the count query.
+	 * <pre>
+	 * Example:
+	 * Page<User> page = User.dao.paginateWithCountCache("userCount", 1, 10, "select *", "from user where age > ?", 18);
+	 * </pre>
+	 * @param countCacheName the cache name of the total row, its expiration is configured in the cache
+	 * @see #paginate(int, int, String, String, Object...)
+	 */
+	public Page<M> paginateWithCountCache(String countCacheName, int pageNumber, int pageSize, String select, String sqlExceptSelect, Object... paras) {
+		Config config = getConfig();
+		Connection conn = null;
+		try {
+			conn = config.getReadConnection();
+			return paginate(config, conn, countCacheName, pageNumber, pageSize, select, sqlExceptSelect, paras);
+		} catch (Exception e) {
+			throw new ActiveRecordException(e);
+		} finally {
+			config.close(conn);
+		}
+	}
+	
+	/**
+	 * @see #paginateWithCountCache(String, int, int, String, String, Object...)
+	 */
+	public Page<M> paginateWithCountCache(String countCacheName, int pageNumber, int pageSize, String select, String sqlExceptSelect) {
+		return paginateWithCountCache(countCacheName, pageNumber, pageSize, select, sqlExceptSelect, NULL_PARA_ARRAY);
+	}
+	
+	/**
+	 * Keyset pagination, seek to the rows after the cursor instead of skipping offset rows.
+	 * <pre>
+	 * Example:
+	 * KeysetPage<User> page = User.dao.paginateByKeyset("id", false, null, 10, "select *", "from user where age > ?", 18);
+	 * KeysetPage<User> next = User.dao.paginateByKeyset("id", false, page.getNextCursor(), 10, "select *", "from user where age > ?", 18);
+	 * </pre>
+	 * @param keyColumn the ordered column, it must be unique and selected, such as the primary key
+	 * @param desc true for descending order
+	 * @param cursor KeysetPage.getNextCursor() of the previous page, null for the first page
+	 * @param pageSize the page size
+	 * @param select the select part of the sql statement
+	 * @param sqlExceptSelect the sql statement excluded select part, without group by, having, order by or limit
+	 * @param paras the parameters of sql
+	 * @return KeysetPage
+	 */
+	public KeysetPage<M> paginateByKeyset(String keyColumn, boolean desc, String cursor, int pageSize, String select, String sqlExceptSelect, Object... paras) {
+		if (pageSize < 1)
+			throw new ActiveRecordException("pageSize must be more than 0");
+		
+		Object key = KeysetPage.decodeCursor(cursor);
+		StringBuilder sql = new StringBuilder();
+		getConfig().dialect.forKeysetPaginate(sql, pageSize + 1, select, sqlExceptSelect, keyColumn, desc, key != null);
+		List<M> list = find(sql.toString(), key != null ? KeysetPage.appendPara(paras, key) : paras);
+		
+		Object nextKey = null;
+		if (list.size() > pageSize) {	// one more row was queried to know whether there is a next page
+			list.remove(pageSize);
+			nextKey = KeysetPage.getKeyValue(((Model<?>)list.get(pageSize - 1)).getAttrs(), keyColumn);
+		}
+		return new KeysetPage<M>(list, pageSize, nextKey);
+	}
+	
+	/**
+	 * @see #paginateByKeyset(String, boolean, String, int, String, String, Object...)
+	 */
+	public KeysetPage<M> paginateByKeyset(String keyColumn, String cursor, int pageSize, String select, String sqlExceptSelect, Object... paras) {
+		return paginateByKeyset(keyColumn, false, cursor, pageSize, select, sqlExceptSelect, paras);
+	}
+	
 	/**
 	 * Return attribute Map.
 	 * <p>
@@ -360,34 +437,74 @@ public abstract class Model<M extends Model> implements Serializable {
 		Config config = getConfig();
 		Table table = getTable();
 		
-		StringBuilder sql = new StringBuilder();
+		String sql;
 		List<Object> paras = new ArrayList<Object>();
-		config.dialect.forModelSave(table, attrs, sql, paras);
+		SqlTemplate template = SqlTemplate.forModelSave(config, table, attrs);
+		if (template != null) {
+			sql = template.sql;
+			template.fillParas(attrs, paras);
+		}
+		else {
+			StringBuilder temp = new StringBuilder();
+			config.dialect.forModelSave(table, attrs, temp, paras);
+			sql = temp.toString();
+		}
 		// if (paras.size() == 0)	return false;	// The sql "insert into tableName() values()" works fine, so delete this line
 		
 		// --------
 		Connection conn = null;
 		PreparedStatement pst = null;
 		int result = 0;
+		SqlStats.Sample sample = null;
 		try {
 			conn = config.getConnection();
+			sample = config.sample(sql);
 			if (config.dialect.isOracle())
-				pst = conn.prepareStatement(sql.toString(), table.getPrimaryKey());
+				pst = conn.prepareStatement(sql, table.getPrimaryKey());
 			else
-				pst = conn.prepareStatement(sql.toString(), Statement.RETURN_GENERATED_KEYS);
+				pst = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+			if (sample != null)
+				sample.prepared();
 			
 			config.dialect.fillStatement(pst, paras);
 			result = pst.executeUpdate();
+			if (sample != null)
+				sample.executed(result);
+			config.tablesChanged(table.getName());
 			getGeneratedKey(pst, table, config);
 			getModifyFlag().clear();
 			return result >= 1;
 		} catch (Exception e) {
 			throw new ActiveRecordException(e);
 		} finally {
+			if (sample != null)
+				sample.end();
 			config.close(pst, conn);
 		}
 	}
 	
+	/**
+	 * Save models with multi-row insert statements, far fewer round trips than save() in a loop.
+	 * Only the columns of the table are saved, the generated keys are set back to the models
+	 * if the dialect supports it and the primary key is single.
+	 * <pre>
+	 * Example:
+	 * int count = User.dao.batchSave(userList);
+	 * </pre>
+	 * @param modelList the models will be saved
+	 * @return the number of rows inserted
+	 */
+	public int batchSave(List<M> modelList) {
+		Table table = getTable();
+		List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>(modelList.size());
+		for (M model : modelList)
+			rows.add(model.getAttrs());
+		int result = DbPro.batchSave(getConfig(), table.getName(), table.getPrimaryKey(), table, rows);
+		for (Model<?> model : modelList)
+			model.getModifyFlag().clear();
+		return result;
+	}
+	
 	/**
 	 * Get id after save method.
 	 */
@@ -454,7 +571,7 @@ public abstract class Model<M extends Model> implements Serializable {
 		Connection conn = null;
 		try {
 			conn = config.getConnection();
-			String sql = config.dialect.forModelDeleteById(table);
+			String sql = SqlTemplate.forModelDeleteById(config, table);
 			return Db.update(config, conn, sql, idValues) >= 1;
 		} catch (Exception e) {
 			throw new ActiveRecordException(e);
@@ -479,9 +596,18 @@ public abstract class Model<M extends Model> implements Serializable {
 		}
 		
 		Config config = getConfig();
-		StringBuilder sql = new StringBuilder();
+		String sql;
 		List<Object> paras = new ArrayList<Object>();
-		config.dialect.forModelUpdate(table, attrs, getModifyFlag(), sql, paras);
+		SqlTemplate template = SqlTemplate.forModelUpdate(config, table, attrs, getModifyFlag());
+		if (template != null) {
+			sql = template.sql;
+			template.fillParas(attrs, paras);
+		}
+		else {
+			StringBuilder temp = new StringBuilder();
+			config.dialect.forModelUpdate(table, attrs, getModifyFlag(), temp, paras);
+			sql = temp.toString();
+		}
 		
 		if (paras.size() <= 1) {	// Needn't update
 			return false;
@@ -491,7 +617,7 @@ public abstract class Model<M extends Model> implements Serializable {
 		Connection conn = null;
 		try {
 			conn = config.getConnection();
-			int result = Db.update(config, conn, sql.toString(), paras.toArray());
+			int result = Db.update(config, conn, sql, paras.toArray());
 			if (result >= 1) {
 				getModifyFlag().clear();
 				return true;
@@ -513,12 +639,24 @@ public abstract class Model<M extends Model> implements Serializable {
 		if (config.devMode)
 			checkTableName(modelClass, sql);
 		
-		PreparedStatement pst = conn.prepareStatement(sql);
-		config.dialect.fillStatement(pst, paras);
-		ResultSet rs = pst.executeQuery();
-		List<M> result = ModelBuilder.build(rs, modelClass);
-		DbKit.closeQuietly(rs, pst);
-		return result;
+		SqlStats.Sample sample = config.sample(sql);
+		try {
+			PreparedStatement pst = conn.prepareStatement(sql);
+			if (sample != null)
+				sample.prepared();
+			config.dialect.fillStatement(pst, paras);
+			ResultSet rs = pst.executeQuery();
+			if (sample != null)
+				sample.executed();
+			List<M> result = ModelBuilder.build(config, rs, modelClass);
+			if (sample != null)
+				sample.fetched(result.size());
+			DbKit.closeQuietly(rs, pst);
+			return result;
+		} finally {
+			if (sample != null)
+				sample.end();
+		}
 	}
 	
 	/**
@@ -531,7 +669,7 @@ public abstract class Model<M extends Model> implements Serializable {
 		Config config = getConfig();
 		Connection conn = null;
 		try {
-			conn = config.getConnection();
+			conn = config.getReadConnection();
 			return find(conn, sql, paras);
 		} catch (Exception e) {
 			throw new ActiveRecordException(e);
@@ -556,6 +694,55 @@ public abstract class Model<M extends Model> implements Serializable {
 		return find(sql, NULL_PARA_ARRAY);
 	}
 	
+	/**
+	 * Open a streaming cursor, one model instance is reused for every row.
+	 * The cursor must be closed, it is closed automatically after the last row.
+	 * <pre>
+	 * Example:
+	 * Cursor<User> cursor = User.dao.cursor(500, "select * from user where age > ?", 18);
+	 * </pre>
+	 * @param fetchSize the fetch size hint for the driver, MysqlDialect always streams row by row
+	 * @param sql an SQL statement that may contain one or more '?' IN parameter placeholders
+	 * @param paras the parameters of sql
+	 */
+	public Cursor<M> cursor(int fetchSize, String sql, Object... paras) {
+		Config config = getConfig();
+		Class<? extends Model> modelClass = getUsefulClass();
+		if (config.devMode)
+			checkTableName(modelClass, sql);
+		
+		try {
+			return Cursor.forModel(config, (M)modelClass.newInstance(), fetchSize, sql, paras);
+		} catch (Exception e) {
+			throw new ActiveRecordException(e);
+		}
+	}
+	
+	/**
+	 * @see #cursor(int, String, Object...)
+	 */
+	public Cursor<M> cursor(String sql, Object... paras) {
+		return cursor(Cursor.DEFAULT_FETCH_SIZE, sql, paras);
+	}
+	
+	/**
+	 * Stream the query result to the callback row by row, the model passed to the callback is reused.
+	 * @param fetchSize the fetch size hint for the driver, MysqlDialect always streams row by row
+	 * @param callback the IRowCallback, return false to stop
+	 * @param sql an SQL statement that may contain one or more '?' IN parameter placeholders
+	 * @param paras the parameters of sql
+	 */
+	public void each(int fetchSize, IRowCallback<M> callback, String sql, Object... paras) {
+		cursor(fetchSize, sql, paras).each(callback);
+	}
+	
+	/**
+	 * @see #each(int, IRowCallback, String, Object...)
+	 */
+	public void each(IRowCallback<M> callback, String sql, Object... paras) {
+		cursor(Cursor.DEFAULT_FETCH_SIZE, sql, paras).each(callback);
+	}
+	
 	/**
 	 * Find first model. I recommend add "limit 1" in your sql.
 	 * @param sql an SQL statement that may contain one or more '?' IN parameter placeholders
@@ -627,7 +814,7 @@ public abstract class Model<M extends Model> implements Serializable {
 		if (table.getPrimaryKey().length != idValues.length)
 			throw new IllegalArgumentException("id values error, need " + table.getPrimaryKey().length + " id value");
 		
-		String sql = getConfig().dialect.forModelFindById(table, columns);
+		String sql = SqlTemplate.forModelFindById(getConfig(), table, columns);
 		List<M> result = find(sql, idValues);
 		return result.size() > 0 ? result.get(0) : null;
 	}
@@ -856,6 +1043,71 @@ public abstract class Model<M extends Model> implements Serializable {
 		return paginateByCache(cacheName, key, pageNumber, pageSize, select, sqlExceptSelect, NULL_PARA_ARRAY);
 	}
 	
+	/**
+	 * Find by cache, the result is invalidated automatically when any table of the sql is written by Db or Model.
+	 * The key is built from the sql and the paras, the expiration is configured in the cache.
+	 * <pre>
+	 * Example:
+	 * List<M> list = User.dao.findByQueryCache("userList", "select * from user where age > ?", 18);
+	 * </pre>
+	 * @param cacheName the cache name
+	 * @see QueryCache
+	 */
+	public List<M> findByQueryCache(String cacheName, String sql, Object... paras) {
+		Config config = getConfig();
+		// uncommitted rows must not be cached, and the transaction must see its own writes
+		if (config.isInTransaction())
+			return find(sql, paras);
+		
+		QueryCache queryCache = config.queryCache;
+		String key = QueryCache.buildKey(sql, paras);
+		String[] tables = queryCache.getTables(sql);
+		List<M> result = queryCache.get(config.cache, cacheName, key, tables);
+		if (result == null) {
+			long[] versions = queryCache.getVersions(tables);
+			result = find(sql, paras);
+			queryCache.put(config.cache, cacheName, key, versions, result);
+		}
+		return result;
+	}
+	
+	/**
+	 * @see #findByQueryCache(String, String, Object...)
+	 */
+	public List<M> findByQueryCache(String cacheName, String sql) {
+		return findByQueryCache(cacheName, sql, NULL_PARA_ARRAY);
+	}
+	
+	/**
+	 * Paginate by cache, the page is invalidated automatically when any table of the sql is written by Db or Model.
+	 * @see #findByQueryCache(String, String, Object...)
+	 * @see #paginate(int, int, String, String, Object...)
+	 */
+	public Page<M> paginateByQueryCache(String cacheName, int pageNumber, int pageSize, String select, String sqlExceptSelect, Object... paras) {
+		Config config = getConfig();
+		if (config.isInTransaction())
+			return paginate(pageNumber, pageSize, select, sqlExceptSelect, paras);
+		
+		QueryCache queryCache = config.queryCache;
+		String sql = select + " " + sqlExceptSelect;
+		String key = QueryCache.buildKey(pageNumber + "," + pageSize + " " + sql, paras);
+		String[] tables = queryCache.getTables(sql);
+		Page<M> result = queryCache.get(config.cache, cacheName, key, tables);
+		if (result == null) {
+			long[] versions = queryCache.getVersions(tables);
+			result = paginate(pageNumber, pageSize, select, sqlExceptSelect, paras);
+			queryCache.put(config.cache, cacheName, key, versions, result);
+		}
+		return result;
+	}
+	
+	/**
+	 * @see #paginateByQueryCache(String, int, int, String, String, Object...)
+	 */
+	public Page<M> paginateByQueryCache(String cacheName, int pageNumber, int pageSize, String select, String sqlExceptSelect) {
+		return paginateByQueryCache(cacheName, pageNumber, pageSize, select, sqlExceptSelect, NULL_PARA_ARRAY);
+	}
+	
 	/**
 	 * Return attribute names of this model.
 	 */
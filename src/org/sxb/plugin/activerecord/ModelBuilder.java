@@ -26,6 +26,7 @@ import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -34,31 +35,35 @@ import java.util.Map;
  */
 public class ModelBuilder {
 	
-	@SuppressWarnings({"rawtypes", "unchecked"})
+	@SuppressWarnings("rawtypes")
 	public static final <T> List<T> build(ResultSet rs, Class<? extends Model> modelClass) throws SQLException, InstantiationException, IllegalAccessException {
+		return build(null, rs, modelClass);
+	}
+	
+	/**
+	 * @param config read BLOB and CLOB as Lob if config.getLazyLobThreshold() is not negative, null for never
+	 */
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	public static final <T> List<T> build(Config config, ResultSet rs, Class<? extends Model> modelClass) throws SQLException, InstantiationException, IllegalAccessException {
 		List<T> result = new ArrayList<T>();
 		ResultSetMetaData rsmd = rs.getMetaData();
 		int columnCount = rsmd.getColumnCount();
 		String[] labelNames = new String[columnCount + 1];
 		int[] types = new int[columnCount + 1];
 		buildLabelNamesAndTypes(rsmd, labelNames, types);
+		ColumnSchema schema = null;
 		while (rs.next()) {
 			Model<?> ar = modelClass.newInstance();
 			Map<String, Object> attrs = ar.getAttrs();
+			// ColumnarContainerFactory: all the models share one schema
+			if (attrs instanceof ColumnarMap) {
+				if (schema == null)
+					schema = ColumnSchema.fromLabelNames(labelNames);
+				attrs = new ColumnarMap(schema);
+				ar.setAttrsMap(attrs);
+			}
 			for (int i=1; i<=columnCount; i++) {
-				Object value;
-				if (types[i] < Types.BLOB)
-					value = rs.getObject(i);
-				else if (types[i] == Types.CLOB)
-					value = handleClob(rs.getClob(i));
-				else if (types[i] == Types.NCLOB)
-					value = handleClob(rs.getNClob(i));
-				else if (types[i] == Types.BLOB)
-					value = handleBlob(rs.getBlob(i));
-				else
-					value = rs.getObject(i);
-				
-				attrs.put(labelNames[i], value);
+				attrs.put(labelNames[i], getColumnValue(rs, types[i], i, config));
 			}
 			result.add((T)ar);
 		}
@@ -72,22 +77,63 @@ public class ModelBuilder {
 		}
 	}
 	
+	/**
+	 * Read the value of column i, CLOB and BLOB longer than config.getLazyLobThreshold() are read as Lob.
+	 * @see Lob
+	 */
+	static final Object getColumnValue(ResultSet rs, int type, int i, Config config) throws SQLException {
+		if (type < Types.BLOB || config == null || config.lazyLobThreshold < 0)
+			return getColumnValue(rs, type, i);
+		
+		boolean keepLocator = config.keepLobLocator && config.isInTransaction();
+		if (type == Types.CLOB)
+			return Lob.of(rs.getClob(i), config.lazyLobThreshold, keepLocator);
+		else if (type == Types.NCLOB)
+			return Lob.of(rs.getNClob(i), config.lazyLobThreshold, keepLocator);
+		else if (type == Types.BLOB)
+			return Lob.of(rs.getBlob(i), config.lazyLobThreshold, keepLocator);
+		else
+			return rs.getObject(i);
+	}
+	
+	/**
+	 * Read the value of column i, CLOB and BLOB are read into String and byte[].
+	 */
+	static final Object getColumnValue(ResultSet rs, int type, int i) throws SQLException {
+		if (type < Types.BLOB)
+			return rs.getObject(i);
+		else if (type == Types.CLOB)
+			return handleClob(rs.getClob(i));
+		else if (type == Types.NCLOB)
+			return handleClob(rs.getNClob(i));
+		else if (type == Types.BLOB)
+			return handleBlob(rs.getBlob(i));
+		else
+			return rs.getObject(i);
+	}
+	
 	public static byte[] handleBlob(Blob blob) throws SQLException {
 		if (blob == null)
 			return null;
 		
+		long length = blob.length();
+		if (length > Integer.MAX_VALUE - 8)
+			throw new ActiveRecordException("The blob is too large to be read into byte[], length: " + length + ", use Config.setLazyLobThreshold(...)");
+		
 		InputStream is = null;
 		try {
 			is = blob.getBinaryStream();
-			byte[] data = new byte[(int)blob.length()];		// byte[] data = new byte[is.available()];
-			is.read(data);
-			is.close();
-			return data;
+			byte[] data = new byte[(int)length];
+			int offset = 0;
+			for (int n; offset < data.length && (n = is.read(data, offset, data.length - offset)) != -1;)	// read() may return less than requested
+				offset += n;
+			return offset == data.length ? data : Arrays.copyOf(data, offset);
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
 		finally {
-			try {is.close();} catch (IOException e) {throw new RuntimeException(e);}
+			if (is != null)
+				try {is.close();} catch (IOException e) {throw new RuntimeException(e);}
 		}
 	}
 	
@@ -95,17 +141,24 @@ public class ModelBuilder {
 		if (clob == null)
 			return null;
 		
+		long length = clob.length();
+		if (length > Integer.MAX_VALUE - 8)
+			throw new ActiveRecordException("The clob is too large to be read into String, length: " + length + ", use Config.setLazyLobThreshold(...)");
+		
 		Reader reader = null;
 		try {
 			reader = clob.getCharacterStream();
-			char[] buffer = new char[(int)clob.length()];
-			reader.read(buffer);
-			return new String(buffer);
+			char[] buffer = new char[(int)length];
+			int offset = 0;
+			for (int n; offset < buffer.length && (n = reader.read(buffer, offset, buffer.length - offset)) != -1;)
+				offset += n;
+			return new String(buffer, 0, offset);
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
 		finally {
-			try {reader.close();} catch (IOException e) {throw new RuntimeException(e);}
+			if (reader != null)
+				try {reader.close();} catch (IOException e) {throw new RuntimeException(e);}
 		}
 	}
 	
@@ -0,0 +1,669 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.plugin.activerecord;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ModelCodec. Compact binary format of Model, Record and List, Page, KeysetPage of them,
+ * used to keep query results out of the JVM, for example in redis by ModelSerializer.
+ * <p>
+ * The column labels are written once for each distinct row schema of the value instead of
+ * for every row. A Model row that holds exactly the columns of its table only writes a hash
+ * of the table columns, the labels are taken from TableMapping when decoding.
+ * Every column value is written as a type tag followed by a compact form of the value:
+ * varint for integral numbers, unscaled value and scale for BigDecimal, epoch millis for
+ * dates and UTF-8 for String. Lob is written as String or byte[], values of other types
+ * are written with java serialization.
+ * <p>
+ * The modify flags and the config selected by Model.use(configName) are not kept,
+ * decoded models are the same as models just found from the database.
+ * Decode returns null if the table of a model changed since the value was written,
+ * so a cache treats the value as absent.
+ */
+public final class ModelCodec {
+	
+	/**
+	 * The first byte of every encoded value
+	 */
+	public static final byte MAGIC = 'M';
+	
+	private static final byte VERSION = 1;
+	
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	
+	private static final int T_NULL = 0;
+	private static final int T_STRING = 1;
+	private static final int T_INT = 2;
+	private static final int T_LONG = 3;
+	private static final int T_SHORT = 4;
+	private static final int T_BYTE = 5;
+	private static final int T_DOUBLE = 6;
+	private static final int T_FLOAT = 7;
+	private static final int T_TRUE = 8;
+	private static final int T_FALSE = 9;
+	private static final int T_BIG_DECIMAL = 10;
+	private static final int T_BIG_INTEGER = 11;
+	private static final int T_TIMESTAMP = 12;
+	private static final int T_SQL_DATE = 13;
+	private static final int T_TIME = 14;
+	private static final int T_DATE = 15;
+	private static final int T_BYTES = 16;
+	private static final int T_MODEL = 17;
+	private static final int T_RECORD = 18;
+	private static final int T_LIST = 19;
+	private static final int T_PAGE = 20;
+	private static final int T_KEYSET_PAGE = 21;
+	private static final int T_SERIALIZED = 22;
+	
+	private static final int S_INLINE = 0;	// labels follow
+	private static final int S_TABLE = 1;	// hash of the table columns follows
+	
+	private static final Map<String, Class<?>> modelClasses = new ConcurrentHashMap<String, Class<?>>();
+	private static final Map<Class<?>, TableSchema> tableSchemas = new ConcurrentHashMap<Class<?>, TableSchema>();
+	
+	private ModelCodec() {}
+	
+	/**
+	 * Return true if the value is a Model, Record, or a List, Page, KeysetPage of them.
+	 */
+	public static boolean supports(Object value) {
+		if (value instanceof Model || value instanceof Record)
+			return true;
+		List<?> list;
+		if (value instanceof List)
+			list = (List<?>)value;
+		else if (value instanceof Page)
+			list = ((Page<?>)value).getList();
+		else if (value instanceof KeysetPage)
+			list = ((KeysetPage<?>)value).getList();
+		else
+			return false;
+		
+		if (list == null)
+			return false;
+		for (Object e : list)
+			if (!(e instanceof Model) && !(e instanceof Record))
+				return false;
+		return true;
+	}
+	
+	/**
+	 * Return true if the bytes are written by encode(Object).
+	 */
+	public static boolean isEncoded(byte[] bytes) {
+		return bytes != null && bytes.length > 1 && bytes[0] == MAGIC && bytes[1] == VERSION;
+	}
+	
+	public static byte[] encode(Object value) {
+		Writer out = new Writer();
+		out.writeByte(MAGIC);
+		out.writeByte(VERSION);
+		out.writeObject(value);
+		return out.toByteArray();
+	}
+	
+	/**
+	 * @return the decoded value, null if a model table changed since the value was encoded
+	 */
+	public static Object decode(byte[] bytes) {
+		if (!isEncoded(bytes))
+			throw new IllegalArgumentException("The bytes are not encoded by ModelCodec");
+		try {
+			return new Reader(bytes, 2).readObject();
+		} catch (SchemaChangedException e) {
+			return null;
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new ActiveRecordException("Truncated value", e);
+		}
+	}
+	
+	/**
+	 * Sorted column labels of the table and their hash, rebuilt when the table is rebuilt.
+	 */
+	private static TableSchema getTableSchema(Class<?> modelClass) {
+		Table table = TableMapping.me().findTable(modelClass);
+		if (table == null)
+			return null;
+		TableSchema ret = tableSchemas.get(modelClass);
+		if (ret == null || ret.table != table) {
+			ret = new TableSchema(table);
+			tableSchemas.put(modelClass, ret);
+		}
+		return ret;
+	}
+	
+	private static Class<?> getUsefulClass(Class<?> c) {
+		return c.getName().indexOf("EnhancerByCGLIB") == -1 ? c : c.getSuperclass();
+	}
+	
+	private static Class<?> loadModelClass(String name) {
+		Class<?> ret = modelClasses.get(name);
+		if (ret == null) {
+			try {
+				ClassLoader cl = Thread.currentThread().getContextClassLoader();
+				ret = Class.forName(name, false, cl != null ? cl : ModelCodec.class.getClassLoader());
+			} catch (ClassNotFoundException e) {
+				throw new ActiveRecordException(e);
+			}
+			if (!Model.class.isAssignableFrom(ret))
+				throw new ActiveRecordException("Not a model class: " + name);
+			modelClasses.put(name, ret);
+		}
+		return ret;
+	}
+	
+	private static final class TableSchema {
+		final Table table;
+		final String[] labels;
+		final int hash;
+		
+		TableSchema(Table table) {
+			this.table = table;
+			this.labels = table.getColumnTypeMap().keySet().toArray(new String[0]);
+			Arrays.sort(labels);
+			int h = 1;
+			for (String label : labels)
+				h = 31 * h + label.hashCode();
+			this.hash = h;
+		}
+		
+		boolean matches(String[] keys) {
+			if (keys.length != labels.length)
+				return false;
+			for (String key : keys)
+				if (!table.hasColumnLabel(key))
+					return false;
+			return true;
+		}
+	}
+	
+	/**
+	 * Labels of one row schema, the ColumnSchema is created on demand for ColumnarMap
+	 */
+	private static final class Schema {
+		final int id;
+		final String[] labels;
+		ColumnSchema columnSchema;
+		
+		Schema(int id, String[] labels) {
+			this.id = id;
+			this.labels = labels;
+		}
+		
+		ColumnSchema getColumnSchema() {
+			if (columnSchema == null)
+				columnSchema = new ColumnSchema(labels);
+			return columnSchema;
+		}
+	}
+	
+	@SuppressWarnings("serial")
+	private static final class SchemaChangedException extends RuntimeException {
+		SchemaChangedException() {
+			super(null, null, false, false);
+		}
+	}
+	
+	private static final class Writer {
+		private byte[] buf = new byte[256];
+		private int pos;
+		private final Map<Object, Schema> schemas = new HashMap<Object, Schema>();
+		private final Map<Class<?>, Integer> classes = new HashMap<Class<?>, Integer>();
+		private Object lastKey;
+		private Schema lastSchema;
+		
+		byte[] toByteArray() {
+			return Arrays.copyOf(buf, pos);
+		}
+		
+		private void ensure(int n) {
+			if (pos + n > buf.length)
+				buf = Arrays.copyOf(buf, Math.max(buf.length << 1, pos + n));
+		}
+		
+		void writeByte(int b) {
+			ensure(1);
+			buf[pos++] = (byte)b;
+		}
+		
+		void writeVarInt(int v) {
+			ensure(5);
+			while ((v & ~0x7F) != 0) {
+				buf[pos++] = (byte)((v & 0x7F) | 0x80);
+				v >>>= 7;
+			}
+			buf[pos++] = (byte)v;
+		}
+		
+		void writeVarLong(long v) {
+			ensure(10);
+			while ((v & ~0x7FL) != 0) {
+				buf[pos++] = (byte)((v & 0x7F) | 0x80);
+				v >>>= 7;
+			}
+			buf[pos++] = (byte)v;
+		}
+		
+		void writeZigZag(long v) {
+			writeVarLong((v << 1) ^ (v >> 63));
+		}
+		
+		void writeInt(int v) {
+			ensure(4);
+			buf[pos++] = (byte)(v >>> 24);
+			buf[pos++] = (byte)(v >>> 16);
+			buf[pos++] = (byte)(v >>> 8);
+			buf[pos++] = (byte)v;
+		}
+		
+		void writeBytes(byte[] b) {
+			writeVarInt(b.length);
+			ensure(b.length);
+			System.arraycopy(b, 0, buf, pos, b.length);
+			pos += b.length;
+		}
+		
+		void writeString(String s) {
+			writeBytes(s.getBytes(UTF_8));
+		}
+		
+		void writeObject(Object value) {
+			if (value == null) {
+				writeByte(T_NULL);
+				return ;
+			}
+			
+			Class<?> c = value.getClass();
+			if (c == String.class) {
+				writeByte(T_STRING);
+				writeString((String)value);
+			} else if (c == Integer.class) {
+				writeByte(T_INT);
+				writeZigZag((Integer)value);
+			} else if (c == Long.class) {
+				writeByte(T_LONG);
+				writeZigZag((Long)value);
+			} else if (c == BigDecimal.class) {
+				BigDecimal d = (BigDecimal)value;
+				writeByte(T_BIG_DECIMAL);
+				writeZigZag(d.scale());
+				writeBytes(d.unscaledValue().toByteArray());
+			} else if (c == Timestamp.class) {
+				Timestamp t = (Timestamp)value;
+				writeByte(T_TIMESTAMP);
+				writeZigZag(t.getTime());
+				writeVarInt(t.getNanos() % 1000000);
+			} else if (c == java.sql.Date.class) {
+				writeByte(T_SQL_DATE);
+				writeZigZag(((Date)value).getTime());
+			} else if (c == Time.class) {
+				writeByte(T_TIME);
+				writeZigZag(((Date)value).getTime());
+			} else if (c == Date.class) {
+				writeByte(T_DATE);
+				writeZigZag(((Date)value).getTime());
+			} else if (c == Boolean.class) {
+				writeByte((Boolean)value ? T_TRUE : T_FALSE);
+			} else if (c == Double.class) {
+				writeByte(T_DOUBLE);
+				long bits = Double.doubleToLongBits((Double)value);
+				writeInt((int)(bits >>> 32));
+				writeInt((int)bits);
+			} else if (c == Float.class) {
+				writeByte(T_FLOAT);
+				writeInt(Float.floatToIntBits((Float)value));
+			} else if (c == Short.class) {
+				writeByte(T_SHORT);
+				writeZigZag((Short)value);
+			} else if (c == Byte.class) {
+				writeByte(T_BYTE);
+				writeByte((Byte)value);
+			} else if (c == BigInteger.class) {
+				writeByte(T_BIG_INTEGER);
+				writeBytes(((BigInteger)value).toByteArray());
+			} else if (c == byte[].class) {
+				writeByte(T_BYTES);
+				writeBytes((byte[])value);
+			} else if (value instanceof Model) {
+				writeByte(T_MODEL);
+				writeModel((Model<?>)value);
+			} else if (value instanceof Record) {
+				writeByte(T_RECORD);
+				writeRow(((Record)value).getColumns(), null);
+			} else if (value instanceof List) {
+				writeByte(T_LIST);
+				writeList((List<?>)value);
+			} else if (value instanceof Page) {
+				Page<?> page = (Page<?>)value;
+				writeByte(T_PAGE);
+				writeVarInt(page.getPageNumber());
+				writeVarInt(page.getPageSize());
+				writeVarInt(page.getTotalPage());
+				writeVarInt(page.getTotalRow());
+				writeObject(page.getList());
+			} else if (value instanceof KeysetPage) {
+				KeysetPage<?> page = (KeysetPage<?>)value;
+				writeByte(T_KEYSET_PAGE);
+				writeVarInt(page.getPageSize());
+				writeObject(page.getNextCursor());
+				writeObject(page.getList());
+			} else if (value instanceof Lob) {
+				Lob lob = (Lob)value;
+				writeObject(lob.isBinary() ? lob.getBytes() : lob.getString());
+			} else {
+				writeByte(T_SERIALIZED);
+				writeBytes(serialize(value));
+			}
+		}
+		
+		private void writeList(List<?> list) {
+			writeVarInt(list.size());
+			for (Object e : list)
+				writeObject(e);
+		}
+		
+		private void writeModel(Model<?> model) {
+			Class<?> c = getUsefulClass(model.getClass());
+			Integer id = classes.get(c);
+			if (id != null) {
+				writeVarInt(id);
+			} else {
+				writeVarInt(classes.size());
+				writeString(c.getName());
+				classes.put(c, classes.size());
+			}
+			writeRow(model.getAttrs(), c);
+		}
+		
+		/**
+		 * schema id, the schema if it is new, then the values in the order of the schema labels
+		 */
+		private void writeRow(Map<String, Object> row, Class<?> modelClass) {
+			Object key;
+			String[] keys = null;
+			if (row instanceof ColumnarMap && !((ColumnarMap)row).isInflated() && row.size() == ((ColumnarMap)row).getSchema().size()) {
+				key = ((ColumnarMap)row).getSchema();	// identity, shared by the rows of one query
+			} else {
+				keys = row.keySet().toArray(new String[row.size()]);
+				key = Arrays.asList(keys);
+			}
+			if (modelClass != null)
+				key = new SimpleImmutableEntry<Class<?>, Object>(modelClass, key);
+			
+			Schema schema = (lastSchema != null && lastKey.equals(key)) ? lastSchema : schemas.get(key);
+			if (schema != null) {
+				writeVarInt(schema.id);
+			} else {
+				if (keys == null)
+					keys = row.keySet().toArray(new String[row.size()]);
+				schema = defineSchema(keys, modelClass);
+				schemas.put(key, schema);
+			}
+			lastKey = key;
+			lastSchema = schema;
+			
+			for (String label : schema.labels)
+				writeObject(row.get(label));
+		}
+		
+		private Schema defineSchema(String[] keys, Class<?> modelClass) {
+			int id = schemas.size();
+			writeVarInt(id);
+			TableSchema table = modelClass != null ? getTableSchema(modelClass) : null;
+			if (table != null && table.matches(keys)) {
+				writeByte(S_TABLE);
+				writeInt(table.hash);
+				return new Schema(id, table.labels);
+			}
+			
+			writeByte(S_INLINE);
+			writeVarInt(keys.length);
+			for (String label : keys)
+				writeString(label);
+			return new Schema(id, keys);
+		}
+		
+		private static byte[] serialize(Object value) {
+			try {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				ObjectOutputStream out = new ObjectOutputStream(bytes);
+				out.writeObject(value);
+				out.close();
+				return bytes.toByteArray();
+			} catch (IOException e) {
+				throw new ActiveRecordException("Can not serialize " + value.getClass().getName(), e);
+			}
+		}
+	}
+	
+	private static final class Reader {
+		private final byte[] buf;
+		private int pos;
+		private final List<Schema> schemas = new ArrayList<Schema>();
+		private final List<Class<?>> classes = new ArrayList<Class<?>>();
+		
+		Reader(byte[] buf, int pos) {
+			this.buf = buf;
+			this.pos = pos;
+		}
+		
+		int readByte() {
+			return buf[pos++];
+		}
+		
+		int readVarInt() {
+			return (int)readVarLong();
+		}
+		
+		long readVarLong() {
+			long ret = 0;
+			for (int shift = 0; ; shift += 7) {
+				byte b = buf[pos++];
+				ret |= (long)(b & 0x7F) << shift;
+				if (b >= 0)
+					return ret;
+			}
+		}
+		
+		long readZigZag() {
+			long v = readVarLong();
+			return (v >>> 1) ^ -(v & 1);
+		}
+		
+		int readInt() {
+			return ((buf[pos++] & 0xFF) << 24) | ((buf[pos++] & 0xFF) << 16) | ((buf[pos++] & 0xFF) << 8) | (buf[pos++] & 0xFF);
+		}
+		
+		byte[] readBytes() {
+			int len = readVarInt();
+			if (len < 0 || pos + len > buf.length)
+				throw new ArrayIndexOutOfBoundsException(len);
+			byte[] ret = Arrays.copyOfRange(buf, pos, pos + len);
+			pos += len;
+			return ret;
+		}
+		
+		String readString() {
+			int len = readVarInt();
+			if (len < 0 || pos + len > buf.length)
+				throw new ArrayIndexOutOfBoundsException(len);
+			String ret = new String(buf, pos, len, UTF_8);
+			pos += len;
+			return ret;
+		}
+		
+		Object readObject() {
+			int tag = readByte();
+			switch (tag) {
+			case T_NULL: return null;
+			case T_STRING: return readString();
+			case T_INT: return (int)readZigZag();
+			case T_LONG: return readZigZag();
+			case T_SHORT: return (short)readZigZag();
+			case T_BYTE: return (byte)readByte();
+			case T_DOUBLE: return Double.longBitsToDouble(((long)readInt() << 32) | (readInt() & 0xFFFFFFFFL));
+			case T_FLOAT: return Float.intBitsToFloat(readInt());
+			case T_TRUE: return Boolean.TRUE;
+			case T_FALSE: return Boolean.FALSE;
+			case T_BIG_DECIMAL:
+				int scale = (int)readZigZag();
+				return new BigDecimal(new BigInteger(readBytes()), scale);
+			case T_BIG_INTEGER: return new BigInteger(readBytes());
+			case T_TIMESTAMP:
+				Timestamp t = new Timestamp(readZigZag());
+				t.setNanos(t.getNanos() + readVarInt());
+				return t;
+			case T_SQL_DATE: return new java.sql.Date(readZigZag());
+			case T_TIME: return new Time(readZigZag());
+			case T_DATE: return new Date(readZigZag());
+			case T_BYTES: return readBytes();
+			case T_MODEL: return readModel();
+			case T_RECORD: return readRecord();
+			case T_LIST: return readList();
+			case T_PAGE:
+				int pageNumber = readVarInt();
+				int pageSize = readVarInt();
+				int totalPage = readVarInt();
+				int totalRow = readVarInt();
+				return new Page<Object>(readList(readByte()), pageNumber, pageSize, totalPage, totalRow);
+			case T_KEYSET_PAGE:
+				int size = readVarInt();
+				String cursor = (String)readObject();
+				return new KeysetPage<Object>(readList(readByte()), size, KeysetPage.decodeCursor(cursor));
+			case T_SERIALIZED: return deserialize(readBytes());
+			default: throw new ActiveRecordException("Unknown type tag: " + tag);
+			}
+		}
+		
+		private List<Object> readList(int tag) {
+			if (tag == T_NULL)
+				return null;
+			if (tag != T_LIST)
+				throw new ActiveRecordException("Unknown type tag: " + tag);
+			return readList();
+		}
+		
+		private List<Object> readList() {
+			int size = readVarInt();
+			List<Object> ret = new ArrayList<Object>(size);
+			for (int i=0; i<size; i++)
+				ret.add(readObject());
+			return ret;
+		}
+		
+		@SuppressWarnings("rawtypes")
+		private Model<?> readModel() {
+			int id = readVarInt();
+			Class<?> c;
+			if (id < classes.size()) {
+				c = classes.get(id);
+			} else {
+				c = loadModelClass(readString());
+				classes.add(c);
+			}
+			
+			Model<?> model;
+			try {
+				model = (Model)c.newInstance();
+			} catch (Exception e) {
+				throw new ActiveRecordException(e);
+			}
+			Map<String, Object> attrs = model.getAttrs();
+			Schema schema = readSchema(c);
+			// ColumnarContainerFactory: all the models share one schema, the same as ModelBuilder
+			if (attrs instanceof ColumnarMap) {
+				attrs = new ColumnarMap(schema.getColumnSchema());
+				model.setAttrsMap(attrs);
+			}
+			readValues(attrs, schema);
+			return model;
+		}
+		
+		private Record readRecord() {
+			Record record = new Record();
+			Map<String, Object> columns = record.getColumns();
+			Schema schema = readSchema(null);
+			if (columns instanceof ColumnarMap) {
+				columns = new ColumnarMap(schema.getColumnSchema());
+				record.setColumnsMap(columns);
+			}
+			readValues(columns, schema);
+			return record;
+		}
+		
+		private void readValues(Map<String, Object> row, Schema schema) {
+			for (String label : schema.labels)
+				row.put(label, readObject());
+		}
+		
+		private Schema readSchema(Class<?> modelClass) {
+			int id = readVarInt();
+			if (id < schemas.size())
+				return schemas.get(id);
+			
+			String[] labels;
+			int kind = readByte();
+			if (kind == S_TABLE) {
+				int hash = readInt();
+				TableSchema table = modelClass != null ? getTableSchema(modelClass) : null;
+				if (table == null || table.hash != hash)
+					throw new SchemaChangedException();
+				labels = table.labels;
+			} else {
+				labels = new String[readVarInt()];
+				for (int i=0; i<labels.length; i++)
+					labels[i] = readString();
+			}
+			Schema ret = new Schema(id, labels);
+			schemas.add(ret);
+			return ret;
+		}
+		
+		private static Object deserialize(byte[] bytes) {
+			try {
+				ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+				try {
+					return in.readObject();
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				throw new ActiveRecordException(e);
+			} catch (ClassNotFoundException e) {
+				throw new ActiveRecordException(e);
+			}
+		}
+	}
+}
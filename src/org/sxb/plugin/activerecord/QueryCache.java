@@ -0,0 +1,221 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.plugin.activerecord;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sxb.plugin.activerecord.cache.ICache;
+
+/**
+ * QueryCache invalidates the cached query results by the tables they read.
+ * <p>
+ * Every table has a version which is increased after each write of Db and Model to the table,
+ * and again when the transaction of the write ends. A cached result keeps the versions of its tables
+ * taken before the query, it is skipped and removed once any of them changed.
+ * In transaction the query cache is neither read nor written, the uncommitted rows of the
+ * transaction would otherwise be served to other threads under the already increased versions.
+ * The tables of a sql are the names after from, join, update and into.
+ * <p>
+ * The versions live in this jvm, call invalidate(tableName) for the writes that bypass Db and Model,
+ * such as the writes of other applications. The versions start from the startup time,
+ * so results cached by a former process are never taken as current.
+ */
+public class QueryCache {
+	
+	private static final int MAX_PARSED_SQL = 4096;
+	
+	private static final Set<String> KEYWORDS = new HashSet<String>(Arrays.asList(
+		"where", "join", "inner", "left", "right", "full", "outer", "cross", "natural", "straight_join",
+		"on", "using", "group", "order", "having", "limit", "offset", "fetch", "union", "except",
+		"intersect", "minus", "for", "window", "set", "values", "select", "lateral"));
+	
+	private final long initialVersion = System.currentTimeMillis() << 20;
+	private final ConcurrentHashMap<String, AtomicLong> versions = new ConcurrentHashMap<String, AtomicLong>();
+	private final ConcurrentHashMap<String, String[]> sqlToTables = new ConcurrentHashMap<String, String[]>();
+	
+	/**
+	 * Invalidate the cached results which read the table.
+	 */
+	public void invalidate(String tableName) {
+		getCounter(normalize(tableName)).incrementAndGet();
+	}
+	
+	public long getVersion(String tableName) {
+		return getCounter(normalize(tableName)).get();
+	}
+	
+	/**
+	 * Return the tables read or written by the sql, lower case and without schema.
+	 */
+	public String[] getTables(String sql) {
+		String[] tables = sqlToTables.get(sql);
+		if (tables == null) {
+			tables = parseTables(sql);
+			if (sqlToTables.size() >= MAX_PARSED_SQL)	// sql with inline values, do not grow without limit
+				sqlToTables.clear();
+			sqlToTables.put(sql, tables);
+		}
+		return tables;
+	}
+	
+	/**
+	 * Take the versions of the tables, before the query of the result to be cached.
+	 */
+	long[] getVersions(String[] tables) {
+		long[] result = new long[tables.length];
+		for (int i=0; i<tables.length; i++)
+			result[i] = getCounter(tables[i]).get();
+		return result;
+	}
+	
+	/**
+	 * Return the cached result, null if absent or any of its tables changed.
+	 */
+	@SuppressWarnings("unchecked")
+	<T> T get(ICache cache, String cacheName, String key, String[] tables) {
+		Object value = cache.get(cacheName, key);
+		if (!(value instanceof Entry))
+			return null;
+		
+		Entry entry = (Entry)value;
+		if (!Arrays.equals(entry.versions, getVersions(tables))) {
+			cache.remove(cacheName, key);
+			return null;
+		}
+		return (T)entry.value;
+	}
+	
+	void put(ICache cache, String cacheName, String key, long[] versions, Object value) {
+		cache.put(cacheName, key, new Entry(versions, value));
+	}
+	
+	static String buildKey(String sql, Object[] paras) {
+		return (paras == null || paras.length == 0) ? sql : sql + " " + Arrays.deepToString(paras);
+	}
+	
+	private AtomicLong getCounter(String table) {
+		AtomicLong counter = versions.get(table);
+		if (counter == null) {
+			counter = new AtomicLong(initialVersion);
+			AtomicLong previous = versions.putIfAbsent(table, counter);
+			if (previous != null)
+				counter = previous;
+		}
+		return counter;
+	}
+	
+	static String[] parseTables(String sql) {
+		List<String> tokens = tokenize(sql);
+		Set<String> tables = new LinkedHashSet<String>();
+		for (int i=0, size=tokens.size(); i<size; i++) {
+			String token = tokens.get(i).toLowerCase();
+			if (!token.equals("from") && !token.equals("join") && !token.equals("straight_join") && !token.equals("update") && !token.equals("into"))
+				continue ;
+			
+			boolean isList = token.equals("from");	// from a t1, b t2
+			int j = i + 1;
+			while (j < size && isName(tokens.get(j))) {
+				tables.add(normalize(tokens.get(j++)));
+				if (!isList)
+					break ;
+				if (j < size && tokens.get(j).equalsIgnoreCase("as"))
+					j++;
+				if (j < size && isName(tokens.get(j)))	// alias
+					j++;
+				if (j < size && tokens.get(j).equals(","))
+					j++;
+				else
+					break ;
+			}
+		}
+		return tables.toArray(new String[tables.size()]);
+	}
+	
+	private static boolean isName(String token) {
+		char c = token.charAt(0);
+		return (Character.isLetter(c) || c == '_' || c == '`' || c == '"' || c == '[') && !KEYWORDS.contains(token.toLowerCase());
+	}
+	
+	/**
+	 * Split the sql into names and single char symbols, string literals are skipped.
+	 */
+	private static List<String> tokenize(String sql) {
+		List<String> tokens = new ArrayList<String>();
+		for (int i=0, len=sql.length(); i<len;) {
+			char c = sql.charAt(i);
+			if (Character.isWhitespace(c)) {
+				i++;
+			}
+			else if (c == '\'') {
+				int end = sql.indexOf('\'', i + 1);
+				i = (end == -1) ? len : end + 1;
+			}
+			else if (isNameChar(c)) {
+				int start = i;
+				while (i < len && isNameChar(sql.charAt(i)))
+					i++;
+				tokens.add(sql.substring(start, i));
+			}
+			else {
+				tokens.add(String.valueOf(c));
+				i++;
+			}
+		}
+		return tokens;
+	}
+	
+	private static boolean isNameChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '.' || c == '`' || c == '"' || c == '[' || c == ']';
+	}
+	
+	/**
+	 * "`Db`.`User`" to "user"
+	 */
+	private static String normalize(String tableName) {
+		StringBuilder sb = new StringBuilder(tableName.length());
+		for (int i=tableName.lastIndexOf('.') + 1; i<tableName.length(); i++) {
+			char c = tableName.charAt(i);
+			if (c != '`' && c != '"' && c != '[' && c != ']')
+				sb.append(Character.toLowerCase(c));
+		}
+		return sb.toString().trim();
+	}
+	
+	/**
+	 * The cached result with the versions of its tables.
+	 */
+	static class Entry implements Serializable {
+		
+		private static final long serialVersionUID = -2873614870186437641L;
+		
+		final long[] versions;
+		final Object value;
+		
+		Entry(long[] versions, Object value) {
+			this.versions = versions;
+			this.value = value;
+		}
+	}
+}
@@ -19,7 +19,6 @@ package org.sxb.plugin.activerecord;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.sql.Types;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -37,24 +36,14 @@ public class RecordBuilder {
 		String[] labelNames = new String[columnCount + 1];
 		int[] types = new int[columnCount + 1];
 		buildLabelNamesAndTypes(rsmd, labelNames, types);
+		// ColumnarContainerFactory: all the records share one schema
+		ColumnSchema schema = config.containerFactory instanceof ColumnarContainerFactory ? ColumnSchema.fromLabelNames(labelNames) : null;
 		while (rs.next()) {
 			Record record = new Record();
-			record.setColumnsMap(config.containerFactory.getColumnsMap());
+			record.setColumnsMap(schema != null ? new ColumnarMap(schema) : config.containerFactory.getColumnsMap());
 			Map<String, Object> columns = record.getColumns();
 			for (int i=1; i<=columnCount; i++) {
-				Object value;
-				if (types[i] < Types.BLOB)
-					value = rs.getObject(i);
-				else if (types[i] == Types.CLOB)
-					value = ModelBuilder.handleClob(rs.getClob(i));
-				else if (types[i] == Types.NCLOB)
-					value = ModelBuilder.handleClob(rs.getNClob(i));
-				else if (types[i] == Types.BLOB)
-					value = ModelBuilder.handleBlob(rs.getBlob(i));
-				else
-					value = rs.getObject(i);
-				
-				columns.put(labelNames[i], value);
+				columns.put(labelNames[i], ModelBuilder.getColumnValue(rs, types[i], i, config));
 			}
 			result.add(record);
 		}
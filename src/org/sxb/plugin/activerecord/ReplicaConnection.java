@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.plugin.activerecord;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * ReplicaConnection counts the connections in use of each replica for IReplicaBalancer.
+ */
+class ReplicaConnection implements InvocationHandler {
+	
+	private final Connection conn;
+	private final AtomicIntegerArray active;
+	private final int index;
+	private boolean closed = false;
+	
+	ReplicaConnection(Connection conn, AtomicIntegerArray active, int index) {
+		this.conn = conn;
+		this.active = active;
+		this.index = index;
+		active.incrementAndGet(index);
+	}
+	
+	@SuppressWarnings("rawtypes")
+	Connection getConnection() {
+		Class clazz = conn.getClass();
+		return (Connection)Proxy.newProxyInstance(clazz.getClassLoader(), new Class[]{Connection.class}, this);
+	}
+	
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		if (method.getName().equals("close") && !closed) {
+			closed = true;
+			active.decrementAndGet(index);
+		}
+		
+		try {
+			return method.invoke(conn, args);
+		} catch (InvocationTargetException e) {
+			throw e.getTargetException();
+		}
+	}
+}
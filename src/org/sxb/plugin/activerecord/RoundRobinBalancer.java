@@ -0,0 +1,32 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.plugin.activerecord;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * RoundRobinBalancer reads from the replicas in turn, the default balancer of Config.
+ */
+public class RoundRobinBalancer implements IReplicaBalancer {
+	
+	private final AtomicInteger counter = new AtomicInteger();
+	
+	public int select(AtomicIntegerArray active) {
+		return (counter.getAndIncrement() & Integer.MAX_VALUE) % active.length();
+	}
+}
@@ -25,41 +25,45 @@ import java.sql.Connection;
 import org.sxb.log.Logger;
 
 /**
- * SqlReporter.
+ * SqlReporter prints the sql executed by Db and Model when showSql is true.
+ * @see SqlStats
  */
-public class SqlReporter implements InvocationHandler {
+public class SqlReporter {
 	
-	private Connection conn;
 	private static boolean loggerOn = false;
 	private static final Logger log = Logger.getLogger(SqlReporter.class);
 	
-	SqlReporter(Connection conn) {
-		this.conn = conn;
-	}
+	private SqlReporter() {}
 	
 	public static void setLogger(boolean on) {
 		SqlReporter.loggerOn = on;
 	}
 	
-	@SuppressWarnings("rawtypes")
-	Connection getConnection() {
-		Class clazz = conn.getClass();
-		return (Connection)Proxy.newProxyInstance(clazz.getClassLoader(), new Class[]{Connection.class}, this);
+	static void report(String sql) {
+		String info = "Sql: " + sql;
+		if (loggerOn)
+			log.info(info);
+		else
+			System.out.println(info);
 	}
 	
-	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-		try {
-			if (method.getName().equals("prepareStatement")) {
-				String info = "Sql: " + args[0];
-				if (loggerOn)
-					log.info(info);
-				else
-					System.out.println(info);
+	/**
+	 * Report the sql of prepareStatement(...) and prepareCall(...) of the connection given to
+	 * user code such as ICallback, whose statements are not prepared by Db and Model.
+	 */
+	static Connection reportOn(final Connection conn) {
+		return (Connection)Proxy.newProxyInstance(conn.getClass().getClassLoader(), new Class[]{Connection.class}, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String name = method.getName();
+				if ((name.equals("prepareStatement") || name.equals("prepareCall")) && args != null && args[0] instanceof String)
+					report((String)args[0]);
+				try {
+					return method.invoke(conn, args);
+				} catch (InvocationTargetException e) {
+					throw e.getTargetException();
+				}
 			}
-			return method.invoke(conn, args);
-		} catch (InvocationTargetException e) {
-			throw e.getTargetException();
-		}
+		});
 	}
 }
 
@@ -0,0 +1,426 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.plugin.activerecord;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.sxb.log.Logger;
+import org.sxb.plugin.metrics.LatencyHistogram;
+import org.sxb.plugin.metrics.StripedCounter;
+
+/**
+ * SqlStats records the prepare, execute and fetch time and the rows of the sql executed by Db and Model.
+ * <p>
+ * The sql are grouped by fingerprint: string and number literals are replaced with ?,
+ * lists of ? such as in (?, ?, ?) and multi-row values are collapsed, white spaces are collapsed.
+ * At most maxFingerprints groups are kept, the rest are counted in the "others" group.
+ * The slowest topN executions are kept with their sql, the executions slower than slowMillis are logged.
+ * <p>
+ * Set a sampleRate less than 1 to time only part of the executions, the counts are then sampled counts.
+ * Recording is lock free except when an execution enters the top N slow queries.
+ * <pre>
+ * Example:
+ * arp.setSqlStats(new SqlStats().setSlowMillis(500).setSampleRate(0.1));
+ * </pre>
+ * @see org.sxb.plugin.druid.DruidStatViewHandler
+ */
+public class SqlStats {
+	
+	private static final Logger log = Logger.getLogger(SqlStats.class);
+	
+	private static final int MAX_FINGERPRINTED_SQL = 4096;
+	private static final String OTHERS = "others";
+	
+	private final int maxFingerprints;
+	private final int topN;
+	private volatile double sampleRate = 1D;
+	private volatile long slowMillis = 1000L;
+	
+	private final ConcurrentHashMap<String, String> sqlToFingerprint = new ConcurrentHashMap<String, String>();
+	private final ConcurrentHashMap<String, Stat> stats = new ConcurrentHashMap<String, Stat>();
+	private final Stat others = new Stat(OTHERS);
+	
+	private final PriorityQueue<SlowQuery> slowQueries;
+	private volatile long slowQueryFloor = 0L;	// nanos of the fastest one in the full top N
+	
+	public SqlStats() {
+		this(256, 50);
+	}
+	
+	/**
+	 * @param maxFingerprints the max number of sql fingerprints with their own stats
+	 * @param topN the number of slowest executions to keep, 0 to keep none
+	 */
+	public SqlStats(int maxFingerprints, int topN) {
+		if (maxFingerprints < 0 || topN < 0)
+			throw new IllegalArgumentException("maxFingerprints and topN can not be less than 0");
+		this.maxFingerprints = maxFingerprints;
+		this.topN = topN;
+		this.slowQueries = new PriorityQueue<SlowQuery>(Math.max(1, topN), new Comparator<SlowQuery>() {
+			public int compare(SlowQuery a, SlowQuery b) {
+				return a.nanos < b.nanos ? -1 : (a.nanos == b.nanos ? 0 : 1);
+			}
+		});
+	}
+	
+	/**
+	 * Time the executions with the probability of sampleRate, from 0 to 1. Default value 1 times all.
+	 */
+	public SqlStats setSampleRate(double sampleRate) {
+		if (sampleRate < 0D || sampleRate > 1D)
+			throw new IllegalArgumentException("sampleRate must be between 0 and 1");
+		this.sampleRate = sampleRate;
+		return this;
+	}
+	
+	public double getSampleRate() {
+		return sampleRate;
+	}
+	
+	/**
+	 * Log the executions slower than slowMillis with warn level, -1 to disable the log. Default value 1000.
+	 */
+	public SqlStats setSlowMillis(long slowMillis) {
+		this.slowMillis = slowMillis < 0 ? -1 : slowMillis;
+		return this;
+	}
+	
+	public long getSlowMillis() {
+		return slowMillis;
+	}
+	
+	/**
+	 * Start timing one execution of the sql, return null if it is not sampled.
+	 */
+	Sample begin(String sql) {
+		double rate = sampleRate;
+		if (rate < 1D && (rate <= 0D || ThreadLocalRandom.current().nextDouble() >= rate))
+			return null;
+		return new Sample(this, sql);
+	}
+	
+	private void record(Sample sample, long end) {
+		String fingerprint = getFingerprint(sample.sql);
+		Stat stat = stats.get(fingerprint);
+		if (stat == null) {
+			if (stats.size() >= maxFingerprints) {
+				stat = others;
+			} else {
+				stat = new Stat(fingerprint);
+				Stat old = stats.putIfAbsent(fingerprint, stat);
+				if (old != null)
+					stat = old;
+			}
+		}
+		
+		long total = end - sample.start;
+		stat.record(sample, end);
+		
+		long slow = slowMillis;
+		if (slow >= 0 && total >= TimeUnit.MILLISECONDS.toNanos(slow))
+			log.warn("Slow sql " + TimeUnit.NANOSECONDS.toMillis(total) + "ms: " + sample.sql);
+		if (topN > 0 && total > slowQueryFloor)
+			offerSlowQuery(new SlowQuery(fingerprint, sample.sql, total, sample.rows, System.currentTimeMillis()));
+	}
+	
+	private void offerSlowQuery(SlowQuery slowQuery) {
+		synchronized (slowQueries) {
+			if (slowQueries.size() >= topN) {
+				if (slowQuery.nanos <= slowQueries.peek().nanos)
+					return ;
+				slowQueries.poll();
+			}
+			slowQueries.offer(slowQuery);
+			if (slowQueries.size() >= topN)
+				slowQueryFloor = slowQueries.peek().nanos;
+		}
+	}
+	
+	/**
+	 * Return the fingerprint of the sql, cached for the sql executed again.
+	 */
+	public String getFingerprint(String sql) {
+		String fingerprint = sqlToFingerprint.get(sql);
+		if (fingerprint == null) {
+			fingerprint = fingerprint(sql);
+			if (sqlToFingerprint.size() >= MAX_FINGERPRINTED_SQL)	// sql with inline values, do not grow without limit
+				sqlToFingerprint.clear();
+			sqlToFingerprint.put(sql, fingerprint);
+		}
+		return fingerprint;
+	}
+	
+	static String fingerprint(String sql) {
+		StringBuilder ret = new StringBuilder(sql.length());
+		int openParen = -1;	// position of the last ( in ret
+		for (int i=0, len=sql.length(); i<len; i++) {
+			char c = sql.charAt(i);
+			if (c == '\'') {	// string literal, '' is an escaped quote
+				for (i++; i < len; i++) {
+					if (sql.charAt(i) == '\'') {
+						if (i + 1 < len && sql.charAt(i + 1) == '\'')
+							i++;
+						else
+							break ;
+					}
+				}
+				ret.append('?');
+			}
+			else if (Character.isWhitespace(c)) {
+				if (ret.length() > 0 && ret.charAt(ret.length() - 1) != ' ')
+					ret.append(' ');
+			}
+			else if (isDigit(c) && !isIdentifierPart(ret)) {
+				while (i + 1 < len && (isDigit(sql.charAt(i + 1)) || sql.charAt(i + 1) == '.'))
+					i++;
+				ret.append('?');
+			}
+			else if (c == '(') {
+				openParen = ret.length();
+				ret.append(c);
+			}
+			else if (c == ')' && openParen >= 0 && isPlaceholderList(ret, openParen + 1)) {
+				ret.setLength(openParen);
+				ret.append("(?)");
+				// values (?), (?), (?) of multi-row insert
+				int n = ret.length();
+				if (n >= 8 && ret.substring(n - 8).equals("(?), (?)"))
+					ret.setLength(n - 5);
+				else if (n >= 7 && ret.substring(n - 7).equals("(?),(?)"))
+					ret.setLength(n - 4);
+				openParen = -1;
+			}
+			else {
+				if (c == ')')
+					openParen = -1;
+				ret.append(c);
+			}
+		}
+		int n = ret.length();
+		if (n > 0 && ret.charAt(n - 1) == ' ')
+			ret.setLength(n - 1);
+		return ret.toString();
+	}
+	
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+	
+	/**
+	 * True if the digit follows a name such as table1 or t1.col
+	 */
+	private static boolean isIdentifierPart(StringBuilder ret) {
+		if (ret.length() == 0)
+			return false;
+		char c = ret.charAt(ret.length() - 1);
+		return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '`' || c == '"' || c == '.';
+	}
+	
+	private static boolean isPlaceholderList(StringBuilder ret, int from) {
+		boolean hasPlaceholder = false;
+		for (int i=from, n=ret.length(); i<n; i++) {
+			char c = ret.charAt(i);
+			if (c == '?')
+				hasPlaceholder = true;
+			else if (c != ',' && c != ' ')
+				return false;
+		}
+		return hasPlaceholder;
+	}
+	
+	/**
+	 * Return the stats of each fingerprint ordered by total time, and the slowest executions.
+	 */
+	public Map<String, Object> toMap() {
+		List<Stat> list = new ArrayList<Stat>(stats.values());
+		List<Map<String, Object>> sqlList = new ArrayList<Map<String, Object>>(list.size() + 1);
+		List<LatencyHistogram.Snapshot> snapshots = new ArrayList<LatencyHistogram.Snapshot>(list.size() + 1);
+		list.add(others);
+		for (Stat stat : list)
+			snapshots.add(stat.total.snapshot());
+		for (int i=0; i<list.size(); i++)
+			if (snapshots.get(i).getCount() > 0)
+				sqlList.add(list.get(i).toMap(snapshots.get(i)));
+		Collections.sort(sqlList, new Comparator<Map<String, Object>>() {
+			public int compare(Map<String, Object> a, Map<String, Object> b) {
+				return Double.compare((Double)b.get("totalMillis"), (Double)a.get("totalMillis"));
+			}
+		});
+		
+		List<SlowQuery> slowList;
+		synchronized (slowQueries) {
+			slowList = new ArrayList<SlowQuery>(slowQueries);
+		}
+		Collections.sort(slowList, Collections.reverseOrder(slowQueries.comparator()));
+		List<Map<String, Object>> slowMapList = new ArrayList<Map<String, Object>>(slowList.size());
+		for (SlowQuery slowQuery : slowList)
+			slowMapList.add(slowQuery.toMap());
+		
+		Map<String, Object> ret = new LinkedHashMap<String, Object>();
+		ret.put("sampleRate", sampleRate);
+		ret.put("slowMillis", slowMillis);
+		ret.put("sql", sqlList);
+		ret.put("slowQueries", slowMapList);
+		return ret;
+	}
+	
+	public void reset() {
+		stats.clear();
+		others.reset();
+		synchronized (slowQueries) {
+			slowQueries.clear();
+			slowQueryFloor = 0L;
+		}
+	}
+	
+	private static double toMillis(long nanos) {
+		return nanos / 1000000D;
+	}
+	
+	/**
+	 * One timed execution. Call prepared() after the statement is prepared, executed() after it is executed,
+	 * fetched(rows) after the result is read or executed(rows) for updates, and end() in finally.
+	 * An execution ended without rows is counted as an error.
+	 */
+	static final class Sample {
+		private final SqlStats owner;
+		private final String sql;
+		private final long start = System.nanoTime();
+		private long prepared;
+		private long executed;
+		private long fetched;
+		private int rows = -1;
+		
+		private Sample(SqlStats owner, String sql) {
+			this.owner = owner;
+			this.sql = sql;
+		}
+		
+		void prepared() {
+			prepared = System.nanoTime();
+		}
+		
+		void executed() {
+			executed = System.nanoTime();
+		}
+		
+		void executed(int rows) {
+			fetched = executed = System.nanoTime();
+			this.rows = rows;
+		}
+		
+		void fetched(int rows) {
+			fetched = System.nanoTime();
+			this.rows = rows;
+		}
+		
+		void end() {
+			owner.record(this, rows >= 0 ? fetched : System.nanoTime());
+		}
+	}
+	
+	private static final class Stat {
+		private final String fingerprint;
+		private final LatencyHistogram total = new LatencyHistogram();
+		private final StripedCounter errors = new StripedCounter();
+		private final StripedCounter rows = new StripedCounter();
+		private final StripedCounter prepareNanos = new StripedCounter();
+		private final StripedCounter executeNanos = new StripedCounter();
+		private final StripedCounter fetchNanos = new StripedCounter();
+		
+		Stat(String fingerprint) {
+			this.fingerprint = fingerprint;
+		}
+		
+		void record(Sample sample, long end) {
+			total.record(end - sample.start);
+			if (sample.rows < 0) {
+				errors.increment();
+				return ;
+			}
+			rows.add(sample.rows);
+			long prepared = sample.prepared > 0 ? sample.prepared : sample.start;
+			long executed = sample.executed > 0 ? sample.executed : prepared;
+			prepareNanos.add(prepared - sample.start);
+			executeNanos.add(executed - prepared);
+			fetchNanos.add(end - executed);
+		}
+		
+		void reset() {
+			total.reset();
+			errors.reset();
+			rows.reset();
+			prepareNanos.reset();
+			executeNanos.reset();
+			fetchNanos.reset();
+		}
+		
+		Map<String, Object> toMap(LatencyHistogram.Snapshot snapshot) {
+			Map<String, Object> ret = new LinkedHashMap<String, Object>();
+			ret.put("sql", fingerprint);
+			ret.put("count", snapshot.getCount());
+			ret.put("errors", errors.sum());
+			ret.put("rows", rows.sum());
+			ret.put("totalMillis", toMillis(snapshot.getTotal(TimeUnit.NANOSECONDS)));
+			ret.put("prepareMillis", toMillis(prepareNanos.sum()));
+			ret.put("executeMillis", toMillis(executeNanos.sum()));
+			ret.put("fetchMillis", toMillis(fetchNanos.sum()));
+			ret.put("meanMillis", snapshot.getMeanMillis());
+			ret.put("p50Millis", snapshot.getPercentileMillis(50));
+			ret.put("p95Millis", snapshot.getPercentileMillis(95));
+			ret.put("p99Millis", snapshot.getPercentileMillis(99));
+			ret.put("maxMillis", snapshot.getMaxMillis());
+			return ret;
+		}
+	}
+	
+	private static final class SlowQuery {
+		final String fingerprint;
+		final String sql;
+		final long nanos;
+		final int rows;
+		final long time;
+		
+		SlowQuery(String fingerprint, String sql, long nanos, int rows, long time) {
+			this.fingerprint = fingerprint;
+			this.sql = sql;
+			this.nanos = nanos;
+			this.rows = rows;
+			this.time = time;
+		}
+		
+		Map<String, Object> toMap() {
+			Map<String, Object> ret = new LinkedHashMap<String, Object>();
+			ret.put("sql", sql);
+			ret.put("fingerprint", fingerprint);
+			ret.put("millis", toMillis(nanos));
+			ret.put("rows", rows);
+			ret.put("time", new Date(time));
+			return ret;
+		}
+	}
+}
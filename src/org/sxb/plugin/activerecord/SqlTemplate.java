@@ -0,0 +1,307 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.plugin.activerecord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SqlTemplate. The sql generated by Dialect.forModelXxx for one column set,
+ * cached per Table so the sql is built only once for each column set.
+ * The sql of Dialect.forDbXxx is cached per Config, keyed by table name, primary key and column names.
+ * <p>
+ * The dialect is called with a map whose values are column references instead of the real values,
+ * the references found in the paras tell which attr fills each '?' of the sql.
+ */
+final class SqlTemplate {
+	
+	private static final String[] NO_PARAS = new String[0];
+	// the dialect does not produce reusable sql for the key
+	private static final SqlTemplate UNCACHEABLE = new SqlTemplate(null, NO_PARAS);
+	
+	private static final int SAVE = 1;
+	private static final int UPDATE = 2;
+	private static final int FIND_BY_ID = 3;
+	private static final int DELETE_BY_ID = 4;
+	
+	final String sql;
+	private final String[] paraNames;
+	
+	private SqlTemplate(String sql, String[] paraNames) {
+		this.sql = sql;
+		this.paraNames = paraNames;
+	}
+	
+	/**
+	 * Fill the paras with the attr values in the order of the '?' of the sql.
+	 */
+	void fillParas(Map<String, Object> attrs, List<Object> paras) {
+		for (String name : paraNames)
+			paras.add(attrs.get(name));
+	}
+	
+	/**
+	 * Reference of an attr, only used when the template is generated.
+	 */
+	private static final class Ref {
+		final String name;
+		Ref(String name) {
+			this.name = name;
+		}
+	}
+	
+	private static SqlTemplate get(Config config, Map<Object, SqlTemplate> cache, Key key) {
+		SqlTemplate ret = cache.get(key);
+		if (ret != null)
+			config.sqlCacheHits.incrementAndGet();
+		else
+			config.sqlCacheMisses.incrementAndGet();
+		return ret;
+	}
+	
+	private static SqlTemplate put(ConcurrentHashMap<Object, SqlTemplate> cache, Key key, SqlTemplate template) {
+		cache.putIfAbsent(key, template != null ? template : UNCACHEABLE);
+		return template;
+	}
+	
+	/**
+	 * @return null if the dialect put a value that is not a Ref into the paras
+	 */
+	private static SqlTemplate create(StringBuilder sql, List<Object> paras) {
+		String[] names = new String[paras.size()];
+		for (int i=0; i<names.length; i++) {
+			Object para = paras.get(i);
+			if (!(para instanceof Ref))
+				return null;
+			names[i] = ((Ref)para).name;
+		}
+		return new SqlTemplate(sql.toString(), names);
+	}
+	
+	/**
+	 * Template of Dialect.forModelSave(...) for the columns of attrs,
+	 * null if the dialect can not use cached sql for these attrs.
+	 */
+	@SuppressWarnings("unchecked")
+	static SqlTemplate forModelSave(Config config, Table table, Map<String, Object> attrs) {
+		if (!config.dialect.isSqlCacheable(table, attrs))
+			return null;
+		
+		BitSet columns = new BitSet();
+		for (String name : attrs.keySet()) {
+			int index = table.getColumnIndex(name);
+			if (index >= 0)
+				columns.set(index);
+		}
+		Key key = new Key(SAVE, columns);
+		SqlTemplate ret = get(config, table.getSqlCache(), key);
+		if (ret != null)
+			return ret != UNCACHEABLE ? ret : null;
+		
+		Map<String, Object> refs = config.containerFactory.getAttrsMap();
+		for (String name : attrs.keySet())
+			if (table.getColumnIndex(name) >= 0)
+				refs.put(name, new Ref(name));
+		StringBuilder sql = new StringBuilder();
+		List<Object> paras = new ArrayList<Object>();
+		config.dialect.forModelSave(table, refs, sql, paras);
+		return put(table.getSqlCache(), key, create(sql, paras));
+	}
+	
+	/**
+	 * Template of Dialect.forModelUpdate(...) keyed by the modified columns.
+	 */
+	@SuppressWarnings("unchecked")
+	static SqlTemplate forModelUpdate(Config config, Table table, Map<String, Object> attrs, Set<String> modifyFlag) {
+		if (!config.dialect.isSqlCacheable(table, attrs))
+			return null;
+		
+		BitSet columns = new BitSet();
+		for (String name : modifyFlag) {
+			int index = table.getColumnIndex(name);
+			if (index >= 0 && attrs.containsKey(name))
+				columns.set(index);
+		}
+		Key key = new Key(UPDATE, columns);
+		SqlTemplate ret = get(config, table.getSqlCache(), key);
+		if (ret != null)
+			return ret != UNCACHEABLE ? ret : null;
+		
+		Map<String, Object> refs = config.containerFactory.getAttrsMap();
+		for (Entry<String, Object> e : attrs.entrySet()) {
+			String name = e.getKey();
+			if (table.getColumnIndex(name) >= 0 && (modifyFlag.contains(name) || isPrimaryKey(table, name)))
+				refs.put(name, new Ref(name));
+		}
+		for (String pKey : table.getPrimaryKey())
+			if (!refs.containsKey(pKey))
+				refs.put(pKey, new Ref(pKey));
+		StringBuilder sql = new StringBuilder();
+		List<Object> paras = new ArrayList<Object>();
+		config.dialect.forModelUpdate(table, refs, modifyFlag, sql, paras);
+		return put(table.getSqlCache(), key, create(sql, paras));
+	}
+	
+	/**
+	 * Sql of Dialect.forModelFindById(...), the paras are the id values.
+	 */
+	static String forModelFindById(Config config, Table table, String columns) {
+		Key key = new Key(FIND_BY_ID, columns);
+		SqlTemplate ret = get(config, table.getSqlCache(), key);
+		if (ret == null)
+			ret = put(table.getSqlCache(), key, new SqlTemplate(config.dialect.forModelFindById(table, columns), NO_PARAS));
+		return ret.sql;
+	}
+	
+	/**
+	 * Sql of Dialect.forModelDeleteById(...), the paras are the id values.
+	 */
+	static String forModelDeleteById(Config config, Table table) {
+		Key key = new Key(DELETE_BY_ID, null);
+		SqlTemplate ret = get(config, table.getSqlCache(), key);
+		if (ret == null)
+			ret = put(table.getSqlCache(), key, new SqlTemplate(config.dialect.forModelDeleteById(table), NO_PARAS));
+		return ret.sql;
+	}
+	
+	/**
+	 * Template of Dialect.forDbSave(...) for the columns of the record,
+	 * null if the dialect can not use cached sql for these columns.
+	 * @param pKeys the trimmed primary keys
+	 */
+	static SqlTemplate forDbSave(Config config, String tableName, String[] pKeys, Record record) {
+		Map<String, Object> columns = record.getColumns();
+		if (!config.dialect.isDbSqlCacheable(pKeys, columns))
+			return null;
+		
+		Key key = new Key(SAVE, dbColumns(tableName, pKeys, columns));
+		SqlTemplate ret = get(config, config.dbSqlCache, key);
+		if (ret != null)
+			return ret != UNCACHEABLE ? ret : null;
+		
+		StringBuilder sql = new StringBuilder();
+		List<Object> paras = new ArrayList<Object>();
+		config.dialect.forDbSave(sql, paras, tableName, pKeys.clone(), refs(config, columns));
+		return put(config.dbSqlCache, key, create(sql, paras));
+	}
+	
+	/**
+	 * Template of Dialect.forDbUpdate(...) for the columns of the record, the ids are the primary key columns.
+	 * @param pKeys the trimmed primary keys
+	 */
+	static SqlTemplate forDbUpdate(Config config, String tableName, String[] pKeys, Record record) {
+		Map<String, Object> columns = record.getColumns();
+		if (!config.dialect.isDbSqlCacheable(pKeys, columns))
+			return null;
+		
+		Key key = new Key(UPDATE, dbColumns(tableName, pKeys, columns));
+		SqlTemplate ret = get(config, config.dbSqlCache, key);
+		if (ret != null)
+			return ret != UNCACHEABLE ? ret : null;
+		
+		Object[] ids = new Object[pKeys.length];
+		for (int i=0; i<pKeys.length; i++)
+			ids[i] = new Ref(pKeys[i]);
+		StringBuilder sql = new StringBuilder();
+		List<Object> paras = new ArrayList<Object>();
+		config.dialect.forDbUpdate(tableName, pKeys.clone(), ids, refs(config, columns), sql, paras);
+		return put(config.dbSqlCache, key, create(sql, paras));
+	}
+	
+	/**
+	 * Sql of Dialect.forDbFindById(...), the paras are the id values.
+	 */
+	static String forDbFindById(Config config, String tableName, String[] pKeys) {
+		Key key = new Key(FIND_BY_ID, dbColumns(tableName, pKeys, null));
+		SqlTemplate ret = get(config, config.dbSqlCache, key);
+		if (ret == null)
+			ret = put(config.dbSqlCache, key, new SqlTemplate(config.dialect.forDbFindById(tableName, pKeys.clone()), NO_PARAS));
+		return ret.sql;
+	}
+	
+	/**
+	 * Sql of Dialect.forDbDeleteById(...), the paras are the id values.
+	 */
+	static String forDbDeleteById(Config config, String tableName, String[] pKeys) {
+		Key key = new Key(DELETE_BY_ID, dbColumns(tableName, pKeys, null));
+		SqlTemplate ret = get(config, config.dbSqlCache, key);
+		if (ret == null)
+			ret = put(config.dbSqlCache, key, new SqlTemplate(config.dialect.forDbDeleteById(tableName, pKeys.clone()), NO_PARAS));
+		return ret.sql;
+	}
+	
+	/**
+	 * Table name, the primary keys and the column names in the order the dialect iterates them.
+	 */
+	private static List<Object> dbColumns(String tableName, String[] pKeys, Map<String, Object> columns) {
+		List<Object> ret = new ArrayList<Object>(3);
+		ret.add(tableName);
+		ret.add(Arrays.asList(pKeys.clone()));
+		if (columns != null)
+			ret.add(new ArrayList<String>(columns.keySet()));
+		return ret;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static Record refs(Config config, Map<String, Object> columns) {
+		Map<String, Object> refs = config.containerFactory.getColumnsMap();
+		for (String name : columns.keySet())
+			refs.put(name, new Ref(name));
+		Record ret = new Record();
+		ret.setColumnsMap(refs);
+		return ret;
+	}
+	
+	private static boolean isPrimaryKey(Table table, String name) {
+		for (String pKey : table.getPrimaryKey())
+			if (pKey.equalsIgnoreCase(name))
+				return true;
+		return false;
+	}
+	
+	/**
+	 * Cache key: kind of sql plus the column set or the columns string.
+	 */
+	static final class Key {
+		private final int kind;
+		private final Object columns;
+		private final int hash;
+		
+		Key(int kind, Object columns) {
+			this.kind = kind;
+			this.columns = columns;
+			this.hash = 31 * kind + (columns != null ? columns.hashCode() : 0);
+		}
+		
+		public int hashCode() {
+			return hash;
+		}
+		
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key)o;
+			return kind == k.kind && (columns == null ? k.columns == null : columns.equals(k.columns));
+		}
+	}
+}
@@ -0,0 +1,288 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.plugin.activerecord;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * StatementCache. Bounded LRU cache of PreparedStatement for one physical Connection,
+ * for the connection pools that do not cache statements themselves.
+ * <p>
+ * The physical Connection is the one returned by unwrap(Connection.class) of the pooled Connection,
+ * its cache lives across the borrows and the statements are prepared on it directly.
+ * If the pool does not unwrap to a different Connection the cache only lives for one borrow.
+ * <p>
+ * Only prepareStatement(sql), prepareStatement(sql, autoGeneratedKeys) and
+ * prepareStatement(sql, columnNames) are cached, Cursor and other callers that change
+ * the statement type or fetch size are never given a cached statement.
+ * Closing a cached statement returns it to the cache, closing the pooled connection closes
+ * the statements still in use. A JDBC connection is used by one thread at a time,
+ * so the cache is not synchronized.
+ */
+class StatementCache {
+	
+	private final Connection conn;
+	private final Config config;
+	private final int maxSize;
+	
+	private final LinkedHashMap<Key, CachedStatement> cache;
+	
+	/**
+	 * Wrap the pooled Connection with the cache of its physical Connection.
+	 */
+	static Connection wrap(Connection pooled, Config config) {
+		Connection physical = unwrap(pooled);
+		if (physical == null)
+			return new StatementCache(pooled, config).new Borrow(pooled, true).getConnection();
+		
+		StatementCache sc;
+		Map<Connection, StatementCache> caches = config.statementCaches;
+		synchronized (caches) {
+			sc = caches.get(physical);
+			if (sc == null) {
+				removeClosed(caches);	// a new physical connection, the pool may have closed others
+				sc = new StatementCache(physical, config);
+				caches.put(physical, sc);
+			}
+		}
+		return sc.new Borrow(pooled, false).getConnection();
+	}
+	
+	private static Connection unwrap(Connection pooled) {
+		try {
+			if (pooled.isWrapperFor(Connection.class)) {
+				Connection physical = pooled.unwrap(Connection.class);
+				if (physical != null && physical != pooled)
+					return physical;
+			}
+		} catch (Throwable t) {	// SQLException or AbstractMethodError of JDBC 3 drivers
+		}
+		return null;
+	}
+	
+	private static void removeClosed(Map<Connection, StatementCache> caches) {
+		for (Iterator<Map.Entry<Connection, StatementCache>> it = caches.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<Connection, StatementCache> e = it.next();
+			boolean closed;
+			try {
+				closed = e.getKey().isClosed();
+			} catch (SQLException ex) {
+				closed = true;
+			}
+			if (closed) {
+				e.getValue().release(true);
+				it.remove();
+			}
+		}
+	}
+	
+	private StatementCache(Connection conn, Config config) {
+		this.conn = conn;
+		this.maxSize = config.statementCacheSize;
+		this.config = config;
+		this.cache = new LinkedHashMap<Key, CachedStatement>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			protected boolean removeEldestEntry(Map.Entry<Key, CachedStatement> eldest) {
+				if (size() <= StatementCache.this.maxSize)
+					return false;
+				eldest.getValue().evict();
+				return true;
+			}
+		};
+	}
+	
+	/**
+	 * One borrow of the pooled Connection.
+	 */
+	private final class Borrow implements InvocationHandler {
+		final Connection pooled;
+		final boolean closeAllOnClose;
+		boolean closed = false;
+		
+		Borrow(Connection pooled, boolean closeAllOnClose) {
+			this.pooled = pooled;
+			this.closeAllOnClose = closeAllOnClose;
+		}
+		
+		Connection getConnection() {
+			return (Connection)Proxy.newProxyInstance(pooled.getClass().getClassLoader(), new Class[]{Connection.class}, this);
+		}
+		
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (name.equals("prepareStatement") && !closed) {
+				Key key = Key.of(method, args);
+				if (key != null)
+					return prepare(key, method, args);
+			}
+			else if (name.equals("close") && !closed) {
+				closed = true;
+				release(closeAllOnClose);
+			}
+			
+			try {
+				return method.invoke(pooled, args);
+			} catch (InvocationTargetException e) {
+				throw e.getTargetException();
+			}
+		}
+	}
+	
+	private PreparedStatement prepare(Key key, Method method, Object[] args) throws Throwable {
+		CachedStatement cached = cache.get(key);
+		if (cached != null && !cached.inUse) {
+			config.statementCacheHits.incrementAndGet();
+			cached.inUse = true;
+			return cached.proxy;
+		}
+		
+		config.statementCacheMisses.incrementAndGet();
+		PreparedStatement pst;
+		try {
+			pst = (PreparedStatement)method.invoke(conn, args);
+		} catch (InvocationTargetException e) {
+			throw e.getTargetException();
+		}
+		if (cached != null)		// the same sql is in use, e.g. nested query, do not cache the second one
+			return pst;
+		
+		cached = new CachedStatement(pst);
+		cache.put(key, cached);
+		return cached.proxy;
+	}
+	
+	/**
+	 * Close the statements not closed by the caller, or all of them.
+	 */
+	private void release(boolean all) {
+		for (Iterator<CachedStatement> it = cache.values().iterator(); it.hasNext();) {
+			CachedStatement cached = it.next();
+			if (all || cached.inUse) {
+				cached.inUse = false;
+				cached.evict();
+				it.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Cached statement, close() only returns it to the cache.
+	 */
+	private final class CachedStatement implements InvocationHandler {
+		final PreparedStatement pst;
+		final PreparedStatement proxy;
+		boolean inUse = true;
+		boolean evicted = false;
+		
+		CachedStatement(PreparedStatement pst) {
+			this.pst = pst;
+			this.proxy = (PreparedStatement)Proxy.newProxyInstance(pst.getClass().getClassLoader(), new Class[]{PreparedStatement.class}, this);
+		}
+		
+		// close now, or on close() if it is in use
+		void evict() {
+			evicted = true;
+			if (!inUse)
+				closeQuietly();
+		}
+		
+		private void closeQuietly() {
+			try {pst.close();} catch (SQLException e) {}
+		}
+		
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (name.equals("close") && (args == null || args.length == 0)) {
+				if (!inUse)
+					return null;
+				inUse = false;
+				if (evicted) {
+					closeQuietly();
+					return null;
+				}
+				try {
+					pst.clearParameters();
+				} catch (SQLException e) {
+					evicted = true;
+					cache.values().remove(this);
+					closeQuietly();
+				}
+				return null;
+			}
+			if (name.equals("isClosed") && (args == null || args.length == 0))
+				return !inUse || pst.isClosed();
+			
+			try {
+				return method.invoke(pst, args);
+			} catch (InvocationTargetException e) {
+				throw e.getTargetException();
+			}
+		}
+	}
+	
+	/**
+	 * sql plus the generated keys option.
+	 */
+	private static final class Key {
+		final String sql;
+		final int autoGeneratedKeys;
+		final String[] columnNames;
+		
+		private Key(String sql, int autoGeneratedKeys, String[] columnNames) {
+			this.sql = sql;
+			this.autoGeneratedKeys = autoGeneratedKeys;
+			this.columnNames = columnNames;
+		}
+		
+		/**
+		 * @return null if the prepareStatement variant is not cached
+		 */
+		static Key of(Method method, Object[] args) {
+			if (args[0] == null)
+				return null;
+			Class<?>[] types = method.getParameterTypes();
+			if (types.length == 1)
+				return new Key((String)args[0], -1, null);
+			if (types.length == 2 && types[1] == int.class)
+				return new Key((String)args[0], (Integer)args[1], null);
+			if (types.length == 2 && types[1] == String[].class)
+				return new Key((String)args[0], -1, ((String[])args[1]).clone());
+			return null;
+		}
+		
+		public int hashCode() {
+			return sql.hashCode() * 31 + autoGeneratedKeys + Arrays.hashCode(columnNames);
+		}
+		
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key)o;
+			return sql.equals(k.sql) && autoGeneratedKeys == k.autoGeneratedKeys && Arrays.equals(columnNames, k.columnNames);
+		}
+	}
+}
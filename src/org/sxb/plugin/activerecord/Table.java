@@ -17,7 +17,9 @@
 package org.sxb.plugin.activerecord;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.sxb.kit.StrKit;
 
@@ -32,6 +34,9 @@ public class Table {
 	
 	private Class<? extends Model<?>> modelClass;
 	
+	private volatile Map<String, Integer> columnIndexMap;	// column label -> index, built on first use
+	private final ConcurrentHashMap<Object, SqlTemplate> sqlCache = new ConcurrentHashMap<Object, SqlTemplate>();
+	
 	public Table(String name, Class<? extends Model<?>> modelClass) {
 		if (StrKit.isBlank(name))
 			throw new IllegalArgumentException("Table name can not be blank.");
@@ -60,6 +65,7 @@ public class Table {
 		for (int i=0; i<arr.length; i++)
 			arr[i] = arr[i].trim();
 		this.primaryKey = arr;
+		sqlCache.clear();
 	}
 	
 	void setColumnTypeMap(Map<String, Class<?>> columnTypeMap) {
@@ -67,6 +73,8 @@ public class Table {
 			throw new IllegalArgumentException("columnTypeMap can not be null");
 		
 		this.columnTypeMap = columnTypeMap;
+		this.columnIndexMap = null;
+		sqlCache.clear();
 	}
 	
 	public String getName() {
@@ -75,6 +83,7 @@ public class Table {
 	
 	void setColumnType(String columnLabel, Class<?> columnType) {
 		columnTypeMap.put(columnLabel, columnType);
+		columnIndexMap = null;
 	}
 	
 	public Class<?> getColumnType(String columnLabel) {
@@ -103,6 +112,31 @@ public class Table {
 	public Map<String, Class<?>> getColumnTypeMap() {
 		return Collections.unmodifiableMap(columnTypeMap);
 	}
+	
+	/**
+	 * Return the index of the column, -1 if the table has no such column.
+	 * Used as bit index of the column set of the cached sql.
+	 */
+	int getColumnIndex(String columnLabel) {
+		Map<String, Integer> map = columnIndexMap;
+		if (map == null) {
+			map = new HashMap<String, Integer>();
+			for (String label : columnTypeMap.keySet())
+				map.put(label, map.size());
+			columnIndexMap = map;
+		}
+		Integer ret = map.get(columnLabel);
+		if (ret == null && columnTypeMap.containsKey(columnLabel)) {	// case insensitive container
+			for (String label : columnTypeMap.keySet())
+				if (label.equalsIgnoreCase(columnLabel))
+					return map.get(label);
+		}
+		return ret != null ? ret : -1;
+	}
+	
+	ConcurrentHashMap<Object, SqlTemplate> getSqlCache() {
+		return sqlCache;
+	}
 }
 
 
@@ -46,6 +46,13 @@ public class TableMapping {
 		
 		return table;
 	}
+	
+	/**
+	 * Return the table of the model class, null if the model class is not mapped.
+	 */
+	Table findTable(Class<?> modelClass) {
+		return modelToTableMap.get(modelClass);
+	}
 }
 
 
@@ -203,6 +203,15 @@ public class AnsiSqlDialect extends Dialect {
 		throw new ActiveRecordException("Your should not invoke this method because takeOverDbPaginate(...) will take over it.");
 	}
 	
+	/**
+	 * The fetch first clause of SQL:2008.
+	 */
+	public void forKeysetPaginate(StringBuilder sql, int limit, String select, String sqlExceptSelect, String keyColumn, boolean desc, boolean hasCursor) {
+		sql.append(select).append(" ");
+		appendKeysetCondition(sql, sqlExceptSelect, keyColumn, desc, hasCursor);
+		sql.append(" fetch first ").append(limit).append(" rows only");
+	}
+	
 	public boolean isTakeOverDbPaginate() {
 		return true;
 	}
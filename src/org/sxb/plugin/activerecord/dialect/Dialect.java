@@ -48,6 +48,22 @@ public abstract class Dialect {
 		return false;
 	}
 	
+	/**
+	 * Model caches the sql of forModelSave and forModelUpdate per column set.
+	 * Return false if the generated sql depends on the attr values rather than only on the column names.
+	 */
+	public boolean isSqlCacheable(Table table, Map<String, Object> attrs) {
+		return true;
+	}
+	
+	/**
+	 * DbPro caches the sql of forDbSave and forDbUpdate per table name, primary key and column names.
+	 * Return false if the generated sql depends on the column values rather than only on the column names.
+	 */
+	public boolean isDbSqlCacheable(String[] pKeys, Map<String, Object> columns) {
+		return true;
+	}
+	
 	public boolean isTakeOverDbPaginate() {
 		return false;
 	}
@@ -77,6 +93,130 @@ public abstract class Dialect {
 		}
 	}
 	
+	/**
+	 * Set the fetch size of the statement used by Cursor.
+	 * Override it if the driver needs special value to stream the result.
+	 */
+	public void setStreamingFetchSize(PreparedStatement pst, int fetchSize) throws SQLException {
+		if (fetchSize > 0)
+			pst.setFetchSize(fetchSize);
+	}
+	
+	/**
+	 * Return true if the driver only honors fetch size when auto commit is off,
+	 * Cursor then opens a read only transaction for the streaming query.
+	 */
+	public boolean isStreamingNeedsTransaction() {
+		return false;
+	}
+	
+	/**
+	 * Multi-row insert used by Db.batchSave(...) and Model.batchSave(...):
+	 * insert into table(c1, c2) values(?, ?), (?, ?)
+	 * @param rows the number of rows, paras are filled row by row in the order of columns
+	 */
+	public void forBatchSave(String tableName, String[] columns, int rows, StringBuilder sql) {
+		sql.append("insert into ").append(tableName.trim()).append("(");
+		appendBatchSaveValues(columns, rows, "", sql);
+	}
+	
+	/**
+	 * Append "c1, c2) values(?, ?), (?, ?)" with the column names wrapped by quote.
+	 */
+	protected void appendBatchSaveValues(String[] columns, int rows, String quote, StringBuilder sql) {
+		for (int i=0; i<columns.length; i++) {
+			if (i > 0)
+				sql.append(", ");
+			sql.append(quote).append(columns[i]).append(quote);
+		}
+		sql.append(") values");
+		for (int r=0; r<rows; r++) {
+			sql.append(r > 0 ? ", (" : "(");
+			for (int i=0; i<columns.length; i++)
+				sql.append(i > 0 ? ", ?" : "?");
+			sql.append(")");
+		}
+	}
+	
+	/**
+	 * Max number of '?' in one statement of batchSave, the default is the SQLite limit.
+	 */
+	public int getMaxBatchParameters() {
+		return 999;
+	}
+	
+	/**
+	 * Max number of rows in one statement of batchSave.
+	 */
+	public int getMaxBatchRows() {
+		return 1000;
+	}
+	
+	/**
+	 * Return true if the driver returns the generated key of every row of a multi-row insert,
+	 * batchSave then sets the key to the Model or Record.
+	 */
+	public boolean isBatchSaveReturnGeneratedKeys() {
+		return false;
+	}
+	
+	/**
+	 * Keyset pagination: at most limit rows after the cursor, ordered by keyColumn.
+	 * The "keyColumn > ?" condition is and-ed with the where clause of sqlExceptSelect,
+	 * so sqlExceptSelect must not contain group by, having, order by or limit.
+	 * The cursor value is bound as the last parameter.
+	 * @param hasCursor false for the first page
+	 */
+	public void forKeysetPaginate(StringBuilder sql, int limit, String select, String sqlExceptSelect, String keyColumn, boolean desc, boolean hasCursor) {
+		sql.append(select).append(" ");
+		appendKeysetCondition(sql, sqlExceptSelect, keyColumn, desc, hasCursor);
+		sql.append(" limit ").append(limit);
+	}
+	
+	protected void appendKeysetCondition(StringBuilder sql, String sqlExceptSelect, String keyColumn, boolean desc, boolean hasCursor) {
+		if (hasCursor) {
+			int where = indexOfWhere(sqlExceptSelect);
+			if (where == -1)
+				sql.append(sqlExceptSelect).append(" where ");
+			else
+				sql.append(sqlExceptSelect, 0, where).append("where (").append(sqlExceptSelect, where + 5, sqlExceptSelect.length()).append(") and ");
+			sql.append(keyColumn).append(desc ? " < ?" : " > ?");
+		}
+		else {
+			sql.append(sqlExceptSelect);
+		}
+		sql.append(" order by ").append(keyColumn).append(desc ? " desc" : " asc");
+	}
+	
+	/**
+	 * Return the index of the "where" keyword outside of parentheses and quotes, -1 if not found.
+	 */
+	protected static int indexOfWhere(String sql) {
+		int depth = 0;
+		char quote = 0;
+		for (int i=0, len=sql.length(); i<len; i++) {
+			char c = sql.charAt(i);
+			if (quote != 0) {
+				if (c == quote)
+					quote = 0;
+			}
+			else if (c == '\'' || c == '"' || c == '`')
+				quote = c;
+			else if (c == '(')
+				depth++;
+			else if (c == ')')
+				depth--;
+			else if (depth == 0 && (c == 'w' || c == 'W') && sql.regionMatches(true, i, "where", 0, 5)
+					&& (i == 0 || !isWordChar(sql.charAt(i - 1))) && (i + 5 == len || !isWordChar(sql.charAt(i + 5))))
+				return i;
+		}
+		return -1;
+	}
+	
+	private static boolean isWordChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+	}
+	
 	public String getDefaultPrimaryKey() {
 		return "id";
 	}
@@ -16,6 +16,8 @@
 
 package org.sxb.plugin.activerecord.dialect;
 
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -200,4 +202,32 @@ public class MysqlDialect extends Dialect {
 		sql.append(sqlExceptSelect);
 		sql.append(" limit ").append(offset).append(", ").append(pageSize);	// limit can use one or two '?' to pass paras
 	}
+	
+	/**
+	 * MySQL Connector/J only streams the result row by row when fetch size is Integer.MIN_VALUE
+	 * on a forward only, read only statement, otherwise the whole result is loaded into memory.
+	 */
+	public void setStreamingFetchSize(PreparedStatement pst, int fetchSize) throws SQLException {
+		pst.setFetchSize(Integer.MIN_VALUE);
+	}
+	
+	public void forBatchSave(String tableName, String[] columns, int rows, StringBuilder sql) {
+		sql.append("insert into `").append(tableName.trim()).append("`(");
+		appendBatchSaveValues(columns, rows, "`", sql);
+	}
+	
+	/**
+	 * The limit of placeholders of the prepared statement protocol,
+	 * the size of the statement is also limited by max_allowed_packet.
+	 */
+	public int getMaxBatchParameters() {
+		return 65535;
+	}
+	
+	/**
+	 * Connector/J returns consecutive auto increment keys for a multi-row insert.
+	 */
+	public boolean isBatchSaveReturnGeneratedKeys() {
+		return true;
+	}
 }
@@ -207,10 +207,35 @@ public class OracleDialect extends Dialect {
 		sql.append(" where table_alias.rownum_ >= ").append(satrt);
 	}
 	
+	/**
+	 * The rownum condition on the ordered subquery is the top-N query of oracle, it stops at limit rows.
+	 */
+	public void forKeysetPaginate(StringBuilder sql, int limit, String select, String sqlExceptSelect, String keyColumn, boolean desc, boolean hasCursor) {
+		sql.append("select * from ( ").append(select).append(" ");
+		appendKeysetCondition(sql, sqlExceptSelect, keyColumn, desc, hasCursor);
+		sql.append(" ) where rownum <= ").append(limit);
+	}
+	
 	public boolean isOracle() {
 		return true;
 	}
 	
+	/**
+	 * The "seq.nextval" value of primary key is written into the sql.
+	 */
+	public boolean isSqlCacheable(Table table, Map<String, Object> attrs) {
+		return isDbSqlCacheable(table.getPrimaryKey(), attrs);
+	}
+	
+	public boolean isDbSqlCacheable(String[] pKeys, Map<String, Object> columns) {
+		for (Entry<String, Object> e : columns.entrySet()) {
+			Object value = e.getValue();
+			if (value instanceof String && ((String)value).endsWith(".nextval") && isPrimaryKey(e.getKey(), pKeys))
+				return false;
+		}
+		return true;
+	}
+	
 	public void fillStatement(PreparedStatement pst, List<Object> paras) throws SQLException {
 		for (int i=0, size=paras.size(); i<size; i++) {
 			Object value = paras.get(i);
@@ -236,4 +261,32 @@ public class OracleDialect extends Dialect {
 	public String getDefaultPrimaryKey() {
 		return "ID";
 	}
+	
+	/**
+	 * insert all into table(c1, c2) values(?, ?) into table(c1, c2) values(?, ?) select 1 from dual
+	 * <p>
+	 * "seq.nextval" is evaluated once for the whole statement, so do not use it with batchSave.
+	 */
+	public void forBatchSave(String tableName, String[] columns, int rows, StringBuilder sql) {
+		tableName = tableName.trim();
+		StringBuilder into = new StringBuilder(" into ").append(tableName).append("(");
+		for (int i=0; i<columns.length; i++) {
+			if (i > 0)
+				into.append(", ");
+			into.append(columns[i]);
+		}
+		into.append(") values(");
+		for (int i=0; i<columns.length; i++)
+			into.append(i > 0 ? ", ?" : "?");
+		into.append(")");
+		
+		sql.append("insert all");
+		for (int r=0; r<rows; r++)
+			sql.append(into);
+		sql.append(" select 1 from dual");
+	}
+	
+	public int getMaxBatchParameters() {
+		return 65535;
+	}
 }
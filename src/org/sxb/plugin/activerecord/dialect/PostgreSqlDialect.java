@@ -200,4 +200,27 @@ public class PostgreSqlDialect extends Dialect {
 		sql.append(sqlExceptSelect);
 		sql.append(" limit ").append(pageSize).append(" offset ").append(offset);
 	}
+	
+	/**
+	 * PostgreSQL JDBC driver only uses a server side cursor when auto commit is off.
+	 */
+	public boolean isStreamingNeedsTransaction() {
+		return true;
+	}
+	
+	public void forBatchSave(String tableName, String[] columns, int rows, StringBuilder sql) {
+		sql.append("insert into \"").append(tableName.trim()).append("\"(");
+		appendBatchSaveValues(columns, rows, "\"", sql);
+	}
+	
+	public int getMaxBatchParameters() {
+		return 32767;
+	}
+	
+	/**
+	 * The driver appends a RETURNING clause which returns the key of every row.
+	 */
+	public boolean isBatchSaveReturnGeneratedKeys() {
+		return true;
+	}
 }
@@ -20,7 +20,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import org.sxb.plugin.activerecord.ActiveRecordException;
 import org.sxb.plugin.activerecord.Record;
 import org.sxb.plugin.activerecord.Table;
 
@@ -191,6 +194,26 @@ public class SqlServerDialect extends Dialect {
 		sql.append(" ( SELECT TOP ").append(end).append(" tempcolumn=0,").append(select.toLowerCase().replace("select", ""));
 		sql.append(" ").append(sqlExceptSelect).append(")vip)mvp where temprownumber>").append(begin);
 	}
+	
+	/**
+	 * SQL Server accepts at most 2100 parameters and 1000 rows in one VALUES clause.
+	 */
+	public int getMaxBatchParameters() {
+		return 2000;
+	}
+	
+	private static final Pattern SELECT_PATTERN = Pattern.compile("^\\s*select(\\s+distinct)?", Pattern.CASE_INSENSITIVE);
+	
+	/**
+	 * "select top n ..." limits the rows, top must follow distinct.
+	 */
+	public void forKeysetPaginate(StringBuilder sql, int limit, String select, String sqlExceptSelect, String keyColumn, boolean desc, boolean hasCursor) {
+		Matcher matcher = SELECT_PATTERN.matcher(select);
+		if (!matcher.find())
+			throw new ActiveRecordException("The select part must start with \"select\": " + select);
+		sql.append(select, 0, matcher.end()).append(" top ").append(limit).append(select, matcher.end(), select.length()).append(" ");
+		appendKeysetCondition(sql, sqlExceptSelect, keyColumn, desc, hasCursor);
+	}
 }
 
 
@@ -186,4 +186,30 @@ public class Sqlite3Dialect extends Dialect {
 		sql.append(sqlExceptSelect);
 		sql.append(" limit ").append(offset).append(", ").append(pageSize);
 	}
+	
+	/**
+	 * The values list of multi rows needs SQLite 3.7.11, use the compound select instead:
+	 * insert into table(c1, c2) select ?, ? union all select ?, ?
+	 */
+	public void forBatchSave(String tableName, String[] columns, int rows, StringBuilder sql) {
+		sql.append("insert into ").append(tableName.trim()).append("(");
+		for (int i=0; i<columns.length; i++) {
+			if (i > 0)
+				sql.append(", ");
+			sql.append(columns[i]);
+		}
+		sql.append(")");
+		for (int r=0; r<rows; r++) {
+			sql.append(r > 0 ? " union all select " : " select ");
+			for (int i=0; i<columns.length; i++)
+				sql.append(i > 0 ? ", ?" : "?");
+		}
+	}
+	
+	/**
+	 * SQLITE_MAX_COMPOUND_SELECT, the max number of terms of one compound select.
+	 */
+	public int getMaxBatchRows() {
+		return 500;
+	}
 }
@@ -17,6 +17,8 @@
 package org.sxb.plugin.druid;
 
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -24,15 +26,22 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.sxb.handler.Handler;
 import org.sxb.kit.HandlerKit;
+import org.sxb.kit.JsonKit;
 import org.sxb.kit.StrKit;
+import org.sxb.plugin.activerecord.Config;
+import org.sxb.plugin.activerecord.DbKit;
 
 import com.alibaba.druid.support.http.StatViewServlet;
 
 /**
  * 替代 StatViewServlet
+ * 除 Druid 自身的统计外，visitPath + "/sxb-sql.json" 输出各 Config 的 SqlStats
+ * @see org.sxb.plugin.activerecord.SqlStats
  */
 public class DruidStatViewHandler extends Handler {
 	
+	private static final String SQL_STATS_PATH = "/sxb-sql.json";
+	
 	private IDruidStatViewAuth auth;
 	private String visitPath = "/druid";
 	private StatViewServlet servlet = new SxbStatViewServlet();
@@ -79,6 +88,20 @@ public class DruidStatViewHandler extends Handler {
 		}
 	}
 	
+	/**
+	 * 与 Druid 的 json 接口格式一致：{"ResultCode":1,"Content":{configName:sqlStats}}
+	 */
+	private static String getSqlStatsJson() {
+		Map<String, Object> content = new LinkedHashMap<String, Object>();
+		for (Config config : DbKit.getConfigs())
+			if (config.getSqlStats() != null)
+				content.put(config.getName(), config.getSqlStats().toMap());
+		Map<String, Object> ret = new LinkedHashMap<String, Object>();
+		ret.put("ResultCode", 1);
+		ret.put("Content", content);
+		return JsonKit.toJson(ret);
+	}
+	
 	class SxbStatViewServlet extends StatViewServlet {
 		
 		private static final long serialVersionUID = 2898674199964021798L;
@@ -153,6 +176,11 @@ public class DruidStatViewHandler extends Handler {
 	            return;
 	        }
 
+	        if (SQL_STATS_PATH.equals(path)) {
+	            response.getWriter().print(getSqlStatsJson());
+	            return;
+	        }
+
 	        if (path.indexOf(".json") >= 0) {
 	            String fullUrl = path;
 	            if (request.getQueryString() != null && request.getQueryString().length() > 0) {
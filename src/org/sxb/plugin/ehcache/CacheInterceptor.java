@@ -23,58 +23,208 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.http.HttpServletRequest;
 
 import org.sxb.aop.Interceptor;
 import org.sxb.aop.Invocation;
+import org.sxb.core.Action;
 import org.sxb.core.Controller;
+import org.sxb.log.Logger;
 
 /**
  * CacheInterceptor.
  * 缓存拦截器
+ * <p>
+ * 缓存未命中时按 cacheName + cacheKey 合并并发请求（single-flight）：
+ * 同一个 key 只有一个请求执行 action，其余请求等待其完成后直接使用缓存，不同的 key 互不阻塞。
+ * <p>
+ * 配置了 {@link CacheSoftTtl} 时，超过 soft TTL 的缓存仍然直接使用，
+ * 同时在后台线程池中重新执行一次 action 刷新缓存（stale-while-revalidate）。
+ * 后台刷新从本拦截器所在的位置开始执行拦截器链，之前的拦截器（登录、session 校验等）
+ * 已经在触发刷新的请求中通过，不再执行。
  */
 public class CacheInterceptor implements Interceptor {
 	
 	private static final String renderKey = "_renderKey_";
-	private static ConcurrentHashMap<String, ReentrantLock> lockMap = new ConcurrentHashMap<String, ReentrantLock>();
+	private static final String softExpireKey = "_softExpireAt_";
+	private static final Logger log = Logger.getLogger(CacheInterceptor.class);
 	
-	private ReentrantLock getLock(String key) {
-		ReentrantLock lock = lockMap.get(key);
-		if (lock != null)
-			return lock;
-		
-		lock = new ReentrantLock();
-		ReentrantLock previousLock = lockMap.putIfAbsent(key, lock);
-		return previousLock == null ? lock : previousLock;
+	/** 正在执行 action 的 key，执行结束后立即移除，因此不会无限增长 */
+	private static final ConcurrentHashMap<String, CountDownLatch> lockMap = new ConcurrentHashMap<String, CountDownLatch>();
+	
+	private static final AtomicLong coalescedWaits = new AtomicLong();
+	private static final AtomicLong coalescedWaitNanos = new AtomicLong();
+	
+	/** 正在后台刷新的 key */
+	private static final ConcurrentHashMap<String, Boolean> refreshMap = new ConcurrentHashMap<String, Boolean>();
+	/** 当前线程正在执行后台刷新 */
+	private static final ThreadLocal<Boolean> refreshing = new ThreadLocal<Boolean>();
+	private static volatile ExecutorService refreshExecutor = createRefreshExecutor();
+	
+	private static ExecutorService createRefreshExecutor() {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 60, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(64), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "CacheInterceptor-refresh");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+	
+	/**
+	 * 设置后台刷新所用的线程池，应当是有界的
+	 */
+	public static void setRefreshExecutor(ExecutorService executor) {
+		if (executor == null)
+			throw new IllegalArgumentException("executor can not be null.");
+		refreshExecutor = executor;
 	}
 	
 	final public void intercept(Invocation inv) {
 		Controller controller = inv.getController();
 		String cacheName = buildCacheName(inv, controller);
 		String cacheKey = buildCacheKey(inv, controller);
+		if (refreshing.get() != null) {		// background refresh
+			inv.invoke();
+			cacheAction(inv, cacheName, cacheKey, controller);
+			return ;
+		}
+		
+		String flightKey = cacheName + "#" + cacheKey;
 		Map<String, Object> cacheData = CacheKit.get(cacheName, cacheKey);
 		if (cacheData == null) {
-			Lock lock = getLock(cacheName);
-			lock.lock();					// prevent cache snowslide
-			try {
-				cacheData = CacheKit.get(cacheName, cacheKey);
-				if (cacheData == null) {
-					inv.invoke();
-					cacheAction(cacheName, cacheKey, controller);
-					return ;
+			while (true) {
+				CountDownLatch latch = new CountDownLatch(1);
+				CountDownLatch inFlight = lockMap.putIfAbsent(flightKey, latch);
+				if (inFlight == null) {
+					try {			// prevent cache snowslide
+						cacheData = CacheKit.get(cacheName, cacheKey);
+						if (cacheData == null) {
+							inv.invoke();
+							cacheAction(inv, cacheName, cacheKey, controller);
+							return ;
+						}
+						break ;
+					}
+					finally {
+						lockMap.remove(flightKey, latch);
+						latch.countDown();
+					}
 				}
-			}
-			finally {
-				lock.unlock();
+				
+				awaitInFlight(inFlight);
+				cacheData = CacheKit.get(cacheName, cacheKey);
+				if (cacheData != null)
+					break ;
+				// 前一个请求失败或结果不可缓存，重新竞争执行权
 			}
 		}
 		
+		else {
+			Long softExpireAt = (Long)cacheData.get(softExpireKey);
+			if (softExpireAt != null && System.currentTimeMillis() > softExpireAt.longValue())
+				refreshInBackground(inv, flightKey, controller);
+		}
+		
 		useCacheDataAndRender(cacheData, controller);
 	}
 	
+	/**
+	 * 在后台用请求快照重新执行 action，同一个 key 同时只有一个刷新任务
+	 */
+	private void refreshInBackground(Invocation inv, final String flightKey, Controller controller) {
+		if (refreshMap.putIfAbsent(flightKey, Boolean.TRUE) != null)
+			return ;
+		
+		final Action action = inv.getAction();
+		final int interceptorIndex = indexOf(action.getInterceptors());
+		final String urlPara = controller.getPara();
+		final HttpServletRequest request = DetachedRequest.copyOf(controller.getRequest(), renderKey);
+		try {
+			refreshExecutor.execute(new Runnable() {
+				public void run() {
+					refreshing.set(Boolean.TRUE);
+					try {
+						Controller c = action.getInvoker().newController(request, DetachedRequest.nullResponse(), urlPara);
+						new Invocation(action, c, interceptorIndex).invoke();
+					}
+					catch (Throwable t) {
+						log.error("Background refresh failed: " + flightKey, t);
+					}
+					finally {
+						refreshing.remove();
+						refreshMap.remove(flightKey);
+					}
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			refreshMap.remove(flightKey);
+		}
+	}
+	
+	/**
+	 * 本拦截器在拦截器链中的位置，找不到时从头执行
+	 */
+	private int indexOf(Interceptor[] inters) {
+		for (int i=0; i<inters.length; i++)
+			if (inters[i] == this)
+				return i;
+		return 0;
+	}
+	
+	private void awaitInFlight(CountDownLatch inFlight) {
+		long start = System.nanoTime();
+		try {
+			inFlight.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+		finally {
+			coalescedWaits.incrementAndGet();
+			coalescedWaitNanos.addAndGet(System.nanoTime() - start);
+		}
+	}
+	
+	/**
+	 * 等待其他请求计算同一个 key 的次数
+	 */
+	public static long getCoalescedWaits() {
+		return coalescedWaits.get();
+	}
+	
+	/**
+	 * 等待其他请求计算同一个 key 所花费的总时间
+	 */
+	public static long getCoalescedWaitTime(TimeUnit unit) {
+		return unit.convert(coalescedWaitNanos.get(), TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * 当前正在执行 action 的 key 数量
+	 */
+	public static int getInFlightCount() {
+		return lockMap.size();
+	}
+	
+	public static void resetStatistics() {
+		coalescedWaits.set(0);
+		coalescedWaitNanos.set(0);
+	}
+	
 	// TODO 考虑与 EvictInterceptor 一样强制使用  @CacheName
 	private String buildCacheName(Invocation inv, Controller controller) {
 		CacheName cacheName = inv.getMethod().getAnnotation(CacheName.class);
@@ -84,6 +234,11 @@ public class CacheInterceptor implements Interceptor {
 		return (cacheName != null) ? cacheName.value() : inv.getActionKey();
 	}
 	
+	private CacheSoftTtl findSoftTtl(Invocation inv, Controller controller) {
+		CacheSoftTtl softTtl = inv.getMethod().getAnnotation(CacheSoftTtl.class);
+		return softTtl != null ? softTtl : controller.getClass().getAnnotation(CacheSoftTtl.class);
+	}
+	
 	private String buildCacheKey(Invocation inv, Controller controller) {
 		StringBuilder sb = new StringBuilder(inv.getActionKey());
 		String urlPara = controller.getPara();
@@ -96,7 +251,7 @@ public class CacheInterceptor implements Interceptor {
 		return sb.toString();
 	}
 	
-	private void cacheAction(String cacheName, String cacheKey, Controller controller) {
+	private void cacheAction(Invocation inv, String cacheName, String cacheKey, Controller controller) {
 		HttpServletRequest request = controller.getRequest();
 		Map<String, Object> cacheData = new HashMap<String, Object>();
 		for (Enumeration<String> names=request.getAttributeNames(); names.hasMoreElements();) {
@@ -106,7 +261,17 @@ public class CacheInterceptor implements Interceptor {
 		}
 		
 		cacheData.put(renderKey, new RenderInfo(controller.getRender()));		// cache RenderInfo
-		CacheKit.put(cacheName, cacheKey, cacheData);
+		
+		CacheSoftTtl softTtl = findSoftTtl(inv, controller);
+		if (softTtl == null) {
+			CacheKit.put(cacheName, cacheKey, cacheData);
+			return ;
+		}
+		cacheData.put(softExpireKey, Long.valueOf(System.currentTimeMillis() + softTtl.value() * 1000L));
+		if (softTtl.hardTtl() > 0)
+			CacheKit.put(cacheName, cacheKey, cacheData, softTtl.hardTtl());
+		else
+			CacheKit.put(cacheName, cacheKey, cacheData);
 	}
 	
 	private void useCacheDataAndRender(Map<String, Object> cacheData, Controller controller) {
@@ -117,6 +282,7 @@ public class CacheInterceptor implements Interceptor {
 			request.setAttribute(entry.getKey(), entry.getValue());
 		}
 		request.removeAttribute(renderKey);
+		request.removeAttribute(softExpireKey);
 		
 		controller.render(((RenderInfo)cacheData.get(renderKey)).createRender());		// set render from cacheData
 	}
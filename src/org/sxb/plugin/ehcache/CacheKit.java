@@ -60,6 +60,15 @@ public class CacheKit {
 		getOrAddCache(cacheName).put(new Element(key, value));
 	}
 	
+	/**
+	 * @param timeToLiveSeconds overrides the timeToLive of the cache configuration for this element
+	 */
+	public static void put(String cacheName, Object key, Object value, int timeToLiveSeconds) {
+		Element element = new Element(key, value);
+		element.setTimeToLive(timeToLiveSeconds);
+		getOrAddCache(cacheName).put(element);
+	}
+	
 	@SuppressWarnings("unchecked")
 	public static <T> T get(String cacheName, Object key) {
 		Element element = getOrAddCache(cacheName).get(key);
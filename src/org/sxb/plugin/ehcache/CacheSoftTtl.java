@@ -0,0 +1,41 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.plugin.ehcache;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * CacheSoftTtl configure the stale-while-revalidate mode of CacheInterceptor.
+ * <p>
+ * After value() seconds the cached action is stale: it is still used to render the current request,
+ * and one refresh of the action runs in the background. hardTtl() is the absolute limit of the entry,
+ * 0 means the timeToLive of the cache configuration.
+ * <p>
+ * The order of CacheInterceptor searching for CacheSoftTtl annotation is the same as CacheName.
+ */
+@Inherited
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface CacheSoftTtl {
+	int value();
+	
+	int hardTtl() default 0;
+}
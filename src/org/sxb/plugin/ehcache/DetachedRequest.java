@@ -0,0 +1,240 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.plugin.ehcache;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * DetachedRequest.
+ * 请求的快照，请求结束之后仍可在后台线程中使用，用于在后台重新执行 action。
+ * 只支持参数、请求头、属性、cookie 及常用的只读属性，session 始终为 null，
+ * 其他方法抛出 UnsupportedOperationException。
+ */
+final class DetachedRequest implements InvocationHandler {
+	
+	private final Map<String, String[]> parameters = new HashMap<String, String[]>();
+	private final Map<String, List<String>> headers = new HashMap<String, List<String>>();
+	private final Map<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+	private final Map<String, Object> properties = new HashMap<String, Object>();
+	private final Cookie[] cookies;
+	private final String requestURL;
+	
+
+	@SuppressWarnings("unchecked")
+	private DetachedRequest(HttpServletRequest request, String excludedAttr) {
+		for (Map.Entry<String, String[]> e : ((Map<String, String[]>)request.getParameterMap()).entrySet())
+			parameters.put(e.getKey(), e.getValue().clone());
+		
+		for (Enumeration<String> names = request.getHeaderNames(); names != null && names.hasMoreElements();) {
+			String name = names.nextElement();
+			headers.put(name.toLowerCase(Locale.ENGLISH), Collections.list(request.getHeaders(name)));
+		}
+		
+		for (Enumeration<String> names = request.getAttributeNames(); names.hasMoreElements();) {
+			String name = names.nextElement();
+			Object value = request.getAttribute(name);
+			if (value != null && !name.equals(excludedAttr) && !name.contains("SessionRepository"))
+				attributes.put(name, value);
+		}
+		
+		properties.put("getMethod", request.getMethod());
+		properties.put("getRequestURI", request.getRequestURI());
+		properties.put("getQueryString", request.getQueryString());
+		properties.put("getContextPath", request.getContextPath());
+		properties.put("getServletPath", request.getServletPath());
+		properties.put("getPathInfo", request.getPathInfo());
+		properties.put("getCharacterEncoding", request.getCharacterEncoding());
+		properties.put("getContentType", request.getContentType());
+		properties.put("getProtocol", request.getProtocol());
+		properties.put("getScheme", request.getScheme());
+		properties.put("getServerName", request.getServerName());
+		properties.put("getRemoteAddr", request.getRemoteAddr());
+		properties.put("getRemoteHost", request.getRemoteHost());
+		properties.put("getLocale", request.getLocale());
+		properties.put("getServerPort", request.getServerPort());
+		properties.put("getRemotePort", request.getRemotePort());
+		properties.put("isSecure", request.isSecure());
+		requestURL = request.getRequestURL().toString();
+		
+		Cookie[] cs = request.getCookies();
+		if (cs != null) {
+			cookies = new Cookie[cs.length];
+			for (int i = 0; i < cs.length; i++)
+				cookies[i] = (Cookie)cs[i].clone();
+		}
+		else {
+			cookies = null;
+		}
+	}
+	
+	/**
+	 * 创建请求快照
+	 * @param excludedAttr 不复制的属性名
+	 */
+	static HttpServletRequest copyOf(HttpServletRequest request, String excludedAttr) {
+		return (HttpServletRequest)Proxy.newProxyInstance(DetachedRequest.class.getClassLoader(),
+			new Class<?>[]{HttpServletRequest.class}, new DetachedRequest(request, excludedAttr));
+	}
+	
+	/**
+	 * 忽略所有输出的响应对象，getOutputStream() 与 getWriter() 返回丢弃输出的流
+	 */
+	static HttpServletResponse nullResponse() {
+		return (HttpServletResponse)Proxy.newProxyInstance(DetachedRequest.class.getClassLoader(),
+			new Class<?>[]{HttpServletResponse.class}, new InvocationHandler() {
+				private ServletOutputStream outputStream;
+				private PrintWriter writer;
+				
+				public Object invoke(Object proxy, Method method, Object[] args) {
+					Class<?> type = method.getReturnType();
+					if (type == boolean.class)
+						return Boolean.FALSE;
+					if (type == int.class)
+						return Integer.valueOf(0);
+					if (type == long.class)
+						return Long.valueOf(0L);
+					if (type == ServletOutputStream.class)
+						return outputStream != null ? outputStream : (outputStream = nullOutputStream());
+					if (type == PrintWriter.class)
+						return writer != null ? writer : (writer = new PrintWriter(nullWriter()));
+					if (type == Locale.class)
+						return Locale.getDefault();
+					if (type == Collection.class)
+						return Collections.emptyList();
+					if ("toString".equals(method.getName()))
+						return "DetachedResponse";
+					if ("hashCode".equals(method.getName()))
+						return System.identityHashCode(proxy);
+					if ("equals".equals(method.getName()))
+						return proxy == args[0];
+					return null;
+				}
+			});
+	}
+	
+	private static ServletOutputStream nullOutputStream() {
+		return new ServletOutputStream() {
+			public void write(int b) {
+			}
+			
+			public void write(byte[] b, int off, int len) {
+			}
+			
+			public boolean isReady() {
+				return true;
+			}
+			
+			public void setWriteListener(WriteListener writeListener) {
+			}
+		};
+	}
+	
+	private static Writer nullWriter() {
+		return new Writer() {
+			public void write(char[] cbuf, int off, int len) {
+			}
+			
+			public void flush() {
+			}
+			
+			public void close() {
+			}
+		};
+	}
+	
+	public Object invoke(Object proxy, Method method, Object[] args) {
+		String name = method.getName();
+		int argc = args == null ? 0 : args.length;
+		
+		if (argc == 0 && properties.containsKey(name))
+			return properties.get(name);
+		
+		if ("getParameter".equals(name)) {
+			String[] values = parameters.get(args[0]);
+			return values != null && values.length > 0 ? values[0] : null;
+		}
+		if ("getParameterValues".equals(name))
+			return parameters.get(args[0]);
+		if ("getParameterMap".equals(name))
+			return Collections.unmodifiableMap(parameters);
+		if ("getParameterNames".equals(name))
+			return Collections.enumeration(parameters.keySet());
+		
+		if ("getHeader".equals(name)) {
+			List<String> values = headers.get(((String)args[0]).toLowerCase(Locale.ENGLISH));
+			return values != null && !values.isEmpty() ? values.get(0) : null;
+		}
+		if ("getHeaders".equals(name)) {
+			List<String> values = headers.get(((String)args[0]).toLowerCase(Locale.ENGLISH));
+			return Collections.enumeration(values != null ? values : new ArrayList<String>(0));
+		}
+		if ("getHeaderNames".equals(name))
+			return Collections.enumeration(headers.keySet());
+		
+		if ("getAttribute".equals(name))
+			return attributes.get(args[0]);
+		if ("getAttributeNames".equals(name))
+			return Collections.enumeration(new ArrayList<String>(attributes.keySet()));
+		if ("setAttribute".equals(name)) {
+			if (args[1] == null)
+				attributes.remove(args[0]);
+			else
+				attributes.put((String)args[0], args[1]);
+			return null;
+		}
+		if ("removeAttribute".equals(name)) {
+			attributes.remove(args[0]);
+			return null;
+		}
+		
+		if ("getRequestURL".equals(name))
+			return new StringBuffer(requestURL);
+		if ("getCookies".equals(name))
+			return cookies;
+		if ("getSession".equals(name))
+			return null;
+		if ("setCharacterEncoding".equals(name))
+			return null;
+		if ("toString".equals(name))
+			return "DetachedRequest[" + properties.get("getRequestURI") + "]";
+		if ("hashCode".equals(name))
+			return System.identityHashCode(proxy);
+		if ("equals".equals(name))
+			return proxy == args[0];
+		
+		throw new UnsupportedOperationException("HttpServletRequest." + name + "() is not available in background refresh");
+	}
+}
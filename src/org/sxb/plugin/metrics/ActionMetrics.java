@@ -0,0 +1,225 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.plugin.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.sxb.aop.Interceptor;
+import org.sxb.core.Action;
+
+/**
+ * 单个 action 的统计数据
+ * 由 Action.getMetrics() 在第一次被访问时创建，记录过程无锁。
+ * 拦截器记录的是包含后续调用链在内的耗时，读取时相减得到各自的耗时。
+ * ActionMetrics
+ */
+public final class ActionMetrics implements ActionMetricsMXBean {
+
+	private final String actionKey;
+	private final String[] interceptorNames;
+
+	private final LatencyHistogram total = new LatencyHistogram();
+	private final LatencyHistogram action = new LatencyHistogram();
+	private final LatencyHistogram render = new LatencyHistogram();
+	private final StripedCounter routeNanos = new StripedCounter();
+	private final StripedCounter errors = new StripedCounter();
+	private final StripedCounter bytes = new StripedCounter();
+	private final StripedCounter[] interceptorCalls;
+	private final StripedCounter[] interceptorNanos;
+
+	public ActionMetrics(Action action) {
+		this.actionKey = action.getActionKey();
+		Interceptor[] inters = action.getInterceptors();
+		this.interceptorNames = new String[inters.length];
+		this.interceptorCalls = new StripedCounter[inters.length];
+		this.interceptorNanos = new StripedCounter[inters.length];
+		for (int i = 0; i < inters.length; i++) {
+			interceptorNames[i] = inters[i].getClass().getName();
+			interceptorCalls[i] = new StripedCounter();
+			interceptorNanos[i] = new StripedCounter();
+		}
+	}
+
+	public void recordRoute(long nanos) {
+		routeNanos.add(nanos);
+	}
+
+	/**
+	 * @param index 拦截器下标
+	 * @param nanos 包含后续拦截器与行为方法在内的耗时
+	 */
+	public void recordInterceptor(int index, long nanos) {
+		interceptorCalls[index].increment();
+		interceptorNanos[index].add(nanos);
+	}
+
+	public void recordAction(long nanos) {
+		action.record(nanos);
+	}
+
+	public void recordRender(long nanos) {
+		render.record(nanos);
+	}
+
+	/**
+	 * 请求结束时调用
+	 * @param nanos 从路由开始到渲染结束的总耗时
+	 * @param failed 是否发生异常
+	 * @param bytesWritten 输出的字节数（使用 Writer 输出时为字符数）
+	 */
+	public void recordRequest(long nanos, boolean failed, long bytesWritten) {
+		total.record(nanos);
+		if (failed)
+			errors.increment();
+		bytes.add(bytesWritten);
+	}
+
+	public String getActionKey() {
+		return actionKey;
+	}
+
+	public LatencyHistogram getLatency() {
+		return total;
+	}
+
+	public LatencyHistogram getActionLatency() {
+		return action;
+	}
+
+	public LatencyHistogram getRenderLatency() {
+		return render;
+	}
+
+	public long getRequestCount() {
+		return total.snapshot().getCount();
+	}
+
+	public long getErrorCount() {
+		return errors.sum();
+	}
+
+	public long getBytesWritten() {
+		return bytes.sum();
+	}
+
+	public double getMeanMillis() {
+		return total.snapshot().getMeanMillis();
+	}
+
+	public double getP50Millis() {
+		return total.snapshot().getPercentileMillis(50);
+	}
+
+	public double getP90Millis() {
+		return total.snapshot().getPercentileMillis(90);
+	}
+
+	public double getP99Millis() {
+		return total.snapshot().getPercentileMillis(99);
+	}
+
+	public double getMaxMillis() {
+		return total.snapshot().getMaxMillis();
+	}
+
+	public double getRouteMeanMillis() {
+		long count = total.snapshot().getCount();
+		return count == 0 ? 0D : routeNanos.sum() / (double)count / 1000000D;
+	}
+
+	public double getActionMeanMillis() {
+		return action.snapshot().getMeanMillis();
+	}
+
+	public double getRenderMeanMillis() {
+		return render.snapshot().getMeanMillis();
+	}
+
+	public String[] getInterceptorNames() {
+		return interceptorNames.clone();
+	}
+
+	public double[] getInterceptorSelfMeanMillis() {
+		int n = interceptorNames.length;
+		double[] ret = new double[n];
+		long inner = n == 0 ? 0L : action.snapshot().getTotal(TimeUnit.NANOSECONDS);
+		for (int i = n - 1; i >= 0; i--) {
+			long nanos = interceptorNanos[i].sum();
+			long calls = interceptorCalls[i].sum();
+			ret[i] = calls == 0 ? 0D : Math.max(0L, nanos - inner) / (double)calls / 1000000D;
+			inner = nanos;
+		}
+		return ret;
+	}
+
+	public void reset() {
+		total.reset();
+		action.reset();
+		render.reset();
+		routeNanos.reset();
+		errors.reset();
+		bytes.reset();
+		for (int i = 0; i < interceptorNames.length; i++) {
+			interceptorCalls[i].reset();
+			interceptorNanos[i].reset();
+		}
+	}
+
+	/**
+	 * 转换为 Map，供 JSON 输出
+	 */
+	public Map<String, Object> toMap() {
+		LatencyHistogram.Snapshot t = total.snapshot();
+		Map<String, Object> ret = new LinkedHashMap<String, Object>();
+		ret.put("actionKey", actionKey);
+		ret.put("requests", t.getCount());
+		ret.put("errors", errors.sum());
+		ret.put("bytes", bytes.sum());
+		ret.put("latency", toMap(t));
+		ret.put("routeMean", getRouteMeanMillis());
+		ret.put("action", toMap(action.snapshot()));
+		ret.put("render", toMap(render.snapshot()));
+
+		double[] self = getInterceptorSelfMeanMillis();
+		List<Map<String, Object>> inters = new ArrayList<Map<String, Object>>(self.length);
+		for (int i = 0; i < self.length; i++) {
+			Map<String, Object> m = new LinkedHashMap<String, Object>();
+			m.put("name", interceptorNames[i]);
+			m.put("calls", interceptorCalls[i].sum());
+			m.put("selfMean", self[i]);
+			inters.add(m);
+		}
+		ret.put("interceptors", inters);
+		return ret;
+	}
+
+	private static Map<String, Object> toMap(LatencyHistogram.Snapshot s) {
+		Map<String, Object> ret = new LinkedHashMap<String, Object>();
+		ret.put("count", s.getCount());
+		ret.put("mean", s.getMeanMillis());
+		ret.put("p50", s.getPercentileMillis(50));
+		ret.put("p90", s.getPercentileMillis(90));
+		ret.put("p99", s.getPercentileMillis(99));
+		ret.put("p999", s.getPercentileMillis(99.9));
+		ret.put("max", s.getMaxMillis());
+		return ret;
+	}
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.plugin.metrics;
+
+/**
+ * 通过 JMX 暴露的单个 action 统计，时间单位均为毫秒
+ * ActionMetricsMXBean
+ */
+public interface ActionMetricsMXBean {
+
+	String getActionKey();
+
+	long getRequestCount();
+
+	long getErrorCount();
+
+	long getBytesWritten();
+
+	double getMeanMillis();
+
+	double getP50Millis();
+
+	double getP90Millis();
+
+	double getP99Millis();
+
+	double getMaxMillis();
+
+	double getRouteMeanMillis();
+
+	double getActionMeanMillis();
+
+	double getRenderMeanMillis();
+
+	String[] getInterceptorNames();
+
+	/**
+	 * 各拦截器自身的平均耗时，不含其后的拦截器与行为方法
+	 */
+	double[] getInterceptorSelfMeanMillis();
+
+	void reset();
+}
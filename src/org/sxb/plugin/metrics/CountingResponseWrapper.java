@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.plugin.metrics;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * 统计输出字节数的 response
+ * 通过 getOutputStream() 输出时统计字节数，通过 getWriter() 输出时统计字符数。
+ * CountingResponseWrapper
+ */
+public class CountingResponseWrapper extends HttpServletResponseWrapper {
+
+	private long count = 0L;
+	private ServletOutputStream outputStream;
+	private PrintWriter writer;
+
+	public CountingResponseWrapper(HttpServletResponse response) {
+		super(response);
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	@Override
+	public ServletOutputStream getOutputStream() throws IOException {
+		if (outputStream == null)
+			outputStream = new CountingOutputStream(super.getOutputStream());
+		return outputStream;
+	}
+
+	@Override
+	public PrintWriter getWriter() throws IOException {
+		if (writer == null)
+			writer = new PrintWriter(new CountingWriter(super.getWriter()));
+		return writer;
+	}
+
+	private final class CountingOutputStream extends ServletOutputStream {
+		private final ServletOutputStream out;
+
+		CountingOutputStream(ServletOutputStream out) {
+			this.out = out;
+		}
+
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		public void close() throws IOException {
+			out.close();
+		}
+
+		public boolean isReady() {
+			return out.isReady();
+		}
+
+		public void setWriteListener(WriteListener writeListener) {
+			out.setWriteListener(writeListener);
+		}
+	}
+
+	private final class CountingWriter extends Writer {
+		private final Writer out;
+
+		CountingWriter(Writer out) {
+			this.out = out;
+		}
+
+		public void write(int c) throws IOException {
+			out.write(c);
+			count++;
+		}
+
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			out.write(cbuf, off, len);
+			count += len;
+		}
+
+		public void write(String str, int off, int len) throws IOException {
+			out.write(str, off, len);
+			count += len;
+		}
+
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.plugin.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.sxb.log.Logger;
+
+/**
+ * 把每个 action 的统计注册为 MXBean
+ * ObjectName: org.sxb:type=ActionMetrics,name="actionKey"
+ * JmxMetricsReporter
+ */
+public class JmxMetricsReporter implements MetricsReporter {
+
+	private static final Logger log = Logger.getLogger(JmxMetricsReporter.class);
+
+	private final MBeanServer server;
+	private final String domain;
+	private final List<ObjectName> registered = new CopyOnWriteArrayList<ObjectName>();
+
+	public JmxMetricsReporter() {
+		this(ManagementFactory.getPlatformMBeanServer(), "org.sxb");
+	}
+
+	public JmxMetricsReporter(MBeanServer server, String domain) {
+		if (server == null)
+			throw new IllegalArgumentException("server can not be null");
+		this.server = server;
+		this.domain = domain;
+	}
+
+	public void onCreate(ActionMetrics metrics) {
+		try {
+			ObjectName name = new ObjectName(domain + ":type=ActionMetrics,name=" + ObjectName.quote(metrics.getActionKey()));
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+			server.registerMBean(metrics, name);
+			registered.add(name);
+		} catch (JMException e) {
+			log.warn("Can not register MXBean for " + metrics.getActionKey(), e);
+		}
+	}
+
+	public void stop() {
+		for (ObjectName name : registered) {
+			try {
+				if (server.isRegistered(name))
+					server.unregisterMBean(name);
+			} catch (JMException e) {
+				log.warn("Can not unregister MXBean " + name, e);
+			}
+		}
+		registered.clear();
+	}
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.plugin.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 延迟直方图（HDR 风格的对数-线性分桶）
+ * 以微秒为单位，每个 2 的幂区间再等分为 8 个子桶，相对误差不超过 12.5%，
+ * 覆盖 0 ~ 2^32 微秒（约 71 分钟），超出部分计入最后一个桶。
+ * 记录时只做一次无锁的 addAndGet，按线程分段，读取时合并。
+ * LatencyHistogram
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BITS = 3;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	static final int BUCKETS = (32 - SUB_BITS + 1) * SUB_COUNT;
+
+	private static final int STRIPES = StripedCounter.stripes(4);
+
+	private final AtomicLongArray buckets = new AtomicLongArray(STRIPES * BUCKETS);
+	private final StripedCounter totalNanos = new StripedCounter();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 * 记录一次耗时
+	 * @param nanos 纳秒
+	 */
+	public void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		buckets.incrementAndGet(StripedCounter.stripe(STRIPES) * BUCKETS + bucketIndex(nanos / 1000));
+		totalNanos.add(nanos);
+		long max;
+		while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos))
+			;
+	}
+
+	public void reset() {
+		for (int i = 0, n = buckets.length(); i < n; i++)
+			buckets.set(i, 0L);
+		totalNanos.reset();
+		maxNanos.set(0L);
+	}
+
+	/**
+	 * 合并各分段，生成某一时刻的只读快照
+	 */
+	public Snapshot snapshot() {
+		long[] merged = new long[BUCKETS];
+		long count = 0L;
+		for (int s = 0; s < STRIPES; s++) {
+			int base = s * BUCKETS;
+			for (int i = 0; i < BUCKETS; i++) {
+				long c = buckets.get(base + i);
+				merged[i] += c;
+				count += c;
+			}
+		}
+		return new Snapshot(merged, count, totalNanos.sum(), maxNanos.get());
+	}
+
+	static int bucketIndex(long micros) {
+		if (micros < SUB_COUNT)
+			return (int)micros;
+		if (micros >= (1L << 32))
+			return BUCKETS - 1;
+		int msb = 63 - Long.numberOfLeadingZeros(micros);
+		return (msb - SUB_BITS + 1) * SUB_COUNT + (int)((micros >>> (msb - SUB_BITS)) & (SUB_COUNT - 1));
+	}
+
+	/**
+	 * 桶内最大值（微秒）
+	 */
+	static long bucketUpperBound(int index) {
+		if (index < SUB_COUNT)
+			return index;
+		int shift = index / SUB_COUNT - 1;
+		long lower = (long)(SUB_COUNT + index % SUB_COUNT) << shift;
+		return lower + (1L << shift) - 1;
+	}
+
+	/**
+	 * 直方图快照
+	 */
+	public static final class Snapshot {
+		private final long[] buckets;
+		private final long count;
+		private final long totalNanos;
+		private final long maxNanos;
+
+		Snapshot(long[] buckets, long count, long totalNanos, long maxNanos) {
+			this.buckets = buckets;
+			this.count = count;
+			this.totalNanos = totalNanos;
+			this.maxNanos = maxNanos;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getTotal(TimeUnit unit) {
+			return unit.convert(totalNanos, TimeUnit.NANOSECONDS);
+		}
+
+		public double getMeanMillis() {
+			return count == 0 ? 0D : totalNanos / (double)count / 1000000D;
+		}
+
+		public double getMaxMillis() {
+			return maxNanos / 1000000D;
+		}
+
+		/**
+		 * 百分位耗时（毫秒），返回命中桶的上界，不超过实际最大值
+		 * @param percentile 0 ~ 100
+		 */
+		public double getPercentileMillis(double percentile) {
+			if (count == 0)
+				return 0D;
+			long rank = (long)Math.ceil(count * Math.min(100D, Math.max(0D, percentile)) / 100D);
+			if (rank < 1)
+				rank = 1;
+			long seen = 0L;
+			for (int i = 0; i < buckets.length; i++) {
+				seen += buckets[i];
+				if (seen >= rank)
+					return Math.min(bucketUpperBound(i) / 1000D, getMaxMillis());
+			}
+			return getMaxMillis();
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.plugin.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.sxb.core.Action;
+import org.sxb.log.Logger;
+
+/**
+ * 请求统计的全局入口
+ * 默认关闭，关闭时 ActionHandler 与 Invocation 只多读一次 volatile 变量。
+ * 开启后每个请求额外调用几次 System.nanoTime() 并做无锁累加。
+ * <pre>
+ * Example:
+ * me.add(new MetricsPlugin(new JmxMetricsReporter()));
+ * me.add("/metrics", MetricsController.class);
+ * </pre>
+ * Metrics
+ */
+public class Metrics {
+
+	private static final Logger log = Logger.getLogger(Metrics.class);
+
+	private static volatile boolean enabled = false;
+	private static final ConcurrentHashMap<String, ActionMetrics> actionMetrics = new ConcurrentHashMap<String, ActionMetrics>();
+	private static final List<MetricsReporter> reporters = new CopyOnWriteArrayList<MetricsReporter>();
+
+	private Metrics() {}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	public static void setEnabled(boolean enabled) {
+		Metrics.enabled = enabled;
+	}
+
+	/**
+	 * 创建或取得 action 的统计数据，由 Action.getMetrics() 调用
+	 */
+	public static ActionMetrics register(Action action) {
+		ActionMetrics metrics = actionMetrics.get(action.getActionKey());
+		if (metrics != null)
+			return metrics;
+
+		metrics = new ActionMetrics(action);
+		ActionMetrics old = actionMetrics.putIfAbsent(action.getActionKey(), metrics);
+		if (old != null)
+			return old;
+
+		for (MetricsReporter reporter : reporters)
+			notifyCreate(reporter, metrics);
+		return metrics;
+	}
+
+	public static ActionMetrics getActionMetrics(String actionKey) {
+		return actionMetrics.get(actionKey);
+	}
+
+	public static Collection<ActionMetrics> getAllActionMetrics() {
+		return Collections.unmodifiableCollection(actionMetrics.values());
+	}
+
+	/**
+	 * 按 actionKey 排序的全部统计数据，供 JSON 输出
+	 */
+	public static Map<String, Object> snapshot() {
+		Map<String, Object> ret = new TreeMap<String, Object>();
+		for (ActionMetrics metrics : actionMetrics.values())
+			ret.put(metrics.getActionKey(), metrics.toMap());
+		return ret;
+	}
+
+	public static void reset() {
+		for (ActionMetrics metrics : actionMetrics.values())
+			metrics.reset();
+	}
+
+	public static void addReporter(MetricsReporter reporter) {
+		if (reporter == null)
+			throw new IllegalArgumentException("reporter can not be null");
+		reporters.add(reporter);
+		for (ActionMetrics metrics : new ArrayList<ActionMetrics>(actionMetrics.values()))
+			notifyCreate(reporter, metrics);
+	}
+
+	public static void removeReporter(MetricsReporter reporter) {
+		if (reporters.remove(reporter))
+			reporter.stop();
+	}
+
+	// 输出方式出错不能影响请求
+	private static void notifyCreate(MetricsReporter reporter, ActionMetrics metrics) {
+		try {
+			reporter.onCreate(metrics);
+		} catch (RuntimeException e) {
+			log.warn("MetricsReporter " + reporter.getClass().getName() + " failed for " + metrics.getActionKey(), e);
+		}
+	}
+}
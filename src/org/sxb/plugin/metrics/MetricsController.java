@@ -0,0 +1,52 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.plugin.metrics;
+
+import org.sxb.core.Controller;
+
+/**
+ * 以 JSON 输出全部 action 的统计数据，时间单位为毫秒
+ * <pre>
+ * Example:
+ * me.add("/metrics", MetricsController.class);
+ * GET /metrics        全部统计
+ * GET /metrics/reset  清零
+ * </pre>
+ * 该控制器不做权限检查，请通过拦截器或只在内网路由中开放。
+ * MetricsController
+ */
+public class MetricsController extends Controller {
+
+	public void index() {
+		String actionKey = getPara("actionKey");
+		if (actionKey == null) {
+			renderJson(Metrics.snapshot());
+			return ;
+		}
+
+		ActionMetrics metrics = Metrics.getActionMetrics(actionKey);
+		if (metrics == null)
+			renderError(404);
+		else
+			renderJson(metrics.toMap());
+	}
+
+	public void reset() {
+		Metrics.reset();
+		renderJson("{\"reset\":true}");
+	}
+}
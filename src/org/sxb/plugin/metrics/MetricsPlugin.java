@@ -0,0 +1,50 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.plugin.metrics;
+
+import org.sxb.plugin.IPlugin;
+
+/**
+ * 开启请求统计并注册输出方式
+ * <pre>
+ * Example:
+ * me.add(new MetricsPlugin(new JmxMetricsReporter()));
+ * </pre>
+ * MetricsPlugin
+ */
+public class MetricsPlugin implements IPlugin {
+
+	private final MetricsReporter[] reporters;
+
+	public MetricsPlugin(MetricsReporter... reporters) {
+		this.reporters = reporters;
+	}
+
+	public boolean start() {
+		for (MetricsReporter reporter : reporters)
+			Metrics.addReporter(reporter);
+		Metrics.setEnabled(true);
+		return true;
+	}
+
+	public boolean stop() {
+		Metrics.setEnabled(false);
+		for (MetricsReporter reporter : reporters)
+			Metrics.removeReporter(reporter);
+		return true;
+	}
+}
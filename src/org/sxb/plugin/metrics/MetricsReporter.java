@@ -0,0 +1,34 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.plugin.metrics;
+
+/**
+ * 统计数据的输出方式，例如 JMX、日志或推送到外部监控系统
+ * MetricsReporter
+ */
+public interface MetricsReporter {
+
+	/**
+	 * 某个 action 的统计数据被创建时调用（加入 Metrics 时对已有数据也会调用）
+	 */
+	void onCreate(ActionMetrics metrics);
+
+	/**
+	 * 从 Metrics 中移除或插件停止时调用
+	 */
+	void stop();
+}
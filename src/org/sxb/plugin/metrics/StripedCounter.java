@@ -0,0 +1,73 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.plugin.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 分段计数器
+ * 按线程把累加分散到多个槽位，各槽位之间相隔一个缓存行，避免多核同时写入同一缓存行；
+ * 读取时才把各槽位求和，适合写多读少的统计场景。
+ * StripedCounter
+ */
+public final class StripedCounter {
+
+	// 每个槽位占 16 个 long（128 字节），覆盖常见的 64/128 字节缓存行
+	private static final int PAD = 16;
+
+	static final int STRIPES = stripes(8);
+
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+	public void add(long x) {
+		cells.addAndGet(stripe(STRIPES) * PAD, x);
+	}
+
+	public void increment() {
+		add(1L);
+	}
+
+	public long sum() {
+		long sum = 0L;
+		for (int i = 0; i < STRIPES; i++)
+			sum += cells.get(i * PAD);
+		return sum;
+	}
+
+	public void reset() {
+		for (int i = 0; i < STRIPES; i++)
+			cells.set(i * PAD, 0L);
+	}
+
+	/**
+	 * 按线程 id 选择槽位，容器线程池中的线程 id 连续，分布足够均匀
+	 */
+	static int stripe(int stripes) {
+		return (int)Thread.currentThread().getId() & (stripes - 1);
+	}
+
+	/**
+	 * 不小于 CPU 数的 2 的幂，且不超过 max
+	 */
+	static int stripes(int max) {
+		int n = 1;
+		int cpus = Runtime.getRuntime().availableProcessors();
+		while (n < cpus && n < max)
+			n <<= 1;
+		return n;
+	}
+}
@@ -0,0 +1,7 @@
+/**
+ * 请求级性能统计插件
+ * 按 actionKey 记录路由、拦截器、行为方法、渲染的耗时及输出字节数
+ * @author Jeffson
+ *
+ */
+package org.sxb.plugin.metrics;
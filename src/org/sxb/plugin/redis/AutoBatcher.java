@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.plugin.redis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import redis.clients.jedis.exceptions.JedisException;
+
+/**
+ * AutoBatcher.
+ * 自动合并多个线程并发发出的单 key 命令：调用线程将命令放入队列后等待结果，
+ * 后台线程取到第一条命令后最多再等待 window 微秒收集后续命令，然后通过一个 Pipeline 一次性发送。
+ * 发送期间到达的命令进入下一批，所以负载越高每批越大，window 为 0 时不额外等待。
+ * 只用于不在 RedisInterceptor / Redis.call(...) 中的调用，以免与线程内共享的 Jedis 状态（例如 select）不一致。
+ */
+final class AutoBatcher implements Runnable {
+	
+	private final Cache cache;
+	private final long windowNanos;
+	private final int maxBatchSize;
+	private final LinkedBlockingQueue<Command<?>> queue = new LinkedBlockingQueue<Command<?>>();
+	private final Thread thread;
+	private volatile boolean running = true;
+	
+	AutoBatcher(Cache cache, int windowMicros, int maxBatchSize) {
+		if (windowMicros < 0)
+			throw new IllegalArgumentException("windowMicros can not be less than 0");
+		if (maxBatchSize < 1)
+			throw new IllegalArgumentException("maxBatchSize must be more than 0");
+		this.cache = cache;
+		this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+		this.maxBatchSize = maxBatchSize;
+		this.thread = new Thread(this, "sxb-redis-batcher-" + cache.getName());
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+	
+	/**
+	 * 排队执行命令并等待结果
+	 */
+	<T> T execute(Command<T> command) {
+		if (!running)
+			throw new IllegalStateException("AutoBatcher of cache " + cache.getName() + " is stopped");
+		queue.offer(command);
+		if (!running && queue.remove(command))	// stopped after the check above
+			throw new IllegalStateException("AutoBatcher of cache " + cache.getName() + " is stopped");
+		try {
+			return command.future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new JedisException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			throw new JedisException(cause);
+		}
+	}
+	
+	public void run() {
+		List<Command<?>> batch = new ArrayList<Command<?>>(maxBatchSize);
+		while (running || !queue.isEmpty()) {
+			try {
+				Command<?> first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null)
+					continue ;
+				batch.add(first);
+				collect(batch);
+				Command.flush(cache, batch);
+			} catch (InterruptedException e) {
+				// 被 stop() 唤醒，已取出的命令照常发送，剩余的命令在下一轮发送
+				Command.flush(cache, batch);
+			} catch (Throwable t) {
+				for (Command<?> command : batch)
+					command.future.setException(t);
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+	
+	private void collect(List<Command<?>> batch) throws InterruptedException {
+		queue.drainTo(batch, maxBatchSize - batch.size());
+		if (windowNanos == 0)
+			return ;
+		long deadline = System.nanoTime() + windowNanos;
+		while (batch.size() < maxBatchSize) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0)
+				return ;
+			Command<?> command = queue.poll(remaining, TimeUnit.NANOSECONDS);
+			if (command == null)
+				return ;
+			batch.add(command);
+			queue.drainTo(batch, maxBatchSize - batch.size());
+		}
+	}
+	
+	/**
+	 * 停止接收新命令，已排队的命令仍会被发送
+	 */
+	void stop() {
+		running = false;
+		thread.interrupt();
+	}
+}
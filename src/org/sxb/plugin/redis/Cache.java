@@ -26,6 +26,8 @@ import java.util.Set;
 import org.sxb.plugin.redis.serializer.ISerializer;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 
 /**
  * Cache.
@@ -42,6 +44,8 @@ public class Cache {
 	final IKeyNamingPolicy keyNamingPolicy;
 	
 	private final ThreadLocal<Jedis> threadLocalJedis = new ThreadLocal<Jedis>();
+	private volatile AutoBatcher autoBatcher = null;
+	private volatile NearCache nearCache = null;
 	
 	Cache(String name, JedisPool jedisPool, ISerializer serializer, IKeyNamingPolicy keyNamingPolicy) {
 		this.name = name;
@@ -56,9 +60,17 @@ public class Cache {
 	 * 对于某个原本带有生存时间（TTL）的键来说， 当 SET 命令成功在这个键上执行时， 这个键原有的 TTL 将被清除。
 	 */
 	public String set(Object key, Object value) {
+		AutoBatcher batcher = getAutoBatcher();
+		if (batcher != null) {
+			String result = batcher.execute(Command.set(this, key, value));
+			onWrite(null, key);
+			return result;
+		}
 		Jedis jedis = getJedis();
 		try {
-			return jedis.set(keyToBytes(key), valueToBytes(value));
+			String result = jedis.set(keyToBytes(key), valueToBytes(value));
+			onWrite(jedis, key);
+			return result;
 		}
 		finally {close(jedis);}
 	}
@@ -69,9 +81,17 @@ public class Cache {
 	 * 如果 key 已经存在， SETEX 命令将覆写旧值。
 	 */
 	public String setex(Object key, int seconds, Object value) {
+		AutoBatcher batcher = getAutoBatcher();
+		if (batcher != null) {
+			String result = batcher.execute(Command.setex(this, key, seconds, value));
+			onWrite(null, key);
+			return result;
+		}
 		Jedis jedis = getJedis();
 		try {
-			return jedis.setex(keyToBytes(key), seconds, valueToBytes(value));
+			String result = jedis.setex(keyToBytes(key), seconds, valueToBytes(value));
+			onWrite(jedis, key);
+			return result;
 		}
 		finally {close(jedis);}
 	}
@@ -80,12 +100,43 @@ public class Cache {
 	/**
 	 * 返回 key 所关联的 value 值
 	 * 如果 key 不存在那么返回特殊值 nil 。
+	 * 设置了 NearCache 时先读取本地缓存
 	 */
 	@SuppressWarnings("unchecked")
 	public <T> T get(Object key) {
+		NearCache near = nearCache;
+		return (T)(near != null ? near.get(key) : load(key));
+	}
+	
+	/**
+	 * 不经过 NearCache 从 redis 读取
+	 */
+	Object load(Object key) {
+		AutoBatcher batcher = getAutoBatcher();
+		if (batcher != null)
+			return batcher.execute(Command.get(this, key));
+		Jedis jedis = getJedis();
+		try {
+			return valueFromBytes(jedis.get(keyToBytes(key)));
+		}
+		finally {close(jedis);}
+	}
+	
+	/**
+	 * 不经过 NearCache 在一次网络往返中读取 value 与剩余生存时间（毫秒），返回 {value, pttl}
+	 */
+	Object[] loadWithPttl(Object key) {
+		AutoBatcher batcher = getAutoBatcher();
+		if (batcher != null)
+			return batcher.execute(Command.getWithPttl(this, key));
+		byte[] k = keyToBytes(key);
 		Jedis jedis = getJedis();
 		try {
-			return (T)valueFromBytes(jedis.get(keyToBytes(key)));
+			Pipeline pipeline = jedis.pipelined();
+			Response<byte[]> value = pipeline.get(k);
+			Response<Long> pttl = pipeline.pttl(k);
+			pipeline.sync();
+			return new Object[]{valueFromBytes(value.get()), pttl.get()};
 		}
 		finally {close(jedis);}
 	}
@@ -97,7 +148,9 @@ public class Cache {
 	public Long del(Object key) {
 		Jedis jedis = getJedis();
 		try {
-			return jedis.del(keyToBytes(key));
+			Long result = jedis.del(keyToBytes(key));
+			onWrite(jedis, key);
+			return result;
 		}
 		finally {close(jedis);}
 	}
@@ -110,7 +163,10 @@ public class Cache {
 	public Long del(Object... keys) {
 		Jedis jedis = getJedis();
 		try {
-			return jedis.del(keysToBytesArray(keys));
+			Long result = jedis.del(keysToBytesArray(keys));
+			for (Object key : keys)
+				onWrite(jedis, key);
+			return result;
 		}
 		finally {close(jedis);}
 	}
@@ -156,7 +212,10 @@ public class Cache {
 				else
 					kv[i] = valueToBytes(keysValues[i]);
 			}
-			return jedis.mset(kv);
+			String result = jedis.mset(kv);
+			for (int i=0; i<keysValues.length; i+=2)
+				onWrite(jedis, keysValues[i]);
+			return result;
 		}
 		finally {close(jedis);}
 	}
@@ -272,7 +331,10 @@ public class Cache {
 	public String rename(Object oldkey, Object newkey) {
 		Jedis jedis = getJedis();
 		try {
-			return jedis.rename(keyToBytes(oldkey), keyToBytes(newkey));
+			String result = jedis.rename(keyToBytes(oldkey), keyToBytes(newkey));
+			onWrite(jedis, oldkey);
+			onWrite(jedis, newkey);
+			return result;
 		}
 		finally {close(jedis);}
 	}
@@ -286,7 +348,9 @@ public class Cache {
 	public Long move(Object key, int dbIndex) {
 		Jedis jedis = getJedis();
 		try {
-			return jedis.move(keyToBytes(key), dbIndex);
+			Long result = jedis.move(keyToBytes(key), dbIndex);
+			onWrite(jedis, key);
+			return result;
 		}
 		finally {close(jedis);}
 	}
@@ -298,7 +362,9 @@ public class Cache {
 	public String migrate(String host, int port, Object key, int destinationDb, int timeout) {
 		Jedis jedis = getJedis();
 		try {
-			return jedis.migrate(valueToBytes(host), port, keyToBytes(key), destinationDb, timeout);
+			String result = jedis.migrate(valueToBytes(host), port, keyToBytes(key), destinationDb, timeout);
+			onWrite(jedis, key);
+			return result;
 		}
 		finally {close(jedis);}
 	}
@@ -329,7 +395,9 @@ public class Cache {
 	public Long expire(Object key, int seconds) {
 		Jedis jedis = getJedis();
 		try {
-			return jedis.expire(keyToBytes(key), seconds);
+			Long result = jedis.expire(keyToBytes(key), seconds);
+			onWrite(jedis, key);
+			return result;
 		}
 		finally {close(jedis);}
 	}
@@ -341,7 +409,9 @@ public class Cache {
 	public Long expireAt(Object key, long unixTime) {
 		Jedis jedis = getJedis();
 		try {
-			return jedis.expireAt(keyToBytes(key), unixTime);
+			Long result = jedis.expireAt(keyToBytes(key), unixTime);
+			onWrite(jedis, key);
+			return result;
 		}
 		finally {close(jedis);}
 	}
@@ -353,7 +423,9 @@ public class Cache {
 	public Long pexpire(Object key, long milliseconds) {
 		Jedis jedis = getJedis();
 		try {
-			return jedis.pexpire(keyToBytes(key), milliseconds);
+			Long result = jedis.pexpire(keyToBytes(key), milliseconds);
+			onWrite(jedis, key);
+			return result;
 		}
 		finally {close(jedis);}
 	}
@@ -365,7 +437,9 @@ public class Cache {
 	public Long pexpireAt(Object key, long millisecondsTimestamp) {
 		Jedis jedis = getJedis();
 		try {
-			return jedis.pexpireAt(keyToBytes(key), millisecondsTimestamp);
+			Long result = jedis.pexpireAt(keyToBytes(key), millisecondsTimestamp);
+			onWrite(jedis, key);
+			return result;
 		}
 		finally {close(jedis);}
 	}
@@ -379,7 +453,9 @@ public class Cache {
 	public <T> T getSet(Object key, Object value) {
 		Jedis jedis = getJedis();
 		try {
-			return (T)valueFromBytes(jedis.getSet(keyToBytes(key), valueToBytes(value)));
+			T result = (T)valueFromBytes(jedis.getSet(keyToBytes(key), valueToBytes(value)));
+			onWrite(jedis, key);
+			return result;
 		}
 		finally {close(jedis);}
 	}
@@ -390,7 +466,9 @@ public class Cache {
 	public Long persist(Object key) {
 		Jedis jedis = getJedis();
 		try {
-			return jedis.persist(keyToBytes(key));
+			Long result = jedis.persist(keyToBytes(key));
+			onWrite(jedis, key);
+			return result;
 		}
 		finally {close(jedis);}
 	}
@@ -1203,17 +1281,17 @@ public class Cache {
 	// ---------
 
 	
-	private byte[] keyToBytes(Object key) {
+	byte[] keyToBytes(Object key) {
 		String keyStr = keyNamingPolicy.getKeyName(key);
 		return serializer.keyToBytes(keyStr);
 	}
 	
-	private String keyFromBytes(byte[] bytes) {
+	String keyFromBytes(byte[] bytes) {
 		return serializer.keyFromBytes(bytes);
 	}
 	
 
-	private byte[][] keysToBytesArray(Object... keys) {
+	byte[][] keysToBytesArray(Object... keys) {
 		byte[][] result = new byte[keys.length][];
 		for (int i=0; i<result.length; i++)
 			result[i] = keyToBytes(keys[i]);
@@ -1229,16 +1307,16 @@ public class Cache {
 	}
 	
 
-	private byte[] valueToBytes(Object object) {
+	byte[] valueToBytes(Object object) {
 		return serializer.valueToBytes(object);
 	}
 	
-	private Object valueFromBytes(byte[] bytes) {
+	Object valueFromBytes(byte[] bytes) {
 		return serializer.valueFromBytes(bytes);
 	}
 	
 
-	private byte[][] valuesToBytesArray(Object... objectArray) {
+	byte[][] valuesToBytesArray(Object... objectArray) {
 		byte[][] data = new byte[objectArray.length][];
 		for (int i=0; i<data.length; i++)
 			data[i] = valueToBytes(objectArray[i]);
@@ -1277,6 +1355,66 @@ public class Cache {
 		return keyNamingPolicy;
 	}
 	
+	// ---------
+	
+	/**
+	 * 创建 CachePipeline，将多条命令合并为一次网络往返
+	 * @see CachePipeline
+	 */
+	public CachePipeline pipeline() {
+		return new CachePipeline(this);
+	}
+	
+	/**
+	 * 开启自动批量发送：多个线程并发调用的 get、set、setex 由后台线程合并，
+	 * 每收集到第一条命令后最多再等待 windowMicros 微秒或凑满 maxBatchSize 条，通过一个 Pipeline 发送。
+	 * 适合大量线程频繁读写小 value 的场景，单线程调用时反而会多出一次线程切换。
+	 * 在 RedisInterceptor 或 Redis.call(...) 内的调用仍使用线程内共享的 Jedis 直接发送。
+	 */
+	public synchronized void setAutoBatch(int windowMicros, int maxBatchSize) {
+		AutoBatcher batcher = new AutoBatcher(this, windowMicros, maxBatchSize);
+		disableAutoBatch();
+		autoBatcher = batcher;
+	}
+	
+	/**
+	 * 关闭自动批量发送，已排队的命令仍会被发送
+	 */
+	public synchronized void disableAutoBatch() {
+		AutoBatcher batcher = autoBatcher;
+		autoBatcher = null;
+		if (batcher != null)
+			batcher.stop();
+	}
+	
+	/**
+	 * 设置进程内一级缓存，null 表示不使用
+	 * @see NearCache
+	 */
+	public void setNearCache(NearCache nearCache) {
+		if (nearCache != null)
+			nearCache.bind(this);
+		this.nearCache = nearCache;
+	}
+	
+	public NearCache getNearCache() {
+		return nearCache;
+	}
+	
+	/**
+	 * 通过本 Cache 写入 key 之后失效 NearCache
+	 */
+	void onWrite(Jedis jedis, Object key) {
+		NearCache near = nearCache;
+		if (near != null)
+			near.onWrite(jedis, key);
+	}
+	
+	private AutoBatcher getAutoBatcher() {
+		AutoBatcher batcher = autoBatcher;
+		return batcher != null && threadLocalJedis.get() == null ? batcher : null;
+	}
+	
 	// ---------
 
 	public Jedis getJedis() {
@@ -0,0 +1,177 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.plugin.redis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.sxb.kit.concurrent.ListenableFuture;
+
+/**
+ * CachePipeline.
+ * 将多条命令排队，在 sync() 时通过一个 Pipeline 一次性发送，只占用一次连接与一次网络往返。
+ * 每个方法立即返回 ListenableFuture，sync() 之后即可从中取得与 Cache 同名方法相同类型的结果。
+ * 命令只在 sync() 时才从连接池获取连接，因此排队期间不占用连接。
+ * <pre>
+ * 例如：
+ * CachePipeline pipeline = Redis.use().pipeline();
+ * ListenableFuture&lt;User&gt; user = pipeline.get("user:1");
+ * ListenableFuture&lt;Long&gt; count = pipeline.incr("visit:1");
+ * pipeline.sync();
+ * User u = user.get();
+ * </pre>
+ * 注意：在 sync() 之前调用 future.get() 会一直阻塞，CachePipeline 不是线程安全的
+ */
+public class CachePipeline {
+	
+	private final Cache cache;
+	private List<Command<?>> commands = new ArrayList<Command<?>>();
+	private List<Object> writtenKeys = new ArrayList<Object>();
+	
+	CachePipeline(Cache cache) {
+		this.cache = cache;
+	}
+	
+	private <T> ListenableFuture<T> add(Command<T> command) {
+		commands.add(command);
+		return command.future;
+	}
+	
+	/**
+	 * 写入 key 的命令，sync() 之后失效 NearCache
+	 */
+	private <T> ListenableFuture<T> write(Command<T> command, Object key) {
+		writtenKeys.add(key);
+		return add(command);
+	}
+	
+	/**
+	 * 发送已排队的全部命令并设置各自的结果，之后可继续排队新的命令
+	 */
+	public void sync() {
+		List<Command<?>> list = commands;
+		commands = new ArrayList<Command<?>>();
+		List<Object> keys = writtenKeys;
+		writtenKeys = new ArrayList<Object>();
+		Command.flush(cache, list);
+		for (Object key : keys)
+			cache.onWrite(null, key);
+	}
+	
+	/**
+	 * 已排队但尚未发送的命令数量
+	 */
+	public int size() {
+		return commands.size();
+	}
+	
+	// ---------
+	
+	public ListenableFuture<String> set(Object key, Object value) {
+		return write(Command.set(cache, key, value), key);
+	}
+	
+	public ListenableFuture<String> setex(Object key, int seconds, Object value) {
+		return write(Command.setex(cache, key, seconds, value), key);
+	}
+	
+	public <T> ListenableFuture<T> get(Object key) {
+		return add(Command.<T>get(cache, key));
+	}
+	
+	public ListenableFuture<Long> del(Object key) {
+		return write(Command.del(cache, key), key);
+	}
+	
+	public ListenableFuture<Boolean> exists(Object key) {
+		return add(Command.exists(cache, key));
+	}
+	
+	public ListenableFuture<Long> expire(Object key, int seconds) {
+		return write(Command.expire(cache, key, seconds), key);
+	}
+	
+	public ListenableFuture<Long> ttl(Object key) {
+		return add(Command.ttl(cache, key));
+	}
+	
+	public ListenableFuture<Long> incr(Object key) {
+		return add(Command.incrBy(cache, key, 1L));
+	}
+	
+	public ListenableFuture<Long> incrBy(Object key, long longValue) {
+		return add(Command.incrBy(cache, key, longValue));
+	}
+	
+	public ListenableFuture<Long> decr(Object key) {
+		return add(Command.incrBy(cache, key, -1L));
+	}
+	
+	public ListenableFuture<Long> decrBy(Object key, long longValue) {
+		return add(Command.incrBy(cache, key, -longValue));
+	}
+	
+	public ListenableFuture<Long> hset(Object key, Object field, Object value) {
+		return add(Command.hset(cache, key, field, value));
+	}
+	
+	public <T> ListenableFuture<T> hget(Object key, Object field) {
+		return add(Command.<T>hget(cache, key, field));
+	}
+	
+	public ListenableFuture<Long> hdel(Object key, Object... fields) {
+		return add(Command.hdel(cache, key, fields));
+	}
+	
+	public ListenableFuture<Boolean> hexists(Object key, Object field) {
+		return add(Command.hexists(cache, key, field));
+	}
+	
+	@SuppressWarnings("rawtypes")
+	public ListenableFuture<Map> hgetAll(Object key) {
+		return add(Command.hgetAll(cache, key));
+	}
+	
+	public ListenableFuture<Long> lpush(Object key, Object... values) {
+		return add(Command.lpush(cache, key, values));
+	}
+	
+	public ListenableFuture<Long> rpush(Object key, Object... values) {
+		return add(Command.rpush(cache, key, values));
+	}
+	
+	public ListenableFuture<Long> sadd(Object key, Object... members) {
+		return add(Command.sadd(cache, key, members));
+	}
+	
+	public ListenableFuture<Long> srem(Object key, Object... members) {
+		return add(Command.srem(cache, key, members));
+	}
+	
+	public ListenableFuture<Boolean> sismember(Object key, Object member) {
+		return add(Command.sismember(cache, key, member));
+	}
+	
+	public ListenableFuture<Long> zadd(Object key, double score, Object member) {
+		return add(Command.zadd(cache, key, score, member));
+	}
+	
+	public ListenableFuture<Double> zscore(Object key, Object member) {
+		return add(Command.zscore(cache, key, member));
+	}
+}
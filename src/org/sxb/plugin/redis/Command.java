@@ -0,0 +1,325 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.plugin.redis;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.sxb.kit.concurrent.SettableListenableFuture;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+/**
+ * Command.
+ * 排队等待通过 Pipeline 发送的一条命令，key 与 value 在创建时即完成序列化，
+ * 结果在 Pipeline sync 之后反序列化并设置到 future 中
+ */
+abstract class Command<T> {
+	
+	final SettableListenableFuture<T> future = new SettableListenableFuture<T>();
+	private Response<?> response;
+	
+	/**
+	 * 将命令写入 pipeline
+	 */
+	abstract Response<?> send(Pipeline pipeline);
+	
+	/**
+	 * 将 Response 中的原始结果转换为返回给调用者的结果
+	 */
+	@SuppressWarnings("unchecked")
+	T convert(Object data) {
+		return (T)data;
+	}
+	
+	private void complete() {
+		try {
+			future.set(convert(response.get()));
+		} catch (RuntimeException e) {
+			future.setException(e);
+		}
+	}
+	
+	/**
+	 * 使用一个 Pipeline 发送全部命令并设置结果，只有一次网络往返。
+	 * 单条命令的错误（例如 WRONGTYPE）只影响该命令的 future，连接错误影响全部 future
+	 */
+	static void flush(Cache cache, List<? extends Command<?>> commands) {
+		if (commands.isEmpty())
+			return ;
+		Jedis jedis = null;
+		try {
+			jedis = cache.getJedis();
+			Pipeline pipeline = jedis.pipelined();
+			for (Command<?> command : commands)
+				command.response = command.send(pipeline);
+			pipeline.sync();
+		} catch (RuntimeException e) {
+			for (Command<?> command : commands)
+				command.future.setException(e);
+			return ;
+		} finally {
+			cache.close(jedis);
+		}
+		for (Command<?> command : commands)
+			command.complete();
+	}
+	
+	// ---------
+	
+	static Command<String> set(Cache cache, Object key, Object value) {
+		final byte[] k = cache.keyToBytes(key);
+		final byte[] v = cache.valueToBytes(value);
+		return new Command<String>() {
+			Response<?> send(Pipeline pipeline) {
+				return pipeline.set(k, v);
+			}
+		};
+	}
+	
+	static Command<String> setex(Cache cache, Object key, final int seconds, Object value) {
+		final byte[] k = cache.keyToBytes(key);
+		final byte[] v = cache.valueToBytes(value);
+		return new Command<String>() {
+			Response<?> send(Pipeline pipeline) {
+				return pipeline.setex(k, seconds, v);
+			}
+		};
+	}
+	
+	static <T> Command<T> get(final Cache cache, Object key) {
+		final byte[] k = cache.keyToBytes(key);
+		return new ValueCommand<T>(cache) {
+			Response<?> send(Pipeline pipeline) {
+				return pipeline.get(k);
+			}
+		};
+	}
+	
+	/**
+	 * GET 与 PTTL，结果为 {value, pttl}
+	 */
+	static Command<Object[]> getWithPttl(final Cache cache, Object key) {
+		final byte[] k = cache.keyToBytes(key);
+		return new Command<Object[]>() {
+			private Response<byte[]> value;
+			
+			Response<?> send(Pipeline pipeline) {
+				value = pipeline.get(k);
+				return pipeline.pttl(k);
+			}
+			
+			Object[] convert(Object pttl) {
+				return new Object[]{cache.valueFromBytes(value.get()), pttl};
+			}
+		};
+	}
+	
+	static Command<Long> del(Cache cache, Object key) {
+		final byte[] k = cache.keyToBytes(key);
+		return new Command<Long>() {
+			Response<?> send(Pipeline pipeline) {
+				return pipeline.del(k);
+			}
+		};
+	}
+	
+	static Command<Boolean> exists(Cache cache, Object key) {
+		final byte[] k = cache.keyToBytes(key);
+		return new Command<Boolean>() {
+			Response<?> send(Pipeline pipeline) {
+				return pipeline.exists(k);
+			}
+		};
+	}
+	
+	static Command<Long> expire(Cache cache, Object key, final int seconds) {
+		final byte[] k = cache.keyToBytes(key);
+		return new Command<Long>() {
+			Response<?> send(Pipeline pipeline) {
+				return pipeline.expire(k, seconds);
+			}
+		};
+	}
+	
+	static Command<Long> ttl(Cache cache, Object key) {
+		final byte[] k = cache.keyToBytes(key);
+		return new Command<Long>() {
+			Response<?> send(Pipeline pipeline) {
+				return pipeline.ttl(k);
+			}
+		};
+	}
+	
+	static Command<Long> incrBy(Cache cache, Object key, final long value) {
+		final byte[] k = cache.keyToBytes(key);
+		return new Command<Long>() {
+			Response<?> send(Pipeline pipeline) {
+				return pipeline.incrBy(k, value);
+			}
+		};
+	}
+	
+	static Command<Long> hset(Cache cache, Object key, Object field, Object value) {
+		final byte[] k = cache.keyToBytes(key);
+		final byte[] f = cache.keyToBytes(field);
+		final byte[] v = cache.valueToBytes(value);
+		return new Command<Long>() {
+			Response<?> send(Pipeline pipeline) {
+				return pipeline.hset(k, f, v);
+			}
+		};
+	}
+	
+	static <T> Command<T> hget(Cache cache, Object key, Object field) {
+		final byte[] k = cache.keyToBytes(key);
+		final byte[] f = cache.keyToBytes(field);
+		return new ValueCommand<T>(cache) {
+			Response<?> send(Pipeline pipeline) {
+				return pipeline.hget(k, f);
+			}
+		};
+	}
+	
+	static Command<Long> hdel(Cache cache, Object key, Object... fields) {
+		final byte[] k = cache.keyToBytes(key);
+		final byte[][] f = cache.keysToBytesArray(fields);
+		return new Command<Long>() {
+			Response<?> send(Pipeline pipeline) {
+				return pipeline.hdel(k, f);
+			}
+		};
+	}
+	
+	static Command<Boolean> hexists(Cache cache, Object key, Object field) {
+		final byte[] k = cache.keyToBytes(key);
+		final byte[] f = cache.keyToBytes(field);
+		return new Command<Boolean>() {
+			Response<?> send(Pipeline pipeline) {
+				return pipeline.hexists(k, f);
+			}
+		};
+	}
+	
+	@SuppressWarnings("rawtypes")
+	static Command<Map> hgetAll(final Cache cache, Object key) {
+		final byte[] k = cache.keyToBytes(key);
+		return new Command<Map>() {
+			Response<?> send(Pipeline pipeline) {
+				return pipeline.hgetAll(k);
+			}
+			
+			@SuppressWarnings("unchecked")
+			Map convert(Object data) {
+				Map<Object, Object> result = new HashMap<Object, Object>();
+				for (Entry<byte[], byte[]> e : ((Map<byte[], byte[]>)data).entrySet())
+					result.put(cache.keyFromBytes(e.getKey()), cache.valueFromBytes(e.getValue()));
+				return result;
+			}
+		};
+	}
+	
+	static Command<Long> lpush(Cache cache, Object key, Object... values) {
+		final byte[] k = cache.keyToBytes(key);
+		final byte[][] v = cache.valuesToBytesArray(values);
+		return new Command<Long>() {
+			Response<?> send(Pipeline pipeline) {
+				return pipeline.lpush(k, v);
+			}
+		};
+	}
+	
+	static Command<Long> rpush(Cache cache, Object key, Object... values) {
+		final byte[] k = cache.keyToBytes(key);
+		final byte[][] v = cache.valuesToBytesArray(values);
+		return new Command<Long>() {
+			Response<?> send(Pipeline pipeline) {
+				return pipeline.rpush(k, v);
+			}
+		};
+	}
+	
+	static Command<Long> sadd(Cache cache, Object key, Object... members) {
+		final byte[] k = cache.keyToBytes(key);
+		final byte[][] m = cache.valuesToBytesArray(members);
+		return new Command<Long>() {
+			Response<?> send(Pipeline pipeline) {
+				return pipeline.sadd(k, m);
+			}
+		};
+	}
+	
+	static Command<Long> srem(Cache cache, Object key, Object... members) {
+		final byte[] k = cache.keyToBytes(key);
+		final byte[][] m = cache.valuesToBytesArray(members);
+		return new Command<Long>() {
+			Response<?> send(Pipeline pipeline) {
+				return pipeline.srem(k, m);
+			}
+		};
+	}
+	
+	static Command<Boolean> sismember(Cache cache, Object key, Object member) {
+		final byte[] k = cache.keyToBytes(key);
+		final byte[] m = cache.valueToBytes(member);
+		return new Command<Boolean>() {
+			Response<?> send(Pipeline pipeline) {
+				return pipeline.sismember(k, m);
+			}
+		};
+	}
+	
+	static Command<Long> zadd(Cache cache, Object key, final double score, Object member) {
+		final byte[] k = cache.keyToBytes(key);
+		final byte[] m = cache.valueToBytes(member);
+		return new Command<Long>() {
+			Response<?> send(Pipeline pipeline) {
+				return pipeline.zadd(k, score, m);
+			}
+		};
+	}
+	
+	static Command<Double> zscore(Cache cache, Object key, Object member) {
+		final byte[] k = cache.keyToBytes(key);
+		final byte[] m = cache.valueToBytes(member);
+		return new Command<Double>() {
+			Response<?> send(Pipeline pipeline) {
+				return pipeline.zscore(k, m);
+			}
+		};
+	}
+	
+	/**
+	 * 结果为单个序列化 value 的命令
+	 */
+	private abstract static class ValueCommand<T> extends Command<T> {
+		private final Cache cache;
+		
+		ValueCommand(Cache cache) {
+			this.cache = cache;
+		}
+		
+		@SuppressWarnings("unchecked")
+		T convert(Object data) {
+			return (T)cache.valueFromBytes((byte[])data);
+		}
+	}
+}
@@ -0,0 +1,397 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.plugin.redis;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.sxb.data.redis.connection.Message;
+import org.sxb.data.redis.connection.MessageListener;
+import org.sxb.data.redis.listener.ChannelTopic;
+import org.sxb.data.redis.listener.PatternTopic;
+import org.sxb.data.redis.listener.RedisMessageListenerContainer;
+import org.sxb.data.redis.listener.Topic;
+import org.sxb.plugin.metrics.StripedCounter;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * NearCache.
+ * Cache.get(key) 的进程内一级缓存，命中时既没有网络往返也没有反序列化。
+ * 只缓存与 addPattern(...) 匹配的 key（未添加时缓存全部 key），按 LRU 淘汰，总数不超过 maxSize。
+ * <p>
+ * 通过 Cache 写入（set、setex、del、expire、persist 等）时先失效本地缓存，再向 channel 发布该 key，
+ * 其它节点经 RedisMessageListenerContainer 收到后失效各自的本地缓存。
+ * 从 redis 读取时同时读取 key 的剩余生存时间（PTTL），本地缓存不会晚于 redis 中的 key 过期。
+ * 不经过 Cache 的写入可开启 Redis 的 keyspace 通知（notify-keyspace-events K$gx）并调用
+ * setKeyspaceNotifications(true)，此时可 setPublishOnWrite(false) 省去发布。
+ * setExpireMillis(...) 为丢失消息等情况提供兜底的过期时间。
+ * <pre>
+ * 例如：
+ * NearCache nearCache = new NearCache(10000).addPattern("user:*").setExpireMillis(60000);
+ * redisPlugin.setNearCache(nearCache);
+ * nearCache.subscribe(redisMessageListenerContainer);
+ * </pre>
+ * 注意：命中时返回的是同一个对象，调用者不要修改它
+ */
+public class NearCache implements MessageListener {
+	
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final int MAX_SEGMENTS = 16;
+	private static final int MIN_SEGMENT_SIZE = 64;
+	private static final String KEYSPACE_PREFIX = "__keyspace@";
+	private static final String KEYEVENT_PREFIX = "__keyevent@";
+	
+	private final Segment[] segments;
+	private final List<String> patterns = new ArrayList<String>();
+	private long expireMillis = 0;
+	private String channel = null;
+	private byte[] channelBytes;
+	private boolean publishOnWrite = true;
+	private boolean keyspaceNotifications = false;
+	private Cache cache;
+	
+	private final StripedCounter hits = new StripedCounter();
+	private final StripedCounter misses = new StripedCounter();
+	private final StripedCounter invalidations = new StripedCounter();
+	private final StripedCounter evictions = new StripedCounter();
+	
+	/**
+	 * @param maxSize 本地缓存的最大 key 数量
+	 */
+	public NearCache(int maxSize) {
+		if (maxSize < 1)
+			throw new IllegalArgumentException("maxSize must be more than 0");
+		int n = 1;	// power of 2, small caches use fewer segments to keep the bound close to maxSize
+		while (n < MAX_SEGMENTS && maxSize / (n * 2) >= MIN_SEGMENT_SIZE)
+			n <<= 1;
+		segments = new Segment[n];
+		for (int i=0; i<n; i++)
+			segments[i] = new Segment((maxSize + n - 1) / n, evictions);
+	}
+	
+	/**
+	 * 添加需要本地缓存的 key 模式，支持 * 与 ?，匹配的是经过 IKeyNamingPolicy 之后的 key
+	 */
+	public NearCache addPattern(String pattern) {
+		if (pattern == null || pattern.length() == 0)
+			throw new IllegalArgumentException("pattern can not be blank");
+		patterns.add(pattern);
+		return this;
+	}
+	
+	/**
+	 * 本地缓存的过期时间（毫秒），0 表示只依靠失效消息与 key 的剩余生存时间
+	 */
+	public NearCache setExpireMillis(long expireMillis) {
+		if (expireMillis < 0)
+			throw new IllegalArgumentException("expireMillis can not be less than 0");
+		this.expireMillis = expireMillis;
+		return this;
+	}
+	
+	/**
+	 * 发布失效消息的 channel，默认为 "sxb:near-cache:" + cacheName
+	 */
+	public NearCache setChannel(String channel) {
+		if (channel == null || channel.length() == 0)
+			throw new IllegalArgumentException("channel can not be blank");
+		this.channel = channel;
+		this.channelBytes = channel.getBytes(UTF_8);
+		return this;
+	}
+	
+	/**
+	 * 通过 Cache 写入时是否向 channel 发布失效消息，默认为 true
+	 */
+	public NearCache setPublishOnWrite(boolean publishOnWrite) {
+		this.publishOnWrite = publishOnWrite;
+		return this;
+	}
+	
+	/**
+	 * 是否同时订阅 Redis 的 keyspace 通知，需要在 Redis 端开启 notify-keyspace-events
+	 */
+	public NearCache setKeyspaceNotifications(boolean keyspaceNotifications) {
+		this.keyspaceNotifications = keyspaceNotifications;
+		return this;
+	}
+	
+	/**
+	 * 需要订阅的 topic：失效 channel，以及开启 keyspace 通知时与各模式对应的 keyspace channel
+	 */
+	public List<Topic> getTopics() {
+		if (channel == null)
+			throw new IllegalStateException("NearCache is not bound to a Cache, call Cache.setNearCache(...) or setChannel(...) first");
+		List<Topic> topics = new ArrayList<Topic>();
+		topics.add(new ChannelTopic(channel));
+		if (keyspaceNotifications) {
+			if (patterns.isEmpty())
+				topics.add(new PatternTopic(KEYSPACE_PREFIX + "*__:*"));
+			for (String pattern : patterns)
+				topics.add(new PatternTopic(KEYSPACE_PREFIX + "*__:" + pattern));
+		}
+		return topics;
+	}
+	
+	/**
+	 * 向 container 注册本监听器
+	 */
+	public void subscribe(RedisMessageListenerContainer container) {
+		container.addMessageListener(this, getTopics());
+	}
+	
+	synchronized void bind(Cache cache) {
+		if (this.cache != null && this.cache != cache)
+			throw new IllegalStateException("NearCache is already used by cache " + this.cache.getName());
+		this.cache = cache;
+		if (channel == null)
+			setChannel("sxb:near-cache:" + cache.getName());
+	}
+	
+	// ---------
+	
+	boolean matches(String keyName) {
+		if (patterns.isEmpty())
+			return true;
+		for (int i=0, size=patterns.size(); i<size; i++)
+			if (globMatch(patterns.get(i), keyName))
+				return true;
+		return false;
+	}
+	
+	/**
+	 * 读取本地缓存，未命中时从 redis 读取并放入本地缓存，
+	 * 读取期间该 key 被失效时不放入，避免旧值覆盖失效
+	 */
+	Object get(Object key) {
+		String keyName = cache.keyNamingPolicy.getKeyName(key);
+		if (!matches(keyName))
+			return cache.load(key);
+		
+		Segment segment = segmentFor(keyName);
+		long stamp;
+		synchronized (segment) {
+			CachedValue entry = segment.get(keyName);
+			if (entry != null) {
+				if (entry.expireAt == 0 || entry.expireAt > System.currentTimeMillis()) {
+					hits.increment();
+					return entry.value;
+				}
+				segment.remove(keyName);
+			}
+			stamp = segment.stamp;
+		}
+		
+		misses.increment();
+		Object[] valueAndPttl = cache.loadWithPttl(key);
+		Object value = valueAndPttl[0];
+		Long pttl = (Long)valueAndPttl[1];
+		if (value != null && (pttl == null || pttl != 0)) {
+			long now = System.currentTimeMillis();
+			long expireAt = expireMillis > 0 ? now + expireMillis : 0;
+			if (pttl != null && pttl > 0 && (expireAt == 0 || now + pttl < expireAt))	// -1 for no ttl
+				expireAt = now + pttl;
+			synchronized (segment) {
+				if (segment.stamp == stamp)
+					segment.put(keyName, new CachedValue(value, expireAt));
+			}
+		}
+		return value;
+	}
+	
+	/**
+	 * 通过 Cache 写入 key 之后调用：失效本地缓存并通知其它节点
+	 * @param jedis 执行写入的 Jedis，为 null 时从 cache 获取
+	 */
+	void onWrite(Jedis jedis, Object key) {
+		String keyName = cache.keyNamingPolicy.getKeyName(key);
+		if (!matches(keyName))
+			return ;
+		invalidate(keyName);
+		if (!publishOnWrite)
+			return ;
+		
+		byte[] message = cache.serializer.keyToBytes(keyName);
+		if (jedis != null) {
+			jedis.publish(channelBytes, message);
+			return ;
+		}
+		jedis = cache.getJedis();
+		try {
+			jedis.publish(channelBytes, message);
+		}
+		finally {cache.close(jedis);}
+	}
+	
+	/**
+	 * 失效本进程中的 key
+	 */
+	public void invalidate(String keyName) {
+		Segment segment = segmentFor(keyName);
+		synchronized (segment) {
+			segment.stamp++;
+			segment.remove(keyName);
+		}
+		invalidations.increment();
+	}
+	
+	/**
+	 * 清空本进程中的全部 key
+	 */
+	public void clear() {
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				segment.stamp++;
+				segment.clear();
+			}
+		}
+	}
+	
+	/**
+	 * 收到失效消息：失效 channel 的消息体为 key，keyspace 通知的 key 在 channel 中，keyevent 通知的 key 在消息体中
+	 */
+	public void onMessage(Message message, byte[] pattern) {
+		String messageChannel = new String(message.getChannel(), UTF_8);
+		String keyName;
+		if (messageChannel.startsWith(KEYSPACE_PREFIX)) {
+			int index = messageChannel.indexOf("__:");
+			if (index == -1)
+				return ;
+			keyName = messageChannel.substring(index + 3);
+		}
+		else if (messageChannel.startsWith(KEYEVENT_PREFIX) || messageChannel.equals(channel)) {
+			keyName = cache.serializer.keyFromBytes(message.getBody());
+		}
+		else {
+			return ;
+		}
+		invalidate(keyName);
+	}
+	
+	private Segment segmentFor(String keyName) {
+		int h = keyName.hashCode();
+		return segments[(h ^ (h >>> 16)) & (segments.length - 1)];
+	}
+	
+	/**
+	 * redis 风格的 glob 匹配，支持 * 与 ?
+	 */
+	static boolean globMatch(String pattern, String str) {
+		int p = 0, s = 0, star = -1, mark = 0;
+		while (s < str.length()) {
+			if (p < pattern.length() && (pattern.charAt(p) == '?' || pattern.charAt(p) == str.charAt(s))) {
+				p++;
+				s++;
+			}
+			else if (p < pattern.length() && pattern.charAt(p) == '*') {
+				star = p++;
+				mark = s;
+			}
+			else if (star != -1) {
+				p = star + 1;
+				s = ++mark;
+			}
+			else {
+				return false;
+			}
+		}
+		while (p < pattern.length() && pattern.charAt(p) == '*')
+			p++;
+		return p == pattern.length();
+	}
+	
+	// ---------
+	
+	public long getHits() {
+		return hits.sum();
+	}
+	
+	public long getMisses() {
+		return misses.sum();
+	}
+	
+	public double getHitRate() {
+		long hits = getHits();
+		long total = hits + getMisses();
+		return total == 0 ? 0D : (double)hits / total;
+	}
+	
+	public long getInvalidations() {
+		return invalidations.sum();
+	}
+	
+	public long getEvictions() {
+		return evictions.sum();
+	}
+	
+	public int getSize() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+	
+	public void resetStatistics() {
+		hits.reset();
+		misses.reset();
+		invalidations.reset();
+		evictions.reset();
+	}
+	
+	// ---------
+	
+	private static final class CachedValue {
+		final Object value;
+		final long expireAt;
+		
+		CachedValue(Object value, long expireAt) {
+			this.value = value;
+			this.expireAt = expireAt;
+		}
+	}
+	
+	/**
+	 * 按访问顺序排列的 LRU 分段，所有访问都在 synchronized (segment) 中进行
+	 */
+	@SuppressWarnings("serial")
+	private static final class Segment extends LinkedHashMap<String, CachedValue> {
+		private final int maxSize;
+		private final StripedCounter evictions;
+		long stamp = 0;	// increased on each invalidation, a load started before it is not cached
+		
+		Segment(int maxSize, StripedCounter evictions) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+			this.evictions = evictions;
+		}
+		
+		protected boolean removeEldestEntry(Map.Entry<String, CachedValue> eldest) {
+			if (size() > maxSize) {
+				evictions.increment();
+				return true;
+			}
+			return false;
+		}
+	}
+}
@@ -44,6 +44,9 @@ public class RedisPlugin implements IPlugin {
 	
 	private ISerializer serializer = null;
 	private IKeyNamingPolicy keyNamingPolicy = null;
+	private Integer autoBatchWindowMicros = null;
+	private Integer autoBatchMaxSize = null;
+	private NearCache nearCache = null;
 	private JedisPoolConfig jedisPoolConfig = new JedisPoolConfig();
 	
 	public RedisPlugin(String cacheName, String host) {
@@ -113,6 +116,10 @@ public class RedisPlugin implements IPlugin {
 			keyNamingPolicy = IKeyNamingPolicy.defaultKeyNamingPolicy;
 		
 		Cache cache = new Cache(cacheName, jedisPool, serializer, keyNamingPolicy);
+		if (autoBatchWindowMicros != null)
+			cache.setAutoBatch(autoBatchWindowMicros, autoBatchMaxSize);
+		if (nearCache != null)
+			cache.setNearCache(nearCache);
 		Redis.addCache(cache);
 		return true;
 	}
@@ -121,6 +128,7 @@ public class RedisPlugin implements IPlugin {
 		Cache cache = Redis.removeCache(cacheName);
 		if (cache == Redis.mainCache)
 			Redis.mainCache = null;
+		cache.disableAutoBatch();
 		cache.jedisPool.destroy();
 		return true;
 	}
@@ -147,6 +155,23 @@ public class RedisPlugin implements IPlugin {
 		this.keyNamingPolicy = keyNamingPolicy;
 	}
 	
+	/**
+	 * @see Cache#setNearCache(NearCache)
+	 */
+	public void setNearCache(NearCache nearCache) {
+		this.nearCache = nearCache;
+	}
+	
+	/**
+	 * @see Cache#setAutoBatch(int, int)
+	 */
+	public void setAutoBatch(int windowMicros, int maxBatchSize) {
+		if (windowMicros < 0 || maxBatchSize < 1)
+			throw new IllegalArgumentException("windowMicros can not be less than 0 and maxBatchSize must be more than 0");
+		this.autoBatchWindowMicros = windowMicros;
+		this.autoBatchMaxSize = maxBatchSize;
+	}
+	
 	// ---------
 	
 	public void setTestWhileIdle(boolean testWhileIdle) {
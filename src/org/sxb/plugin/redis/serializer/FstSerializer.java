@@ -16,20 +16,107 @@
 
 package org.sxb.plugin.redis.serializer;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import org.nustaq.serialization.FSTObjectInput;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.nustaq.serialization.FSTConfiguration;
 import org.nustaq.serialization.FSTObjectOutput;
+import org.sxb.plugin.activerecord.KeysetPage;
+import org.sxb.plugin.activerecord.Page;
+import org.sxb.plugin.activerecord.Record;
+
 import redis.clients.util.SafeEncoder;
 
 /**
  * FstSerializer.
+ * 所有实例共享同一个预先注册了常用类的 FSTConfiguration，注册过的类以短整数代替类名写入，
+ * 并且每个线程复用 FST 的输入输出对象及其缓冲区。
+ * compressThreshold 不小于 0 时，序列化结果超过该长度的 value 使用 Deflater(BEST_SPEED) 压缩，
+ * 压缩后的数据以 COMPRESSED 字节开头，FST 数据不会以该字节开头，所以读取时两种数据可以共存。
+ * <p>
+ * 注意：类的注册顺序决定了写入的 id，读写同一 redis 的各节点必须使用相同的注册类。
+ * 未注册类的数据仍可被读取，但注册类之后写入的数据不能被旧版本读取。
  */
 public class FstSerializer implements ISerializer {
 	
+	/**
+	 * 压缩数据的首字节，FST 写入的首字节总是不大于 0 的类型标记
+	 */
+	static final byte COMPRESSED = 'Z';
+	
+	// 线程复用的缓冲区超过该长度时不再保留，避免偶尔的大对象长期占用内存
+	private static final int MAX_RETAINED_BUFFER = 1024 * 1024;
+	
+	private static final Class<?>[] DEFAULT_CLASSES = {
+		Record.class, Page.class, KeysetPage.class,
+		HashMap.class, LinkedHashMap.class, TreeMap.class, ConcurrentHashMap.class,
+		ArrayList.class, LinkedList.class, HashSet.class, LinkedHashSet.class, TreeSet.class,
+		Date.class, java.sql.Date.class, java.sql.Time.class, java.sql.Timestamp.class,
+		BigDecimal.class, BigInteger.class, Object[].class, byte[].class
+	};
+	
+	private static final FSTConfiguration defaultConfiguration = createConfiguration();
+	
 	public static final ISerializer me = new FstSerializer();
 	
+	private static final ThreadLocal<Deflater> deflater = new ThreadLocal<Deflater>() {
+		protected Deflater initialValue() {
+			return new Deflater(Deflater.BEST_SPEED, true);
+		}
+	};
+	
+	private static final ThreadLocal<Inflater> inflater = new ThreadLocal<Inflater>() {
+		protected Inflater initialValue() {
+			return new Inflater(true);
+		}
+	};
+	
+	private final FSTConfiguration conf;
+	private final int compressThreshold;
+	
+	public FstSerializer() {
+		this(-1);
+	}
+	
+	/**
+	 * @param compressThreshold 超过该字节数的 value 被压缩，-1 表示不压缩
+	 */
+	public FstSerializer(int compressThreshold) {
+		this.conf = defaultConfiguration;
+		this.compressThreshold = compressThreshold;
+	}
+	
+	/**
+	 * 在默认注册类之外再注册 classes（例如各个 Model 子类），使用独立的 FSTConfiguration
+	 * @param compressThreshold 超过该字节数的 value 被压缩，-1 表示不压缩
+	 */
+	public FstSerializer(int compressThreshold, Class<?>... classes) {
+		this.conf = createConfiguration(classes);
+		this.compressThreshold = compressThreshold;
+	}
+	
+	private static FSTConfiguration createConfiguration(Class<?>... classes) {
+		FSTConfiguration conf = FSTConfiguration.createDefaultConfiguration();
+		conf.registerClass(DEFAULT_CLASSES);
+		if (classes.length > 0)
+			conf.registerClass(classes);
+		return conf;
+	}
+	
 	public byte[] keyToBytes(String key) {
 		return SafeEncoder.encode(key);
 	}
@@ -39,20 +126,19 @@ public class FstSerializer implements ISerializer {
 	}
 	
 	public byte[] valueToBytes(Object value) {
-		FSTObjectOutput fstOut = null;
+		FSTObjectOutput fstOut = conf.getObjectOutput();	// reset and reused by the current thread
 		try {
-			ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
-			fstOut = new FSTObjectOutput(bytesOut);
 			fstOut.writeObject(value);
-			fstOut.flush();
-			return bytesOut.toByteArray();
+			int length = fstOut.getWritten();
+			byte[] buffer = fstOut.getBuffer();
+			return (compressThreshold >= 0 && length > compressThreshold) ? compress(buffer, length) : Arrays.copyOf(buffer, length);
 		}
 		catch (Exception e) {
 			throw new RuntimeException(e);
 		}
 		finally {
-			if(fstOut != null)
-				try {fstOut.close();} catch (IOException e) {}
+			if (fstOut.getBuffer().length > MAX_RETAINED_BUFFER)
+				fstOut.resetForReUse(new byte[4096]);
 		}
 	}
 	
@@ -60,20 +146,59 @@ public class FstSerializer implements ISerializer {
 		if(bytes == null || bytes.length == 0)
 			return null;
 		
-		FSTObjectInput fstInput = null;
 		try {
-			fstInput = new FSTObjectInput(new ByteArrayInputStream(bytes));
-			return fstInput.readObject();
+			if (bytes[0] == COMPRESSED)
+				bytes = decompress(bytes);
+			return conf.getObjectInput(bytes).readObject();	// reused by the current thread
 		}
 		catch (Exception e) {
 			throw new RuntimeException(e);
 		}
+	}
+	
+	/**
+	 * COMPRESSED + 原始长度（4 字节）+ deflate 数据
+	 */
+	private static byte[] compress(byte[] data, int length) {
+		Deflater d = deflater.get();
+		try {
+			d.setInput(data, 0, length);
+			d.finish();
+			byte[] out = new byte[length + 5];
+			out[0] = COMPRESSED;
+			out[1] = (byte)(length >>> 24);
+			out[2] = (byte)(length >>> 16);
+			out[3] = (byte)(length >>> 8);
+			out[4] = (byte)length;
+			int size = 5;
+			while (!d.finished() && size < out.length)
+				size += d.deflate(out, size, out.length - size);
+			if (!d.finished())	// not compressible, keep the original
+				return Arrays.copyOf(data, length);
+			return Arrays.copyOf(out, size);
+		}
+		finally {
+			d.reset();
+		}
+	}
+	
+	private static byte[] decompress(byte[] data) throws DataFormatException {
+		int length = ((data[1] & 0xFF) << 24) | ((data[2] & 0xFF) << 16) | ((data[3] & 0xFF) << 8) | (data[4] & 0xFF);
+		byte[] out = new byte[length];
+		Inflater i = inflater.get();
+		try {
+			i.setInput(data, 5, data.length - 5);
+			int size = 0;
+			while (size < length) {
+				int n = i.inflate(out, size, length - size);
+				if (n == 0 && (i.finished() || i.needsInput()))
+					throw new DataFormatException("Truncated compressed value");
+				size += n;
+			}
+			return out;
+		}
 		finally {
-			if(fstInput != null)
-				try {fstInput.close();} catch (IOException e) {}
+			i.reset();
 		}
 	}
 }
-
-
-
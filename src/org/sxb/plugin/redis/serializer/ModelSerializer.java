@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) 2011-2015, Jeff  Son   (jeffson.app@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sxb.plugin.redis.serializer;
+
+import org.sxb.data.redis.serializer.RedisSerializer;
+import org.sxb.data.redis.serializer.SerializationException;
+import org.sxb.plugin.activerecord.ModelCodec;
+
+/**
+ * ModelSerializer.
+ * Model、Record 以及它们的 List、Page、KeysetPage 使用 ModelCodec 编码：
+ * 相同结构的行只写一次列名，与表结构一致的 Model 只写表结构的 hash，列值按类型紧凑编码。
+ * 其它对象以及 key 交给 fallback 处理，默认为 FstSerializer.me。
+ * 同时实现了 RedisSerializer，可以用作 RedisTemplate、RedisCache 的 value 序列化器。
+ * <pre>
+ * Example:
+ * redisPlugin.setSerializer(ModelSerializer.me);
+ * </pre>
+ * fallback 写入的数据不能以 ModelCodec.MAGIC 开头，FstSerializer 与 JdkSerializer 均满足。
+ */
+public class ModelSerializer implements ISerializer, RedisSerializer<Object> {
+	
+	public static final ModelSerializer me = new ModelSerializer();
+	
+	private final ISerializer fallback;
+	
+	public ModelSerializer() {
+		this(FstSerializer.me);
+	}
+	
+	public ModelSerializer(ISerializer fallback) {
+		if (fallback == null)
+			throw new IllegalArgumentException("fallback can not be null");
+		this.fallback = fallback;
+	}
+	
+	public byte[] keyToBytes(String key) {
+		return fallback.keyToBytes(key);
+	}
+	
+	public String keyFromBytes(byte[] bytes) {
+		return fallback.keyFromBytes(bytes);
+	}
+	
+	public byte[] valueToBytes(Object value) {
+		return ModelCodec.supports(value) ? ModelCodec.encode(value) : fallback.valueToBytes(value);
+	}
+	
+	/**
+	 * 表结构变化前写入的 Model 返回 null，即当作缓存不存在
+	 */
+	public Object valueFromBytes(byte[] bytes) {
+		return ModelCodec.isEncoded(bytes) ? ModelCodec.decode(bytes) : fallback.valueFromBytes(bytes);
+	}
+	
+	public byte[] serialize(Object t) throws SerializationException {
+		if (t == null)
+			return new byte[0];
+		try {
+			return valueToBytes(t);
+		} catch (RuntimeException e) {
+			throw new SerializationException("Cannot serialize", e);
+		}
+	}
+	
+	public Object deserialize(byte[] bytes) throws SerializationException {
+		if (bytes == null || bytes.length == 0)
+			return null;
+		try {
+			return valueFromBytes(bytes);
+		} catch (RuntimeException e) {
+			throw new SerializationException("Cannot deserialize", e);
+		}
+	}
+}
@@ -16,13 +16,18 @@
 
 package org.sxb.render;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
 
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletResponse;
@@ -38,10 +43,31 @@ import org.sxb.kit.StrKit;
 public class FileRender extends Render {
 	
 	private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+	private static final String MULTIPART_BOUNDARY = "SXB_MULTIPART_BYTERANGES";
+	private static final String CRLF = "\r\n";
+	
+	/** Range ヘッダの最大範囲数、超えた場合は Range を無視して全体を出力する **/
+	private static final int MAX_RANGES = 16;
+	
+	/** Tomcat sendfile (zero-copy) support */
+	private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+	private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+	private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+	private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+	
+	/**{@code bufferPool} : コピー用バッファプール **/
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final ArrayBlockingQueue<byte[]> bufferPool = new ArrayBlockingQueue<byte[]>(32);
+	
+	/**{@code nioMode} : NIOモード、コンテナのsendfileで出力する **/
+	private static boolean nioMode = false;
 	
 	/**{@code file} : ダウンロードファイル **/
 	private File file;
 	
+	/**{@code deleteAfterRender} : 出力後にファイルを削除する、一時ファイル用 **/
+	private boolean deleteAfterRender = false;
+	
 	/**{@code fileDownloadPath} : デフォルトダウンロードフォロダ **/
 	private static String fileDownloadPath;
 	
@@ -55,6 +81,14 @@ public class FileRender extends Render {
 		this.file = file;
 	}
 	
+	/**
+	 * @param deleteAfterRender true: 出力後にファイルを削除する、sendfileは使わない
+	 */
+	public FileRender(File file, boolean deleteAfterRender) {
+		this.file = file;
+		this.deleteAfterRender = deleteAfterRender;
+	}
+	
 	public FileRender(String fileName) {
 		fileName = fileName.startsWith("/") ? webRootPath + fileName : fileDownloadPath + fileName;
 		this.file = new File(fileName);
@@ -66,23 +100,64 @@ public class FileRender extends Render {
 		webRootPath = PathKit.getWebRootPath();
 	}
 	
+	/**
+	 * NIOモードの設定
+	 * true: コンテナがsendfileをサポートする場合はゼロコピー、それ以外はプールされたバッファでコピーする
+	 * false: 常にプールされたバッファでコピーする
+	 */
+	public static void setNioMode(boolean nioMode) {
+		FileRender.nioMode = nioMode;
+	}
+	
+	public static boolean getNioMode() {
+		return nioMode;
+	}
+	
 	public void render() {
+		try {
+			doRender();
+		} finally {
+			if (deleteAfterRender && file != null)
+				file.delete();
+		}
+	}
+	
+	private void doRender() {
 		if (file == null || !file.isFile()) {
 			RenderFactory.me().getErrorRender(404).setContext(request, response).render();
 			return ;
         }
 		
+		long length = file.length();
+		long lastModified = file.lastModified();
+		String etag = buildETag(length, lastModified);
+		
 		// ---------
 		response.setHeader("Accept-Ranges", "bytes");
 		response.setHeader("Content-disposition", "attachment; filename=" + encodeFileName(file.getName()));
+		response.setHeader("ETag", etag);
+		response.setDateHeader("Last-Modified", lastModified);
         String contentType = servletContext.getMimeType(file.getName());
-        response.setContentType(contentType != null ? contentType : DEFAULT_CONTENT_TYPE);
+        if (contentType == null)
+        	contentType = DEFAULT_CONTENT_TYPE;
+        response.setContentType(contentType);
         
         // ---------
-        if (StrKit.isBlank(request.getHeader("Range")))
-        	normalRender();
+        String rangeStr = request.getHeader("Range");
+        if (StrKit.isBlank(rangeStr) || !isIfRangeMatched(etag, lastModified)) {
+        	normalRender(length);
+        	return ;
+        }
+        
+        List<long[]> ranges = processRange(rangeStr, length);
+        if (ranges == null)
+        	normalRender(length);		// 不正なRangeヘッダは無視する
+        else if (ranges.isEmpty())
+        	unsatisfiableRender(length);
+        else if (ranges.size() == 1)
+        	rangeRender(ranges.get(0), length);
         else
-        	rangeRender();
+        	multiRangeRender(ranges, length, contentType);
 	}
 	
 	private String encodeFileName(String fileName) {
@@ -92,22 +167,51 @@ public class FileRender extends Render {
 			return fileName;
 		}
 	}
+	
+	/**
+	 * ファイルサイズと更新日時からETagを作成する
+	 */
+	private static String buildETag(long length, long lastModified) {
+		return new StringBuilder(32).append('"').append(length).append('-').append(lastModified).append('"').toString();
+	}
+	
+	/**
+	 * If-Range validation
+	 * If-Range がない、または ETag / Last-Modified と一致する場合のみ部分応答する
+	 */
+	private boolean isIfRangeMatched(String etag, long lastModified) {
+		String ifRange = request.getHeader("If-Range");
+		if (StrKit.isBlank(ifRange))
+			return true;
+		
+		ifRange = ifRange.trim();
+		if (ifRange.startsWith("\"") || ifRange.startsWith("W/"))
+			return etag.equals(ifRange);
+		
+		try {
+			long date = request.getDateHeader("If-Range");
+			return date != -1 && date / 1000 == lastModified / 1000;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+	
 	/**
 	 * normal download
 	 * 普通ダウンロード
 	 * 普通下载
 	 */
-	private void normalRender() {
-		response.setHeader("Content-Length", String.valueOf(file.length()));
-		InputStream inputStream = null;
+	private void normalRender(long length) {
+		response.setHeader("Content-Length", String.valueOf(length));
+		if (trySendfile(0, length))
+			return ;
+		
+		FileInputStream inputStream = null;
         OutputStream outputStream = null;
         try {
-            inputStream = new BufferedInputStream(new FileInputStream(file));
+            inputStream = new FileInputStream(file);
             outputStream = response.getOutputStream();
-            byte[] buffer = new byte[1024];
-            for (int len = -1; (len = inputStream.read(buffer)) != -1;) {
-                outputStream.write(buffer, 0, len);
-            }
+            transfer(inputStream.getChannel(), 0, length, outputStream);
             outputStream.flush();
         }
         catch (IOException e) {
@@ -129,41 +233,80 @@ public class FileRender extends Render {
 	 * ダウンロード再開機能
 	 * 断点续传功能
 	 */
-	private void rangeRender() {
-		Long[] range = {null, null};
-		processRange(range);
-		
-		String contentLength = String.valueOf(range[1].longValue() - range[0].longValue() + 1);
-		response.setHeader("Content-Length", contentLength);
+	private void rangeRender(long[] range, long length) {
+		long start = range[0];
+		long count = range[1] - range[0] + 1;
+		response.setHeader("Content-Length", String.valueOf(count));
 		response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);	// status = 206
 		
 		// Content-Range: bytes 0-499/10000
-		StringBuilder contentRange = new StringBuilder("bytes ").append(String.valueOf(range[0])).append("-").append(String.valueOf(range[1])).append("/").append(String.valueOf(file.length()));
-		response.setHeader("Content-Range", contentRange.toString());
+		response.setHeader("Content-Range", buildContentRange(range, length));
+		if (trySendfile(start, count))
+			return ;
+		
+		FileInputStream inputStream = null;
+		OutputStream outputStream = null;
+        try {
+            inputStream = new FileInputStream(file);
+            outputStream = response.getOutputStream();
+            transfer(inputStream.getChannel(), start, count, outputStream);
+            outputStream.flush();
+        }
+        catch (IOException e) {
+        	if (getDevMode())	throw new RenderException(e);
+        }
+        catch (Exception e) {
+        	throw new RenderException(e);
+        }
+        finally {
+            if (inputStream != null)
+                try {inputStream.close();} catch (IOException e) {}
+            if (outputStream != null)
+            	try {outputStream.close();} catch (IOException e) {}
+        }
+	}
+	
+	/**
+	 * Multi range download (multipart/byteranges)
+	 * 複数範囲ダウンロード
+	 */
+	private void multiRangeRender(List<long[]> ranges, long length, String contentType) {
+		byte[][] partHeaders = new byte[ranges.size()][];
+		byte[] closeBoundary;
+		long contentLength = 0;
+		try {
+			for (int i = 0; i < partHeaders.length; i++) {
+				long[] range = ranges.get(i);
+				String partHeader = new StringBuilder(128).append(CRLF)
+					.append("--").append(MULTIPART_BOUNDARY).append(CRLF)
+					.append("Content-Type: ").append(contentType).append(CRLF)
+					.append("Content-Range: ").append(buildContentRange(range, length)).append(CRLF)
+					.append(CRLF).toString();
+				partHeaders[i] = partHeader.getBytes("ISO-8859-1");
+				contentLength += partHeaders[i].length + (range[1] - range[0] + 1);
+			}
+			closeBoundary = (CRLF + "--" + MULTIPART_BOUNDARY + "--" + CRLF).getBytes("ISO-8859-1");
+			contentLength += closeBoundary.length;
+		} catch (UnsupportedEncodingException e) {
+			throw new RenderException(e);
+		}
+		
+		response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);	// status = 206
+		response.setContentType("multipart/byteranges; boundary=" + MULTIPART_BOUNDARY);
+		response.setHeader("Content-Length", String.valueOf(contentLength));
 		
-		InputStream inputStream = null;
+		FileInputStream inputStream = null;
 		OutputStream outputStream = null;
         try {
-        	long start = range[0];
-        	long end = range[1];
-            inputStream = new BufferedInputStream(new FileInputStream(file));
-            if (inputStream.skip(start) != start)
-                	throw new RuntimeException("File skip error");
+            inputStream = new FileInputStream(file);
+            FileChannel channel = inputStream.getChannel();
             outputStream = response.getOutputStream();
-            byte[] buffer = new byte[1024];
-            long position = start;
-            for (int len; position <= end && (len = inputStream.read(buffer)) != -1;) {
-            	if (position + len <= end) {
-            		outputStream.write(buffer, 0, len);
-            		position += len;
-            	}
-            	else {
-            		for (int i=0; i<len && position <= end; i++) {
-            			outputStream.write(buffer[i]);
-                    	position++;
-            		}
-            	}
+            for (int i = 0; i < partHeaders.length; i++) {
+            	long[] range = ranges.get(i);
+            	outputStream.write(partHeaders[i]);
+            	transfer(channel, range[0], range[1] - range[0] + 1, outputStream);
             }
+            outputStream.write(closeBoundary);
             outputStream.flush();
         }
         catch (IOException e) {
@@ -180,45 +323,139 @@ public class FileRender extends Render {
         }
 	}
 	
+	/**
+	 * 416 Requested Range Not Satisfiable
+	 */
+	private void unsatisfiableRender(long length) {
+		response.setHeader("Content-Range", "bytes */" + length);
+		response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+	}
+	
+	private static String buildContentRange(long[] range, long length) {
+		return new StringBuilder("bytes ").append(range[0]).append("-").append(range[1]).append("/").append(length).toString();
+	}
+	
+	/**
+	 * NIOモードでコンテナがsendfileをサポートしている場合、ファイルの送信をコンテナに任せる（ゼロコピー）
+	 */
+	private boolean trySendfile(long start, long count) {
+		if (!nioMode || deleteAfterRender || !Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT)))	// sendfile reads the file after render
+			return false;
+		
+		request.setAttribute(SENDFILE_FILENAME, file.getAbsolutePath());
+		request.setAttribute(SENDFILE_START, Long.valueOf(start));
+		request.setAttribute(SENDFILE_END, Long.valueOf(start + count));
+		return true;
+	}
+	
+	/**
+	 * ファイルの指定範囲をプールされたバッファでコピーする
+	 * ServletOutputStreamへのtransferToはゼロコピーにならないため、sendfile以外は常にこちらを使う
+	 */
+	private static void transfer(FileChannel channel, long position, long count, OutputStream outputStream) throws IOException {
+		byte[] buffer = bufferPool.poll();
+		if (buffer == null)
+			buffer = new byte[BUFFER_SIZE];
+		try {
+			ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+			while (count > 0) {
+				byteBuffer.clear();
+				if (count < buffer.length)
+					byteBuffer.limit((int)count);
+				int len = channel.read(byteBuffer, position);
+				if (len < 0)
+					throw new IOException("Unexpected end of file");
+				outputStream.write(buffer, 0, len);
+				position += len;
+				count -= len;
+			}
+		}
+		finally {
+			bufferPool.offer(buffer);
+		}
+	}
+	
 	/**
 	 * Examples of byte-ranges-specifier values (assuming an entity-body of length 10000):
 	 * The first 500 bytes (byte offsets 0-499, inclusive): bytes=0-499
 	 * The second 500 bytes (byte offsets 500-999, inclusive): bytes=500-999
 	 * The final 500 bytes (byte offsets 9500-9999, inclusive): bytes=-500
 	 * 															Or bytes=9500-
+	 * Multiple ranges: bytes=0-499,9500-
+	 * 
+	 * 重なる範囲と隣接する範囲はマージする、範囲がMAX_RANGESを超えるヘッダは無視する
+	 * @return null if the header is malformed or has too many ranges, an empty list if no range is satisfiable
 	 */
-	private void processRange(Long[] range) {
-		String rangeStr = request.getHeader("Range");
-		int index = rangeStr.indexOf(',');
-		if (index != -1)
-			rangeStr = rangeStr.substring(0, index);
-		rangeStr = rangeStr.replace("bytes=", "");
-		
-		String[] arr = rangeStr.split("-", 2);
-		if (arr.length < 2)
-			throw new RuntimeException("Range error");
+	private static List<long[]> processRange(String rangeStr, long fileLength) {
+		rangeStr = rangeStr.trim();
+		if (!rangeStr.startsWith("bytes="))
+			return null;
 		
-		long fileLength = file.length();
-		for (int i=0; i<range.length; i++) {
-			if (StrKit.notBlank(arr[i])) {
-				range[i] = Long.parseLong(arr[i].trim());
-				if (range[i] >= fileLength)
-					range[i] = fileLength - 1;
+		String[] specs = rangeStr.substring("bytes=".length()).split(",");
+		if (specs.length > MAX_RANGES)
+			return null;
+		List<long[]> ranges = new ArrayList<long[]>(specs.length);
+		for (String spec : specs) {
+			String[] arr = spec.split("-", 2);
+			if (arr.length < 2)
+				return null;
+			
+			long start, end;
+			try {
+				// Range format like: -500
+				if (StrKit.isBlank(arr[0])) {
+					if (StrKit.isBlank(arr[1]))
+						return null;
+					long suffix = Long.parseLong(arr[1].trim());
+					if (suffix <= 0)
+						continue ;
+					start = Math.max(0, fileLength - suffix);
+					end = fileLength - 1;
+				}
+				// Range format like: 9500- or 0-499
+				else {
+					start = Long.parseLong(arr[0].trim());
+					end = StrKit.isBlank(arr[1]) ? fileLength - 1 : Long.parseLong(arr[1].trim());
+					if (start > end)
+						return null;
+					if (end >= fileLength)
+						end = fileLength - 1;
+				}
+			} catch (NumberFormatException e) {
+				return null;
 			}
+			
+			// check final range
+			if (start >= fileLength)
+				continue ;
+			ranges.add(new long[]{start, end});
 		}
+		return mergeRanges(ranges);
+	}
+	
+	private static List<long[]> mergeRanges(List<long[]> ranges) {
+		if (ranges.size() < 2)
+			return ranges;
 		
-		// Range format like: 9500-
-		if (range[0] != null && range[1] == null) {
-			range[1] = fileLength - 1;
-		}
-		// Range format like: -500
-		else if (range[0] == null && range[1] != null) {
-			range[0] = fileLength - range[1];
-			range[1] = fileLength - 1;
+		Collections.sort(ranges, new Comparator<long[]>() {
+			public int compare(long[] a, long[] b) {
+				return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+			}
+		});
+		List<long[]> merged = new ArrayList<long[]>(ranges.size());
+		long[] last = ranges.get(0);
+		merged.add(last);
+		for (int i = 1; i < ranges.size(); i++) {
+			long[] range = ranges.get(i);
+			if (range[0] <= last[1] + 1) {
+				if (range[1] > last[1])
+					last[1] = range[1];
+			}
+			else {
+				last = range;
+				merged.add(last);
+			}
 		}
-		
-		// check final range
-		if (range[0] == null || range[1] == null || range[0].longValue() > range[1].longValue())
-			throw new RuntimeException("Range error");
+		return merged;
 	}
 }
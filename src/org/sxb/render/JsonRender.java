@@ -92,6 +92,8 @@ public class JsonRender extends Render {
 
 	private String jsonText;
 	private String[] attrs;
+	/** 待输出的对象，render 时直接以流的方式写入 response，不生成中间字符串 */
+	private Object object;
 
 	public JsonRender() {
 
@@ -102,11 +104,11 @@ public class JsonRender extends Render {
 		if (key == null)
 			throw new IllegalArgumentException(
 					"The parameter key can not be null.");
-		this.jsonText = JsonKit.toJson(new HashMap<String, Object>() {
+		this.object = new HashMap<String, Object>() {
 			{
 				put(key, value);
 			}
-		}, convertDepth);
+		};
 	}
 
 	public JsonRender(String[] attrs) {
@@ -127,7 +129,7 @@ public class JsonRender extends Render {
 		if (object == null)
 			throw new IllegalArgumentException(
 					"The parameter object can not be null.");
-		this.jsonText = JsonKit.toJson(object, convertDepth);
+		this.object = object;
 	}
 
 	public static void setConvertDepth(int convertDepth) {
@@ -138,8 +140,9 @@ public class JsonRender extends Render {
 	}
 
 	public void render() {
-		if (jsonText == null)
-			buildJsonText();
+		Object value = object;
+		if (jsonText == null && value == null)
+			value = buildJsonMap();
 
 		PrintWriter writer = null;
 		try {
@@ -178,7 +181,10 @@ public class JsonRender extends Render {
 			response.setHeader("Access-Control-Max-Age", "86400");
 
 			writer = response.getWriter();
-			writer.write(jsonText);
+			if (jsonText != null)
+				writer.write(jsonText);
+			else
+				JsonKit.toJson(value, convertDepth, writer);
 			writer.flush();
 		} catch (IOException e) {
 			throw new RenderException(e);
@@ -189,7 +195,7 @@ public class JsonRender extends Render {
 	}
 
 	@SuppressWarnings({ "rawtypes", "unchecked" })
-	private void buildJsonText() {
+	private Map buildJsonMap() {
 		Map map = new HashMap();
 		if (attrs != null) {
 			for (String key : attrs)
@@ -206,7 +212,7 @@ public class JsonRender extends Render {
 			}
 		}
 
-		this.jsonText = JsonKit.toJson(map, convertDepth);
+		return map;
 	}
 
 	public String[] getAttrs() {
@@ -214,6 +220,8 @@ public class JsonRender extends Render {
 	}
 
 	public String getJsonText() {
+		if (jsonText == null && object != null)
+			jsonText = JsonKit.toJson(object, convertDepth);
 		return jsonText;
 	}
 
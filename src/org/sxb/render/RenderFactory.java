@@ -259,6 +259,10 @@ public class RenderFactory {
 		return new FileRender(file);
 	}
 	
+	public Render getFileRender(File file, boolean deleteAfterRender) {
+		return new FileRender(file, deleteAfterRender);
+	}
+	
 	public Render getRedirectRender(String url) {
 		return new RedirectRender(url);
 	}